@@ -7,7 +7,6 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 
 import org.apache.commons.io.FileUtils;
-import org.springframework.boot.SpringApplication;
 
 import cucumber.api.java.en.Then;
 import cucumber.api.java.en.When;
@@ -17,7 +16,7 @@ public class Stepdefs {
 	@When("^The sample test HTML file is passed in with output folder \"([^\"]*)\"$")
 	public void the_sample_test_HTML_file_is_passed_in_with_output_folder(String output) throws Throwable {
 	   									
-		SpringApplication.run(Application.class, "./src/test/resources/simple.html", output);
+		Application.main("./src/test/resources/simple.html", output);
 		
 	}	
 	
@@ -5,6 +5,6 @@ Feature: ImageDownloader
 	
 Scenario: download of images from hosted file
 	When The sample test HTML file is passed in with output folder "./build/acceptance-test"
-	Then There should be 7 files created in output folder "./build/acceptance-test"
+	Then There should be 15 files created in output folder "./build/acceptance-test"
 	Then The output folder "./build/acceptance-test" should be cleaned
 	
\ No newline at end of file
@@ -0,0 +1,98 @@
+package org.ab.imagedownloader.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.ab.imagedownloader.utils.DefaultImageDecoder;
+import org.ab.imagedownloader.utils.DefaultImageResizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full decode vs subsampled decode (see DefaultImageDecoder) of a large JPEG, followed by the resize to the largest default width.
+ * 
+ * Time is per image. Run with the GC profiler (the default for 'gradle benchmark') for heap: 'gc.alloc.rate.norm' is the bytes 
+ * allocated per image
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class DecodeBenchmark {
+
+	private static final int LARGEST_WIDTH = 320;
+	
+	@Param({"2000", "6000"})
+	public int sourceWidth;
+	
+	private byte[] jpeg;
+	
+	private final DefaultImageDecoder decoder = new DefaultImageDecoder();
+	private final DefaultImageResizer resizer = new DefaultImageResizer();
+	
+	@Setup
+	public void setup() throws IOException {
+		jpeg = encode(photo(sourceWidth, sourceWidth * 2 / 3), "jpg");
+	}
+	
+	@Benchmark
+	public BufferedImage fullDecode() throws IOException {
+		try (ImageInputStream stream = stream()) {
+			return resizer.resize(ImageIO.read(stream), LARGEST_WIDTH).get();
+		}
+	}
+	
+	@Benchmark
+	public BufferedImage subsampledDecode() throws IOException {
+		try (ImageInputStream stream = stream()) {
+			return resizer.resize(decoder.decode(stream, LARGEST_WIDTH).get().getImage(), LARGEST_WIDTH).get();
+		}
+	}
+	
+	private ImageInputStream stream(){
+		return new MemoryCacheImageInputStream(new ByteArrayInputStream(jpeg));
+	}
+	
+	/**
+	 * gradients plus noise - closer to a photo (for the encoder) than a flat image
+	 * */
+	static BufferedImage photo(int width, int height){
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(42);
+		for(int y = 0; y < height; y++){
+			for(int x = 0; x < width; x++){
+				int r = (x * 255 / width + random.nextInt(32)) & 0xFF;
+				int g = (y * 255 / height + random.nextInt(32)) & 0xFF;
+				int b = ((x + y) * 255 / (width + height)) & 0xFF;
+				image.setRGB(x, y, (r << 16) | (g << 8) | b);
+			}
+		}
+		return image;
+	}
+	
+	static byte[] encode(BufferedImage image, String format) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, format, out);
+		return out.toByteArray();
+	}
+	
+}
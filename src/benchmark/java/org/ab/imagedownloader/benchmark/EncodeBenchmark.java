@@ -0,0 +1,77 @@
+package org.ab.imagedownloader.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.ab.imagedownloader.urlprocessor.process.DefaultImageEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ImageIO.write to a file (a writer looked up and created per call, output cached through a temporary file) vs the reused 
+ * per thread writer of DefaultImageEncoder, for thumbnail sized images.
+ * 
+ * Time is per image, on the calling thread (not through the encode pool)
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EncodeBenchmark {
+
+	@Param({"100", "320"})
+	public int width;
+	
+	@Param({"jpg", "png"})
+	public String format;
+	
+	private BufferedImage image;
+	private Path destination;
+	
+	private final DefaultImageEncoder encoder = new DefaultImageEncoder();
+	
+	@Setup
+	public void setup() throws IOException {
+		image = DecodeBenchmark.photo(width, width * 2 / 3);
+		destination = Files.createTempFile("encode", "." + format);
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(destination);
+	}
+	
+	@Benchmark
+	public Path imageIOWrite() throws IOException {
+		Files.deleteIfExists(destination);
+		try (FileOutputStream file = new FileOutputStream(destination.toFile())) {
+			ImageIO.write(image, format, file);
+		}
+		return destination;
+	}
+	
+	@Benchmark
+	public Path pooledWriter() throws IOException {
+		encoder.writeToFile(image, format, destination);
+		return destination;
+	}
+	
+}
@@ -0,0 +1,86 @@
+package org.ab.imagedownloader.benchmark;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.ab.imagedownloader.urlprocessor.parse.HtmlTagReader;
+import org.jsoup.Jsoup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * img srcs from a catalogue page (one image per item, with its link, text and markup), by a jsoup Document vs streamed through
+ * HtmlTagReader. 'firstImage' is the time until the first src is known - all of the page for a Document, a few tags streamed.
+ *
+ * note: run with '-prof gc' (the default) for the allocation per page - a Document holds the whole page's DOM
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExtractBenchmark {
+
+	/*note: about 140 bytes of HTML per item - 20000 items is a 3MB page*/
+	@Param({"500", "20000"})
+	public int items;
+
+	private String page;
+
+	private final HtmlTagReader tagReader = new HtmlTagReader(Collections.singleton("img"));
+
+	@Setup
+	public void setup(){
+		StringBuilder html = new StringBuilder("<!DOCTYPE html><html><head><title>catalogue</title><script>var items = [];</script></head><body>");
+		for(int i = 0; i < items; i++){
+			html.append("<div class=\"item\"><a href=\"/p/").append(i).append("\"><img src=\"http://cdn.example.com/i/").append(i)
+				.append(".jpg\" alt=\"item ").append(i).append("\"></a><span>price &pound;").append(i).append("</span></div>\n");
+		}
+		page = html.append("</body></html>").toString();
+	}
+
+	@Benchmark
+	public List<String> jsoupDocument(){
+		return Jsoup.parse(page, "").select("img").stream().map(element -> element.attr("src")).collect(Collectors.toList());
+	}
+
+	@Benchmark
+	public int streamed() throws IOException {
+		int[] found = {0};
+		tagReader.read(new StringReader(page), (name, attributes) -> {
+			found[0]++;
+			return true;
+		});
+		return found[0];
+	}
+
+	@Benchmark
+	public String jsoupFirstImage(){
+		return Jsoup.parse(page, "").select("img").first().attr("src");
+	}
+
+	@Benchmark
+	public String streamedFirstImage() throws IOException {
+		String[] first = {null};
+		tagReader.read(new StringReader(page), (name, attributes) -> {
+			first[0] = attributes.get("src");
+			return false;
+		});
+		return first[0];
+	}
+
+}
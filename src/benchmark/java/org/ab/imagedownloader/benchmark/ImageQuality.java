@@ -0,0 +1,62 @@
+package org.ab.imagedownloader.benchmark;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Objective measures for comparing resized images
+ * */
+final class ImageQuality {
+
+	private ImageQuality(){
+	}
+	
+	/**
+	 * peak signal to noise ratio over r, g and b, in dB. images must be the same size
+	 * */
+	static double psnr(BufferedImage expected, BufferedImage actual){
+		if(expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight()){
+			throw new IllegalArgumentException(String.format("%dx%d vs %dx%d", expected.getWidth(), expected.getHeight(), actual.getWidth(), actual.getHeight()));
+		}
+		double squaredError = 0;
+		for(int y = 0; y < expected.getHeight(); y++){
+			for(int x = 0; x < expected.getWidth(); x++){
+				int a = expected.getRGB(x, y);
+				int b = actual.getRGB(x, y);
+				for(int shift = 0; shift < 24; shift += 8){
+					int difference = ((a >> shift) & 0xFF) - ((b >> shift) & 0xFF);
+					squaredError += difference * difference;
+				}
+			}
+		}
+		double meanSquaredError = squaredError / (3.0 * expected.getWidth() * expected.getHeight());
+		return meanSquaredError == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / meanSquaredError);
+	}
+	
+	/**
+	 * every target pixel the exact, area weighted, average of the source pixels it covers
+	 * */
+	static BufferedImage areaAverage(BufferedImage source, int width, int height){
+		double scaleX = (double) source.getWidth() / width;
+		double scaleY = (double) source.getHeight() / height;
+		BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for(int y = 0; y < height; y++){
+			for(int x = 0; x < width; x++){
+				double[] sum = new double[3];
+				double area = 0;
+				for(int sy = (int) (y * scaleY); sy < Math.min(source.getHeight(), Math.ceil((y + 1) * scaleY)); sy++){
+					double coverY = Math.min(sy + 1, (y + 1) * scaleY) - Math.max(sy, y * scaleY);
+					for(int sx = (int) (x * scaleX); sx < Math.min(source.getWidth(), Math.ceil((x + 1) * scaleX)); sx++){
+						double cover = coverY * (Math.min(sx + 1, (x + 1) * scaleX) - Math.max(sx, x * scaleX));
+						int pixel = source.getRGB(sx, sy);
+						sum[0] += cover * ((pixel >> 16) & 0xFF);
+						sum[1] += cover * ((pixel >> 8) & 0xFF);
+						sum[2] += cover * (pixel & 0xFF);
+						area += cover;
+					}
+				}
+				target.setRGB(x, y, (int) Math.round(sum[0] / area) << 16 | (int) Math.round(sum[1] / area) << 8 | (int) Math.round(sum[2] / area));
+			}
+		}
+		return target;
+	}
+}
@@ -0,0 +1,109 @@
+package org.ab.imagedownloader.benchmark;
+
+import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.ab.imagedownloader.utils.DefaultImageResizer;
+import org.ab.imagedownloader.utils.ImageResizer;
+import org.ab.imagedownloader.utils.LanczosImageResizer;
+import org.ab.imagedownloader.utils.PixelFormats;
+import org.ab.imagedownloader.utils.ResizeStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resizing an image as ImageIO decodes it vs normalising it (see PixelFormats) first, per source type. The source is decoded 
+ * once at setup - time is per resize (to the default widths), including the normalisation.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NormaliseBenchmark {
+
+	private static final int WIDTH = 1000;
+	private static final int HEIGHT = 667;
+	
+	/*decoded type: jpg (3 byte BGR), png paletted and gif (byte indexed), png grey, png RGBA (4 byte ABGR), png 16 bit (custom)*/
+	@Param({"jpg", "png-paletted", "gif", "png-grey", "png-rgba", "png-16bit"})
+	public String source;
+	
+	@Param({"scalr", "lanczos"})
+	public String resizer;
+	
+	private BufferedImage decoded;
+	private ImageResizer imageResizer;
+	
+	@Setup
+	public void setup() throws IOException {
+		BufferedImage photo = DecodeBenchmark.photo(WIDTH, HEIGHT);
+		switch(source){
+		case "jpg":
+			decoded = decode(DecodeBenchmark.encode(photo, "jpg"));
+			break;
+		case "png-paletted":
+			decoded = decode(DecodeBenchmark.encode(convert(photo, new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_INDEXED)), "png"));
+			break;
+		case "gif":
+			decoded = decode(DecodeBenchmark.encode(convert(photo, new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_INDEXED)), "gif"));
+			break;
+		case "png-grey":
+			decoded = decode(DecodeBenchmark.encode(convert(photo, new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY)), "png"));
+			break;
+		case "png-rgba":
+			decoded = decode(DecodeBenchmark.encode(convert(photo, new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB)), "png"));
+			break;
+		case "png-16bit":
+			ComponentColorModel model = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false, Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+			decoded = decode(DecodeBenchmark.encode(convert(photo, new BufferedImage(model, model.createCompatibleWritableRaster(WIDTH, HEIGHT), false, null)), "png"));
+			break;
+		default:
+			throw new IllegalArgumentException(source);
+		}
+		imageResizer = "lanczos".equals(resizer) ? new LanczosImageResizer() : new DefaultImageResizer();
+	}
+	
+	@Benchmark
+	public Map<Integer, BufferedImage> asDecoded(){
+		return imageResizer.resizeAll(decoded, ResizeBenchmark.WIDTHS, ResizeStrategy.DEFAULT);
+	}
+	
+	@Benchmark
+	public Map<Integer, BufferedImage> normalised(){
+		return imageResizer.resizeAll(PixelFormats.normalise(decoded), ResizeBenchmark.WIDTHS, ResizeStrategy.DEFAULT);
+	}
+	
+	private static BufferedImage convert(BufferedImage from, BufferedImage to){
+		Graphics2D graphics = to.createGraphics();
+		graphics.drawImage(from, 0, 0, null);
+		graphics.dispose();
+		return to;
+	}
+	
+	private static BufferedImage decode(byte[] encoded) throws IOException {
+		return ImageIO.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(encoded)));
+	}
+	
+}
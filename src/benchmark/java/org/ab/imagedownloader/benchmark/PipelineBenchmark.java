@@ -0,0 +1,165 @@
+package org.ab.imagedownloader.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.CloseableHttpPipeliningClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 'images' downloads from one host over one keep-alive connection, one request at a time (batchSize 1) vs pipelined in batches.
+ * The local server answers each request 'latencyMs' after reading it - a stand in for the round trip to a remote host - so one
+ * at a time costs a round trip per image, and a pipelined batch about one round trip.
+ *
+ * note: the server is a minimal HTTP/1.1 one (GETs, fixed length bodies), on a thread per connection
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PipelineBenchmark {
+
+	@Param({"1", "4", "8", "16"})
+	public int batchSize;
+
+	@Param({"32"})
+	public int images;
+
+	@Param({"20"})
+	public int latencyMs;
+
+	@Param({"20000"})
+	public int imageBytes;
+
+	private ServerSocket server;
+	private HttpHost host;
+	private CloseableHttpAsyncClient client;
+	private CloseableHttpPipeliningClient pipeliningClient;
+
+	@Setup
+	public void setup() throws IOException {
+		server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		host = new HttpHost(server.getInetAddress().getHostAddress(), server.getLocalPort());
+		Thread acceptor = new Thread(this::accept, "pipeline-server");
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		client = HttpAsyncClients.createMinimal();
+		client.start();
+		pipeliningClient = HttpAsyncClients.createPipelining();
+		pipeliningClient.start();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		client.close();
+		pipeliningClient.close();
+		server.close();
+	}
+
+	@Benchmark
+	public int download() throws InterruptedException, ExecutionException {
+		int downloaded = 0;
+		for(int first = 0; first < images; first += batchSize){
+			if(batchSize == 1){
+				downloaded += client.execute(new HttpGet(host.toURI() + "/i/" + first + ".jpg"), null).get().getStatusLine().getStatusCode() == 200 ? 1 : 0;
+				continue;
+			}
+			List<HttpRequest> batch = new ArrayList<>();
+			for(int i = first; i < Math.min(images, first + batchSize); i++){
+				batch.add(new HttpGet("/i/" + i + ".jpg"));
+			}
+			for(HttpResponse response:pipeliningClient.execute(host, batch, null).get()){
+				downloaded += response.getStatusLine().getStatusCode() == 200 ? 1 : 0;
+			}
+		}
+		return downloaded;
+	}
+
+	private void accept() {
+		try{
+			while(!server.isClosed()){
+				Socket connection = server.accept();
+				Thread reader = new Thread(() -> serve(connection), "pipeline-connection");
+				reader.setDaemon(true);
+				reader.start();
+			}
+		}catch(IOException e){
+			//closed
+		}
+	}
+
+	/*
+	 * requests are read as they arrive. each response is written by a second thread once its latency has passed - in request order,
+	 * as HTTP/1.1 requires
+	 * */
+	private void serve(Socket connection) {
+		BlockingQueue<Long> due = new LinkedBlockingQueue<>();
+		Thread writer = new Thread(() -> respond(connection, due), "pipeline-response");
+		writer.setDaemon(true);
+		writer.start();
+		try(BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.ISO_8859_1))){
+			String line;
+			while((line = in.readLine()) != null){
+				if(line.startsWith("GET ")){
+					due.add(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(latencyMs));
+				}
+			}
+		}catch(IOException e){
+			//closed
+		}finally{
+			writer.interrupt();
+		}
+	}
+
+	private void respond(Socket connection, BlockingQueue<Long> due) {
+		byte[] body = new byte[imageBytes];
+		byte[] headers = ("HTTP/1.1 200 OK\r\nContent-Type: image/jpeg\r\nContent-Length: " + imageBytes + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+		try{
+			OutputStream out = connection.getOutputStream();
+			while(true){
+				long wait = due.take() - System.nanoTime();
+				if(wait > 0){
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+				out.write(headers);
+				out.write(body);
+				out.flush();
+			}
+		}catch(IOException | InterruptedException e){
+			//closed
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package org.ab.imagedownloader.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.ab.imagedownloader.utils.DefaultImageResizer;
+import org.ab.imagedownloader.utils.ImageResizer;
+import org.ab.imagedownloader.utils.LanczosImageResizer;
+import org.ab.imagedownloader.utils.ResizeStrategy;
+import org.ab.imagedownloader.utils.ResizeStrategy.Quality;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The default widths (320, 220, 100) from a decoded image, with Scalr vs the Lanczos resizer (every width in one pass), at each 
+ * quality, with each width resized from the one before it (cascade) or from the original. Throughput is in images - all three 
+ * widths - per second.
+ * 
+ * Quality is printed once, at setup: the PSNR (dB, higher is closer) of each width against an exact area average of the 
+ * source - the ideal box downscale. note: a box reference slightly favours blurrier filters, it is a floor not a ranking of sharpness
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResizeBenchmark {
+
+	static final List<Integer> WIDTHS = Arrays.asList(320, 220, 100);
+	
+	/*note: the decoder keeps large originals to about twice the largest width, so 640 is typical of a large original*/
+	@Param({"640", "1280"})
+	public int sourceWidth;
+	
+	@Param({"SPEED", "BALANCED", "QUALITY", "ULTRA_QUALITY"})
+	public Quality quality;
+	
+	@Param({"true", "false"})
+	public boolean cascade;
+	
+	private BufferedImage source;
+	private ResizeStrategy strategy;
+	
+	private final ImageResizer scalr = new DefaultImageResizer();
+	private final ImageResizer lanczos = new LanczosImageResizer();
+	
+	@Setup
+	public void setup(){
+		source = DecodeBenchmark.photo(sourceWidth, sourceWidth * 2 / 3);
+		strategy = new ResizeStrategy(quality, Collections.emptyMap(), cascade);
+		Map<Integer, BufferedImage> byScalr = scalr.resizeAll(source, WIDTHS, strategy);
+		Map<Integer, BufferedImage> byLanczos = lanczos.resizeAll(source, WIDTHS, strategy);
+		for(Integer width:WIDTHS){
+			System.out.println(String.format("%dpx from %dpx, %s - PSNR scalr: %.2f dB, lanczos: %.2f dB", width, sourceWidth, 
+					strategy, psnr(byScalr.get(width)), psnr(byLanczos.get(width))));
+		}
+	}
+	
+	private double psnr(BufferedImage resized){
+		return ImageQuality.psnr(ImageQuality.areaAverage(source, resized.getWidth(), resized.getHeight()), resized);
+	}
+	
+	@Benchmark
+	public Map<Integer, BufferedImage> scalr(){
+		return scalr.resizeAll(source, WIDTHS, strategy);
+	}
+	
+	@Benchmark
+	public Map<Integer, BufferedImage> lanczos(){
+		return lanczos.resizeAll(source, WIDTHS, strategy);
+	}
+	
+}
@@ -1,11 +1,13 @@
 package org.ab.imagedownloader;
 
+import org.ab.imagedownloader.crawl.Crawler;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.ComponentScan;
 /**
  * Entry point for tool
@@ -17,23 +19,71 @@ public class Application implements CommandLineRunner {
 
 	private static final Logger LOGGER = Logger.getLogger(Application.class);
 	
+	private static final String BATCH_ARG = "--batch";
+	private static final String SERVER_ARG = "--server";
+	private static final String CRAWL_ARG = "--crawl";
+	
 	@Autowired
 	private ImageDownloader imageDownloader;
+	
+	@Autowired
+	private BatchProcessor batchProcessor;
+	
+	@Autowired
+	private Crawler crawler;
 		
 	public static void main(String... args) {
-		SpringApplication.run(Application.class, args);
+		boolean server = args != null && args.length > 0 && SERVER_ARG.equals(args[0]);
+		
+		SpringApplication application = new SpringApplication(Application.class);
+		application.setWebEnvironment(server);
+		ConfigurableApplicationContext context = application.run(args);
+		if(!server){
+			//note: closing the context shuts down the (long lived) processing pools
+			context.close();
+		}
 	}
 
 	@Override
 	public void run(String... args) throws Exception {
 		
+    	if(args != null && args.length > 0 && SERVER_ARG.equals(args[0])){
+    		LOGGER.info("running as a service - submit pages to the job API");
+    		return;
+    	}
+    	
     	if(args == null || args.length <2){
-			LOGGER.error("Error: Missing inputs! Usages: ");
-			LOGGER.error("java -jar <mttnow-test-ab>.jar <URL> <Output Folder>");			
+			logUsage();
 			return;
 		}
     	
+    	if(BATCH_ARG.equals(args[0])){
+    		if(args.length < 3){
+    			logUsage();
+    			return;
+    		}
+    		batchProcessor.process(args[1], args[2]);
+    		return;
+    	}
+    	
+    	if(CRAWL_ARG.equals(args[0])){
+    		if(args.length < 3){
+    			logUsage();
+    			return;
+    		}
+    		crawler.process(args[1], args[2]);
+    		return;
+    	}
+    	
     	imageDownloader.process(args[0], args[1]);    	
 	}
 	
+	private void logUsage(){
+		LOGGER.error("Error: Missing inputs! Usages: ");
+		LOGGER.error("java -jar <mttnow-test-ab>.jar <URL> <Output Folder>");
+		LOGGER.error("java -jar <mttnow-test-ab>.jar --batch <File of URLs, or - for stdin> <Default Output Folder>");
+		LOGGER.error("java -jar <mttnow-test-ab>.jar --crawl <URL> <Output Folder>");
+		LOGGER.error("java -jar <mttnow-test-ab>.jar --server");
+	}
+	
 }
@@ -0,0 +1,168 @@
+package org.ab.imagedownloader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.ab.imagedownloader.urlprocessor.ProcessingContext;
+import org.ab.imagedownloader.utils.DaemonThreadFactory;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Batch mode: process many pages in one run, sharing the download & resize pools between them.
+ * 
+ * Reads one page per line from a file, or stdin if the file is '-'. Line format:
+ *  <URL or local HTML file> [<Output Folder>]
+ * blank lines and lines starting with '#' are ignored. Pages without an output folder use the default output folder.
+ * 
+ * Pages are read lazily, and only 'batch.pages.concurrency' pages are processed at once - so very large batch files are not held in memory.
+ * Images referenced by more than one page are only processed once per run 
+ * */
+@ParametersAreNonnullByDefault
+@Service
+public class BatchProcessor {
+
+	private static final Logger LOGGER = Logger.getLogger(BatchProcessor.class);
+	
+	public static final String STDIN = "-";
+	
+	@Autowired
+	private IDConfiguration iDConfiguration;
+	
+	@Autowired
+	private ImageDownloader imageDownloader;
+	
+	public void process(String batchFile, String defaultOutputFolder) throws IOException {
+		
+		long start = System.currentTimeMillis();		
+		try (BufferedReader reader = STDIN.equals(batchFile) ? 
+				new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)) : 
+				Files.newBufferedReader(Paths.get(batchFile), StandardCharsets.UTF_8)) {
+			
+			BatchResult result = process(reader, defaultOutputFolder);
+			LOGGER.info(String.format("batch [%s] complete in %d ms: %d pages processed, %d pages failed, %d unique images", 
+					batchFile, System.currentTimeMillis() - start, result.getProcessed(), result.getFailed(), result.getImages()));
+		}
+	}
+	
+	@VisibleForTesting
+	BatchResult process(BufferedReader reader, String defaultOutputFolder) throws IOException {
+		
+		int concurrency = Math.max(1, iDConfiguration.getBatchPageConcurrency());		
+		ExecutorService pagePool = Executors.newFixedThreadPool(concurrency, new DaemonThreadFactory("batch-page"));
+		Semaphore pageWindow = new Semaphore(concurrency);
+		
+		ProcessingContext context = new ProcessingContext();
+		AtomicInteger processed = new AtomicInteger();
+		AtomicInteger failed = new AtomicInteger();
+		try{
+			String line;
+			while((line = reader.readLine()) != null){
+				String[] page = parseLine(line, defaultOutputFolder);
+				if(page.length == 0){
+					continue;
+				}
+				
+				//blocks reading any further until a page slot is free
+				pageWindow.acquireUninterruptibly();
+				pagePool.execute(() -> {
+					try{
+						if(imageDownloader.process(page[0], page[1], context)){
+							processed.incrementAndGet();
+						}else{
+							failed.incrementAndGet();
+						}
+					}finally{
+						pageWindow.release();
+					}
+				});
+			}
+		}finally{
+			pagePool.shutdown();
+			awaitTermination(pagePool);
+		}
+		
+		return new BatchResult(processed.get(), failed.get(), context.getSeenCount());
+	}
+	
+	/*
+	 * returns {url, output folder}, or an empty array for lines that should be skipped
+	 * */
+	@VisibleForTesting
+	String[] parseLine(String line, String defaultOutputFolder){
+		String trimmed = line.trim();
+		if(StringUtils.isBlank(trimmed) || trimmed.startsWith("#")){
+			return new String[0];
+		}
+		
+		String[] parts = trimmed.split("\\s+", 2);
+		if(parts.length < 2){
+			return new String[]{parts[0], defaultOutputFolder};
+		}
+		return new String[]{parts[0], parts[1].trim()};
+	}
+	
+	private void awaitTermination(ExecutorService pool){
+		try {
+			while(!pool.awaitTermination(1, TimeUnit.MINUTES)){
+				LOGGER.info("waiting for batch pages to complete");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	@VisibleForTesting
+	void setiDConfiguration(IDConfiguration iDConfiguration) {
+		this.iDConfiguration = iDConfiguration;
+	}
+	
+	@VisibleForTesting
+	void setImageDownloader(ImageDownloader imageDownloader) {
+		this.imageDownloader = imageDownloader;
+	}
+	
+	/**
+	 * page & image counts for a completed batch
+	 * */
+	public static class BatchResult {
+		
+		private final int processed;
+		private final int failed;
+		private final int images;
+		
+		public BatchResult(int processed, int failed, int images) {
+			this.processed = processed;
+			this.failed = failed;
+			this.images = images;
+		}
+
+		public int getProcessed() {
+			return processed;
+		}
+
+		public int getFailed() {
+			return failed;
+		}
+
+		public int getImages() {
+			return images;
+		}
+	}
+	
+}
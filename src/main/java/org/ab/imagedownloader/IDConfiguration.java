@@ -23,26 +23,158 @@ public class IDConfiguration {
 	@Value("${url.download.timeout}")
     private int urlDownloadTimeout;
 	
+	@Value("${jobs.concurrency}")
+    private int jobConcurrency;
+	
+	@Value("${jobs.queue_size}")
+    private int jobQueueSize;
+	
+	@Value("${jobs.retained}")
+    private int jobRetained;
+	
+	@Value("${jobs.output_folder}")
+    private String jobOutputFolder;
+	
+	@Value("${batch.pages.concurrency}")
+    private int batchPageConcurrency;
+	
+	@Value("${crawl.pages.concurrency}")
+    private int crawlPageConcurrency;
+	
+	@Value("${crawl.max_depth}")
+    private int crawlMaxDepth;
+	
+	@Value("${crawl.max_pages}")
+    private long crawlMaxPages;
+	
+	@Value("${crawl.frontier.expected_urls}")
+    private long crawlExpectedUrls;
+	
+	@Value("${crawl.frontier.false_positive_rate}")
+    private double crawlFalsePositiveRate;
+	
+	@Value("${crawl.frontier.memory_urls}")
+    private int crawlMemoryUrls;
+	
+	@Value("${crawl.images.expected_urls}")
+    private long crawlExpectedImages;
+	
+	@Value("${crawl.images.false_positive_rate}")
+    private double crawlImagesFalsePositiveRate;
+	
+	@Value("${image.pipeline.max_in_flight}")
+    private int imageMaxInFlight;
+	
+	@Value("${image.pipeline.memory_budget_bytes}")
+    private long imageMemoryBudget;
+	
+	@Value("${image.pipeline.memory_direct}")
+    private boolean imageMemoryDirect;
+	
+	@Value("${image.pipeline.persist_pool_size}")
+    private int imagePersistPool;
+	
 	@Value("${image.downloaders.pool_size}")
     private int imageDownloadPool;
 	
 	@Value("${image.downloaders.timeout}")
     private int imageDownloadTimeout;
 	
+	@Value("${image.downloaders.impl}")
+    private String imageDownloaderImpl;
+	
+	@Value("${image.downloaders.async.io_threads}")
+    private int asyncIoThreads;
+	
+	@Value("${image.downloaders.http.max_total}")
+    private int httpMaxConnections;
+	
+	@Value("${image.downloaders.http.max_per_route}")
+    private int httpMaxConnectionsPerRoute;
+	
+	@Value("${image.downloaders.http.keep_alive_ms}")
+    private long httpKeepAlive;
+	
+	@Value("${image.downloaders.http.idle_eviction_ms}")
+    private long httpIdleEviction;
+	
+	@Value("${image.downloaders.http.ttl_ms}")
+    private long httpConnectionTtl;
+	
+	@Value("${image.downloaders.probe_bytes}")
+    private int imageProbeBytes;
+	
+	@Value("${image.downloaders.host.max_concurrency}")
+    private int hostMaxConcurrency;
+	
+	@Value("${image.downloaders.host.min_delay_ms}")
+    private long hostMinDelay;
+	
+	@Value("#{'${image.downloaders.host.limits}'.split(',')}")
+    private List<String> hostLimits;
+	
+	@Value("${image.downloaders.pipelining.batch_size}")
+    private int pipeliningBatchSize;
+	
+	@Value("${image.downloaders.pipelining.linger_ms}")
+    private long pipeliningLinger;
+	
 	@Value("${image.resizers.pool_size}")
     private int imageResizePool;
+	
+	@Value("${image.resizers.memory_budget_bytes}")
+    private long imageResizeMemoryBudget;
 		
 	@Value("#{'${image.resizers.formats}'.split(',')}")
     private List<String> imageResizeFormats;
 	
 	@Value("#{'${image.resizers.widths_px}'.split(',')}")
-    private List<Integer> imageResizeWidths;	
+    private List<Integer> imageResizeWidths;
+	
+	@Value("${image.resizers.quality}")
+    private String imageResizeQuality;
+	
+	@Value("#{'${image.resizers.quality.widths}'.split(',')}")
+    private List<String> imageResizeQualityWidths;
+	
+	@Value("${image.resizers.cascade}")
+    private boolean imageResizeCascade;	
 	
 	@Value("${image.resizers.min.width_px}")
     private int imageResizeMinWidth;
 	
 	@Value("${image.resizers.min.height_px}")
     private int imageResizeMinHeight;
+	
+	@Value("${image.resizers.max.pixels}")
+    private long imageResizeMaxPixels;
+	
+	@Value("${image.resizers.strip.threshold_pixels}")
+    private long imageResizeStripThreshold;
+	
+	@Value("${image.resizers.strip.pixels}")
+    private long imageResizeStripPixels;
+	
+	@Value("${image.resizers.native.command}")
+    private String imageResizeNativeCommand;
+	
+	@Value("${image.resizers.native.workers}")
+    private int imageResizeNativeWorkers;
+	
+	@Value("${image.resizers.native.timeout_ms}")
+    private long imageResizeNativeTimeout;
+		
+	@Value("${image.encoders.pool_size}")
+    private int imageEncodePool;
+	
+	@Value("${image.encoders.jpg.quality}")
+    private float imageEncodeJpegQuality;
+	
+	@Value("${image.encoders.jpg.progressive}")
+    private boolean imageEncodeJpegProgressive;
+	
+	@Value("${image.encoders.png.compression_level}")
+    private int imageEncodePngCompressionLevel;
 		
 	@Value("${image.resizers.max_filesize_bytes}")
     private long imageResizeMaxFileSize;
@@ -57,6 +189,74 @@ public class IDConfiguration {
 		return urlDownloadTimeout;
 	}
 
+	public int getJobConcurrency() {
+		return jobConcurrency;
+	}
+
+	public int getJobQueueSize() {
+		return jobQueueSize;
+	}
+
+	public int getJobRetained() {
+		return jobRetained;
+	}
+
+	public String getJobOutputFolder() {
+		return jobOutputFolder;
+	}
+
+	public int getBatchPageConcurrency() {
+		return batchPageConcurrency;
+	}
+
+	public int getCrawlPageConcurrency() {
+		return crawlPageConcurrency;
+	}
+
+	public int getCrawlMaxDepth() {
+		return crawlMaxDepth;
+	}
+
+	public long getCrawlMaxPages() {
+		return crawlMaxPages;
+	}
+
+	public long getCrawlExpectedUrls() {
+		return crawlExpectedUrls;
+	}
+
+	public double getCrawlFalsePositiveRate() {
+		return crawlFalsePositiveRate;
+	}
+
+	public int getCrawlMemoryUrls() {
+		return crawlMemoryUrls;
+	}
+
+	public long getCrawlExpectedImages() {
+		return crawlExpectedImages;
+	}
+
+	public double getCrawlImagesFalsePositiveRate() {
+		return crawlImagesFalsePositiveRate;
+	}
+
+	public int getImageMaxInFlight() {
+		return imageMaxInFlight;
+	}
+
+	public long getImageMemoryBudget() {
+		return imageMemoryBudget;
+	}
+
+	public boolean isImageMemoryDirect() {
+		return imageMemoryDirect;
+	}
+
+	public int getImagePersistPool() {
+		return imagePersistPool;
+	}
+
 	public int getImageDownloadPool() {
 		return imageDownloadPool;
 	}
@@ -65,10 +265,66 @@ public class IDConfiguration {
 		return imageDownloadTimeout;
 	}
 
+	public String getImageDownloaderImpl() {
+		return imageDownloaderImpl;
+	}
+
+	public int getAsyncIoThreads() {
+		return asyncIoThreads;
+	}
+
+	public int getHttpMaxConnections() {
+		return httpMaxConnections;
+	}
+
+	public int getHttpMaxConnectionsPerRoute() {
+		return httpMaxConnectionsPerRoute;
+	}
+
+	public long getHttpKeepAlive() {
+		return httpKeepAlive;
+	}
+
+	public long getHttpIdleEviction() {
+		return httpIdleEviction;
+	}
+
+	public long getHttpConnectionTtl() {
+		return httpConnectionTtl;
+	}
+
+	public int getImageProbeBytes() {
+		return imageProbeBytes;
+	}
+
+	public int getHostMaxConcurrency() {
+		return hostMaxConcurrency;
+	}
+
+	public long getHostMinDelay() {
+		return hostMinDelay;
+	}
+
+	public List<String> getHostLimits() {
+		return hostLimits;
+	}
+
+	public int getPipeliningBatchSize() {
+		return pipeliningBatchSize;
+	}
+
+	public long getPipeliningLinger() {
+		return pipeliningLinger;
+	}
+
 	public int getImageResizePool() {
 		return imageResizePool;
 	}
 
+	public long getImageResizeMemoryBudget() {
+		return imageResizeMemoryBudget;
+	}
+
 	public List<String> getImageResizeFormats() {
 		return imageResizeFormats;
 	}
@@ -77,6 +333,18 @@ public class IDConfiguration {
 		return imageResizeWidths;
 	}
 
+	public String getImageResizeQuality() {
+		return imageResizeQuality;
+	}
+
+	public List<String> getImageResizeQualityWidths() {
+		return imageResizeQualityWidths;
+	}
+
+	public boolean isImageResizeCascade() {
+		return imageResizeCascade;
+	}
+
 	public int getImageResizeMinWidth() {
 		return imageResizeMinWidth;
 	}
@@ -85,6 +353,46 @@ public class IDConfiguration {
 		return imageResizeMinHeight;
 	}
 
+	public long getImageResizeMaxPixels() {
+		return imageResizeMaxPixels;
+	}
+
+	public long getImageResizeStripThreshold() {
+		return imageResizeStripThreshold;
+	}
+
+	public long getImageResizeStripPixels() {
+		return imageResizeStripPixels;
+	}
+
+	public String getImageResizeNativeCommand() {
+		return imageResizeNativeCommand;
+	}
+
+	public int getImageResizeNativeWorkers() {
+		return imageResizeNativeWorkers;
+	}
+
+	public long getImageResizeNativeTimeout() {
+		return imageResizeNativeTimeout;
+	}
+
+	public int getImageEncodePool() {
+		return imageEncodePool;
+	}
+
+	public float getImageEncodeJpegQuality() {
+		return imageEncodeJpegQuality;
+	}
+
+	public boolean isImageEncodeJpegProgressive() {
+		return imageEncodeJpegProgressive;
+	}
+
+	public int getImageEncodePngCompressionLevel() {
+		return imageEncodePngCompressionLevel;
+	}
+
 	public long getImageResizeMaxFileSize() {
 		return imageResizeMaxFileSize;
 	}
@@ -12,6 +12,7 @@ import javax.annotation.ParametersAreNonnullByDefault;
 import javax.annotation.PostConstruct;
 
 import org.ab.imagedownloader.obj.URLRequest;
+import org.ab.imagedownloader.urlprocessor.ProcessingContext;
 import org.ab.imagedownloader.urlprocessor.URLProcessor;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.validator.routines.UrlValidator;
@@ -47,31 +48,58 @@ public class ImageDownloader {
 		
 	public void process(String url, String outputFolder){
 		
-		Optional<URLRequest> pageURL = null;
+		Optional<URLRequest> pageURL = validate(url, outputFolder);
+		if(!pageURL.isPresent()){
+			return;
+		}
+		
+		try{
+			urlProcessor.process(pageURL.get());					
+		}catch(Exception e){
+			LOGGER.error(String.format("error processing URL file [%s], error: %s", pageURL.get(), e.getMessage()));
+		}
+				
+	}
+	
+	/**
+	 * process a page as one of many in a run. Images already processed by the run will not be processed again
+	 * 
+	 * @return false if the page could not be processed
+	 * */
+	public boolean process(String url, String outputFolder, ProcessingContext context){
+		
+		Optional<URLRequest> pageURL = validate(url, outputFolder);
+		if(!pageURL.isPresent()){
+			return false;
+		}
+		
+		try{
+			urlProcessor.process(pageURL.get(), context);
+			return true;
+		}catch(Exception e){
+			LOGGER.error(String.format("error processing URL file [%s], error: %s", pageURL.get(), e.getMessage()));
+			return false;
+		}
+	}
+	
+	private Optional<URLRequest> validate(@Nullable String url, @Nullable String outputFolder){
 		try{
 			if(StringUtils.isBlank(url) || StringUtils.isBlank(outputFolder)){
 				logValidationError(url, outputFolder, "Missing inputs");							
-				return;
+				return Optional.empty();
 			}
 			validateOrCreateOutFolder(outputFolder);
 			
-			pageURL = validateAndGetURLRequest(url, outputFolder);			
+			Optional<URLRequest> pageURL = validateAndGetURLRequest(url, outputFolder);			
 			if(!pageURL.isPresent()){
 				LOGGER.error(String.format("bad URL provided [%s], returning", url));
-				return;
 			}
+			return pageURL;
 									
 		}catch(Exception e){
 			logValidationError(url, outputFolder, e.getMessage());
-			return;
+			return Optional.empty();
 		}	
-		
-		try{
-			urlProcessor.process(pageURL.get());					
-		}catch(Exception e){
-			LOGGER.error(String.format("error processing URL file [%s], error: %s", pageURL.get(), e.getMessage()));
-		}
-				
 	}
 		
 	private Optional<URLRequest> validateAndGetURLRequest(String url, String outputFolder) throws MalformedURLException {			
@@ -94,7 +122,7 @@ public class ImageDownloader {
 		if(Files.isDirectory(Paths.get(outputFolder))){
 			return;
 		}		
-		Files.createDirectory(Paths.get(outputFolder));
+		Files.createDirectories(Paths.get(outputFolder));
 	}
 	
 	private void logValidationError(@Nullable String url, @Nullable String outputFolder, String errorMessage){					
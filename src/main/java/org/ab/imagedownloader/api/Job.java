@@ -0,0 +1,155 @@
+package org.ab.imagedownloader.api;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.ab.imagedownloader.obj.ImgRequest;
+import org.ab.imagedownloader.obj.URLRequest;
+import org.ab.imagedownloader.urlprocessor.ProcessingListener;
+
+/**
+ * A page submitted through the job API, and the progress of each image found on it.
+ * 
+ * note: updated from the processing pools while being read by API calls - all state is either volatile or held in concurrent collections
+ * */
+@ParametersAreNonnullByDefault
+public class Job implements ProcessingListener {
+
+	public enum State{
+		QUEUED,
+		RUNNING,
+		COMPLETE,
+		FAILED
+	}
+	
+	public enum Stage{
+		QUEUED,
+		DOWNLOADED,
+		COMPLETE
+	}
+	
+	private final String id;
+	private final String url;
+	private final String outputFolder;
+	private final long submitted;
+	private volatile long started;
+	private volatile long finished;
+	private volatile State state;
+	private final Map<String, ImageProgress> images = new ConcurrentHashMap<>();
+	
+	public Job(String id, String url, String outputFolder) {
+		super();
+		this.id = id;
+		this.url = url;
+		this.outputFolder = outputFolder;
+		this.submitted = System.currentTimeMillis();
+		this.state = State.QUEUED;
+	}
+	
+	public void start(){
+		started = System.currentTimeMillis();
+		state = State.RUNNING;
+	}
+	
+	public void finish(boolean success){
+		finished = System.currentTimeMillis();
+		state = success ? State.COMPLETE : State.FAILED;
+	}
+	
+	public boolean isFinished(){
+		return state == State.COMPLETE || state == State.FAILED;
+	}
+	
+	@Override
+	public void imageQueued(URLRequest page, String imgUrl) {
+		images.put(imgUrl, new ImageProgress(imgUrl, Stage.QUEUED, null));
+	}
+	
+	@Override
+	public void imageDownloaded(URLRequest page, ImgRequest image) {
+		images.put(image.getUrl(), new ImageProgress(image.getUrl(), Stage.DOWNLOADED, image.getStatus()));
+	}
+	
+	@Override
+	public void imageCompleted(URLRequest page, ImgRequest image) {
+		images.put(image.getUrl(), new ImageProgress(image.getUrl(), Stage.COMPLETE, image.getStatus()));
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public String getOutputFolder() {
+		return outputFolder;
+	}
+
+	public long getSubmitted() {
+		return submitted;
+	}
+
+	public long getStarted() {
+		return started;
+	}
+
+	public long getFinished() {
+		return finished;
+	}
+
+	public State getState() {
+		return state;
+	}
+	
+	public int getImageCount() {
+		return images.size();
+	}
+	
+	public long getCompletedCount() {
+		return images.values().stream().filter(image -> image.getStage() == Stage.COMPLETE).count();
+	}
+
+	public Collection<ImageProgress> getImages() {
+		return images.values();
+	}
+	
+	@Override
+	public String toString() {
+		return "Job [id=" + id + ", url=" + url + ", outputFolder=" + outputFolder + ", state=" + state + "]";
+	}
+
+	/**
+	 * latest known state for one image in the job
+	 * */
+	public static class ImageProgress {
+		
+		private final String url;
+		private final Stage stage;
+		private final ImgRequest.Status status;
+		
+		public ImageProgress(String url, Stage stage, @Nullable ImgRequest.Status status) {
+			this.url = url;
+			this.stage = stage;
+			this.status = status;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public Stage getStage() {
+			return stage;
+		}
+
+		@Nullable
+		public ImgRequest.Status getStatus() {
+			return status;
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package org.ab.imagedownloader.api;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Job API. Only served when the tool is started with '--server'
+ * 
+ *  POST /jobs?url=<URL>[&output=<Output Folder>]	- queue a page, returns the job id immediately. 400 unless the URL is http(s) and the output folder relative
+ *  GET /jobs/<id>									- job state & per image progress
+ * */
+@ParametersAreNonnullByDefault
+@RestController
+@RequestMapping("/jobs")
+public class JobController {
+
+	@Autowired
+	private JobService jobService;
+	
+	@RequestMapping(method = RequestMethod.POST)
+	public ResponseEntity<Map<String, String>> submit(@RequestParam("url") String url, 
+			@RequestParam(value = "output", required = false) String outputFolder){
+		
+		Optional<Job> job;
+		try{
+			job = jobService.submit(url, outputFolder);
+		}catch(IllegalArgumentException e){
+			return new ResponseEntity<>(Collections.singletonMap("error", e.getMessage()), HttpStatus.BAD_REQUEST);
+		}
+		if(!job.isPresent()){
+			return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		
+		Map<String, String> body = new HashMap<>();
+		body.put("id", job.get().getId());
+		body.put("status", "/jobs/" + job.get().getId());
+		return new ResponseEntity<>(body, HttpStatus.ACCEPTED);
+	}
+	
+	@RequestMapping(value = "/{id}", method = RequestMethod.GET)
+	public ResponseEntity<Job> status(@PathVariable("id") String id){
+		Optional<Job> job = jobService.getJob(id);
+		return job.isPresent() ? new ResponseEntity<>(job.get(), HttpStatus.OK) : new ResponseEntity<>(HttpStatus.NOT_FOUND);
+	}
+	
+}
@@ -0,0 +1,194 @@
+package org.ab.imagedownloader.api;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.ab.imagedownloader.IDConfiguration;
+import org.ab.imagedownloader.ImageDownloader;
+import org.ab.imagedownloader.urlprocessor.ProcessingContext;
+import org.ab.imagedownloader.utils.DaemonThreadFactory;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.validator.routines.UrlValidator;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Accepts pages for processing, and tracks their progress.
+ * 
+ * Submission returns immediately - pages are processed by a small pool of job threads, which all feed the same 
+ * (shared) download & resize pools. Only a bounded number of jobs may wait for a job thread; beyond that, submissions are rejected.
+ * Finished jobs are kept for polling until 'jobs.retained' newer jobs have finished
+ * 
+ * Callers are remote, so only hosted (http/https) pages are accepted, and output folders are relative folders under 'jobs.output_folder'.
+ * Jobs running at the same time for the same output folder share one processing context - as the pages of a batch do - so an image
+ * on both pages is only downloaded and resized once. The context is dropped when the last of those jobs finishes
+ * */
+@ParametersAreNonnullByDefault
+@Service
+public class JobService {
+
+	private static final Logger LOGGER = Logger.getLogger(JobService.class);
+	
+	@Autowired
+	private IDConfiguration iDConfiguration;
+	
+	@Autowired
+	private ImageDownloader imageDownloader;
+	
+	private ExecutorService jobPool;
+	private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+	private final Queue<String> finishedJobs = new ConcurrentLinkedQueue<>();
+	private final UrlValidator urlValidator = new UrlValidator(new String[]{"http", "https"});
+	//output folder -> context shared by the jobs running for it. guarded by itself
+	private final Map<String, SharedContext> contexts = new HashMap<>();
+	
+	@PostConstruct
+	private void init(){
+		int concurrency = Math.max(1, iDConfiguration.getJobConcurrency());
+		jobPool = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS, 
+				new LinkedBlockingQueue<>(Math.max(1, iDConfiguration.getJobQueueSize())), new DaemonThreadFactory("job"));
+	}
+	
+	@PreDestroy
+	private void shutdown(){
+		jobPool.shutdownNow();
+	}
+	
+	/**
+	 * @return the queued job, or empty if the job queue is full
+	 * @throws IllegalArgumentException if the url is not a http(s) URL, or the output folder is not a relative folder under 'jobs.output_folder'
+	 * */
+	public Optional<Job> submit(String url, @Nullable String outputFolder){
+		
+		if(StringUtils.isBlank(url) || !urlValidator.isValid(url.toLowerCase())){
+			throw new IllegalArgumentException(String.format("expected a http or https URL, not [%s]", url));
+		}
+		Job job = new Job(UUID.randomUUID().toString(), url, resolveOutputFolder(outputFolder));
+		jobs.put(job.getId(), job);
+		try{
+			jobPool.execute(() -> run(job));
+		}catch(RejectedExecutionException e){
+			LOGGER.error(String.format("job queue is full, rejecting %s", job));
+			jobs.remove(job.getId());
+			return Optional.empty();
+		}
+		LOGGER.info(String.format("queued %s", job));
+		return Optional.of(job);
+	}
+	
+	public Optional<Job> getJob(String id){
+		return Optional.ofNullable(jobs.get(id));
+	}
+	
+	/*
+	 * the output folder is resolved under the configured one - absolute paths and '..' are rejected
+	 * */
+	private String resolveOutputFolder(@Nullable String outputFolder){
+		String base = iDConfiguration.getJobOutputFolder();
+		if(StringUtils.isBlank(outputFolder)){
+			return base;
+		}
+		
+		Path folder;
+		try{
+			folder = Paths.get(outputFolder);
+		}catch(InvalidPathException e){
+			throw new IllegalArgumentException(String.format("bad output folder [%s]", outputFolder));
+		}
+		if(folder.isAbsolute() || folder.getRoot() != null || isParentReference(folder)){
+			throw new IllegalArgumentException(String.format("expected a relative output folder, not [%s]", outputFolder));
+		}
+		return Paths.get(base).resolve(folder.normalize()).toString();
+	}
+	
+	private boolean isParentReference(Path folder){
+		for(Path name : folder){
+			if("..".equals(name.toString())){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void run(Job job){
+		job.start();
+		boolean success = false;
+		try{
+			success = imageDownloader.process(job.getUrl(), job.getOutputFolder(), acquireContext(job));
+		}finally{
+			releaseContext(job);
+			job.finish(success);
+			LOGGER.info(String.format("finished %s", job));
+			retire(job);
+		}
+	}
+	
+	private void retire(Job job){
+		finishedJobs.add(job.getId());
+		int retained = Math.max(0, iDConfiguration.getJobRetained());
+		while(finishedJobs.size() > retained){
+			String oldest = finishedJobs.poll();
+			if(oldest != null){
+				jobs.remove(oldest);
+			}
+		}
+	}
+	
+	private ProcessingContext acquireContext(Job job){
+		synchronized(contexts){
+			SharedContext shared = contexts.computeIfAbsent(job.getOutputFolder(), folder -> new SharedContext());
+			shared.jobs++;
+			return shared.context.withListener(job);
+		}
+	}
+	
+	private void releaseContext(Job job){
+		synchronized(contexts){
+			SharedContext shared = contexts.get(job.getOutputFolder());
+			if(shared != null && --shared.jobs == 0){
+				contexts.remove(job.getOutputFolder());
+			}
+		}
+	}
+	
+	@VisibleForTesting
+	void setiDConfiguration(IDConfiguration iDConfiguration) {
+		this.iDConfiguration = iDConfiguration;
+	}
+	
+	@VisibleForTesting
+	void setImageDownloader(ImageDownloader imageDownloader) {
+		this.imageDownloader = imageDownloader;
+	}
+	
+	/**
+	 * a context, and the number of running jobs using it
+	 * */
+	private static class SharedContext {
+		
+		private final ProcessingContext context = new ProcessingContext();
+		private int jobs;
+	}
+	
+}
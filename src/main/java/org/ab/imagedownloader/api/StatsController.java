@@ -0,0 +1,39 @@
+package org.ab.imagedownloader.api;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.ab.imagedownloader.urlprocessor.process.Downloader;
+import org.ab.imagedownloader.urlprocessor.process.StageMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Runtime stats, for sizing pools against real traffic. Only served when the tool is started with '--server'
+ * 
+ *  GET /stats
+ * */
+@ParametersAreNonnullByDefault
+@RestController
+@RequestMapping("/stats")
+public class StatsController {
+
+	@Autowired
+	private Downloader downloader;
+	
+	@Autowired
+	private StageMetrics stageMetrics;
+	
+	@RequestMapping(method = RequestMethod.GET)
+	public Map<String, Object> stats(){
+		Map<String, Object> stats = new HashMap<>();
+		downloader.getConnectionPoolStats().ifPresent(pool -> stats.put("downloadConnections", pool));
+		stats.put("stages", stageMetrics.snapshot());
+		return stats;
+	}
+	
+}
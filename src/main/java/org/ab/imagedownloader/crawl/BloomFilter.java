@@ -0,0 +1,89 @@
+package org.ab.imagedownloader.crawl;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Set of strings that never forgets one added, but may claim to contain one that was not (false positive). About 1.8 bytes
+ * per string at a 0.1% false positive rate - however long the strings are.
+ *
+ * note: not thread safe
+ * */
+@ParametersAreNonnullByDefault
+class BloomFilter {
+
+	private static final double LN2 = Math.log(2);
+
+	private final long[] bits;
+	private final long size;
+	private final int hashes;
+
+	/**
+	 * sized for 'expected' strings at 'falsePositiveRate'. more strings than expected raise the rate
+	 * */
+	BloomFilter(long expected, double falsePositiveRate) {
+		if(expected < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1){
+			throw new IllegalArgumentException(String.format("bad bloom filter size [%d, %f]", expected, falsePositiveRate));
+		}
+		long words = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (LN2 * LN2) / Long.SIZE);
+		if(words > Integer.MAX_VALUE - 8){
+			throw new IllegalArgumentException(String.format("bloom filter too large [%d, %f]", expected, falsePositiveRate));
+		}
+		bits = new long[(int) Math.max(1, words)];
+		size = (long) bits.length * Long.SIZE;
+		hashes = (int) Math.max(1, Math.round((double) size / expected * LN2));
+	}
+
+	/**
+	 * @return true if the string was not (definitely) in the set
+	 * */
+	boolean add(String value){
+		long hash = hash(value);
+		long step = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+		boolean added = false;
+		for(int i = 0; i < hashes; i++){
+			long bit = Math.floorMod(hash + i * step, size);
+			long mask = 1L << bit;
+			int word = (int) (bit >>> 6);
+			if((bits[word] & mask) == 0){
+				bits[word] |= mask;
+				added = true;
+			}
+		}
+		return added;
+	}
+
+	boolean mightContain(String value){
+		long hash = hash(value);
+		long step = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+		for(int i = 0; i < hashes; i++){
+			long bit = Math.floorMod(hash + i * step, size);
+			if((bits[(int) (bit >>> 6)] & (1L << bit)) == 0){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	long getSizeBytes(){
+		return (long) bits.length * Long.BYTES;
+	}
+
+	int getHashes(){
+		return hashes;
+	}
+
+	/*64 bit FNV-1a over the chars, then mixed - String.hashCode is only 32 bits, too few for millions of URLs*/
+	private static long hash(String value){
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < value.length(); i++){
+			hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+
+	private static long mix(long hash){
+		hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+		hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return hash ^ (hash >>> 33);
+	}
+}
@@ -0,0 +1,44 @@
+package org.ab.imagedownloader.crawl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.ab.imagedownloader.urlprocessor.ProcessingContext.SeenImages;
+
+/**
+ * Images seen by a crawl, in a bloom filter - its size is fixed however many images the site has.
+ *
+ * note: a false positive is an image never downloaded, as with pages in the frontier. more images than expected raise the rate
+ * */
+@ParametersAreNonnullByDefault
+class BloomSeenImages implements SeenImages {
+
+	private final BloomFilter seen;
+	private final AtomicInteger count = new AtomicInteger();
+
+	BloomSeenImages(long expected, double falsePositiveRate) {
+		seen = new BloomFilter(expected, falsePositiveRate);
+	}
+
+	@Override
+	public boolean add(String image) {
+		boolean added;
+		synchronized(seen){
+			added = seen.add(image);
+		}
+		if(added){
+			count.incrementAndGet();
+		}
+		return added;
+	}
+
+	@Override
+	public int getCount() {
+		return count.get();
+	}
+
+	long getSizeBytes(){
+		return seen.getSizeBytes();
+	}
+}
@@ -0,0 +1,207 @@
+package org.ab.imagedownloader.crawl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Optional;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pages waiting to be crawled, in the order they were found (breadth first), each page only once.
+ *
+ * Pages already seen are kept in a BloomFilter rather than a set of URLs - memory is fixed, whatever the size of the site. Up to
+ * 'memoryPages' waiting pages are held in memory, the rest are appended to a temporary file and read back in order once those
+ * in memory have been taken.
+ *
+ * note: not thread safe. a false positive from the filter is a page that is never crawled
+ * */
+@ParametersAreNonnullByDefault
+public class CrawlFrontier implements Closeable {
+
+	private static final Logger LOGGER = Logger.getLogger(CrawlFrontier.class);
+
+	private final BloomFilter seen;
+	private final int memoryPages;
+	private final ArrayDeque<Page> waiting = new ArrayDeque<>();
+
+	/*note: pages are spilled to 'writing'. once everything before them has been taken, it is read back as 'reading'*/
+	@Nullable
+	private Spill writing;
+	@Nullable
+	private Spill reading;
+	private long size;
+
+	public CrawlFrontier(long expectedPages, double falsePositiveRate, int memoryPages) {
+		this.seen = new BloomFilter(expectedPages, falsePositiveRate);
+		this.memoryPages = Math.max(1, memoryPages);
+	}
+
+	/**
+	 * @return false if the page has (probably) been offered before
+	 * */
+	public boolean offer(String url, int depth) throws IOException {
+		if(!seen.add(url)){
+			return false;
+		}
+		if(writing == null && reading == null && waiting.size() < memoryPages){
+			waiting.add(new Page(url, depth));
+		}else{
+			if(writing == null){
+				writing = Spill.create();
+			}
+			writing.write(url, depth);
+		}
+		size++;
+		return true;
+	}
+
+	public Optional<Page> poll() throws IOException {
+		Page next = waiting.poll();
+		if(next == null){
+			next = pollSpilled();
+		}
+		if(next != null){
+			size--;
+		}
+		return Optional.ofNullable(next);
+	}
+
+	@Nullable
+	private Page pollSpilled() throws IOException {
+		if(reading != null){
+			Page next = reading.read();
+			if(next != null){
+				return next;
+			}
+			reading.close();
+			reading = null;
+		}
+		if(writing == null){
+			return null;
+		}
+		reading = writing.flip();
+		writing = null;
+		return pollSpilled();
+	}
+
+	/**
+	 * pages waiting
+	 * */
+	public long size() {
+		return size;
+	}
+
+	public long getSeenBytes() {
+		return seen.getSizeBytes();
+	}
+
+	@Override
+	public void close() {
+		if(writing != null){
+			writing.close();
+			writing = null;
+		}
+		if(reading != null){
+			reading.close();
+			reading = null;
+		}
+	}
+
+	/**
+	 * a page to crawl, and the number of links followed from the start page to find it
+	 * */
+	public static class Page {
+
+		private final String url;
+		private final int depth;
+
+		public Page(String url, int depth) {
+			this.url = url;
+			this.depth = depth;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public int getDepth() {
+			return depth;
+		}
+
+		@Override
+		public String toString() {
+			return "Page [url=" + url + ", depth=" + depth + "]";
+		}
+	}
+
+	/*
+	 * one temporary file of spilled pages - a line of 'depth url' each. written to, then read back once. deleted on close
+	 * */
+	private static class Spill {
+
+		private final Path file;
+		@Nullable
+		private BufferedWriter writer;
+		@Nullable
+		private BufferedReader reader;
+
+		private Spill(Path file, BufferedWriter writer) {
+			this.file = file;
+			this.writer = writer;
+		}
+
+		static Spill create() throws IOException {
+			Path file = Files.createTempFile("crawl-frontier", ".txt");
+			LOGGER.debug(String.format("spilling crawl frontier to [%s]", file));
+			return new Spill(file, Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+		}
+
+		void write(String url, int depth) throws IOException {
+			//note: line breaks are not valid in a URL - one would split the entry
+			writer.write(Integer.toString(depth));
+			writer.write(' ');
+			writer.write(url.replace('\n', ' ').replace('\r', ' '));
+			writer.newLine();
+		}
+
+		Spill flip() throws IOException {
+			writer.close();
+			writer = null;
+			reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+			return this;
+		}
+
+		@Nullable
+		Page read() throws IOException {
+			String line = reader.readLine();
+			if(line == null){
+				return null;
+			}
+			int space = line.indexOf(' ');
+			return new Page(line.substring(space + 1), Integer.parseInt(line.substring(0, space)));
+		}
+
+		void close() {
+			try{
+				if(writer != null){
+					writer.close();
+				}
+				if(reader != null){
+					reader.close();
+				}
+				Files.deleteIfExists(file);
+			}catch(IOException e){
+				LOGGER.warn(String.format("could not remove crawl frontier file [%s], error: %s", file, e.getMessage()));
+			}
+		}
+	}
+}
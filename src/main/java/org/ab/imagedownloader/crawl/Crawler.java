@@ -0,0 +1,274 @@
+package org.ab.imagedownloader.crawl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.ab.imagedownloader.BatchProcessor.BatchResult;
+import org.ab.imagedownloader.IDConfiguration;
+import org.ab.imagedownloader.ImageDownloader;
+import org.ab.imagedownloader.obj.URLRequest;
+import org.ab.imagedownloader.urlprocessor.ProcessingContext;
+import org.ab.imagedownloader.urlprocessor.ProcessingContext.SeenImages;
+import org.ab.imagedownloader.urlprocessor.ProcessingListener;
+import org.ab.imagedownloader.utils.DaemonThreadFactory;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Crawl mode: process a hosted page, then every page of the same site it links to - and the pages they link to, up to
+ * 'crawl.max_depth' links from the start page and 'crawl.max_pages' pages. Pages are processed as in batch mode - one shared
+ * run, 'crawl.pages.concurrency' pages at once - and each page's links are queued as it is read (see CrawlFrontier).
+ *
+ * The same site is the start page's host, with or without 'www.', over any supported scheme. Link fragments are dropped, and
+ * links that are plainly not pages (images, scripts, documents - by extension) or marked rel="nofollow" are not followed.
+ *
+ * The images seen by the run are kept in a bloom filter (see BloomSeenImages), not a set of every URL - so neither the pages nor
+ * the images of a very large site fill the heap.
+ *
+ * note: robots.txt is not read
+ * */
+@ParametersAreNonnullByDefault
+@Service
+public class Crawler {
+
+	private static final Logger LOGGER = Logger.getLogger(Crawler.class);
+
+	private static final Set<String> NOT_PAGES = new HashSet<>(Arrays.asList(
+			"jpg", "jpeg", "png", "gif", "bmp", "webp", "svg", "ico", "css", "js", "json", "pdf", "zip", "gz", "mp3", "mp4", "avi", "mov"));
+
+	@Autowired
+	private IDConfiguration iDConfiguration;
+
+	@Autowired
+	private ImageDownloader imageDownloader;
+
+	public void process(String startUrl, String outputFolder) throws IOException {
+
+		long start = System.currentTimeMillis();
+		BatchResult result = crawl(startUrl, outputFolder);
+		LOGGER.info(String.format("crawl of [%s] complete in %d ms: %d pages processed, %d pages failed, %d unique images",
+				startUrl, System.currentTimeMillis() - start, result.getProcessed(), result.getFailed(), result.getImages()));
+	}
+
+	@VisibleForTesting
+	BatchResult crawl(String startUrl, String outputFolder) throws IOException {
+
+		Optional<URL> site = parse(startUrl);
+		if(!site.isPresent()){
+			LOGGER.error(String.format("Error: a crawl starts from a hosted page, [%s] is not one", startUrl));
+			return new BatchResult(0, 0, 0);
+		}
+
+		try (CrawlFrontier frontier = new CrawlFrontier(iDConfiguration.getCrawlExpectedUrls(), iDConfiguration.getCrawlFalsePositiveRate(),
+				iDConfiguration.getCrawlMemoryUrls())) {
+			BloomSeenImages images = new BloomSeenImages(iDConfiguration.getCrawlExpectedImages(), iDConfiguration.getCrawlImagesFalsePositiveRate());
+			Crawl crawl = new Crawl(site.get(), outputFolder, frontier, images);
+			crawl.run(normalise(site.get()));
+			LOGGER.info(String.format("crawl frontier: %d pages not processed, %d bytes of seen pages, %d bytes of seen images", 
+					frontier.size(), frontier.getSeenBytes(), images.getSizeBytes()));
+			return new BatchResult(crawl.processed.get(), crawl.failed.get(), crawl.context.getSeenCount());
+		}
+	}
+
+	/*the page to crawl for a link - empty if it is on another site, or not a page*/
+	@VisibleForTesting
+	Optional<String> toPage(URL site, String link){
+		Optional<URL> url = parse(link.replaceAll("[\\t\\r\\n]", ""));
+		if(!url.isPresent() || !host(url.get()).equals(host(site))){
+			return Optional.empty();
+		}
+		String path = url.get().getPath();
+		int dot = path.lastIndexOf('.');
+		if(dot > path.lastIndexOf('/') && NOT_PAGES.contains(path.substring(dot + 1).toLowerCase(Locale.ROOT))){
+			return Optional.empty();
+		}
+		return Optional.of(normalise(url.get()));
+	}
+
+	/*a URL of a supported scheme*/
+	private Optional<URL> parse(String url){
+		try{
+			URL parsed = new URL(url.trim());
+			List<String> schemes = Arrays.stream(iDConfiguration.getSupportedSchemes()).map(String::trim).collect(Collectors.toList());
+			if(schemes.contains(parsed.getProtocol().toLowerCase(Locale.ROOT)) && !parsed.getHost().isEmpty()){
+				return Optional.of(parsed);
+			}
+		}catch(MalformedURLException e){
+			LOGGER.debug(String.format("not a URL [%s]", url));
+		}
+		return Optional.empty();
+	}
+
+	private static String host(URL url){
+		String host = url.getHost().toLowerCase(Locale.ROOT);
+		return host.startsWith("www.") ? host.substring(4) : host;
+	}
+
+	/*note: without the fragment - it is the same page*/
+	private static String normalise(URL url){
+		String file = url.getFile().isEmpty() ? "/" : url.getFile();
+		try{
+			return new URL(url.getProtocol().toLowerCase(Locale.ROOT), url.getHost().toLowerCase(Locale.ROOT), url.getPort(), file).toString();
+		}catch(MalformedURLException e){
+			return url.toString();
+		}
+	}
+
+	/*
+	 * one crawl. the frontier and page counts are guarded by 'lock' - links are offered from the page threads as the pages are read
+	 * */
+	private class Crawl {
+
+		private final URL site;
+		private final String outputFolder;
+		private final CrawlFrontier frontier;
+		private final int concurrency = Math.max(1, iDConfiguration.getCrawlPageConcurrency());
+		private final int maxDepth = iDConfiguration.getCrawlMaxDepth();
+		private final long maxPages = iDConfiguration.getCrawlMaxPages();
+
+		private final Object lock = new Object();
+		private int active;
+		private long started;
+
+		/*note: depth of the pages being processed, by URL*/
+		private final Map<String, Integer> depths = new ConcurrentHashMap<>();
+		private final AtomicInteger processed = new AtomicInteger();
+		private final AtomicInteger failed = new AtomicInteger();
+		private final ProcessingContext context;
+
+		Crawl(URL site, String outputFolder, CrawlFrontier frontier, SeenImages images) {
+			this.site = site;
+			this.outputFolder = outputFolder;
+			this.frontier = frontier;
+			this.context = new ProcessingContext(images, new ProcessingListener(){
+				@Override
+				public void linkFound(URLRequest page, String url){
+					Integer depth = depths.get(page.getUrl());
+					if(depth != null && (maxDepth <= 0 || depth < maxDepth)){
+						toPage(site, url).ifPresent(link -> offer(link, depth + 1));
+					}
+				}
+			}, true);
+		}
+
+		void run(String startUrl) throws IOException {
+			ExecutorService pagePool = Executors.newFixedThreadPool(concurrency, new DaemonThreadFactory("crawl-page"));
+			try{
+				offer(startUrl, 0);
+				Optional<CrawlFrontier.Page> page;
+				while((page = next()).isPresent()){
+					CrawlFrontier.Page next = page.get();
+					depths.put(next.getUrl(), next.getDepth());
+					pagePool.execute(() -> process(next));
+				}
+			}catch(UncheckedIOException e){
+				throw e.getCause();
+			}finally{
+				pagePool.shutdown();
+				awaitTermination(pagePool);
+			}
+		}
+
+		/*
+		 * blocks until a page slot is free and a page is waiting. empty once no page is waiting, and none being processed could
+		 * find another - or the page budget is spent
+		 * */
+		private Optional<CrawlFrontier.Page> next() throws IOException {
+			synchronized(lock){
+				try{
+					while(maxPages <= 0 || started < maxPages){
+						if(active < concurrency){
+							Optional<CrawlFrontier.Page> page = frontier.poll();
+							if(page.isPresent()){
+								active++;
+								started++;
+								return page;
+							}
+						}
+						if(active == 0){
+							break;
+						}
+						lock.wait();
+					}
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+				}
+				return Optional.empty();
+			}
+		}
+
+		private void process(CrawlFrontier.Page page){
+			try{
+				LOGGER.info(String.format("crawling %s", page));
+				if(imageDownloader.process(page.getUrl(), outputFolder, context)){
+					processed.incrementAndGet();
+				}else{
+					failed.incrementAndGet();
+				}
+			}finally{
+				depths.remove(page.getUrl());
+				synchronized(lock){
+					active--;
+					lock.notifyAll();
+				}
+			}
+		}
+
+		/*note: pages beyond the page budget are not queued*/
+		private void offer(String url, int depth){
+			synchronized(lock){
+				if(maxPages > 0 && started + frontier.size() >= maxPages){
+					return;
+				}
+				try{
+					if(frontier.offer(url, depth)){
+						lock.notifyAll();
+					}
+				}catch(IOException e){
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+	}
+
+	private void awaitTermination(ExecutorService pool){
+		try {
+			while(!pool.awaitTermination(1, TimeUnit.MINUTES)){
+				LOGGER.info("waiting for crawled pages to complete");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@VisibleForTesting
+	void setiDConfiguration(IDConfiguration iDConfiguration) {
+		this.iDConfiguration = iDConfiguration;
+	}
+
+	@VisibleForTesting
+	void setImageDownloader(ImageDownloader imageDownloader) {
+		this.imageDownloader = imageDownloader;
+	}
+
+}
@@ -10,6 +10,8 @@ public class ImgRequest {
 		OK,
 		OK_NEW_FILE_VERSION,
 		OK_FILE_NOT_CHANGED,
+		/*not wanted - too small, or too large, to resize*/
+		SKIPPED,
 		ERROR
 	}
 	
@@ -17,6 +19,7 @@ public class ImgRequest {
 	private String outputFolder;
 	private Optional<ProcessedImg> processedImg;
 	private Status status;
+	private Optional<InMemoryImage> inMemoryImage = Optional.empty();
 	
 	public ImgRequest(String url, String outputFolder, Status status) {
 		this(url, outputFolder, Optional.empty(), status);
@@ -54,6 +57,24 @@ public class ImgRequest {
 		this.status = status;
 	}
 
+	/**
+	 * the downloaded image, if it was handed over in memory (see InMemoryImage)
+	 * */
+	public Optional<InMemoryImage> getInMemoryImage() {
+		return inMemoryImage;
+	}
+
+	public void setInMemoryImage(Optional<InMemoryImage> inMemoryImage) {
+		this.inMemoryImage = inMemoryImage;
+	}
+	
+	/**
+	 * done reading the in memory image, if any
+	 * */
+	public void releaseInMemoryImage() {
+		inMemoryImage.ifPresent(InMemoryImage::releaseRead);
+	}
+
 	@Override
 	public String toString() {
 		return "ImgRequest [url=" + url + ", outputFolder=" + outputFolder
@@ -0,0 +1,116 @@
+package org.ab.imagedownloader.obj;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A downloaded image held in memory, handed from the downloader to the resizer so it is not read back from disk.
+ * 
+ * The buffer has two holders - the resizer, and the task writing the image to disk. It is released (returned to its pool) 
+ * once both are done with it
+ * */
+@ParametersAreNonnullByDefault
+public class InMemoryImage {
+
+	private final ByteBuffer content;
+	private final String contentHash;
+	private final Runnable onRelease;
+	
+	private final AtomicBoolean readReleased = new AtomicBoolean();
+	private final AtomicBoolean writeReleased = new AtomicBoolean();
+	private final AtomicInteger holders = new AtomicInteger(2);
+	
+	/**
+	 * 'content' is the image bytes, from position to limit
+	 * */
+	public InMemoryImage(ByteBuffer content, String contentHash, Runnable onRelease) {
+		this.content = content;
+		this.contentHash = contentHash;
+		this.onRelease = onRelease;
+	}
+	
+	/**
+	 * a read only view of the content. note: only valid until both holders have released the image
+	 * */
+	public ByteBuffer getContent() {
+		return content.asReadOnlyBuffer();
+	}
+	
+	public InputStream newInputStream() {
+		return new ByteBufferInputStream(getContent());
+	}
+	
+	public int getSize() {
+		return content.remaining();
+	}
+	
+	public String getContentHash() {
+		return contentHash;
+	}
+	
+	/**
+	 * the resizer is done with the image. safe to call more than once
+	 * */
+	public void releaseRead() {
+		if(readReleased.compareAndSet(false, true)){
+			release();
+		}
+	}
+	
+	/**
+	 * the image has been written to disk (or failed to be). safe to call more than once
+	 * */
+	public void releaseWrite() {
+		if(writeReleased.compareAndSet(false, true)){
+			release();
+		}
+	}
+	
+	private void release() {
+		if(holders.decrementAndGet() == 0){
+			onRelease.run();
+		}
+	}
+	
+	private static class ByteBufferInputStream extends InputStream {
+		
+		private final ByteBuffer buffer;
+		
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+		
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if(length == 0){
+				return 0;
+			}
+			if(!buffer.hasRemaining()){
+				return -1;
+			}
+			int count = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, count);
+			return count;
+		}
+		
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "InMemoryImage [size=" + getSize() + ", contentHash=" + contentHash + "]";
+	}
+	
+}
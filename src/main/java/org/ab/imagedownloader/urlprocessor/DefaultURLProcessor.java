@@ -1,21 +1,38 @@
 package org.ab.imagedownloader.urlprocessor;
 
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.ab.imagedownloader.IDConfiguration;
 import org.ab.imagedownloader.obj.ImgRequest;
 import org.ab.imagedownloader.obj.URLRequest;
 import org.ab.imagedownloader.urlprocessor.parse.ImgExtractor;
 import org.ab.imagedownloader.urlprocessor.process.Downloader;
+import org.ab.imagedownloader.urlprocessor.process.HostScheduler;
+import org.ab.imagedownloader.urlprocessor.process.MemoryBudget;
+import org.ab.imagedownloader.urlprocessor.process.ResizeCostEstimator;
+import org.ab.imagedownloader.urlprocessor.process.StageMetrics;
 import org.ab.imagedownloader.urlprocessor.process.Resizer;
+import org.ab.imagedownloader.utils.DaemonThreadFactory;
 import org.apache.commons.validator.routines.UrlValidator;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -24,8 +41,22 @@ import org.springframework.stereotype.Service;
 import com.google.common.annotations.VisibleForTesting;
 
 /**
- * Process a URL: blocking call to download HTML file and extract img tag urls.
- * Submits {download, resizing} to processing pools 
+ * Process a URL: blocking call to stream the HTML file and extract img tag urls.
+ * Submits {download, resizing} to processing pools. Resized versions are encoded on a third pool (see ImageEncoder) - an image
+ * completes once they are all written. Time spent in each stage is kept in StageMetrics
+ * 
+ * Every image is submitted up front, but only 'max in flight' images may be downloading or resizing at any one time.
+ * The submitting thread blocks once that window is full (backpressure) and is released as each image completes.
+ * This keeps both pools busy without queueing an unbounded number of tasks on either of them.
+ * 
+ * Pools are long lived, and shared by every page processed by this instance. They are shut down with the application context
+ * 
+ * With 'image.resizers.memory_budget_bytes' set, a downloaded image only starts resizing once the heap it is estimated to need 
+ * (see ResizeCostEstimator) fits in the budget - small images resize on every resize thread, large ones wait for memory to free up.
+ * note: waiting images do not hold a resize thread
+ * 
+ * Downloads are scheduled by host (see HostScheduler) - each host is limited to 'image.downloaders.host.max_concurrency' downloads
+ * at once, started 'min_delay_ms' apart, and free download threads go to each host in turn. A slow host can not take over the pool
  * */
 @ParametersAreNonnullByDefault
 @Service
@@ -45,63 +76,202 @@ public class DefaultURLProcessor implements URLProcessor {
 	@Autowired
 	private Resizer resizer;
 	
+	@Autowired
+	private ResizeCostEstimator resizeCostEstimator;
+	
+	@Autowired
+	private StageMetrics stageMetrics;
+	
 	private ExecutorService dlPool;
 	private ExecutorService resizePool;
+	private Semaphore inFlightWindow;
+	private Optional<MemoryBudget> resizeBudget;
+	private HostScheduler hostScheduler;
 	private UrlValidator urlValidator;
 	
 	@PostConstruct
 	private void init(){
-		dlPool = Executors.newFixedThreadPool(iDConfiguration.getImageDownloadPool());
-		resizePool = Executors.newFixedThreadPool(iDConfiguration.getImageResizePool());
+		dlPool = Executors.newFixedThreadPool(iDConfiguration.getImageDownloadPool(), new DaemonThreadFactory("img-download"));
+		resizePool = Executors.newFixedThreadPool(iDConfiguration.getImageResizePool(), new DaemonThreadFactory("img-resize"));
+		inFlightWindow = new Semaphore(getMaxInFlight());
+		resizeBudget = iDConfiguration.getImageResizeMemoryBudget() > 0 
+				? Optional.of(new MemoryBudget(iDConfiguration.getImageResizeMemoryBudget())) : Optional.empty();
 		urlValidator = new UrlValidator(iDConfiguration.getSupportedSchemes());		
+		//note: a blocking download holds a pool thread - never start more than the pool has
+		hostScheduler = new HostScheduler(imageDownloader.isNonBlocking() ? iDConfiguration.getHttpMaxConnections() : iDConfiguration.getImageDownloadPool(),
+				new HostScheduler.Limits(iDConfiguration.getHostMaxConcurrency(), iDConfiguration.getHostMinDelay()), 
+				HostScheduler.parseLimits(iDConfiguration.getHostLimits()));
+	}
+	
+	/*note: if not set, allow enough work in flight to keep both pools busy while completions are being collected*/
+	private int getMaxInFlight(){
+		int maxInFlight = iDConfiguration.getImageMaxInFlight();
+		if(maxInFlight > 0){
+			return maxInFlight;
+		}
+		return 2 * (iDConfiguration.getImageDownloadPool() + iDConfiguration.getImageResizePool());
+	}
+	
+	@PreDestroy
+	private void shutdown(){
+		dlPool.shutdown();
+		resizePool.shutdown();
+		hostScheduler.shutdown();
 	}
 	
 	@Override
 	public void process(URLRequest request){
+		process(request, new ProcessingContext());
+	}
+	
+	@Override
+	public void process(URLRequest request, ProcessingContext context){
 		LOGGER.info(String.format("request recieved (%s, %s, %s) - beginning processing", request.getUrl(), request.getUrlType(), request.getOutputFolder()));
 		
-		List<String> imgUrls = imgExtractor.getImgSrcFromDoc(request);
-		if(imgUrls.isEmpty()){
+		/*
+		 * note: each image is submitted as soon as the extractor reads it - downloads start while the page is still being parsed, 
+		 * and the extractor is held (backpressure) while the window is full
+		 * */
+		Set<String> urls = new HashSet<>();
+		List<CompletableFuture<Optional<ImgRequest>>> pending = new ArrayList<>();
+		Consumer<String> submit = imgSrc -> {
+			//validate URLS and remove any duplicates
+			if(!urlValidator.isValid(imgSrc)){
+				return;
+			}
+			String imgURL = stripQueryStringFromURL(imgSrc);
+			//and any already processed from an earlier page in this run
+			if(!urls.add(imgURL) || !context.markSeen(request.getOutputFolder(), imgURL)){
+				return;
+			}
+			//note: queued once accepted - an image waiting for the window is still part of the page
+			context.getListener().imageQueued(request, imgURL);
+			//blocks while the window is full
+			inFlightWindow.acquireUninterruptibly();
+			pending.add(processImage(imgURL, request, context.getListener()));
+		};
+		int extracted = context.isFollowLinks() 
+				? imgExtractor.extractImgSrcAndLinks(request, submit, link -> notifyLink(request, link, context.getListener()))
+				: imgExtractor.extractImgSrc(request, submit);
+		if(extracted == 0){
 			LOGGER.info(String.format("no images processed from url (%s). returning", request.getUrl()));
 			return;
 		}
-		
-		//validate URLS and remove any duplicates
-		Set<String> urls = validateURLsAndStripDuplicates(imgUrls);		
-		LOGGER.info(String.format("found %d unique images to process from url (%s)", urls.size(), request.getUrl()));
-		
-		urls.stream()					
-				.map(imgURL->processDownload(imgURL, request))						
-				.map(future -> future.thenCompose(this::processResize))
-				.map(future -> future.join())
-				.collect(Collectors.toList());
-				;	
+		LOGGER.info(String.format("found %d unique images to process from url (%s), %d already processed by this run", 
+				pending.size(), request.getUrl(), urls.size() - pending.size()));
 		
 		//blocking for all tasks to finish		
-		dlPool.shutdown();
-		resizePool.shutdown();
+		CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[pending.size()])).join();
+				
+		Map<ImgRequest.Status, Long> results = pending.stream()
+				.map(CompletableFuture::join)
+				.filter(Optional::isPresent)
+				.map(Optional::get)
+				.filter(img -> img.getStatus() != null)
+				.collect(Collectors.groupingBy(ImgRequest::getStatus, Collectors.counting()));
 		
-		LOGGER.info(String.format("processed %d images to process from url (%s)", urls.size(), request.getUrl()));
+		LOGGER.info(String.format("processed %d images to process from url (%s), results: %s", pending.size(), request.getUrl(), results));
+		imageDownloader.getConnectionPoolStats().ifPresent(stats -> LOGGER.info(String.format("download connection pool: %s", stats)));
+		resizeBudget.ifPresent(budget -> LOGGER.info(String.format("resize memory budget: %d of %d bytes reserved, %d images waiting", 
+				budget.getReservedBytes(), budget.getCapacity(), budget.getWaiting())));
+		LOGGER.info(String.format("download hosts: %d downloads waiting for %d hosts", hostScheduler.getWaiting(), hostScheduler.getHosts()));
+		LOGGER.info(String.format("pipeline stages: %s", stageMetrics.snapshot()));
 		
+	}
+	
+	/*
+	 * download then resize a single image. the window slot is released as soon as the image completes,
+	 * whatever the outcome, so the next waiting image can be submitted
+	 * */
+	private CompletableFuture<Optional<ImgRequest>> processImage(String imgURL, URLRequest request, ProcessingListener listener){
+		return processDownload(imgURL, request)
+				.thenApply(downloaded -> notify(downloaded, img -> listener.imageDownloaded(request, img)))
+				.thenCompose(this::processResize)
+				.handle((result, error) -> {
+					inFlightWindow.release();
+					if(error != null){
+						LOGGER.error(String.format("error processing image [%s, %s], error: %s", imgURL, request.getUrl(), error.getMessage()));
+						return Optional.<ImgRequest>empty();
+					}
+					return Optional.ofNullable(notify(result, img -> listener.imageCompleted(request, img)));
+				});
+	}
+	
+	/*note: a failing listener must not fail the image*/
+	private ImgRequest notify(@Nullable ImgRequest img, Consumer<ImgRequest> callback){
+		if(img != null){
+			try{
+				callback.accept(img);
+			}catch(Exception e){
+				LOGGER.error(String.format("error notifying listener for image [%s], error: %s", img.getUrl(), e.getMessage()));
+			}
+		}
+		return img;
 	}		
-	private Set<String> validateURLsAndStripDuplicates(List<String> urls){			
-		return urls.stream()
-			.filter(urlValidator::isValid)
-			.map(this::stripQueryStringFromURL)
-			.collect(Collectors.toSet());				
+	private void notifyLink(URLRequest request, String link, ProcessingListener listener){
+		try{
+			listener.linkFound(request, link);
+		}catch(Exception e){
+			LOGGER.error(String.format("error notifying listener for link [%s, %s], error: %s", link, request.getUrl(), e.getMessage()));
+		}
 	}
+	
 	/*note: removing the query string is an assumption - have to check*/
 	private String stripQueryStringFromURL(String url){
 		int index = url.indexOf("?");		
 		return index<1 ? url : url.substring(0, index);		
 	} 
 	
+	/*
+	 * note: the download's wait includes the time spent waiting for its host. the download starts on the download pool, not on
+	 * the thread that released the host (for a non blocking download, an IO thread)
+	 * */
 	private CompletableFuture<ImgRequest> processDownload(String imgURL, URLRequest request){	
-		return CompletableFuture.supplyAsync(()-> imageDownloader.process(imgURL, request), dlPool);		
+		String host = host(imgURL);
+		CompletableFuture<Void> acquired = hostScheduler.acquire(host);
+		CompletableFuture<ImgRequest> downloaded;
+		if(imageDownloader.isNonBlocking()){
+			//note: no need to tie up a download pool thread for the request
+			long submitted = System.nanoTime();
+			downloaded = acquired.thenComposeAsync(ready -> {
+				long started = System.nanoTime();
+				return imageDownloader.processAsync(imgURL, request)
+						.whenComplete((img, error) -> stageMetrics.record(StageMetrics.DOWNLOAD, started - submitted, System.nanoTime() - started));
+			}, dlPool);
+		}else{
+			Supplier<ImgRequest> download = stageMetrics.timed(StageMetrics.DOWNLOAD, ()-> imageDownloader.process(imgURL, request));
+			downloaded = acquired.thenApplyAsync(ready -> download.get(), dlPool);
+		}
+		return downloaded.whenComplete((img, error) -> hostScheduler.release(host));
+	}
+	
+	private static String host(String imgURL){
+		try{
+			return new URL(imgURL).getHost();
+		}catch(MalformedURLException e){
+			//note: validated before it is submitted
+			return imgURL;
+		}
 	}
 	
 	private CompletableFuture<ImgRequest> processResize(ImgRequest request){
-		return CompletableFuture.supplyAsync(()-> resizer.process(request), resizePool);
+		if(!resizeBudget.isPresent()){
+			return resizeAndEncode(request);
+		}
+		MemoryBudget budget = resizeBudget.get();
+		//note: the estimate reads the image header - kept off the download (or IO reactor) thread
+		return CompletableFuture.supplyAsync(()-> resizeCostEstimator.estimate(request), resizePool)
+				.thenCompose(budget::reserve)
+				.thenCompose(reserved -> resizeAndEncode(request)
+						.whenComplete((result, error) -> budget.release(reserved)));
+	}
+	
+	/*
+	 * the resize pool thread is released once the image is resized. the future completes once the resized versions are encoded
+	 * */
+	private CompletableFuture<ImgRequest> resizeAndEncode(ImgRequest request){
+		return CompletableFuture.supplyAsync(stageMetrics.timed(StageMetrics.RESIZE, ()-> resizer.processAsync(request)), resizePool)
+				.thenCompose(Function.identity());
 	}
 
 	@VisibleForTesting
@@ -123,5 +293,15 @@ public class DefaultURLProcessor implements URLProcessor {
 	void setResizer(Resizer resizer) {
 		this.resizer = resizer;
 	}
+
+	@VisibleForTesting
+	void setStageMetrics(StageMetrics stageMetrics) {
+		this.stageMetrics = stageMetrics;
+	}
+
+	@VisibleForTesting
+	void setResizeCostEstimator(ResizeCostEstimator resizeCostEstimator) {
+		this.resizeCostEstimator = resizeCostEstimator;
+	}
 	
 }
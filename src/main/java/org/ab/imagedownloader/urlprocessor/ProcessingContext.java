@@ -0,0 +1,101 @@
+package org.ab.imagedownloader.urlprocessor;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * State shared between every page processed as part of one run (a single page, or a whole batch of pages).
+ * 
+ * Tracks image URLs already submitted, so an image referenced from many pages is only downloaded and resized once per output folder.
+ * By default every URL is kept in memory - a run over a very large number of pages (crawl) can pass a bounded SeenImages instead.
+ * Also carries the listener notified as each image makes progress - and of each link on a page, when the run follows links (crawl)
+ * */
+@ParametersAreNonnullByDefault
+public class ProcessingContext {
+
+	private final SeenImages seenImages;
+	private final ProcessingListener listener;
+	private final boolean followLinks;
+	
+	public ProcessingContext() {
+		this(ProcessingListener.NONE);
+	}
+	
+	public ProcessingContext(ProcessingListener listener) {
+		this(listener, false);
+	}
+	
+	public ProcessingContext(ProcessingListener listener, boolean followLinks) {
+		this(SeenImages.inMemory(), listener, followLinks);
+	}
+	
+	public ProcessingContext(SeenImages seenImages, ProcessingListener listener, boolean followLinks) {
+		this.seenImages = seenImages;
+		this.listener = listener;
+		this.followLinks = followLinks;
+	}
+	
+	/**
+	 * @return a context sharing the images seen by this one (in both directions), that reports to another listener
+	 * */
+	public ProcessingContext withListener(ProcessingListener listener){
+		return new ProcessingContext(seenImages, listener, followLinks);
+	}
+	
+	/**
+	 * @return true if this is the first time the image has been seen for the given output folder 
+	 * */
+	public boolean markSeen(String outputFolder, String imgUrl){
+		return seenImages.add(outputFolder + "|" + imgUrl);
+	}
+	
+	public int getSeenCount(){
+		return seenImages.getCount();
+	}
+	
+	public ProcessingListener getListener() {
+		return listener;
+	}
+	
+	public boolean isFollowLinks() {
+		return followLinks;
+	}
+	
+	/**
+	 * image URLs (with their output folder) already submitted.
+	 * note: called from every page thread - implementations must be thread safe
+	 * */
+	public interface SeenImages {
+		
+		/**
+		 * @return true if the image had not been seen
+		 * */
+		boolean add(String image);
+		
+		/**
+		 * @return the number of images added
+		 * */
+		int getCount();
+		
+		/**
+		 * every image kept - exact, but grows with the run
+		 * */
+		static SeenImages inMemory(){
+			Set<String> seen = ConcurrentHashMap.newKeySet();
+			return new SeenImages(){
+				@Override
+				public boolean add(String image){
+					return seen.add(image);
+				}
+				
+				@Override
+				public int getCount(){
+					return seen.size();
+				}
+			};
+		}
+	}
+	
+}
@@ -0,0 +1,30 @@
+package org.ab.imagedownloader.urlprocessor;
+
+import org.ab.imagedownloader.obj.ImgRequest;
+import org.ab.imagedownloader.obj.URLRequest;
+
+/**
+ * Progress callbacks for images moving through the pipeline.
+ * note: called from the processing pools - implementations must be thread safe, and quick
+ * */
+public interface ProcessingListener {
+
+	ProcessingListener NONE = new ProcessingListener(){};
+	
+	default void imageQueued(URLRequest page, String imgUrl){		
+	}
+	
+	default void imageDownloaded(URLRequest page, ImgRequest image){		
+	}
+	
+	default void imageCompleted(URLRequest page, ImgRequest image){		
+	}
+	
+	/**
+	 * a link (absolute URL) read from the page. only called when the context follows links
+	 * note: called from the thread reading the page - the page is not read any further until it returns
+	 * */
+	default void linkFound(URLRequest page, String url){		
+	}
+	
+}
@@ -6,4 +6,9 @@ public interface URLProcessor {
 
 	void process(URLRequest request);
 	
+	/**
+	 * process a page as part of a larger run - images already seen by the context are skipped
+	 * */
+	void process(URLRequest request, ProcessingContext context);
+	
 }
@@ -1,84 +1,282 @@
 package org.ab.imagedownloader.urlprocessor.parse;
 
-import java.io.File;
+import java.io.Closeable;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 import org.ab.imagedownloader.IDConfiguration;
 import org.ab.imagedownloader.obj.URLRequest;
 import org.apache.log4j.Logger;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.google.common.annotations.VisibleForTesting;
 /**
- * Impl of ImageExtractor. Uses jSoup lib to load and parse HTML DOC.
+ * Impl of ImageExtractor. Streams the HTML doc through HtmlTagReader - each img src is handed on as soon as its tag has been
+ * read, so downloads start while the rest of the page is still arriving. No DOM is built - memory does not grow with the page.
+ *
+ * Where an img has other renditions (srcset, picture sources, lazy loading data-src) the smallest at least as wide as the largest 
+ * 'image.resizers.widths_px' is taken, rather than its src (see ImgCandidates)
  * 
- * note: This work could be done by a regex - but after looking at popular options online 
- * i thought it would be less brittle to use a robust 3rd party library   
+ * Relative img srcs and links are resolved against the page's <base href>, or the page URL - after redirects (up to 
+ * MAX_REDIRECTS, across http and https). a local file without a base tag has nothing to resolve against - its relative srcs are 
+ * left as they are (and fail validation)
+ * 
+ * note: pages are decoded as the charset in their Content-Type header, or UTF-8. a charset only declared in a meta tag is not
+ * used - img srcs are nearly always ASCII
  * */
 @ParametersAreNonnullByDefault
 @Service
 public class DefaultImgExtractor implements ImgExtractor {
-		
+
 	private static final Logger LOGGER = Logger.getLogger(DefaultImgExtractor.class);
 	
+	private static final int MAX_REDIRECTS = 5;
+
+	private final HtmlTagReader tagReader = new HtmlTagReader(new HashSet<>(Arrays.asList("base", "img", "picture", "source")), 
+			Collections.singleton("picture"));
+	private final HtmlTagReader linkTagReader = new HtmlTagReader(new HashSet<>(Arrays.asList("base", "img", "picture", "source", "a")), 
+			Collections.singleton("picture"));
+
 	@Autowired
 	private IDConfiguration iDConfiguration;
-	
+
 	@Override
-	public List<String> getImgSrcFromDoc(URLRequest request){
-		
-		try{
-			Document document;
-			switch(request.getUrlType()){
-				case LOCAL_FILE:
-					document = parseLocalFile(request.getUrl()); 
-					break;
-				case HOSTED_FILE:
-					document = parseRemoteFile(request.getUrl());
-					break;
-				default:
-					LOGGER.error(String.format("unknown url type passed into request (%s, %s)", request.getUrlType(), request.getUrl()));
-					return Collections.emptyList();
+	public int extractImgSrc(URLRequest request, Consumer<String> imgSrc){
+		return extract(request, imgSrc, Optional.empty());
+	}
+
+	@Override
+	public int extractImgSrcAndLinks(URLRequest request, Consumer<String> imgSrc, Consumer<String> link){
+		return extract(request, imgSrc, Optional.of(link));
+	}
+
+	private int extract(URLRequest request, Consumer<String> imgSrc, Optional<Consumer<String>> link){
+
+		int[] found = {0};
+		int minWidth = largestResizeWidth();
+		try (Page page = open(request)) {
+			if(page == null){
+				LOGGER.error(String.format("unknown url type passed into request (%s, %s)", request.getUrlType(), request.getUrl()));
+				return 0;
 			}
-								
-			if(document == null){
-				LOGGER.error(String.format("unknown error parsing URL request (%s, %s)", request.getUrlType(), request.getUrl()));
-				return Collections.emptyList();
-			}					
-						
-			return document.select("img").stream().map(element->element.attr("src")).collect(Collectors.<String>toList());
-						
+			//note: replaced by the first base tag. a base tag belongs in the head, before any img or link
+			Optional<URL> pageURL = page.url;
+			AtomicReference<Optional<URL>> base = new AtomicReference<>(pageURL);
+			boolean[] baseRead = {false};
+			//note: the sources of the picture being read. an img is the last child of a picture - a picture without one ends at </picture>
+			List<Map<String, String>> sources = new ArrayList<>();
+			boolean[] inPicture = {false};
+			(link.isPresent() ? linkTagReader : tagReader).read(page.html, (name, attributes) -> {
+				switch(name){
+					case "base":
+						if(!baseRead[0] && attributes.containsKey("href")){
+							baseRead[0] = true;
+							base.set(resolveURL(pageURL, attributes.get("href")));
+						}
+						break;
+					case "a":
+						String href = attributes.get("href");
+						if(href != null && !isNoFollow(attributes)){
+							resolveURL(base.get(), href).ifPresent(url -> link.get().accept(url.toString()));
+						}
+						break;
+					case "picture":
+						inPicture[0] = true;
+						sources.clear();
+						break;
+					case "source":
+						if(inPicture[0]){
+							sources.add(attributes);
+						}
+						break;
+					case "/picture":
+						inPicture[0] = false;
+						sources.clear();
+						break;
+					default:
+						Optional<String> src = ImgCandidates.choose(attributes, sources, minWidth);
+						inPicture[0] = false;
+						sources.clear();
+						if(src.isPresent()){
+							found[0]++;
+							imgSrc.accept(resolve(base.get(), src.get()));
+						}
+				}
+				return true;
+			});
 		}catch(Exception e){
-			LOGGER.error(String.format("error parsing file request (%s, %s, %s). error: %s", 
-					request.getUrlType(), request.getUrl(), request.getOutputFolder(), e.getMessage()));
-			//do nothing otherwise ! more advanced version might throw a custom error, or try to recover more gracefully
-			return Collections.emptyList();
-		}					
+			LOGGER.error(String.format("error parsing file request (%s, %s, %s), after %d images. error: %s",
+					request.getUrlType(), request.getUrl(), request.getOutputFolder(), found[0], e.getMessage()));
+			//do nothing otherwise ! images found before the error are still processed
+		}
+		return found[0];
+	}
+
+	/*an img src is kept as it is if it can not be resolved*/
+	private static String resolve(Optional<URL> base, String src){
+		return base.isPresent() ? resolveURL(base, src).map(URL::toString).orElse(src) : src;
+	}
+
+	/*empty for URLs of unknown schemes (javascript:, data:), and relative URLs without a base*/
+	private static Optional<URL> resolveURL(Optional<URL> base, String spec){
+		try{
+			return Optional.of(new URL(base.orElse(null), spec.trim()));
+		}catch(MalformedURLException e){
+			return Optional.empty();
+		}
+	}
+
+	private static boolean isNoFollow(Map<String, String> attributes){
+		String rel = attributes.get("rel");
+		return rel != null && rel.toLowerCase(Locale.ROOT).contains("nofollow");
+	}
+
+	private int largestResizeWidth(){
+		List<Integer> widths = iDConfiguration.getImageResizeWidths();
+		return widths == null || widths.isEmpty() ? 0 : Collections.max(widths);
 	}
 	
+	/*note: a local file's path is not a base for its srcs - they would resolve to file: URLs, which are not downloaded*/
+	@Nullable
+	private Page open(URLRequest request) throws IOException {
+		switch(request.getUrlType()){
+			case LOCAL_FILE:
+				return new Page(openLocalFile(request.getUrl()), Optional.empty());
+			case HOSTED_FILE:
+				return openRemoteFile(request.getUrl());
+			default:
+				return null;
+		}
+	}
+
 	@VisibleForTesting
-	Document parseLocalFile(String url) throws IOException {
-		//note: no base uri available in this case... future version might be more clever here
-		return Jsoup.parse(new File(url), "UTF-8", "");
+	Reader openLocalFile(String url) throws IOException {
+		//note: malformed input is replaced, not an error
+		return new InputStreamReader(new FileInputStream(url), StandardCharsets.UTF_8);
 	}
-	
+
+	/*
+	 * note: redirects are followed here rather than by the connection - it does not follow one from http to https, and the page 
+	 * URL to resolve against is the last one
+	 * */
 	@VisibleForTesting
-	Document parseRemoteFile(String url) throws IOException {		
-		return Jsoup.connect(url).timeout(iDConfiguration.getUrlDownloadTimeout()).get(); 
+	Page openRemoteFile(String url) throws IOException {
+		URL location = new URL(url);
+		for(int redirects = 0; ; redirects++){
+			if(!"http".equalsIgnoreCase(location.getProtocol()) && !"https".equalsIgnoreCase(location.getProtocol())){
+				throw new IOException(String.format("not an HTTP page [%s], from [%s]", location, url));
+			}
+			HttpURLConnection connection = (HttpURLConnection) location.openConnection();
+			connection.setInstanceFollowRedirects(false);
+			connection.setConnectTimeout(iDConfiguration.getUrlDownloadTimeout());
+			connection.setReadTimeout(iDConfiguration.getUrlDownloadTimeout());
+			connection.setRequestProperty("Accept-Encoding", "gzip");
+
+			int status = connection.getResponseCode();
+			if(isRedirect(status)){
+				String next = connection.getHeaderField("Location");
+				connection.disconnect();
+				if(next == null || redirects >= MAX_REDIRECTS){
+					throw new IOException(String.format("HTTP %d fetching [%s], %s", status, location, next == null ? "no location" : "too many redirects"));
+				}
+				location = new URL(location, next.trim());
+				continue;
+			}
+			if(status >= 300){
+				connection.disconnect();
+				throw new IOException(String.format("HTTP %d fetching [%s]", status, location));
+			}
+			String contentType = connection.getContentType();
+			if(contentType != null && !isText(contentType)){
+				connection.disconnect();
+				throw new IOException(String.format("not an HTML page [%s], content type %s", location, contentType));
+			}
+			InputStream body = connection.getInputStream();
+			if("gzip".equalsIgnoreCase(connection.getContentEncoding())){
+				body = new GZIPInputStream(body);
+			}
+			if(redirects > 0){
+				LOGGER.debug(String.format("page [%s] redirected to [%s]", url, location));
+			}
+			return new Page(new InputStreamReader(body, charset(contentType)), Optional.of(location));
+		}
+	}
+
+	private static boolean isRedirect(int status){
+		return status == HttpURLConnection.HTTP_MOVED_PERM || status == HttpURLConnection.HTTP_MOVED_TEMP 
+				|| status == HttpURLConnection.HTTP_SEE_OTHER || status == 307 || status == 308;
+	}
+
+	private static boolean isText(String contentType){
+		String type = contentType.toLowerCase(Locale.ROOT);
+		return type.startsWith("text/") || type.contains("xml");
+	}
+
+	/*the charset parameter of the content type, if it is a known one*/
+	private static Charset charset(@Nullable String contentType){
+		if(contentType != null){
+			for(String parameter:contentType.split(";")){
+				String[] pair = parameter.trim().split("=", 2);
+				if(pair.length == 2 && "charset".equalsIgnoreCase(pair[0].trim())){
+					String name = pair[1].trim().replace("\"", "").replace("'", "");
+					try{
+						return Charset.forName(name);
+					}catch(IllegalArgumentException e){
+						LOGGER.debug(String.format("unknown charset [%s], reading as UTF-8", name));
+					}
+				}
+			}
+		}
+		return StandardCharsets.UTF_8;
 	}
 
 	@VisibleForTesting
 	void setiDConfiguration(IDConfiguration iDConfiguration) {
 		this.iDConfiguration = iDConfiguration;
 	}
-	
-	
+
+	/**
+	 * a page being read, and its URL (after redirects) - empty for a local file
+	 * */
+	@VisibleForTesting
+	static class Page implements Closeable {
+		
+		private final Reader html;
+		private final Optional<URL> url;
+		
+		Page(Reader html, Optional<URL> url) {
+			this.html = html;
+			this.url = url;
+		}
+
+		@Override
+		public void close() throws IOException {
+			html.close();
+		}
+	}
+
+
 }
@@ -0,0 +1,253 @@
+package org.ab.imagedownloader.urlprocessor.parse;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.jsoup.parser.Parser;
+
+/**
+ * Reads start tags from HTML as it arrives, a buffer at a time - no document is built, and memory does not grow with the page.
+ * Each start tag named in 'tags' is handed to the handler, with its attributes, as soon as its closing '>' is read.
+ *
+ * End tags named in 'endTags' are handed over as '/name', without attributes - other end tags, comments, doctypes and the 
+ * contents of script, style, textarea and title elements are skipped. Attribute names are lower cased, the first of a repeated 
+ * attribute is kept (as by browsers) and values have their character references unescaped.
+ *
+ * note: a tag longer than MAX_TAG_CHARS (e.g. an inline data: URI) is skipped rather than buffered
+ * */
+@ParametersAreNonnullByDefault
+public class HtmlTagReader {
+
+	static final int MAX_TAG_CHARS = 64 * 1024;
+	private static final int BUFFER_CHARS = 8 * 1024;
+
+	private static final Set<String> RAW_TEXT = new HashSet<>(Arrays.asList("script", "style", "textarea", "title"));
+
+	@FunctionalInterface
+	public interface TagHandler {
+		/**
+		 * false to stop reading
+		 * */
+		boolean tag(String name, Map<String, String> attributes);
+	}
+
+	private enum State { TEXT, TAG_OPEN, TAG, END_TAG, COMMENT, BOGUS, RAW_TEXT }
+
+	private final Set<String> tags;
+	private final Set<String> endTags;
+
+	public HtmlTagReader(Set<String> tags) {
+		this(tags, Collections.emptySet());
+	}
+
+	public HtmlTagReader(Set<String> tags, Set<String> endTags) {
+		this.tags = tags;
+		this.endTags = endTags;
+	}
+
+	public void read(Reader html, TagHandler handler) throws IOException {
+		char[] buffer = new char[BUFFER_CHARS];
+		StringBuilder tag = new StringBuilder();
+		State state = State.TEXT;
+		String name = null;
+		boolean buffering = false;
+		boolean overflow = false;
+		char quote = 0;
+		char previous = 0;
+		int dashes = 0;
+		String rawTextEnd = null;
+		int rawTextMatched = 0;
+
+		int read;
+		while((read = html.read(buffer)) >= 0){
+			for(int i = 0; i < read; i++){
+				char c = buffer[i];
+				switch(state){
+				case TEXT:
+					if(c == '<'){
+						state = State.TAG_OPEN;
+					}
+					break;
+
+				case TAG_OPEN:
+					if(Character.isLetter(c)){
+						tag.setLength(0);
+						tag.append(c);
+						name = null;
+						buffering = true;
+						overflow = false;
+						quote = 0;
+						previous = c;
+						state = State.TAG;
+					}else if(c == '/'){
+						tag.setLength(0);
+						buffering = !endTags.isEmpty();
+						overflow = false;
+						state = State.END_TAG;
+					}else if(c == '!'){
+						dashes = 0;
+						tag.setLength(0);
+						state = State.COMMENT;
+					}else if(c == '?'){
+						state = State.BOGUS;
+					}else{
+						state = c == '<' ? State.TAG_OPEN : State.TEXT;
+					}
+					break;
+
+				case TAG:
+					if(quote != 0){
+						if(c == quote){
+							quote = 0;
+						}
+					}else if(c == '>'){
+						state = State.TEXT;
+						if(name == null){
+							name = tag.toString().toLowerCase(Locale.ROOT);
+						}
+						if(buffering && !overflow && tags.contains(name) && !handler.tag(name, attributes(tag, name.length()))){
+							return;
+						}
+						//note: the last character before '>' - a self closing tag has no contents
+						if(RAW_TEXT.contains(name) && previous != '/'){
+							rawTextEnd = "</" + name;
+							rawTextMatched = 0;
+							state = State.RAW_TEXT;
+						}
+						break;
+					}else if((c == '"' || c == '\'') && previous == '='){
+						quote = c;
+					}else if(name == null && (Character.isWhitespace(c) || c == '/')){
+						//only the attributes of wanted tags are kept
+						name = tag.toString().toLowerCase(Locale.ROOT);
+						buffering = tags.contains(name);
+					}
+					if(!Character.isWhitespace(c)){
+						previous = c;
+					}
+					if(buffering){
+						if(tag.length() < MAX_TAG_CHARS){
+							tag.append(c);
+						}else{
+							overflow = true;
+						}
+					}
+					break;
+
+				case END_TAG:
+					if(c == '>'){
+						state = State.TEXT;
+						String endName = tag.toString().toLowerCase(Locale.ROOT);
+						if(buffering && endTags.contains(endName) && !handler.tag("/" + endName, Collections.emptyMap())){
+							return;
+						}
+					}else if(buffering && !overflow){
+						//note: only the name is kept - 'overflow' once it is complete
+						if(Character.isWhitespace(c) || c == '/'){
+							overflow = true;
+						}else if(tag.length() < MAX_TAG_CHARS){
+							tag.append(c);
+						}else{
+							buffering = false;
+						}
+					}
+					break;
+
+				case BOGUS:
+					if(c == '>'){
+						state = State.TEXT;
+					}
+					break;
+
+				case COMMENT:
+					//note: '<!--' to '-->'. anything else after '<!' (a doctype, CDATA) runs to the next '>'
+					if(tag.length() < 2){
+						tag.append(c);
+						if(c != '-'){
+							state = c == '>' ? State.TEXT : State.BOGUS;
+						}
+					}else if(c == '>' && dashes >= 2){
+						state = State.TEXT;
+					}else{
+						dashes = c == '-' ? dashes + 1 : 0;
+					}
+					break;
+
+				case RAW_TEXT:
+					if(Character.toLowerCase(c) == rawTextEnd.charAt(rawTextMatched)){
+						rawTextMatched++;
+						if(rawTextMatched == rawTextEnd.length()){
+							//note: the end of a raw text element, never handed over
+							buffering = false;
+							state = State.END_TAG;
+						}
+					}else{
+						rawTextMatched = c == '<' ? 1 : 0;
+					}
+					break;
+				}
+			}
+		}
+	}
+
+	/*
+	 * name[=value] pairs after the tag name. values may be double, single or un quoted
+	 * */
+	private static Map<String, String> attributes(CharSequence tag, int from) {
+		Map<String, String> attributes = new HashMap<>();
+		int length = tag.length();
+		int i = from;
+		while(i < length){
+			while(i < length && (Character.isWhitespace(tag.charAt(i)) || tag.charAt(i) == '/')){
+				i++;
+			}
+			int nameStart = i;
+			while(i < length && !Character.isWhitespace(tag.charAt(i)) && tag.charAt(i) != '=' && tag.charAt(i) != '/'){
+				i++;
+			}
+			if(i == nameStart){
+				break;
+			}
+			String name = tag.subSequence(nameStart, i).toString().toLowerCase(Locale.ROOT);
+			while(i < length && Character.isWhitespace(tag.charAt(i))){
+				i++;
+			}
+			String value = "";
+			if(i < length && tag.charAt(i) == '='){
+				i++;
+				while(i < length && Character.isWhitespace(tag.charAt(i))){
+					i++;
+				}
+				int valueStart;
+				int valueEnd;
+				if(i < length && (tag.charAt(i) == '"' || tag.charAt(i) == '\'')){
+					char quote = tag.charAt(i);
+					valueStart = ++i;
+					while(i < length && tag.charAt(i) != quote){
+						i++;
+					}
+					valueEnd = i++;
+				}else{
+					valueStart = i;
+					while(i < length && !Character.isWhitespace(tag.charAt(i))){
+						i++;
+					}
+					valueEnd = i;
+				}
+				value = Parser.unescapeEntities(tag.subSequence(valueStart, Math.min(valueEnd, length)).toString(), true);
+			}
+			attributes.putIfAbsent(name, value);
+		}
+		return Collections.unmodifiableMap(attributes);
+	}
+
+}
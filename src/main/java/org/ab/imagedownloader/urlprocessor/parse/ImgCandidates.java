@@ -0,0 +1,197 @@
+package org.ab.imagedownloader.urlprocessor.parse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Chooses which rendition of an img to download - from its src, srcset, the lazy loading data-src / data-srcset, and the srcsets
+ * of the sources of its picture.
+ *
+ * The smallest candidate at least 'minWidth' wide is chosen. A candidate's width is its 'w' descriptor, or its 'x' descriptor
+ * times the img's width attribute. If no candidate is known to be wide enough, the src is kept (usually the original) - a
+ * narrower rendition would have to be enlarged.
+ * 
+ * A lazy loading data-src / data-srcset, when present, is preferred over the src / srcset - those are usually a placeholder
+ * (a blank gif, a tiny preview) until a script swaps the real image in.
+ *
+ * note: sources of a type that can not be decoded (e.g. image/webp, image/avif) are ignored. media conditions are not - every
+ * source is taken to be the same picture
+ * */
+@ParametersAreNonnullByDefault
+final class ImgCandidates {
+
+	private static final Set<String> DECODABLE_TYPES = new HashSet<>(Arrays.asList("image/jpeg", "image/jpg", "image/png", "image/gif", "image/bmp"));
+
+	private ImgCandidates() {
+	}
+
+	static Optional<String> choose(Map<String, String> img, List<Map<String, String>> sources, int minWidth) {
+		Optional<String> src = usable(img.get("data-src"));
+		if(!src.isPresent()){
+			src = usable(img.get("src"));
+		}
+		if(minWidth <= 0){
+			return src.isPresent() ? src : largest(img, sources);
+		}
+
+		Candidate smallest = null;
+		for(Candidate candidate:candidates(img, sources)){
+			if(candidate.width >= minWidth && (smallest == null || candidate.width < smallest.width)){
+				smallest = candidate;
+			}
+		}
+		if(smallest != null){
+			return Optional.of(smallest.url);
+		}
+		return src.isPresent() ? src : largest(img, sources);
+	}
+
+	private static Optional<String> largest(Map<String, String> img, List<Map<String, String>> sources) {
+		Candidate largest = null;
+		for(Candidate candidate:candidates(img, sources)){
+			if(largest == null || candidate.width > largest.width){
+				largest = candidate;
+			}
+		}
+		return largest == null ? Optional.empty() : Optional.of(largest.url);
+	}
+
+	/*every candidate of known width*/
+	private static List<Candidate> candidates(Map<String, String> img, List<Map<String, String>> sources) {
+		int displayWidth = parseInt(img.get("width"));
+		List<Candidate> candidates = new ArrayList<>();
+		for(Map<String, String> source:sources){
+			String type = source.get("type");
+			if(type == null || DECODABLE_TYPES.contains(type.trim().toLowerCase(Locale.ROOT))){
+				addCandidates(candidates, srcset(source), displayWidth);
+			}
+		}
+		addCandidates(candidates, srcset(img), displayWidth);
+		return candidates;
+	}
+
+	@Nullable
+	private static String srcset(Map<String, String> attributes) {
+		String srcset = attributes.get("data-srcset");
+		return srcset != null && !srcset.trim().isEmpty() ? srcset : attributes.get("srcset");
+	}
+
+	private static void addCandidates(List<Candidate> candidates, @Nullable String srcset, int displayWidth) {
+		if(srcset == null){
+			return;
+		}
+		for(Candidate candidate:parseSrcset(srcset, displayWidth)){
+			if(candidate.width > 0 && usable(candidate.url).isPresent()){
+				candidates.add(candidate);
+			}
+		}
+	}
+
+	/**
+	 * 'url [descriptor], url [descriptor]...' - a width ('400w') or pixel density ('2x', none is 1x) descriptor. a density is
+	 * turned into a width with 'displayWidth' - 0 when it is not known
+	 * */
+	static List<Candidate> parseSrcset(String srcset, int displayWidth) {
+		List<Candidate> candidates = new ArrayList<>();
+		int length = srcset.length();
+		int i = 0;
+		while(i < length){
+			while(i < length && (Character.isWhitespace(srcset.charAt(i)) || srcset.charAt(i) == ',')){
+				i++;
+			}
+			int urlStart = i;
+			while(i < length && !Character.isWhitespace(srcset.charAt(i))){
+				i++;
+			}
+			if(urlStart == i){
+				break;
+			}
+			String url = srcset.substring(urlStart, i);
+			String descriptor = "";
+			if(url.endsWith(",")){
+				//no descriptor
+				url = url.replaceAll(",+$", "");
+			}else{
+				int descriptorStart = i;
+				int depth = 0;
+				while(i < length && (srcset.charAt(i) != ',' || depth > 0)){
+					depth += srcset.charAt(i) == '(' ? 1 : srcset.charAt(i) == ')' ? -1 : 0;
+					i++;
+				}
+				descriptor = srcset.substring(descriptorStart, i).trim().toLowerCase(Locale.ROOT);
+			}
+			candidates.add(new Candidate(url, width(descriptor, displayWidth)));
+		}
+		return candidates;
+	}
+
+	/*0 if not known*/
+	private static int width(String descriptors, int displayWidth) {
+		double density = 1;
+		for(String descriptor:descriptors.split("\\s+")){
+			try{
+				if(descriptor.endsWith("w")){
+					return Integer.parseInt(descriptor.substring(0, descriptor.length() - 1));
+				}
+				if(descriptor.endsWith("x")){
+					density = Double.parseDouble(descriptor.substring(0, descriptor.length() - 1));
+				}
+			}catch(NumberFormatException e){
+				return 0;
+			}
+		}
+		return (int) Math.round(density * displayWidth);
+	}
+
+	/*note: an inline data: URI is a placeholder (lazy loading), or too small to be worth resizing*/
+	private static Optional<String> usable(@Nullable String url) {
+		if(url == null || url.trim().isEmpty() || url.trim().toLowerCase(Locale.ROOT).startsWith("data:")){
+			return Optional.empty();
+		}
+		return Optional.of(url.trim());
+	}
+
+	private static int parseInt(@Nullable String value) {
+		if(value == null){
+			return 0;
+		}
+		try{
+			return Integer.parseInt(value.trim().replaceAll("px$", ""));
+		}catch(NumberFormatException e){
+			return 0;
+		}
+	}
+
+	static class Candidate {
+
+		private final String url;
+		private final int width;
+
+		Candidate(String url, int width) {
+			this.url = url;
+			this.width = width;
+		}
+
+		String getUrl() {
+			return url;
+		}
+
+		int getWidth() {
+			return width;
+		}
+
+		@Override
+		public String toString() {
+			return "Candidate [url=" + url + ", width=" + width + "]";
+		}
+	}
+}
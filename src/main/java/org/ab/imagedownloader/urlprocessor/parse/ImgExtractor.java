@@ -1,11 +1,28 @@
 package org.ab.imagedownloader.urlprocessor.parse;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.ab.imagedownloader.obj.URLRequest;
 
 public interface ImgExtractor {
 
-	List<String> getImgSrcFromDoc(URLRequest request);
+	/**
+	 * hands each img src to 'imgSrc' as soon as it is read - while the rest of the page is still being downloaded and parsed.
+	 * returns the number found
+	 * */
+	int extractImgSrc(URLRequest request, Consumer<String> imgSrc);
 	
+	/**
+	 * as extractImgSrc, also handing the href of each link (a tag) on the page to 'link' - resolved against the page, as img srcs are
+	 * */
+	int extractImgSrcAndLinks(URLRequest request, Consumer<String> imgSrc, Consumer<String> link);
+
+	default List<String> getImgSrcFromDoc(URLRequest request){
+		List<String> found = new ArrayList<>();
+		extractImgSrc(request, found::add);
+		return found;
+	}
+
 }
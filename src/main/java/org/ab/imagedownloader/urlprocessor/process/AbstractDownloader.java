@@ -0,0 +1,163 @@
+package org.ab.imagedownloader.urlprocessor.process;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.ab.imagedownloader.IDConfiguration;
+import org.ab.imagedownloader.obj.ImgRequest;
+import org.ab.imagedownloader.obj.ImgRequest.Status;
+import org.ab.imagedownloader.obj.ProcessedImg;
+import org.ab.imagedownloader.obj.URLRequest;
+import org.ab.imagedownloader.urlprocessor.store.ImageMetadata;
+import org.ab.imagedownloader.urlprocessor.store.ImageStore;
+import org.ab.imagedownloader.utils.ImageHeaderParser;
+import org.ab.imagedownloader.utils.ImageHeaderParser.ImageHeader;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Logic shared by the blocking and non blocking downloaders - everything but the HTTP transport itself
+ * */
+@ParametersAreNonnullByDefault
+public abstract class AbstractDownloader implements Downloader {
+
+	private static final Logger LOGGER = Logger.getLogger(AbstractDownloader.class);
+	
+	@Autowired
+	protected IDConfiguration iDConfiguration;
+	
+	@Autowired
+	protected ImageStore imageStore;
+	
+	@Autowired
+	protected ImageHeaderParser imageHeaderParser;
+	
+	protected Optional<ProcessedImg> parseImgURL(String imgURL, URLRequest request){
+		try {
+			return Optional.of(new ProcessedImg(imgURL));			
+		} catch (MalformedURLException e) {
+			LOGGER.error(String.format("Bad img URL provided for download (despite previous check!) [%s, %s]", imgURL, request.getUrl()));
+			return Optional.empty();
+		}
+	}
+	
+	protected RequestConfig buildRequestConfig(){
+		return RequestConfig.custom()
+			    .setConnectionRequestTimeout(iDConfiguration.getImageDownloadTimeout())
+			    .setConnectTimeout(iDConfiguration.getImageDownloadTimeout())
+			    .setSocketTimeout(iDConfiguration.getImageDownloadTimeout())
+			    .build();
+	}
+	
+	protected ImgRequest error(String imgURL, URLRequest request){
+		return new ImgRequest(imgURL, request.getOutputFolder(), Status.ERROR);
+	}
+	
+	/*
+	 * make a request for the image conditional on it having changed since the local copy was downloaded.
+	 * uses the validators saved with the local copy. older downloads have none - fall back to the download time in the file name 
+	 * */
+	protected void addConditionalHeaders(HttpRequest get, Path localCopy, ProcessedImg processedImage) {
+		
+		Optional<ImageMetadata> metadata = imageStore.getMetadata(localCopy);
+		Optional<String> etag = metadata.flatMap(ImageMetadata::getEtag);
+		Optional<String> lastModified = metadata.flatMap(ImageMetadata::getLastModified);
+		if(!lastModified.isPresent()){
+			lastModified = processedImage.getLocalFileTimestamp(localCopy).map(DateUtils::formatDate);
+		}
+		
+		etag.ifPresent(value -> get.setHeader(HttpHeaders.IF_NONE_MATCH, value));
+		lastModified.ifPresent(value -> get.setHeader(HttpHeaders.IF_MODIFIED_SINCE, value));
+	}
+	
+	/*
+	 * the new download replaces the local copy only once it is safely on disk.
+	 * a server that ignored the conditional request may still have sent the same bytes - compare the content hashes 
+	 * */
+	protected ImgRequest replaceLocalCopy(ProcessedImg processedImage, Optional<Path> localCopy, Path download, 
+			ImageMetadata metadata, URLRequest request) throws IOException {
+		
+		if(isSameContent(localCopy, metadata)){
+			imageStore.delete(request.getOutputFolder(), download);
+			return keepLocalCopy(processedImage, localCopy.get(), metadata, request);
+		}
+		
+		processedImage.setImgFile(Optional.of(download));
+		commitDownload(localCopy, download, metadata, request);
+		return new ImgRequest(processedImage.getUrl(), request.getOutputFolder(), Optional.of(processedImage), 
+				localCopy.isPresent() ? Status.OK_NEW_FILE_VERSION : Status.OK);
+	}
+	
+	protected boolean isSameContent(Optional<Path> localCopy, ImageMetadata metadata){
+		return localCopy.isPresent() && metadata.getContentHash().isPresent() 
+				&& metadata.getContentHash().equals(imageStore.getMetadata(localCopy.get()).flatMap(ImageMetadata::getContentHash));
+	}
+	
+	protected ImgRequest keepLocalCopy(ProcessedImg processedImage, Path localCopy, ImageMetadata metadata, URLRequest request) throws IOException {
+		LOGGER.debug(String.format("Downloaded content is unchanged, keeping local copy [%s, %s]", processedImage.getUrl(), localCopy));
+		//keep the latest validators
+		imageStore.saveMetadata(localCopy, metadata);
+		return notModified(processedImage, localCopy, request);
+	}
+	
+	/*
+	 * a download that is on disk becomes the local copy
+	 * */
+	protected void commitDownload(Optional<Path> localCopy, Path download, ImageMetadata metadata, URLRequest request) throws IOException {
+		imageStore.saveMetadata(download, metadata);
+		imageStore.register(request.getOutputFolder(), download);
+		if(localCopy.isPresent()){
+			imageStore.delete(request.getOutputFolder(), localCopy.get());
+		}
+	}
+	
+	/*
+	 * the reason not to download an image, given its header. same limits as the resizer applies
+	 * */
+	protected Optional<String> skipReason(ImageHeader header){
+		if(header.getWidth() <= iDConfiguration.getImageResizeMinWidth() || header.getHeight() <= iDConfiguration.getImageResizeMinHeight()){
+			return Optional.of(String.format("%s %dx%d is too small to resize", header.getFormat(), header.getWidth(), header.getHeight()));
+		}
+		long maxPixels = iDConfiguration.getImageResizeMaxPixels();
+		if(maxPixels > 0 && header.getPixels() > maxPixels){
+			return Optional.of(String.format("%s %dx%d is more than %d pixels", header.getFormat(), header.getWidth(), header.getHeight(), maxPixels));
+		}
+		return Optional.empty();
+	}
+	
+	protected ImgRequest skipped(ProcessedImg processedImage, String reason, URLRequest request){
+		LOGGER.info(String.format("Skipping image [%s, %s]: %s", processedImage.getUrl(), request.getUrl(), reason));
+		return new ImgRequest(processedImage.getUrl(), request.getOutputFolder(), Optional.of(processedImage), Status.SKIPPED);
+	}
+	
+	protected ImgRequest notModified(ProcessedImg processedImage, Path localCopy, URLRequest request){
+		processedImage.setImgFile(Optional.of(localCopy));
+		return new ImgRequest(processedImage.getUrl(), request.getOutputFolder(), Optional.of(processedImage), Status.OK_FILE_NOT_CHANGED);
+	}
+	
+	@VisibleForTesting
+	void setiDConfiguration(IDConfiguration iDConfiguration) {
+		this.iDConfiguration = iDConfiguration;
+	}
+	
+	@VisibleForTesting
+	void setImageStore(ImageStore imageStore) {
+		this.imageStore = imageStore;
+	}
+	
+	@VisibleForTesting
+	void setImageHeaderParser(ImageHeaderParser imageHeaderParser) {
+		this.imageHeaderParser = imageHeaderParser;
+	}
+	
+}
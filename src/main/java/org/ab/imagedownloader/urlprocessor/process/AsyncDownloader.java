@@ -0,0 +1,420 @@
+package org.ab.imagedownloader.urlprocessor.process;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.ab.imagedownloader.obj.ImgRequest;
+import org.ab.imagedownloader.obj.ProcessedImg;
+import org.ab.imagedownloader.obj.URLRequest;
+import org.ab.imagedownloader.urlprocessor.store.ImageMetadata;
+import org.ab.imagedownloader.utils.DaemonThreadFactory;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.CloseableHttpPipeliningClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.pool.PoolStats;
+import org.apache.log4j.Logger;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Non blocking downloader ('image.downloaders.impl=async').
+ * 
+ * Requests are run on a small number of IO reactor threads ('image.downloaders.async.io_threads') rather than a thread per download, so 
+ * the number of downloads in flight is limited by the connection pool and 'image.pipeline.max_in_flight', not the download pool.
+ * Response bodies are streamed straight to file channels.
+ * 
+ * Same change detection as the blocking downloader - if a local copy exists, the download is conditional on the validators saved with it.
+ * 
+ * With 'image.downloaders.pipelining.batch_size' above 1, downloads from the same host are grouped into batches (see HostBatches)
+ * and each batch is pipelined - sent back to back over one connection, without waiting for each response before sending the next
+ * request. If a batch fails part way, its unfinished downloads are retried one at a time over ordinary keep-alive connections. 
+ * Where the download that broke the pipeline then succeeds on its own, the pipeline was at fault. A host whose pipelines fail 
+ * that way PIPELINE_FAILURES times in a row is taken not to support pipelining, and its downloads are not batched for 
+ * SEQUENTIAL_MILLIS - a single failure may just be a stale connection. A batch completes together, when its last response has 
+ * been read.
+ * note: pipelined requests are not redirected - a redirected image breaks its batch, and is fetched again on its own
+ * 
+ * note: connections are HTTP/1.1 keep-alive, shared between requests to the same host. HTTP/2 multiplexing would need a Java 9+ 
+ * runtime (for ALPN) and a newer client library - not possible while the tool targets Java 1.8
+ * */
+@ParametersAreNonnullByDefault
+@Service
+@ConditionalOnProperty(name = "image.downloaders.impl", havingValue = "async")
+public class AsyncDownloader extends AbstractDownloader {
+
+	private static final Logger LOGGER = Logger.getLogger(AsyncDownloader.class);
+	
+	private static final int PIPELINE_FAILURES = 3;
+	private static final long SEQUENTIAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+	
+	private PoolingNHttpClientConnectionManager connectionManager;
+	private CloseableHttpAsyncClient client;
+	private RequestConfig requestConfig;
+	
+	private Optional<PoolingNHttpClientConnectionManager> pipelineConnectionManager = Optional.empty();
+	private CloseableHttpPipeliningClient pipeliningClient;
+	private ScheduledExecutorService batchTimer;
+	private Optional<HostBatches<Download>> batches = Optional.empty();
+	/*note: pipelines each host has broken in a row*/
+	private final Map<String, Integer> pipelineFailures = new ConcurrentHashMap<>();
+	/*note: hosts not to batch downloads for, until the time (millis) they are tried again*/
+	private final Map<String, Long> sequentialHosts = new ConcurrentHashMap<>();
+	
+	@PostConstruct
+	private void init() throws IOException {
+		requestConfig = buildRequestConfig();
+		
+		/*
+		 * note: with pipelining, the configured connection limits are split between the two clients - half each (at least one) - so 
+		 * there are never more connections than configured
+		 * */
+		boolean pipelining = iDConfiguration.getPipeliningBatchSize() > 1;
+		int maxTotal = Math.max(1, iDConfiguration.getHttpMaxConnections());
+		int maxPerRoute = Math.max(1, iDConfiguration.getHttpMaxConnectionsPerRoute());
+		int pipelineMaxTotal = pipelining ? Math.max(1, maxTotal / 2) : 0;
+		int pipelineMaxPerRoute = pipelining ? Math.max(1, maxPerRoute / 2) : 0;
+		
+		connectionManager = connectionManager("img-download-io", Math.max(1, maxTotal - pipelineMaxTotal), Math.max(1, maxPerRoute - pipelineMaxPerRoute));
+		client = HttpAsyncClients.custom()
+				.setConnectionManager(connectionManager)
+				.setKeepAliveStrategy(DefaultDownloader.keepAliveStrategy(iDConfiguration.getHttpKeepAlive()))
+				.setDefaultRequestConfig(requestConfig)
+				.build();
+		client.start();
+		
+		if(pipelining){
+			//note: a client of its own - the pipelining client is a minimal one (no redirects, no default request config)
+			pipelineConnectionManager = Optional.of(connectionManager("img-pipeline-io", pipelineMaxTotal, pipelineMaxPerRoute));
+			pipeliningClient = HttpAsyncClients.createPipelining(pipelineConnectionManager.get());
+			pipeliningClient.start();
+			batchTimer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("img-download-batch"));
+			batches = Optional.of(new HostBatches<>(iDConfiguration.getPipeliningBatchSize(), iDConfiguration.getPipeliningLinger(), 
+					batchTimer, this::sendBatch));
+		}
+	}
+	
+	private PoolingNHttpClientConnectionManager connectionManager(String threadName, int maxTotal, int maxPerRoute) throws IOException {
+		IOReactorConfig reactorConfig = IOReactorConfig.custom()
+				.setIoThreadCount(Math.max(1, iDConfiguration.getAsyncIoThreads()))
+				.setConnectTimeout(iDConfiguration.getImageDownloadTimeout())
+				.setSoTimeout(iDConfiguration.getImageDownloadTimeout())
+				.build();
+		PoolingNHttpClientConnectionManager manager = new PoolingNHttpClientConnectionManager(
+				new DefaultConnectingIOReactor(reactorConfig, new DaemonThreadFactory(threadName)));
+		manager.setMaxTotal(maxTotal);
+		manager.setDefaultMaxPerRoute(maxPerRoute);
+		return manager;
+	}
+	
+	@PreDestroy
+	private void shutdown() throws IOException {
+		client.close();
+		if(pipeliningClient != null){
+			pipeliningClient.close();
+			batchTimer.shutdownNow();
+		}
+	}
+	
+	@Override
+	public boolean isNonBlocking() {
+		return true;
+	}
+	
+	/*note: both clients' connections, with pipelining*/
+	@Override
+	public Optional<PoolStats> getConnectionPoolStats() {
+		if(connectionManager == null){
+			return Optional.empty();
+		}
+		PoolStats stats = connectionManager.getTotalStats();
+		if(!pipelineConnectionManager.isPresent()){
+			return Optional.of(stats);
+		}
+		PoolStats pipelined = pipelineConnectionManager.get().getTotalStats();
+		return Optional.of(new PoolStats(stats.getLeased() + pipelined.getLeased(), stats.getPending() + pipelined.getPending(), 
+				stats.getAvailable() + pipelined.getAvailable(), stats.getMax() + pipelined.getMax()));
+	}
+	
+	@Override
+	public ImgRequest process(String imgURL, URLRequest request) {
+		return processAsync(imgURL, request).join();
+	}
+	
+	@Override
+	public CompletableFuture<ImgRequest> processAsync(String imgURL, URLRequest request) {
+		
+		Optional<ProcessedImg> parsed = parseImgURL(imgURL, request);
+		if(!parsed.isPresent()){
+			return CompletableFuture.completedFuture(error(imgURL, request));
+		}
+		ProcessedImg processedImage = parsed.get();
+		
+		CompletableFuture<ImgRequest> result;
+		try{
+			result = download(processedImage, imageStore.getLocalFile(request.getOutputFolder(), processedImage), request);
+		}catch(Exception e){
+			result = new CompletableFuture<>();
+			result.completeExceptionally(e);
+		}
+		
+		return result.exceptionally(e -> {
+			/*as for the blocking downloader: on error, do not try to clean up 'old' versions of the file from previous runs*/
+			Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+			LOGGER.error(String.format("Error downloading image file [%s, %s]. will not remove older versions/resizes of file. error: %s", 
+					imgURL, request.getUrl(), cause.getMessage()));
+			return error(imgURL, request);
+		});
+	}
+	
+	/*
+	 * single (conditional, if there is a local copy) GET - on its own, or in a pipelined batch. 
+	 * note: the new file is created up front, but only written to for a 200 response
+	 * */
+	private CompletableFuture<ImgRequest> download(ProcessedImg processedImage, Optional<Path> localCopy, URLRequest request) throws IOException {
+		
+		Download download = prepare(processedImage, localCopy, request);
+		if(isPipelined(download.host)){
+			batches.get().add(download.host, download);
+		}else{
+			send(download);
+		}
+		return download.downloaded.thenApply(downloaded -> {
+			if(!downloaded.file.isPresent() && localCopy.isPresent()){
+				return notModified(processedImage, localCopy.get(), request);
+			}
+			try {
+				return replaceLocalCopy(processedImage, localCopy, 
+						downloaded.file.orElseThrow(() -> new IOException("Not modified response to an unconditional request")), downloaded.metadata, request);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+	
+	private Download prepare(ProcessedImg processedImage, Optional<Path> localCopy, URLRequest request) throws IOException {
+		
+		Path fullFilePath = imageStore.createLocalFile(request.getOutputFolder(), processedImage);
+		
+		HttpGet get = new HttpGet(processedImage.getUrl());
+		get.setConfig(requestConfig);
+		if(localCopy.isPresent()){
+			addConditionalHeaders(get, localCopy.get(), processedImage);
+		}
+		
+		FileChannelConsumer consumer = new FileChannelConsumer(fullFilePath, processedImage.getUrl(), iDConfiguration.getImageResizeMaxFileSize());
+		return new Download(processedImage, localCopy, request, get, consumer);
+	}
+	
+	private void send(Download download){
+		execute(HttpAsyncMethods.create(download.get), download.consumer)
+				.whenComplete((file, error) -> {
+					if(error != null){
+						download.completeWithError(error);
+					}else{
+						download.completeWithFile(file);
+					}
+				});
+	}
+	
+	/*
+	 * note: a batch of one is sent as an ordinary request. a batch formed before its host was found not to support pipelining is 
+	 * still sent - and will fall back again
+	 * */
+	private void sendBatch(String host, List<Download> batch){
+		if(batch.size() == 1){
+			send(batch.get(0));
+			return;
+		}
+		List<HttpAsyncRequestProducer> producers = batch.stream().map(download -> HttpAsyncMethods.create(download.get)).collect(Collectors.toList());
+		List<FileChannelConsumer> consumers = batch.stream().map(download -> download.consumer).collect(Collectors.toList());
+		pipeliningClient.execute(URIUtils.extractHost(batch.get(0).get.getURI()), producers, consumers, new FutureCallback<List<Optional<Path>>>() {
+			@Override
+			public void completed(List<Optional<Path>> files) {
+				pipelineFailures.remove(host);
+				for(int i = 0; i < batch.size(); i++){
+					batch.get(i).completeWithFile(files.get(i));
+				}
+			}
+			@Override
+			public void failed(Exception ex) {
+				//note: off the IO thread - retrying creates files
+				batchTimer.execute(() -> fallBack(host, batch, ex));
+			}
+			@Override
+			public void cancelled() {
+				batch.forEach(download -> download.downloaded.cancel(false));
+			}
+		});
+	}
+	
+	/*
+	 * downloads completed before the batch failed are kept. the rest are retried one after another - if the first of them (the one 
+	 * that broke the pipeline) succeeds, the host does not handle pipelining
+	 * */
+	private void fallBack(String host, List<Download> batch, Exception error){
+		List<Download> unfinished = new ArrayList<>();
+		for(Download download:batch){
+			if(download.consumer.isDone() && download.consumer.getException() == null){
+				download.completeWithFile(download.consumer.getResult());
+			}else{
+				unfinished.add(download);
+			}
+		}
+		LOGGER.warn(String.format("pipelined batch to [%s] failed after %d of %d downloads, retrying the rest one at a time. error: %s", 
+				host, batch.size() - unfinished.size(), batch.size(), error.getMessage()));
+		
+		CompletableFuture<?> previous = CompletableFuture.completedFuture(null);
+		for(Download download:unfinished){
+			boolean brokePipeline = download == unfinished.get(0);
+			previous = previous.handle((result, previousError) -> null)
+					.thenComposeAsync(ready -> retry(download), batchTimer)
+					.whenComplete((Downloaded downloaded, Throwable retryError) -> {
+						if(retryError == null && brokePipeline){
+							pipelineBroken(host);
+						}
+						if(retryError != null){
+							download.completeWithError(retryError);
+						}else{
+							download.completeWith(downloaded);
+						}
+					});
+		}
+	}
+	
+	private void pipelineBroken(String host){
+		int failures = pipelineFailures.merge(host, 1, Integer::sum);
+		if(failures >= PIPELINE_FAILURES){
+			pipelineFailures.remove(host);
+			sequentialHosts.put(host, System.currentTimeMillis() + SEQUENTIAL_MILLIS);
+			LOGGER.warn(String.format("host [%s] broke %d pipelines in a row, not batching its downloads for %d ms", host, failures, SEQUENTIAL_MILLIS));
+		}
+	}
+	
+	private CompletableFuture<Downloaded> retry(Download failed){
+		try{
+			Download again = prepare(failed.processedImage, failed.localCopy, failed.request);
+			send(again);
+			return again.downloaded;
+		}catch(IOException e){
+			CompletableFuture<Downloaded> error = new CompletableFuture<>();
+			error.completeExceptionally(e);
+			return error;
+		}
+	}
+	
+	/*
+	 * bridge the client callback to a future
+	 * */
+	private <T> CompletableFuture<T> execute(HttpAsyncRequestProducer producer, HttpAsyncResponseConsumer<T> consumer){
+		CompletableFuture<T> future = new CompletableFuture<>();
+		FutureCallback<T> callback = new FutureCallback<T>() {
+			@Override
+			public void completed(T result) {
+				future.complete(result);
+			}
+			@Override
+			public void failed(Exception ex) {
+				future.completeExceptionally(ex);
+			}
+			@Override
+			public void cancelled() {
+				future.cancel(false);
+			}
+		};
+		client.execute(producer, consumer, callback);
+		return future;
+	}
+	
+	@VisibleForTesting
+	void setClient(CloseableHttpAsyncClient client) {
+		this.client = client;
+	}
+	
+	/*note: a host no longer sequential is batched again*/
+	boolean isPipelined(String host) {
+		if(!batches.isPresent()){
+			return false;
+		}
+		Long until = sequentialHosts.get(host);
+		if(until != null && until <= System.currentTimeMillis()){
+			sequentialHosts.remove(host, until);
+			return true;
+		}
+		return until == null;
+	}
+	
+	/*
+	 * a download waiting to be sent, and its outcome. completed with the file and validators of whichever request succeeded - the 
+	 * download itself, or its retry
+	 * */
+	private static class Download {
+		private final ProcessedImg processedImage;
+		private final Optional<Path> localCopy;
+		private final URLRequest request;
+		private final HttpGet get;
+		private final FileChannelConsumer consumer;
+		private final String host;
+		private final CompletableFuture<Downloaded> downloaded = new CompletableFuture<>();
+		
+		private Download(ProcessedImg processedImage, Optional<Path> localCopy, URLRequest request, HttpGet get, FileChannelConsumer consumer) {
+			this.processedImage = processedImage;
+			this.localCopy = localCopy;
+			this.request = request;
+			this.get = get;
+			this.consumer = consumer;
+			this.host = URIUtils.extractHost(get.getURI()).toURI();
+		}
+		
+		/*note: the file and validators of this download's own response*/
+		private void completeWithFile(Optional<Path> file){
+			downloaded.complete(new Downloaded(file, consumer.getMetadata()));
+		}
+		
+		private void completeWith(Downloaded result){
+			downloaded.complete(result);
+		}
+		
+		private void completeWithError(Throwable error){
+			downloaded.completeExceptionally(error);
+		}
+	}
+	
+	private static class Downloaded {
+		private final Optional<Path> file;
+		private final ImageMetadata metadata;
+		
+		private Downloaded(Optional<Path> file, ImageMetadata metadata) {
+			this.file = file;
+			this.metadata = metadata;
+		}
+	}
+	
+}
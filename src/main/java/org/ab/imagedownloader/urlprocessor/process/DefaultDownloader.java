@@ -1,219 +1,445 @@
 package org.ab.imagedownloader.urlprocessor.process;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URISyntaxException;
-import java.nio.file.DirectoryStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Date;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
-import org.ab.imagedownloader.IDConfiguration;
 import org.ab.imagedownloader.obj.ImgRequest;
 import org.ab.imagedownloader.obj.ImgRequest.Status;
+import org.ab.imagedownloader.obj.InMemoryImage;
 import org.ab.imagedownloader.obj.ProcessedImg;
 import org.ab.imagedownloader.obj.URLRequest;
+import org.ab.imagedownloader.urlprocessor.store.ContentHash;
+import org.ab.imagedownloader.urlprocessor.store.ImageMetadata;
+import org.ab.imagedownloader.utils.DaemonThreadFactory;
+import org.ab.imagedownloader.utils.ImageHeaderParser.ImageHeader;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpHead;
-import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.ByteStreams;
 
 /**
  * Downloads image URL
  * 
- * If file already exists on disk - use HTTP HEAD to check remote file size & header "last-modified" if available
- * note: a clever version of this would use {file mime type, ETAG} as well as the size & lastMod to validate the file  
+ * If file already exists on disk - make the download conditional on the ETag & Last-Modified validators saved with it (If-None-Match, 
+ * If-Modified-Since). A 304 response means the local copy is still current. The local copy is only replaced once a new version has been downloaded
+ * 
+ * Connections are pooled, and kept alive between images. The pool should allow at least as many connections per route as there are 
+ * download threads - otherwise downloads from a single image host are serialised on the pool
+ * 
+ * Blocking - each download holds a download pool thread for the whole request. This is the default downloader ('image.downloaders.impl=default')
+ * 
+ * With 'image.pipeline.memory_budget_bytes' set, an image of known length that fits in the budget is read into memory and handed
+ * straight to the resizer (see InMemoryImage). It is written to disk, and replaces the local copy, in the background
+ * 
+ * With 'image.downloaders.probe_bytes' set, an image with no local copy is probed first: a Range request for its first bytes, 
+ * and the dimensions read from its header. Images that would not be resized - too small, or too many pixels - are never downloaded 
+ * in full. A server that does not support ranges sends the whole image in reply to the probe, and that is the download - as is 
+ * a probe whose range (see Content-Range) covers the whole image
  * */
 @ParametersAreNonnullByDefault
 @Service
-public class DefaultDownloader implements Downloader {
+@ConditionalOnProperty(name = "image.downloaders.impl", havingValue = "default", matchIfMissing = true)
+public class DefaultDownloader extends AbstractDownloader {
 
 	private static final Logger LOGGER = Logger.getLogger(DefaultDownloader.class);
+	
+	private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+)", Pattern.CASE_INSENSITIVE);
 		
-	@Autowired
-	private IDConfiguration iDConfiguration;
-		
+	private PoolingHttpClientConnectionManager connectionManager;
 	private CloseableHttpClient client;
 	private RequestConfig requestConfig;
 	
+	@Autowired
+	private ImageBufferPool imageBufferPool;
+	
+	private ExecutorService persistPool;
+	
 	@PostConstruct
 	private void init(){
-		client = HttpClients.createDefault();		
+		requestConfig = buildRequestConfig();
+		
+		if(iDConfiguration.getImageMemoryBudget() > 0){
+			persistPool = Executors.newFixedThreadPool(Math.max(1, iDConfiguration.getImagePersistPool()), new DaemonThreadFactory("img-persist"));
+		}
 		
-		requestConfig = RequestConfig.custom()
-			    .setConnectionRequestTimeout(iDConfiguration.getImageDownloadTimeout())
-			    .setConnectTimeout(iDConfiguration.getImageDownloadTimeout())
-			    .setSocketTimeout(iDConfiguration.getImageDownloadTimeout())
-			    .build();
+		//note: a ttl of 0 or less means connections never expire
+		connectionManager = new PoolingHttpClientConnectionManager(iDConfiguration.getHttpConnectionTtl(), TimeUnit.MILLISECONDS);
+		connectionManager.setMaxTotal(Math.max(1, iDConfiguration.getHttpMaxConnections()));
+		connectionManager.setDefaultMaxPerRoute(Math.max(1, iDConfiguration.getHttpMaxConnectionsPerRoute()));
+		
+		HttpClientBuilder builder = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setKeepAliveStrategy(keepAliveStrategy(iDConfiguration.getHttpKeepAlive()))
+				.setDefaultRequestConfig(requestConfig)
+				.evictExpiredConnections();		
+		if(iDConfiguration.getHttpIdleEviction() > 0){
+			builder.evictIdleConnections(iDConfiguration.getHttpIdleEviction(), TimeUnit.MILLISECONDS);
+		}
+		client = builder.build();
+	}
+	
+	@PreDestroy
+	private void shutdown() throws IOException, InterruptedException {
+		client.close();
+		if(persistPool != null){
+			//images handed over in memory must be on disk before we exit
+			persistPool.shutdown();
+			if(!persistPool.awaitTermination(1, TimeUnit.MINUTES)){
+				LOGGER.error("timed out writing downloaded images to disk");
+			}
+		}
+	}
+	
+	/*
+	 * keep connections alive for as long as the server allows, up to the configured maximum.
+	 * if the server does not say, use the configured value (0 or less: keep alive indefinitely)
+	 * */
+	static ConnectionKeepAliveStrategy keepAliveStrategy(long maxKeepAlive){
+		return (response, context) -> {
+			long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+			if(serverKeepAlive > 0 && maxKeepAlive > 0){
+				return Math.min(serverKeepAlive, maxKeepAlive);
+			}
+			return serverKeepAlive > 0 ? serverKeepAlive : maxKeepAlive;
+		};
+	}
+	
+	@Override
+	public Optional<PoolStats> getConnectionPoolStats() {
+		return connectionManager == null ? Optional.empty() : Optional.of(connectionManager.getTotalStats());
 	}
 	
 	@Override
 	public ImgRequest process(String imgURL, URLRequest request) {
 							
-		ProcessedImg processedImage;
-		try {
-			processedImage = new ProcessedImg(imgURL);			
-		} catch (MalformedURLException e) {
-			LOGGER.error(String.format("Bad img URL provided for download (despite previous check!) [%s, %s]", imgURL, request.getUrl()));
-			return new ImgRequest(imgURL, request.getOutputFolder(), Status.ERROR);
+		Optional<ProcessedImg> parsed = parseImgURL(imgURL, request);
+		if(!parsed.isPresent()){
+			return error(imgURL, request);
 		}
+		ProcessedImg processedImage = parsed.get();
 					
-		String filePath = processedImage.generateLocalFilePath();
-		Status status = Status.OK;
 		try{
 		
-			Optional<Path> localCopy = getLocalFile(request.getOutputFolder(), filePath, processedImage);				
-			if(localCopy.isPresent()){
-				if(!isHostedFileUpdated(localCopy.get(), processedImage)){
-					processedImage.setImgFile(localCopy);
-					return new ImgRequest(imgURL, request.getOutputFolder(), Optional.of(processedImage), Status.OK_FILE_NOT_CHANGED);
-					
-				} else {
-					Files.delete(localCopy.get());					
-					status = Status.OK_NEW_FILE_VERSION;
-				}				
+			Optional<Path> localCopy = imageStore.getLocalFile(request.getOutputFolder(), processedImage);				
+			
+			//note: an image already downloaded once was wanted then - its conditional request is cheaper than a probe
+			int probeBytes = Math.min(iDConfiguration.getImageProbeBytes(), DownloadBuffers.BUFFER_SIZE);
+			if(!localCopy.isPresent() && probeBytes > 0){
+				HttpGet probe = new HttpGet(processedImage.getUrl());
+				probe.setConfig(requestConfig);
+				probe.setHeader(HttpHeaders.RANGE, "bytes=0-" + (probeBytes - 1));
+				
+				try (CloseableHttpResponse response = client.execute(probe)) {
+					int statusCode = response.getStatusLine().getStatusCode();
+					if(statusCode == HttpStatus.SC_PARTIAL_CONTENT){
+						//note: a small image fits in the probe - its body is kept to be saved, rather than downloaded again
+						boolean wholeImage = response.getEntity() != null && isWholeImage(response, probeBytes);
+						HttpEntity entity = wholeImage ? readWholeImage(processedImage, response.getEntity(), probeBytes) : response.getEntity();
+						Optional<String> skipReason = readHeader(entity, probeBytes).flatMap(this::skipReason);
+						if(skipReason.isPresent()){
+							return skipped(processedImage, skipReason.get(), request);
+						}
+						if(wholeImage){
+							return saveResponse(processedImage, probe, response, entity, localCopy, request);
+						}
+					}else if(statusCode != HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE){
+						//the server ignored the range - this is the full download
+						return handleResponse(processedImage, probe, response, localCopy, request);
+					}
+				}
 			}
 			
-			//get the remote copy			
-			buildLocalPath(request.getOutputFolder(), filePath);
-			Path fullFilePath = Paths.get(processedImage.generateLocalFileCanonicalPath(request.getOutputFolder()));
-			downloadFile(processedImage, fullFilePath);		
-			if(!processedImage.getImgFile().isPresent()){
-				//failed for some reason that was not thrown in download method ! 
-				LOGGER.error(String.format("File downloading failed for an unknown reason [%s, %s]", imgURL, request.getUrl()));
-				status = Status.ERROR;			
+			HttpGet get = new HttpGet(processedImage.getUrl());
+			get.setConfig(requestConfig);
+			if(localCopy.isPresent()){
+				addConditionalHeaders(get, localCopy.get(), processedImage);
 			}
 			
-			return new ImgRequest(imgURL, request.getOutputFolder(), Optional.of(processedImage), status);				
+			try (CloseableHttpResponse response = client.execute(get)) {
+				return handleResponse(processedImage, get, response, localCopy, request);
+			}
 					
 		}catch(Exception e){
 			/**edge case: on these error cases, do not try to clean up 'old' versions of the file from previous runs.
 			 * assumption: better to have some content, even if it is an out of date version of the file*/			
 			LOGGER.error(String.format("Error downloading image file [%s, %s]. will not remove older versions/resizes of file. error: %s", 
 					imgURL, request.getUrl(), e.getMessage()));
-			return new ImgRequest(imgURL, request.getOutputFolder(), Status.ERROR);
+			return error(imgURL, request);
 		}			
 	}
-	private void downloadFile(ProcessedImg processedImage, Path fullFilePath) throws IOException, URISyntaxException {
-						
-		HttpGet get = new HttpGet(processedImage.getUrl());
-		get.setConfig(requestConfig);
-		try (CloseableHttpResponse response = client.execute(get)) {
-		    HttpEntity entity = response.getEntity();
-		    if (entity != null) {		    	
-		    	if( entity.getContentLength() >= iDConfiguration.getImageResizeMaxFileSize() ){
-		    		throw new IOException(String.format("Downloaded file is too large to resize. aborting [%s]", processedImage.getUrl()));		    		
-		    	}		    			    			   
-		    	
-		        try (FileOutputStream outstream = new FileOutputStream(fullFilePath.toFile())) {
-		            entity.writeTo(outstream);			            				            
-		            processedImage.setImgFile(Optional.of(fullFilePath));		            		           
-		        }
-		    }
-		}	
-	}
-	
-	private boolean isHostedFileUpdated(Path localCopy, ProcessedImg processedImage) throws IOException, URISyntaxException {
+	
+	private ImgRequest handleResponse(ProcessedImg processedImage, HttpGet get, HttpResponse response, Optional<Path> localCopy, 
+			URLRequest request) throws IOException {
 		
-		long localSize = localCopy.toFile().length();
-		Optional<Date> localLastMod = processedImage.getLocalFileTimestamp(localCopy);
-				
-		HttpHead head = new HttpHead(processedImage.getUrl());
-		head.setConfig(requestConfig);
-		try (CloseableHttpResponse response = client.execute(head)) {
-			if (response == null) {
-				//note: have to assume worst case and retry download ! 
-				//TODO - reuse download logic here - download and check size with two local versions ? still cheaper than full resizing...
-				LOGGER.error(String.format("error connecting to image URL [%s]: does server support HTTP HEAD ?", processedImage.getUrl()));
-				return true;
-		    }			
-												
-			//some HTTP servers do not return Last-Modified for HTTP HEAD. worth trying though...
-			Header lastMod = response.getFirstHeader("Last-Modified");
-			if(localLastMod.isPresent() && lastMod != null && lastMod.getValue() != null){
-				Date remoteLastMod = DateUtils.parseDate(lastMod.getValue());
-				if(remoteLastMod!=null && localLastMod.get().after(remoteLastMod)){
-					return false;		
-				}
-			}
-			
-			//note: assumption - same file name and size == same file
-			Header contentLength = response.getFirstHeader("Content-Length");
-			if(contentLength != null && contentLength.getValue() != null){
-				try{
-					Long contentLen = Long.parseLong(contentLength.getValue());
-					if(contentLen != null && contentLen == localSize){
-						return false;											
-					}
-				}catch(NumberFormatException e){
-					//do nothing
-				}
-			}
-			
-			return true;					
-		}				
-	} 
+		int statusCode = response.getStatusLine().getStatusCode();
+		if(statusCode == HttpStatus.SC_NOT_MODIFIED && localCopy.isPresent()){
+			return notModified(processedImage, localCopy.get(), request);
+		}
+		if(statusCode != HttpStatus.SC_OK){
+			throw new IOException(String.format("Unexpected HTTP status %d downloading image. aborting [%s]", statusCode, processedImage.getUrl()));
+		}
+		return saveResponse(processedImage, get, response, response.getEntity(), localCopy, request);
+	}
 	
-	private void buildLocalPath(String root, String localFilePath) throws IOException {
+	/*
+	 * save the body of a response holding the whole image - 'entity' in place of the response's own, when it has been buffered
+	 * */
+	private ImgRequest saveResponse(ProcessedImg processedImage, HttpGet get, HttpResponse response, @Nullable HttpEntity entity, 
+			Optional<Path> localCopy, URLRequest request) throws IOException {
+		
+		Path fullFilePath = imageStore.createLocalFile(request.getOutputFolder(), processedImage);
+		Optional<ByteBuffer> memory = acquireMemory(entity);
+		if(memory.isPresent()){
+			return downloadToMemory(processedImage, get, response, entity, memory.get(), localCopy, fullFilePath, request);
+		}
+		
+		Optional<String> contentHash = downloadFile(processedImage, get, entity, fullFilePath);
+		if(!contentHash.isPresent()){
+			//failed for some reason that was not thrown in download method ! 
+			LOGGER.error(String.format("File downloading failed for an unknown reason [%s, %s]", processedImage.getUrl(), request.getUrl()));
+			return new ImgRequest(processedImage.getUrl(), request.getOutputFolder(), Optional.of(processedImage), Status.ERROR);
+		}
 		
-		Path fullPath = Paths.get(root + java.io.File.separator + localFilePath);
-		if(Files.exists(fullPath)){
-			if(!Files.isDirectory(fullPath)){
-				throw new IOException(
-						String.format("error creating local directories for to image [%s, %s]. there is an existing file of that name !", 
-								root, localFilePath));	
+		return replaceLocalCopy(processedImage, localCopy, fullFilePath, 
+				ImageMetadata.fromResponse(response).withContentHash(contentHash.get()), request);
+	}
+	
+	/*
+	 * true if a partial content response is the whole image - it starts at 0, and ends at the image's last byte, within the probe
+	 * */
+	@VisibleForTesting
+	static boolean isWholeImage(HttpResponse response, int probeBytes){
+		Header range = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+		if(range == null || range.getValue() == null){
+			return false;
+		}
+		Matcher matcher = CONTENT_RANGE.matcher(range.getValue().trim());
+		try{
+			return matcher.matches() && Long.parseLong(matcher.group(1)) == 0 && Long.parseLong(matcher.group(2)) < probeBytes 
+					&& Long.parseLong(matcher.group(2)) + 1 == Long.parseLong(matcher.group(3));
+		}catch(NumberFormatException e){
+			return false;
+		}
+	}
+	
+	/*
+	 * the body of a probe holding the whole image, read into memory so its header can be read before it is saved
+	 * */
+	private HttpEntity readWholeImage(ProcessedImg processedImage, HttpEntity entity, int probeBytes) throws IOException {
+		byte[] content;
+		try (InputStream in = entity.getContent()) {
+			content = ByteStreams.toByteArray(ByteStreams.limit(in, probeBytes + 1L));
+		}
+		if(content.length > probeBytes){
+			throw new IOException(String.format("Probe response is larger than its range. aborting [%s]", processedImage.getUrl()));
+		}
+		return new ByteArrayEntity(content);
+	}
+	
+	/*
+	 * the header of an image from the (partial content) response to a probe. empty if it can not be read
+	 * */
+	private Optional<ImageHeader> readHeader(@Nullable HttpEntity entity, int probeBytes) throws IOException {
+		if(entity == null){
+			return Optional.empty();
+		}
+		ByteBuffer buffer = DownloadBuffers.acquire();
+		try (InputStream content = entity.getContent();
+				ReadableByteChannel source = Channels.newChannel(content)) {
+			buffer.limit(probeBytes);
+			while(buffer.hasRemaining() && source.read(buffer) >= 0){
+				//read the whole range
 			}
-			return;
+			buffer.flip();
+			return imageHeaderParser.parse(buffer);
+		} finally {
+			buffer.clear();
 		}
-		Path result = Files.createDirectories(fullPath);
-		if (result == null){
-			throw new IOException(String.format("error creating local directories for to image [%s, %s]", root, localFilePath));	
+	}
+	
+	/*
+	 * stream the body to disk through a file channel, counting bytes as they arrive - chunked responses have no declared length 
+	 * to check up front. returns the content hash of the downloaded file, computed as it is written
+	 * */
+	private Optional<String> downloadFile(ProcessedImg processedImage, HttpGet get, @Nullable HttpEntity entity, Path fullFilePath) throws IOException {
+						
+	    if (entity == null) {
+	    	return Optional.empty();
+	    }
+	    long maxFileSize = iDConfiguration.getImageResizeMaxFileSize();
+	    if( entity.getContentLength() >= maxFileSize ){
+	    	throw new IOException(String.format("Downloaded file is too large to resize. aborting [%s]", processedImage.getUrl()));		    		
+	    }		    			    			   
+	    
+	    MessageDigest digest = ContentHash.newDigest();
+	    ByteBuffer buffer = DownloadBuffers.acquire();
+	    long size = 0;
+	    boolean complete = false;
+	    try (InputStream content = entity.getContent();
+	    		ReadableByteChannel source = Channels.newChannel(content);
+	    		FileChannel file = FileChannel.open(fullFilePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+	    	
+	    	while(source.read(buffer) >= 0){
+	    		buffer.flip();
+	    		size += buffer.remaining();
+	    		if(size >= maxFileSize){
+	    			//note: abort drops the connection, rather than reading the rest of the body to reuse it
+	    			get.abort();
+	    			throw new IOException(String.format("Downloaded file is too large to resize. aborting [%s]", processedImage.getUrl()));
+	    		}
+	    		digest.update(buffer.duplicate());
+	    		while(buffer.hasRemaining()){
+	    			file.write(buffer);
+	    		}
+	    		buffer.clear();
+	    	}
+	    	complete = true;
+	    } finally {
+	    	buffer.clear();
+	    	if(!complete){
+	    		Files.deleteIfExists(fullFilePath);
+	    	}
+	    }
+	    return Optional.of(ContentHash.toHex(digest));
+	}
+	
+	private Optional<ByteBuffer> acquireMemory(@Nullable HttpEntity entity){
+		if(persistPool == null || entity == null || entity.getContentLength() >= iDConfiguration.getImageResizeMaxFileSize()){
+			return Optional.empty();
 		}
+		//note: chunked responses have no length to size a buffer with - they go through disk
+		return imageBufferPool.tryAcquire(entity.getContentLength());
 	}
 	
-
-	private Optional<Path> getLocalFile(String root, String localFilePath, ProcessedImg processedImage) throws IOException {
+	/*
+	 * read the body into memory, hand it on to the resizer and write it to disk in the background.
+	 * the buffer goes back to the pool once both are done with it
+	 * */
+	private ImgRequest downloadToMemory(ProcessedImg processedImage, HttpGet get, HttpResponse response, HttpEntity entity, ByteBuffer buffer, 
+			Optional<Path> localCopy, Path fullFilePath, URLRequest request) throws IOException {
+		
+		String contentHash;
+		try{
+			contentHash = readToMemory(processedImage, get, entity, buffer);
+		}catch(IOException | RuntimeException e){
+			imageBufferPool.release(buffer);
+			throw e;
+		}
 		
-		String filename = processedImage.generateLocalFileName();
+		ImageMetadata metadata = ImageMetadata.fromResponse(response).withContentHash(contentHash);
+		if(isSameContent(localCopy, metadata)){
+			imageBufferPool.release(buffer);
+			return keepLocalCopy(processedImage, localCopy.get(), metadata, request);
+		}
 		
-		Path dir = Paths.get(root + java.io.File.separator + localFilePath);
-		if(!Files.isDirectory(dir)){
-			return Optional.empty();
-		}		
-
-		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir, 
-				path -> !Files.isDirectory(path) && path.getFileName().toString().startsWith(filename))) {
-			for (Path path : stream) {				
-				if(processedImage.matchFilename(path)){
-					return Optional.of(path);					
-				}				
-			}		    
+		InMemoryImage image = new InMemoryImage(buffer, contentHash, () -> imageBufferPool.release(buffer));
+		try{
+			persistPool.execute(() -> persist(image, localCopy, fullFilePath, metadata, request));
+		}catch(RejectedExecutionException e){
+			image.releaseWrite();
+			image.releaseRead();
+			throw new IOException("Shutting down, image not written to disk", e);
 		}
 		
-		return Optional.empty();					
+		processedImage.setImgFile(Optional.of(fullFilePath));
+		ImgRequest result = new ImgRequest(processedImage.getUrl(), request.getOutputFolder(), Optional.of(processedImage), 
+				localCopy.isPresent() ? Status.OK_NEW_FILE_VERSION : Status.OK);
+		result.setInMemoryImage(Optional.of(image));
+		return result;
 	}
-
+	
+	/*
+	 * returns the content hash. the buffer is left flipped, ready to read
+	 * */
+	private String readToMemory(ProcessedImg processedImage, HttpGet get, HttpEntity entity, ByteBuffer buffer) throws IOException {
+		try (InputStream content = entity.getContent();
+				ReadableByteChannel source = Channels.newChannel(content)) {
+			
+			while(source.read(buffer) >= 0){
+				if(!buffer.hasRemaining()){
+					if(content.read() >= 0){
+						//more than the declared length
+						get.abort();
+						throw new IOException(String.format("Downloaded file is larger than declared. aborting [%s]", processedImage.getUrl()));
+					}
+					break;
+				}
+			}
+		}
+		buffer.flip();
+		MessageDigest digest = ContentHash.newDigest();
+		digest.update(buffer.duplicate());
+		return ContentHash.toHex(digest);
+	}
+	
+	/*
+	 * background write of an image handed over in memory. on failure the local copy is left as it was - the next run downloads it again
+	 * */
+	private void persist(InMemoryImage image, Optional<Path> localCopy, Path fullFilePath, ImageMetadata metadata, URLRequest request){
+		try{
+			try (FileChannel file = FileChannel.open(fullFilePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+				ByteBuffer content = image.getContent();
+				while(content.hasRemaining()){
+					file.write(content);
+				}
+			}
+			commitDownload(localCopy, fullFilePath, metadata, request);
+		}catch(Exception e){
+			LOGGER.error(String.format("Error writing downloaded image to disk [%s], error: %s", fullFilePath, e.getMessage()));
+			try {
+				Files.deleteIfExists(fullFilePath);
+			} catch (IOException ex) {
+				//do nothing
+			}
+		}finally{
+			image.releaseWrite();
+		}
+	}
+	
 	@VisibleForTesting
-	void setiDConfiguration(IDConfiguration iDConfiguration) {
-		this.iDConfiguration = iDConfiguration;
+	void setImageBufferPool(ImageBufferPool imageBufferPool) {
+		this.imageBufferPool = imageBufferPool;
 	}
-
+	
 	@VisibleForTesting
 	void setClient(CloseableHttpClient client) {
 		this.client = client;
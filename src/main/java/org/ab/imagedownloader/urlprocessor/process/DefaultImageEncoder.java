@@ -0,0 +1,177 @@
+package org.ab.imagedownloader.urlprocessor.process;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.ab.imagedownloader.IDConfiguration;
+import org.ab.imagedownloader.utils.DaemonThreadFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Encodes resized images on a pool of its own ('image.encoders.pool_size'), so a resize thread moves on to the next resize 
+ * rather than waiting on compression - PNG in particular is often slower to encode than to resize. Every (width, format) 
+ * is a separate task, so the formats of a width are encoded in parallel
+ * 
+ * Each encode thread keeps one ImageWriter per format, reset and reused for every image - rather than a service registry lookup 
+ * and a new writer per file. Output goes through an in memory cache, never an ImageIO temporary file. Writers are tuned from 
+ * 'image.encoders.*' (JPEG quality and progressive mode, PNG compression level)
+ * 
+ * note: an image with an alpha channel is flattened onto white for formats that can not store alpha (JPEG)
+ * */
+@ParametersAreNonnullByDefault
+@Component
+public class DefaultImageEncoder implements ImageEncoder {
+
+	@Autowired
+	private IDConfiguration iDConfiguration;
+	
+	@Autowired
+	private StageMetrics stageMetrics;
+	
+	private ExecutorService encodePool;
+	
+	/*format -> writer, for the encode thread*/
+	private final ThreadLocal<Map<String, ImageWriter>> writers = ThreadLocal.withInitial(HashMap::new);
+	
+	private float jpegQuality;
+	private boolean jpegProgressive;
+	private int pngCompressionLevel;
+	
+	@PostConstruct
+	void init(){
+		encodePool = Executors.newFixedThreadPool(Math.max(1, iDConfiguration.getImageEncodePool()), new DaemonThreadFactory("img-encode"));
+		jpegQuality = iDConfiguration.getImageEncodeJpegQuality();
+		jpegProgressive = iDConfiguration.isImageEncodeJpegProgressive();
+		pngCompressionLevel = iDConfiguration.getImageEncodePngCompressionLevel();
+	}
+	
+	@PreDestroy
+	void shutdown(){
+		encodePool.shutdown();
+	}
+	
+	@Override
+	public CompletableFuture<Path> encode(BufferedImage image, String format, Path destination) {
+		return CompletableFuture.supplyAsync(stageMetrics.timed(StageMetrics.ENCODE, () -> {
+			try {
+				writeToFile(image, format, destination);
+				return destination;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}), encodePool);
+	}
+	
+	/**
+	 * encodes on the calling thread
+	 * */
+	public void writeToFile(BufferedImage image, String format, Path destination) throws IOException {
+		ImageWriter writer = writer(format);
+		BufferedImage encodable = writer.getOriginatingProvider().canEncodeImage(image) ? image : flattenAlpha(image);
+		
+		//note: never write through an existing file - it may be a link to a shared version
+		Files.deleteIfExists(destination);
+		boolean written = false;
+		try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(destination, StandardOpenOption.CREATE_NEW));
+				ImageOutputStream output = new MemoryCacheImageOutputStream(file)) {
+			writer.setOutput(output);
+			writer.write(null, new IIOImage(encodable, null, null), writeParam(writer, format));
+			written = true;
+		} finally {
+			if(written){
+				writer.reset();
+			}else{
+				//note: a writer that failed part way is not trusted again
+				writers.get().remove(format).dispose();
+			}
+		}
+	}
+	
+	private ImageWriter writer(String format) throws IOException {
+		ImageWriter writer = writers.get().get(format);
+		if(writer == null){
+			Iterator<ImageWriter> found = ImageIO.getImageWritersByFormatName(format);
+			if(!found.hasNext()){
+				throw new IOException(String.format("No image writer for format [%s]", format));
+			}
+			writer = found.next();
+			writers.get().put(format, writer);
+		}
+		return writer;
+	}
+	
+	private ImageWriteParam writeParam(ImageWriter writer, String format){
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		if(isJpeg(format)){
+			if(jpegQuality > 0 && param.canWriteCompressed()){
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setCompressionQuality(Math.min(1f, jpegQuality));
+			}
+			if(param.canWriteProgressive()){
+				param.setProgressiveMode(jpegProgressive ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+			}
+		}else if("png".equalsIgnoreCase(format) && pngCompressionLevel >= 0 && param.canWriteCompressed()){
+			//note: the JDK 8 PNG writer has no compression setting - the level only applies on later runtimes
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			if(param.getCompressionType() == null && param.getCompressionTypes() != null){
+				param.setCompressionType(param.getCompressionTypes()[0]);
+			}
+			//0 (none) is a quality of 1, 9 (smallest) a quality of 0
+			param.setCompressionQuality(1f - Math.min(9, pngCompressionLevel) / 9f);
+		}
+		return param;
+	}
+	
+	private static boolean isJpeg(String format){
+		return "jpg".equalsIgnoreCase(format) || "jpeg".equalsIgnoreCase(format);
+	}
+	
+	private static BufferedImage flattenAlpha(BufferedImage image){
+		BufferedImage opaque = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = opaque.createGraphics();
+		try{
+			graphics.drawImage(image, 0, 0, Color.WHITE, null);
+		}finally{
+			graphics.dispose();
+		}
+		return opaque;
+	}
+	
+	@VisibleForTesting
+	void setiDConfiguration(IDConfiguration iDConfiguration) {
+		this.iDConfiguration = iDConfiguration;
+	}
+	
+	@VisibleForTesting
+	void setStageMetrics(StageMetrics stageMetrics) {
+		this.stageMetrics = stageMetrics;
+	}
+	
+}
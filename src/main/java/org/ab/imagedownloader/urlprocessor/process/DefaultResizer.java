@@ -1,13 +1,15 @@
 package org.ab.imagedownloader.urlprocessor.process;
 
 import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.DirectoryStream;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -15,16 +17,32 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.PostConstruct;
 import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 
 import org.ab.imagedownloader.IDConfiguration;
 import org.ab.imagedownloader.obj.ImgRequest;
 import org.ab.imagedownloader.obj.ImgRequest.Status;
+import org.ab.imagedownloader.obj.InMemoryImage;
 import org.ab.imagedownloader.obj.ProcessedImg;
+import org.ab.imagedownloader.urlprocessor.process.NativeResizeWorkers.Version;
+import org.ab.imagedownloader.urlprocessor.store.ContentHash;
+import org.ab.imagedownloader.urlprocessor.store.ImageMetadata;
+import org.ab.imagedownloader.urlprocessor.store.ImageStore;
+import org.ab.imagedownloader.utils.ImageDecoder;
+import org.ab.imagedownloader.utils.ImageDecoder.DecodedImage;
+import org.ab.imagedownloader.utils.ImageHeaderParser;
+import org.ab.imagedownloader.utils.ImageHeaderParser.ImageHeader;
 import org.ab.imagedownloader.utils.ImageResizer;
+import org.ab.imagedownloader.utils.ImageTooLargeException;
+import org.ab.imagedownloader.utils.ResizeStrategy;
+import org.ab.imagedownloader.utils.ResizeStrategy.Quality;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -32,6 +50,15 @@ import org.springframework.stereotype.Service;
 import com.google.common.annotations.VisibleForTesting;
 /**
  * using input request, create resized versions based on state info in request object
+ * 
+ * note: resized versions are shared, by content hash, between images with identical bytes (see ImageStore). Only versions 
+ * that no identical image has already produced, with the same settings, are decoded and resized.
+ * Existing resized versions are found from the store index, not by listing the 'resized' folder
+ * 
+ * Resized versions are encoded to disk by the ImageEncoder, on its own pool - the resize thread does not wait for them
+ * 
+ * With 'image.resizers.native.command' set (and its workers started), images are decoded, resized and encoded by a native 
+ * worker process instead (see NativeResizeWorkers)
  * */
 @ParametersAreNonnullByDefault
 @Service
@@ -45,13 +72,66 @@ public class DefaultResizer implements Resizer {
 	@Autowired
 	private ImageResizer imageResizer;
 	
+	@Autowired
+	private ImageStore imageStore;
+	
+	@Autowired
+	private ImageDecoder imageDecoder;
+	
+	@Autowired
+	private ImageEncoder imageEncoder;
+	
+	@Autowired
+	private NativeResizeWorkers nativeResizeWorkers;
+	
+	@Autowired
+	private ImageHeaderParser imageHeaderParser;
+	
+	private ResizeStrategy resizeStrategy = ResizeStrategy.DEFAULT;
+	/*digest of the settings that change a resized version's bytes - shared versions are only reused under the same settings*/
+	private String settingsDigest = "default";
+	
+	@PostConstruct
+	void init(){
+		resizeStrategy = new ResizeStrategy(Quality.valueOf(iDConfiguration.getImageResizeQuality().trim().toUpperCase()), 
+				ResizeStrategy.parseWidths(iDConfiguration.getImageResizeQualityWidths()), iDConfiguration.isImageResizeCascade());
+		settingsDigest = digestSettings();
+		LOGGER.info(String.format("resizing with %s, settings digest %s", resizeStrategy, settingsDigest));
+	}
+	
+	/*
+	 * a native worker does its own resizing & encoding - only its command applies. otherwise the resizer, strategy and encoder settings
+	 * */
+	private String digestSettings(){
+		String settings = nativeResizeWorkers.isAvailable() 
+				? "native|" + iDConfiguration.getImageResizeNativeCommand().trim()
+				: String.format("%s|%s|jpg:%s,%s|png:%d", imageResizer.getClass().getName(), resizeStrategy, 
+						iDConfiguration.getImageEncodeJpegQuality(), iDConfiguration.isImageEncodeJpegProgressive(), 
+						iDConfiguration.getImageEncodePngCompressionLevel());
+		MessageDigest digest = ContentHash.newDigest();
+		digest.update(settings.getBytes(StandardCharsets.UTF_8));
+		return ContentHash.toHex(digest).substring(0, 16);
+	}
+	
+	@Override
+	public ImgRequest process(ImgRequest request) {
+		return processAsync(request).join();
+	}
+	
+	/*
+	 * note: returns once the image has been resized - the future completes once every resized version is encoded
+	 * */
 	@Override
-	public ImgRequest process(ImgRequest request) {		
+	public CompletableFuture<ImgRequest> processAsync(ImgRequest request) {		
 		try{
 			switch(request.getStatus()){
 				case ERROR:
 					LOGGER.error(String.format("There was an error downloading img src [%s], nothing to resize", request.getUrl()));
-					return request;
+					return CompletableFuture.completedFuture(request);
+					
+				case SKIPPED:
+					LOGGER.info(String.format("img src [%s] was skipped, nothing to resize", request.getUrl()));
+					return CompletableFuture.completedFuture(request);
 					
 				case OK_FILE_NOT_CHANGED:
 					LOGGER.info(String.format("contents of url [%s] has not changed, verifying resized versions are correct sizes", request.getUrl()));
@@ -69,16 +149,26 @@ public class DefaultResizer implements Resizer {
 					
 				default:
 					LOGGER.error(String.format("Unknown status code %s, for img src [%s], nothing to resize", request.getStatus(), request.getUrl()));
-					return request;
+					return CompletableFuture.completedFuture(request);
 				
 			}
+		}catch(ImageTooLargeException e){
+			LOGGER.warn(String.format("skipping image [%s]: %s", request.getUrl(), e.getMessage()));
+			request.setStatus(Status.SKIPPED);
+			return CompletableFuture.completedFuture(request);
 		}catch(Exception e){			
-			LOGGER.error(String.format("error resizing image [%s], error: %s", request.getUrl(), e.getMessage()));
-			request.setStatus(Status.ERROR);
-			return request;
+			return CompletableFuture.completedFuture(error(request, e));
+		}finally{
+			request.releaseInMemoryImage();
 		}
 				
 	}
+	private ImgRequest error(ImgRequest request, Throwable e){
+		LOGGER.error(String.format("error resizing image [%s], error: %s", request.getUrl(), e.getMessage()));
+		request.setStatus(Status.ERROR);
+		return request;
+	}
+	
 	private void verifyInputs(ImgRequest request) throws InvalidInputsException {
 		if(!request.getProcessedImg().isPresent() || !request.getProcessedImg().get().getImgFile().isPresent()){			
 			throw new InvalidInputsException(String.format("No file reference to process ! [%s, %s]", request.getStatus(), request.getUrl())); 			
@@ -90,85 +180,196 @@ public class DefaultResizer implements Resizer {
 		Path filePath = processedImage.getImgFile().get();
 		
 		Path resizedFolder = Paths.get(processedImage.generateResizedFolderName(filePath.getParent().toString()));
-		if(!resizedFolder.toFile().exists()){
-			return;
+		for(String name:imageStore.listFiles(request.getOutputFolder(), resizedFolder)){
+			imageStore.delete(request.getOutputFolder(), resizedFolder.resolve(name));
 		}
-		
-		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(resizedFolder)) {
-			for(Path path:stream){
-				Files.deleteIfExists(path);
-			}										  
-		}				
 	}
 	
 	/*
-	 * create resized files from source image 
+	 * create resized files from source image. each resized version is handed to the encoder as soon as it is ready 
 	 * */
-	private ImgRequest resizeForFile(ImgRequest request, Map<Integer, Set<String>> sizesAndFormats) throws Exception{
+	private CompletableFuture<ImgRequest> resizeForFile(ImgRequest request, Map<Integer, Set<String>> sizesAndFormats) throws Exception{
 		
 		if(sizesAndFormats.isEmpty()){
-			return request;
+			return CompletableFuture.completedFuture(request);
 		}
 		
 		ProcessedImg processedImage = request.getProcessedImg().get();
 		Path filePath = processedImage.getImgFile().get();
+		Path resizedFolder = Paths.get(processedImage.generateResizedFolderName(filePath.getParent().toString()));
 		
-		File srcImage = filePath.toFile();
-		BufferedImage bimg = ImageIO.read(srcImage);
-		if(bimg == null){
-			throw new IOException(String.format("Error reading downloaded file from disk ! [%s, %s]", filePath.toString(), request.getUrl())); 			
+		//note: an image handed over in memory may not be on disk (with its metadata) yet
+		Optional<String> contentHash = request.getInMemoryImage().isPresent() 
+				? request.getInMemoryImage().map(InMemoryImage::getContentHash) 
+				: imageStore.getMetadata(filePath).flatMap(ImageMetadata::getContentHash);
+		if(contentHash.isPresent()){
+			sizesAndFormats = linkSharedVariants(request.getOutputFolder(), contentHash.get(), resizedFolder, sizesAndFormats);
+			if(sizesAndFormats.isEmpty()){
+				LOGGER.info(String.format("resized versions for [%s] already created for identical content, nothing to resize", request.getUrl()));
+				return CompletableFuture.completedFuture(request);
+			}
 		}
 		
-		if( bimg.getHeight() <= iDConfiguration.getImageResizeMinHeight() || bimg.getWidth() <= iDConfiguration.getImageResizeMinWidth() ){
-			//don't need to proceed
-			return request;
-		}		
-		
-		Path resizedFolder = Paths.get(processedImage.generateResizedFolderName(filePath.getParent().toString()));
-		verifyResizeFolderExists(resizedFolder);
-		
 		/*note: resize widths are sorted into descending order*/		
 		Set<Integer> keys = sizesAndFormats.keySet();
 		List<Integer> sizes = new ArrayList<>(keys.size());
 		sizes.addAll(keys);
 		sizes.sort((a,b)->b.compareTo(a));
+		
+		if(nativeResizeWorkers.isAvailable()){
+			return resizeNatively(request, filePath, resizedFolder, contentHash, sizes, sizesAndFormats);
+		}
+		
+		Optional<DecodedImage> decoded = readSourceImage(request, filePath, sizes.get(0));
+		if(!decoded.isPresent()){
+			throw new IOException(String.format("Error reading downloaded file from disk ! [%s, %s]", filePath.toString(), request.getUrl())); 			
+		}
+		
+		//note: the size of the original, not of the (possibly subsampled) decoded image
+		if( decoded.get().getSourceHeight() <= iDConfiguration.getImageResizeMinHeight() || decoded.get().getSourceWidth() <= iDConfiguration.getImageResizeMinWidth() ){
+			//don't need to proceed
+			return CompletableFuture.completedFuture(request);
+		}		
+		BufferedImage bimg = decoded.get().getImage();
+		
+		verifyResizeFolderExists(resizedFolder);
 					
-		Optional<BufferedImage> resized = Optional.of(bimg);
-		BufferedImage previousResized = null;
+		/*
+		 * note: by default each width is resized from the previous, larger, one ('image.resizers.cascade'). This is an attempt at
+		 * efficiency - I am assuming that for the most case:
+		 *  - the original image will be bigger than the required resize widths
+		 *  - resizing a small image to a smaller one is cheaper than resizing the original image to a smaller one
+		 *  - at the widths this tool is using, resizing an image over and over (rather than using the original image) will not affect end quality *too* much
+		 * ResizeBenchmark measures the time and quality (PSNR) of each strategy, cascade or not, per resize quality
+		 * */
+		Map<Integer, Set<String>> formats = sizesAndFormats;
+		List<CompletableFuture<Void>> encoded = new ArrayList<>();
+		Set<Integer> resizedWidths = new HashSet<>();
+		imageResizer.resizeAll(bimg, sizes, resizeStrategy, (width, resized) -> {
+			resizedWidths.add(width);
+			for(String format:formats.get(width)){
+				Path destination = Paths.get(ProcessedImg.generateResizedFullFileName(resizedFolder.toString(), width, format));
+				encoded.add(imageEncoder.encode(resized, format, destination)
+						.thenAccept(file -> storeResizedVersion(request.getOutputFolder(), contentHash, file)));
+			}
+			//note: flush only drops cached copies - the pixels are kept for encodes still reading them
+			flushBuffer(resized);
+		});
 		for(Integer width:sizes){
+			if(!resizedWidths.contains(width)){
+				LOGGER.error(String.format("Unexpected Error in resizing image [%s, %d]", filePath.toFile(), width));
+				//do nothing otherwise
+			}
+		}
 				
-				if(!sizesAndFormats.containsKey(width)){
-					continue;
+		return CompletableFuture.allOf(encoded.toArray(new CompletableFuture<?>[encoded.size()]))
+				.handle((done, e) -> e == null ? request : error(request, e.getCause() != null ? e.getCause() : e));
+	}
+	
+	/*
+	 * decode, resize and encode in a native worker, on the calling thread. the header stands in for the decoder's size checks.
+	 * an image handed over in memory is written to a temporary file for the worker
+	 * */
+	private CompletableFuture<ImgRequest> resizeNatively(ImgRequest request, Path filePath, Path resizedFolder, Optional<String> contentHash, 
+			List<Integer> sizes, Map<Integer, Set<String>> sizesAndFormats) throws IOException {
+		
+		Optional<InMemoryImage> inMemory = request.getInMemoryImage();
+		Path source = inMemory.isPresent() ? Files.createTempFile("native-resize", null) : filePath;
+		try{
+			if(inMemory.isPresent()){
+				try (InputStream in = inMemory.get().newInputStream()) {
+					Files.copy(in, source, StandardCopyOption.REPLACE_EXISTING);
+				} finally {
+					request.releaseInMemoryImage();
 				}
+			}
 			
-				if(resized.get().getWidth() != width){
-					/*
-					 * note: for each resize call, I am using the previously resized version of the image. This is an attempt at
-					 * efficiency - I am assuming that for the most case:
-					 *  - the original image will be bigger than the required resize widths
-					 *  - resizing a small image to a smaller one is cheaper than resizing the original image to a smaller one
-					 *  - at the widths this tool is using, resizing an image over and over (rather than using the original image) will not affect end quality *too* much
-					 * These are assumptions, and may be invalid !
-					 * */
-					resized = imageResizer.resize(resized.get(), width);
+			Optional<ImageHeader> header = imageHeaderParser.read(source);
+			if(header.isPresent()){
+				long maxPixels = iDConfiguration.getImageResizeMaxPixels();
+				if(maxPixels > 0 && header.get().getPixels() > maxPixels){
+					throw new ImageTooLargeException(String.format("image is %dx%d, more than %d pixels. not resizing", 
+							header.get().getWidth(), header.get().getHeight(), maxPixels));
 				}
-								
-				if(!resized.isPresent()){
-					LOGGER.error(String.format("Unexpected Error in resizing image [%s, %d]", filePath.toFile(), width));
-					//do nothing otherwise
-					continue;					
+				if( header.get().getHeight() <= iDConfiguration.getImageResizeMinHeight() || header.get().getWidth() <= iDConfiguration.getImageResizeMinWidth() ){
+					//don't need to proceed
+					return CompletableFuture.completedFuture(request);
 				}
-				
+			}
+			
+			verifyResizeFolderExists(resizedFolder);
+			List<Version> versions = new ArrayList<>();
+			for(Integer width:sizes){
 				for(String format:sizesAndFormats.get(width)){
-					writeToFile(resized.get(), format, ProcessedImg.generateResizedFullFileName(resizedFolder.toString(), width, format));											
+					Path destination = Paths.get(ProcessedImg.generateResizedFullFileName(resizedFolder.toString(), width, format));
+					//note: never write through an existing file - it may be a link to a shared version
+					Files.deleteIfExists(destination);
+					versions.add(new Version(width, format, destination));
 				}
-				flushBuffer(previousResized);					
-				previousResized = resized.get();						
-		}		
-				
-		return request;
+			}
+			try{
+				nativeResizeWorkers.resize(source, versions);
+			}catch(IOException | RuntimeException e){
+				//note: a worker failing part way may have written, or half written, some versions - none are kept
+				deleteVersions(versions);
+				throw e;
+			}
+			
+			for(Version version:versions){
+				storeResizedVersion(request.getOutputFolder(), contentHash, version.getDestination());
+			}
+			return CompletableFuture.completedFuture(request);
+		}finally{
+			if(!source.equals(filePath)){
+				Files.deleteIfExists(source);
+			}
+		}
+	}
+	
+	private void deleteVersions(List<Version> versions){
+		for(Version version:versions){
+			try {
+				Files.deleteIfExists(version.getDestination());
+			} catch (IOException e) {
+				LOGGER.error(String.format("error removing resized version [%s], error: %s", version.getDestination(), e.getMessage()));
+			}
+		}
+	}
+	
+	private void storeResizedVersion(String root, Optional<String> contentHash, Path file){
+		try {
+			imageStore.register(root, file);
+			if(contentHash.isPresent()){
+				imageStore.shareVariant(root, contentHash.get(), settingsDigest, file);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
 
+	/*
+	 * decode from memory if the downloader handed the image over that way, otherwise from disk.
+	 * large originals are subsampled while decoding (see ImageDecoder)
+	 * */
+	private Optional<DecodedImage> readSourceImage(ImgRequest request, Path filePath, int largestWidth) throws IOException {
+		Optional<InMemoryImage> inMemory = request.getInMemoryImage();
+		if(!inMemory.isPresent()){
+			try (ImageInputStream stream = ImageIO.createImageInputStream(filePath.toFile())) {
+				if(stream == null){
+					return Optional.empty();
+				}
+				return imageDecoder.decode(stream, largestWidth);
+			}
+		}
+		try (InputStream in = inMemory.get().newInputStream();
+				ImageInputStream stream = new MemoryCacheImageInputStream(in)) {
+			//note: an explicit memory cached stream - ImageIO.read(InputStream) may cache to a temporary file
+			return imageDecoder.decode(stream, largestWidth);
+		} finally {
+			request.releaseInMemoryImage();
+		}
+	}
+	
 	private void flushBuffer(@Nullable BufferedImage img){
 		if(img != null){
 			/* makes it easier for GC to collect this soon to be unreferenced memory			 
@@ -178,10 +379,24 @@ public class DefaultResizer implements Resizer {
 		}
 	}
 	
-	private void writeToFile(BufferedImage image, String format, String destination) throws IOException {
-		try (FileOutputStream file = new FileOutputStream(destination)) {
-			ImageIO.write(image, format, file);
+	/*
+	 * link in any resized versions already created for the same content. returns the sizes and formats still to be created
+	 * */
+	private Map<Integer, Set<String>> linkSharedVariants(String root, String contentHash, Path resizedFolder, 
+			Map<Integer, Set<String>> sizesAndFormats) throws IOException {
+		
+		verifyResizeFolderExists(resizedFolder);
+		
+		Map<Integer, Set<String>> missing = new HashMap<>();
+		for(Map.Entry<Integer, Set<String>> entry:sizesAndFormats.entrySet()){
+			for(String format:entry.getValue()){
+				String filename = ProcessedImg.generateResizedFileName(entry.getKey(), format);
+				if(!imageStore.linkSharedVariant(root, contentHash, settingsDigest, filename, resizedFolder.resolve(filename))){
+					missing.computeIfAbsent(entry.getKey(), width -> new HashSet<>()).add(format);
+				}
+			}
 		}
+		return missing;
 	}
 	
 	/*
@@ -189,29 +404,26 @@ public class DefaultResizer implements Resizer {
 	 * formats, sizes added to the config since last run?
 	 * remove invalid formats, create missing formats
 	 * */
-	private ImgRequest verifyResizedVersions(ImgRequest request) throws IOException, Exception {
+	private CompletableFuture<ImgRequest> verifyResizedVersions(ImgRequest request) throws IOException, Exception {
 		
 		ProcessedImg processedImage = request.getProcessedImg().get();
 		Path filePath = processedImage.getImgFile().get();
 		
 		Path resizedFolder = Paths.get(processedImage.generateResizedFolderName(filePath.getParent().toString()));
-		if(!resizedFolder.toFile().exists()){
+		Set<String> existingFiles = imageStore.listFiles(request.getOutputFolder(), resizedFolder);
+		if(existingFiles.isEmpty()){
 			//no existing resizes - redo from start
 			return resizeForFile(request, getAllRequiredFormats());
 		}
 		
-		Map<String, Path> existingFiles = new HashMap<>();
 		Map<Integer, Set<String>> missingFormats = new HashMap<>(); 
-		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(resizedFolder, path -> !Files.isDirectory(path))) {
-			stream.forEach(path->existingFiles.put(path.getFileName().toString(), path));								  
-		}
 		
 		List<Integer> resizeWidths = iDConfiguration.getImageResizeWidths();
 		
 		for(Integer width:resizeWidths){
 			for(String format:iDConfiguration.getImageResizeFormats()){
 				String filename = ProcessedImg.generateResizedFileName(width, format);										
-				if(!existingFiles.containsKey(filename)){					
+				if(!existingFiles.contains(filename)){					
 					Set<String> formats = missingFormats.get(width);
 					if(formats == null){
 						formats = new HashSet<>();
@@ -226,8 +438,8 @@ public class DefaultResizer implements Resizer {
 		
 		//old, now unwanted file formats - should be removed
 		//note: expensive, blocking call? 
-		for(Path unwanted:existingFiles.values()){
-			Files.delete(unwanted);
+		for(String unwanted:existingFiles){
+			imageStore.delete(request.getOutputFolder(), resizedFolder.resolve(unwanted));
 		}		
 		
 		return resizeForFile(request, missingFormats);			
@@ -257,5 +469,40 @@ public class DefaultResizer implements Resizer {
 	void setImageResizer(ImageResizer imageResizer) {
 		this.imageResizer = imageResizer;
 	}
+	
+	@VisibleForTesting
+	void setResizeStrategy(ResizeStrategy resizeStrategy) {
+		this.resizeStrategy = resizeStrategy;
+	}
+	
+	@VisibleForTesting
+	String getSettingsDigest() {
+		return settingsDigest;
+	}
+	
+	@VisibleForTesting
+	void setImageStore(ImageStore imageStore) {
+		this.imageStore = imageStore;
+	}
+	
+	@VisibleForTesting
+	void setImageDecoder(ImageDecoder imageDecoder) {
+		this.imageDecoder = imageDecoder;
+	}
+	
+	@VisibleForTesting
+	void setImageEncoder(ImageEncoder imageEncoder) {
+		this.imageEncoder = imageEncoder;
+	}
+	
+	@VisibleForTesting
+	void setNativeResizeWorkers(NativeResizeWorkers nativeResizeWorkers) {
+		this.nativeResizeWorkers = nativeResizeWorkers;
+	}
+	
+	@VisibleForTesting
+	void setImageHeaderParser(ImageHeaderParser imageHeaderParser) {
+		this.imageHeaderParser = imageHeaderParser;
+	}
 
 }
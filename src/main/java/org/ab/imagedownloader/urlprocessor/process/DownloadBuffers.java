@@ -0,0 +1,29 @@
+package org.ab.imagedownloader.urlprocessor.process;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable direct buffers for streaming downloads to disk. One per thread (download pool thread, or IO reactor thread), so 
+ * a download never allocates its own - and a direct buffer is written to a file channel without an extra copy.
+ * 
+ * note: a buffer must be emptied before the thread moves on to another download
+ * */
+final class DownloadBuffers {
+
+	static final int BUFFER_SIZE = 64 * 1024;
+	
+	private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+	
+	private DownloadBuffers(){
+	}
+	
+	/**
+	 * the (cleared) buffer for the calling thread
+	 * */
+	static ByteBuffer acquire(){
+		ByteBuffer buffer = BUFFERS.get();
+		buffer.clear();
+		return buffer;
+	}
+	
+}
@@ -1,10 +1,33 @@
 package org.ab.imagedownloader.urlprocessor.process;
 
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
 import org.ab.imagedownloader.obj.ImgRequest;
 import org.ab.imagedownloader.obj.URLRequest;
+import org.apache.http.pool.PoolStats;
 
 public interface Downloader {
 
 	ImgRequest process(String imgURL, URLRequest request);	
 	
+	/**
+	 * true if this downloader does not block the calling thread for network IO - processAsync should be used rather than 
+	 * running process on the download pool
+	 * */
+	default boolean isNonBlocking(){
+		return false;
+	}
+	
+	default CompletableFuture<ImgRequest> processAsync(String imgURL, URLRequest request){
+		return CompletableFuture.completedFuture(process(imgURL, request));
+	}
+	
+	/**
+	 * leased/available/pending counts for the HTTP connection pool, if this downloader has one
+	 * */
+	default Optional<PoolStats> getConnectionPoolStats(){
+		return Optional.empty();
+	}
+	
 }
@@ -0,0 +1,206 @@
+package org.ab.imagedownloader.urlprocessor.process;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Optional;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.ab.imagedownloader.urlprocessor.store.ContentHash;
+import org.ab.imagedownloader.urlprocessor.store.ImageMetadata;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.FileContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Non blocking response consumer - streams the response body straight to a file channel, as it arrives.
+ * Where the decoder supports it the body is transferred without passing through a user space buffer, otherwise it is 
+ * copied through the IO thread's direct buffer (see DownloadBuffers).
+ * Bytes are counted as they arrive, the download fails as soon as it reaches the size cap - whatever length was declared.
+ * The content hash (see ContentHash) is computed from the bytes as they are written.
+ * 
+ * Result is empty for a 304 (not modified) response to a conditional request.
+ * Fails (and removes the partial file) for other non 200 responses, or bodies too large to resize
+ * */
+@ParametersAreNonnullByDefault
+class FileChannelConsumer extends AbstractAsyncResponseConsumer<Optional<Path>> {
+
+	private final Path file;
+	private final String url;
+	private final long maxFileSize;
+	
+	private FileChannel channel;
+	private long position;
+	private boolean notModified;
+	private final MessageDigest digest = ContentHash.newDigest();
+	private ImageMetadata metadata = new ImageMetadata(null, null);
+	
+	FileChannelConsumer(Path file, String url, long maxFileSize) {
+		this.file = file;
+		this.url = url;
+		this.maxFileSize = maxFileSize;
+	}
+
+	@Override
+	protected void onResponseReceived(HttpResponse response) throws IOException {
+		int status = response.getStatusLine().getStatusCode();
+		if(status == HttpStatus.SC_NOT_MODIFIED){
+			notModified = true;
+			return;
+		}
+		if(status != HttpStatus.SC_OK){
+			throw new IOException(String.format("Unexpected HTTP status %d downloading image. aborting [%s]", status, url));
+		}
+		metadata = ImageMetadata.fromResponse(response);
+	}
+
+	@Override
+	protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+		if(notModified){
+			return;
+		}
+		if( entity.getContentLength() >= maxFileSize ){
+    		throw new IOException(String.format("Downloaded file is too large to resize. aborting [%s]", url));		    		
+    	}
+		//note: read access is for hashing transferred content
+		channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.READ);
+	}
+
+	@Override
+	protected void onContentReceived(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+		if(channel == null){
+			//nothing to keep (e.g. a 304 with a body)
+			discard(decoder);
+			return;
+		}
+		if(decoder instanceof FileContentDecoder){
+			//note: never transfer more than the cap allows
+			long transferred = ((FileContentDecoder) decoder).transfer(channel, position, maxFileSize - position);
+			hashTransferred(transferred);
+			position += transferred;
+			checkSize();
+			return;
+		}
+		
+		ByteBuffer buffer = DownloadBuffers.acquire();
+		try{
+			while(decoder.read(buffer) > 0){
+				buffer.flip();
+				write(buffer);
+				buffer.compact();
+			}
+			//flush anything left once the body is complete
+			buffer.flip();
+			while(buffer.hasRemaining()){
+				write(buffer);
+			}
+		}finally{
+			//the buffer is shared with other downloads on this IO thread
+			buffer.clear();
+		}
+	}
+	
+	/*
+	 * fail as soon as the body reaches the cap, the connection is dropped rather than reading the rest of it
+	 * */
+	private void checkSize() throws IOException {
+		if(position >= maxFileSize){
+			throw new IOException(String.format("Downloaded file is too large to resize. aborting [%s]", url));
+		}
+	}
+	
+	private void write(ByteBuffer src) throws IOException {
+		ByteBuffer written = src.duplicate();
+		int count = channel.write(src, position);
+		position += count;
+		written.limit(written.position() + count);
+		digest.update(written);
+		checkSize();
+	}
+	
+	/*
+	 * the transferred bytes went straight to the file, read them back (from the page cache) to hash them
+	 * */
+	private void hashTransferred(long count) throws IOException {
+		long offset = position;
+		long end = position + count;
+		ByteBuffer hashBuffer = DownloadBuffers.acquire();
+		try{
+			while(offset < end){
+				hashBuffer.clear();
+				if(end - offset < hashBuffer.capacity()){
+					hashBuffer.limit((int)(end - offset));
+				}
+				int read = channel.read(hashBuffer, offset);
+				if(read < 0){
+					throw new IOException(String.format("Transferred content missing from file [%s]", file));
+				}
+				offset += read;
+				hashBuffer.flip();
+				digest.update(hashBuffer);
+			}
+		}finally{
+			hashBuffer.clear();
+		}
+	}
+
+	private void discard(ContentDecoder decoder) throws IOException {
+		ByteBuffer buffer = DownloadBuffers.acquire();
+		try{
+			while(decoder.read(buffer) > 0){
+				buffer.clear();
+			}
+		}finally{
+			buffer.clear();
+		}
+	}
+
+	@Override
+	protected Optional<Path> buildResult(HttpContext context) throws Exception {
+		if(notModified){
+			return Optional.empty();
+		}
+		if(channel == null){
+			throw new IOException(String.format("No content in response. aborting [%s]", url));
+		}
+		channel.close();
+		channel = null;
+		metadata = metadata.withContentHash(ContentHash.toHex(digest));
+		return Optional.of(file);
+	}
+	
+	/**
+	 * validators returned with a 200 response, and the content hash.
+	 * note: only complete once the result has been built
+	 * */
+	ImageMetadata getMetadata() {
+		return metadata;
+	}
+
+	@Override
+	protected void releaseResources() {
+		if(channel == null){
+			return;
+		}
+		//still open: the download did not complete - remove the partial file
+		try{
+			channel.close();
+			Files.deleteIfExists(file);
+		}catch(IOException e){
+			//do nothing
+		}
+		channel = null;
+	}
+
+}
@@ -0,0 +1,72 @@
+package org.ab.imagedownloader.urlprocessor.process;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Groups items by host into batches. A batch is sent once it holds 'batchSize' items, or 'lingerMillis' after its first item was
+ * added - whichever comes first - so a host with only a few items does not wait for a full batch.
+ *
+ * note: batches are sent on the adding thread when full, otherwise on the timer thread
+ * */
+@ParametersAreNonnullByDefault
+class HostBatches<T> {
+
+	private final int batchSize;
+	private final long lingerMillis;
+	private final ScheduledExecutorService timer;
+	private final BiConsumer<String, List<T>> send;
+
+	private final Map<String, List<T>> open = new HashMap<>();
+
+	HostBatches(int batchSize, long lingerMillis, ScheduledExecutorService timer, BiConsumer<String, List<T>> send) {
+		this.batchSize = Math.max(1, batchSize);
+		this.lingerMillis = Math.max(0, lingerMillis);
+		this.timer = timer;
+		this.send = send;
+	}
+
+	void add(String host, T item) {
+		List<T> full = null;
+		synchronized(this){
+			List<T> batch = open.get(host);
+			if(batch == null){
+				batch = new ArrayList<>(batchSize);
+				open.put(host, batch);
+				List<T> lingering = batch;
+				timer.schedule(() -> flush(host, lingering), lingerMillis, TimeUnit.MILLISECONDS);
+			}
+			batch.add(item);
+			if(batch.size() >= batchSize){
+				open.remove(host);
+				full = batch;
+			}
+		}
+		if(full != null){
+			send.accept(host, full);
+		}
+	}
+
+	/*note: the batch may already have been sent full - a new one may be open for the host by now*/
+	private void flush(String host, List<T> batch) {
+		synchronized(this){
+			if(open.get(host) != batch){
+				return;
+			}
+			open.remove(host);
+		}
+		send.accept(host, batch);
+	}
+
+	synchronized int getOpen() {
+		return open.size();
+	}
+
+}
@@ -0,0 +1,225 @@
+package org.ab.imagedownloader.urlprocessor.process;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.ab.imagedownloader.utils.DaemonThreadFactory;
+
+/**
+ * Schedules downloads by host. A download acquires its host before it starts and releases it when it finishes. Each host has its
+ * own queue, and limits: at most 'maxConcurrency' downloads from it at once, and at least 'minDelayMillis' between starting them.
+ *
+ * At most 'capacity' downloads run at once over all hosts (the download pool size) - so the pool never queues, and a free slot
+ * goes to the next host in turn that may start a download. A slow host only ever holds its own share of the pool, while the
+ * other hosts' downloads go around it. A waiting download does not hold a thread.
+ *
+ * note: hosts are matched exactly - 'example.com' does not limit 'img.example.com'
+ * */
+@ParametersAreNonnullByDefault
+public class HostScheduler {
+
+	private final int capacity;
+	private final Limits defaults;
+	private final Map<String, Limits> limits;
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("host-delay"));
+
+	private final Map<String, Host> hosts = new HashMap<>();
+	/*note: hosts with a download that may start now, in turn. a host is only in here once*/
+	private final Deque<Host> ready = new ArrayDeque<>();
+	private int running;
+
+	/**
+	 * @param capacity downloads running at once, over all hosts. 0 for no limit
+	 * @param limits by host, overriding 'defaults'
+	 * */
+	public HostScheduler(int capacity, Limits defaults, Map<String, Limits> limits) {
+		this.capacity = capacity > 0 ? capacity : Integer.MAX_VALUE;
+		this.defaults = defaults;
+		this.limits = limits;
+	}
+
+	/**
+	 * completes once a download from the host may start - release the host when it finishes
+	 * */
+	public CompletableFuture<Void> acquire(String host) {
+		CompletableFuture<Void> acquired = new CompletableFuture<>();
+		List<CompletableFuture<Void>> started;
+		synchronized(this){
+			Host waitingHost = hosts.computeIfAbsent(key(host), key -> new Host(key, limits.getOrDefault(key, defaults)));
+			waitingHost.waiting.add(acquired);
+			makeReady(waitingHost);
+			started = dispatch();
+		}
+		start(started);
+		return acquired;
+	}
+
+	public void release(String host) {
+		List<CompletableFuture<Void>> started;
+		synchronized(this){
+			Host finished = hosts.get(key(host));
+			if(finished == null){
+				throw new IllegalStateException(String.format("host released but not acquired [%s]", host));
+			}
+			finished.active--;
+			running--;
+			if(finished.isIdle()){
+				hosts.remove(key(host));
+			}else if(finished.active == 0 && finished.waiting.isEmpty()){
+				expire(finished);
+			}else{
+				makeReady(finished);
+			}
+			started = dispatch();
+		}
+		start(started);
+	}
+
+	public synchronized int getWaiting() {
+		return hosts.values().stream().mapToInt(host -> host.waiting.size()).sum();
+	}
+
+	public synchronized int getHosts() {
+		return hosts.size();
+	}
+
+	public void shutdown() {
+		timer.shutdownNow();
+	}
+
+	/*note: outside the lock - acquiring the host starts the download*/
+	private void start(List<CompletableFuture<Void>> started) {
+		for(CompletableFuture<Void> acquired:started){
+			acquired.complete(null);
+		}
+	}
+
+	/*one download from each ready host in turn, while there is capacity*/
+	private List<CompletableFuture<Void>> dispatch() {
+		List<CompletableFuture<Void>> started = new ArrayList<>();
+		while(running < capacity && !ready.isEmpty()){
+			Host host = ready.poll();
+			host.ready = false;
+			started.add(host.waiting.poll());
+			host.active++;
+			running++;
+			host.nextStart = System.nanoTime() + host.limits.minDelayNanos;
+			makeReady(host);
+		}
+		return started;
+	}
+
+	/*queues the host for its turn - once its delay has passed*/
+	private void makeReady(Host host) {
+		if(host.ready || host.waiting.isEmpty() || host.active >= host.limits.maxConcurrency){
+			return;
+		}
+		long delay = host.nextStart - System.nanoTime();
+		if(delay <= 0){
+			host.ready = true;
+			ready.add(host);
+		}else if(!host.delayed){
+			host.delayed = true;
+			timer.schedule(() -> delayPassed(host), delay, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/*note: a host kept only for its delay is dropped once the delay has passed - unless it has downloads again by then*/
+	private void expire(Host host) {
+		if(!host.delayed){
+			host.delayed = true;
+			timer.schedule(() -> delayPassed(host), host.nextStart - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private void delayPassed(Host host) {
+		List<CompletableFuture<Void>> started;
+		synchronized(this){
+			host.delayed = false;
+			if(host.isIdle()){
+				hosts.remove(host.key, host);
+			}else{
+				makeReady(host);
+			}
+			started = dispatch();
+		}
+		start(started);
+	}
+
+	private static String key(String host) {
+		return host.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * host:max_concurrency:min_delay_ms entries
+	 * */
+	public static Map<String, Limits> parseLimits(@Nullable List<String> entries) {
+		Map<String, Limits> limits = new HashMap<>();
+		if(entries == null){
+			return limits;
+		}
+		for(String entry:entries){
+			if(entry.trim().isEmpty()){
+				continue;
+			}
+			String[] parts = entry.trim().split(":");
+			if(parts.length != 3){
+				throw new IllegalArgumentException(String.format("expected host:max_concurrency:min_delay_ms, not [%s]", entry));
+			}
+			limits.put(key(parts[0].trim()), new Limits(Integer.parseInt(parts[1].trim()), Long.parseLong(parts[2].trim())));
+		}
+		return limits;
+	}
+
+	/**
+	 * downloads from one host at once (0 for no limit), and the time between starting them
+	 * */
+	public static class Limits {
+
+		private final int maxConcurrency;
+		private final long minDelayNanos;
+
+		public Limits(int maxConcurrency, long minDelayMillis) {
+			this.maxConcurrency = maxConcurrency > 0 ? maxConcurrency : Integer.MAX_VALUE;
+			this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, minDelayMillis));
+		}
+
+		@Override
+		public String toString() {
+			return "Limits [maxConcurrency=" + maxConcurrency + ", minDelayMillis=" + TimeUnit.NANOSECONDS.toMillis(minDelayNanos) + "]";
+		}
+	}
+
+	private static class Host {
+		private final String key;
+		private final Limits limits;
+		private final Deque<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+		private int active;
+		private long nextStart = System.nanoTime();
+		private boolean ready;
+		private boolean delayed;
+
+		private Host(String key, Limits limits) {
+			this.key = key;
+			this.limits = limits;
+		}
+
+		/*note: a host still inside its delay is kept, so the delay holds for its next download*/
+		private boolean isIdle() {
+			return active == 0 && waiting.isEmpty() && !delayed && nextStart - System.nanoTime() <= 0;
+		}
+	}
+
+}
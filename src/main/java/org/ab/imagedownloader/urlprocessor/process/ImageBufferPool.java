@@ -0,0 +1,127 @@
+package org.ab.imagedownloader.urlprocessor.process;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.PostConstruct;
+
+import org.ab.imagedownloader.IDConfiguration;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Reusable buffers for holding downloaded images in memory (see InMemoryImage), within a global budget
+ * ('image.pipeline.memory_budget_bytes'). Buffers are sized in powers of two, and kept for reuse once released.
+ *
+ * When a buffer would take the pool over budget, idle buffers are dropped to make room. If there is still no room - too many
+ * large images in flight - no buffer is given, and the image goes through disk instead
+ * */
+@ParametersAreNonnullByDefault
+@Component
+public class ImageBufferPool {
+
+	private static final Logger LOGGER = Logger.getLogger(ImageBufferPool.class);
+
+	private static final int MIN_BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_BUFFER_SIZE = 1 << 30;
+
+	@Autowired
+	private IDConfiguration iDConfiguration;
+
+	private long budget;
+	private boolean direct;
+
+	/*capacity -> idle buffers*/
+	private final Map<Integer, Deque<ByteBuffer>> idle = new TreeMap<>();
+	/*bytes in buffers, in use or idle*/
+	private long allocated;
+	private long fallbacks;
+
+	@PostConstruct
+	void init() {
+		budget = iDConfiguration.getImageMemoryBudget();
+		direct = iDConfiguration.isImageMemoryDirect();
+	}
+
+	public boolean isEnabled() {
+		return budget > 0;
+	}
+
+	/**
+	 * a cleared buffer of at least 'size' bytes, if it fits in the budget
+	 * */
+	public synchronized Optional<ByteBuffer> tryAcquire(long size) {
+		if(!isEnabled() || size <= 0 || size > MAX_BUFFER_SIZE){
+			return Optional.empty();
+		}
+		int capacity = capacityFor(size);
+
+		Deque<ByteBuffer> buffers = idle.get(capacity);
+		if(buffers != null && !buffers.isEmpty()){
+			ByteBuffer buffer = buffers.pop();
+			buffer.clear();
+			return Optional.of(buffer);
+		}
+
+		while(allocated + capacity > budget && dropIdleBuffer()){
+			//make room
+		}
+		if(allocated + capacity > budget){
+			fallbacks++;
+			LOGGER.debug(String.format("no room for a %d byte image buffer, %d of %d bytes in use", capacity, allocated, budget));
+			return Optional.empty();
+		}
+		allocated += capacity;
+		return Optional.of(direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity));
+	}
+
+	public synchronized void release(ByteBuffer buffer) {
+		buffer.clear();
+		idle.computeIfAbsent(buffer.capacity(), capacity -> new ArrayDeque<>()).push(buffer);
+	}
+
+	public synchronized long getAllocatedBytes() {
+		return allocated;
+	}
+
+	/**
+	 * images that did not fit in the budget
+	 * */
+	public synchronized long getFallbacks() {
+		return fallbacks;
+	}
+
+	private boolean dropIdleBuffer() {
+		Iterator<Deque<ByteBuffer>> buffers = idle.values().iterator();
+		while(buffers.hasNext()){
+			Deque<ByteBuffer> sized = buffers.next();
+			if(!sized.isEmpty()){
+				allocated -= sized.pop().capacity();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int capacityFor(long size) {
+		if(size <= MIN_BUFFER_SIZE){
+			return MIN_BUFFER_SIZE;
+		}
+		return Integer.highestOneBit((int)(size - 1)) << 1;
+	}
+
+	@VisibleForTesting
+	void setiDConfiguration(IDConfiguration iDConfiguration) {
+		this.iDConfiguration = iDConfiguration;
+	}
+
+}
@@ -0,0 +1,14 @@
+package org.ab.imagedownloader.urlprocessor.process;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+public interface ImageEncoder {
+
+	/**
+	 * write an image to a file in the given format. completes with the file once written
+	 * */
+	CompletableFuture<Path> encode(BufferedImage image, String format, Path destination);
+	
+}
@@ -0,0 +1,83 @@
+package org.ab.imagedownloader.urlprocessor.process;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A budget of bytes, reserved by tasks before they run and released when they finish. A reservation that does not fit waits
+ * (without blocking a thread) until enough has been released.
+ *
+ * Waiting reservations are admitted in order - a large one at the head holds back the smaller ones behind it, so it is
+ * never starved by a stream of small ones. A reservation larger than the whole budget is cut down to the budget: it runs
+ * once nothing else does.
+ * */
+@ParametersAreNonnullByDefault
+public class MemoryBudget {
+
+	private final long capacity;
+	private long reserved;
+	private final Deque<Reservation> waiting = new ArrayDeque<>();
+
+	public MemoryBudget(long capacity) {
+		this.capacity = Math.max(1, capacity);
+	}
+
+	/**
+	 * completes with the bytes reserved (to pass to release) once the reservation fits
+	 * */
+	public CompletableFuture<Long> reserve(long bytes) {
+		long amount = Math.min(Math.max(0, bytes), capacity);
+		synchronized(this){
+			if(waiting.isEmpty() && reserved + amount <= capacity){
+				reserved += amount;
+				return CompletableFuture.completedFuture(amount);
+			}
+			Reservation reservation = new Reservation(amount);
+			waiting.add(reservation);
+			return reservation.admitted;
+		}
+	}
+
+	public void release(long bytes) {
+		List<Reservation> admitted = new ArrayList<>();
+		synchronized(this){
+			reserved -= bytes;
+			while(!waiting.isEmpty() && reserved + waiting.peek().bytes <= capacity){
+				Reservation next = waiting.poll();
+				reserved += next.bytes;
+				admitted.add(next);
+			}
+		}
+		//note: outside the lock - completing a reservation runs whatever was waiting on it
+		for(Reservation reservation:admitted){
+			reservation.admitted.complete(reservation.bytes);
+		}
+	}
+
+	public synchronized long getReservedBytes() {
+		return reserved;
+	}
+
+	public synchronized int getWaiting() {
+		return waiting.size();
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	private static class Reservation {
+		private final long bytes;
+		private final CompletableFuture<Long> admitted = new CompletableFuture<>();
+
+		private Reservation(long bytes) {
+			this.bytes = bytes;
+		}
+	}
+
+}
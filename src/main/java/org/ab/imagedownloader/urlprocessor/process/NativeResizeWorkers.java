@@ -0,0 +1,264 @@
+package org.ab.imagedownloader.urlprocessor.process;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.ab.imagedownloader.IDConfiguration;
+import org.ab.imagedownloader.utils.DaemonThreadFactory;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Decodes, resizes and encodes images in a pool of long lived external worker processes ('image.resizers.native.command') -
+ * a native tool such as vips or ImageMagick behind a small line protocol (see src/main/scripts/resize-worker.sh). The CPU and
+ * heap of resizing are outside the JVM, and a malformed image that crashes the tool only takes its worker down.
+ *
+ * The protocol, one UTF-8 line each way, fields separated by tabs:
+ *  - on start, the worker prints 'READY' (optionally followed by a space and anything else)
+ *  - request: the source file, then the width, format and destination file of every resized version
+ *  - reply: 'OK' once every version is written, otherwise 'ERROR' followed by a message
+ *  - the worker exits when its input is closed
+ *
+ * note: no command, or a first worker that does not start and print 'READY', and the workers are not available - DefaultResizer
+ * resizes in Java. A worker that does not reply within 'image.resizers.native.timeout_ms', or exits, is killed and a new one
+ * started for the next image
+ * */
+@ParametersAreNonnullByDefault
+@Component
+public class NativeResizeWorkers {
+
+	private static final Logger LOGGER = Logger.getLogger(NativeResizeWorkers.class);
+
+	private static final ThreadFactory READERS = new DaemonThreadFactory("native-resize-reader");
+
+	@Autowired
+	private IDConfiguration iDConfiguration;
+
+	private List<String> command = Collections.emptyList();
+	private long timeoutMillis;
+
+	/*a permit per worker - idle ones are kept, the rest started on demand*/
+	private Semaphore permits = new Semaphore(0);
+	private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+	private volatile boolean available;
+
+	@PostConstruct
+	void init(){
+		String configured = iDConfiguration.getImageResizeNativeCommand();
+		if(configured == null || configured.trim().isEmpty()){
+			return;
+		}
+		command = Arrays.asList(configured.trim().split("\\s+"));
+		timeoutMillis = iDConfiguration.getImageResizeNativeTimeout();
+		int workers = iDConfiguration.getImageResizeNativeWorkers() > 0
+				? iDConfiguration.getImageResizeNativeWorkers() : Math.max(1, iDConfiguration.getImageResizePool());
+		try {
+			idle.add(start());
+		} catch (IOException e) {
+			LOGGER.warn(String.format("native resize workers [%s] not available, resizing in Java. error: %s", configured, e.getMessage()));
+			return;
+		}
+		permits = new Semaphore(workers);
+		available = true;
+		LOGGER.info(String.format("resizing with up to %d native workers [%s]", workers, configured));
+	}
+
+	@PreDestroy
+	void shutdown(){
+		available = false;
+		Worker worker;
+		while((worker = idle.poll()) != null){
+			worker.close();
+		}
+	}
+
+	public boolean isAvailable() {
+		return available;
+	}
+
+	/**
+	 * writes every version of 'source', on the calling thread - waiting for a free worker, then for its reply
+	 * */
+	public void resize(Path source, List<Version> versions) throws IOException {
+		StringBuilder request = new StringBuilder(field(source.toAbsolutePath().toString()));
+		for(Version version:versions){
+			request.append('\t').append(version.getWidth())
+				.append('\t').append(field(version.getFormat()))
+				.append('\t').append(field(version.getDestination().toAbsolutePath().toString()));
+		}
+
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(String.format("interrupted waiting for a native resize worker for [%s]", source));
+		}
+		Worker worker = null;
+		boolean replied = false;
+		try {
+			worker = idle.poll();
+			if(worker == null){
+				worker = start();
+			}
+			String reply = worker.call(request.toString(), timeoutMillis);
+			replied = true;
+			if(!"OK".equals(reply)){
+				throw new IOException(String.format("native resize of [%s] failed: %s", source,
+						reply.startsWith("ERROR") ? reply.substring("ERROR".length()).trim() : reply));
+			}
+		} finally {
+			if(worker != null){
+				//note: a worker that timed out or exited part way is not trusted again
+				if(replied && available){
+					idle.add(worker);
+				}else{
+					worker.kill();
+				}
+			}
+			permits.release();
+		}
+	}
+
+	private Worker start() throws IOException {
+		Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		Worker worker = new Worker(process);
+		try {
+			String ready = worker.reply(timeoutMillis);
+			if(!"READY".equals(ready) && !ready.startsWith("READY ")){
+				throw new IOException(String.format("native resize worker did not start: %s", ready));
+			}
+			return worker;
+		} catch (IOException e) {
+			worker.kill();
+			throw e;
+		}
+	}
+
+	/*note: tabs and line breaks are the protocol's separators*/
+	private static String field(String value) throws IOException {
+		if(value.indexOf('\t') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0){
+			throw new IOException(String.format("can not pass [%s] to a native resize worker", value));
+		}
+		return value;
+	}
+
+	@VisibleForTesting
+	void setiDConfiguration(IDConfiguration iDConfiguration) {
+		this.iDConfiguration = iDConfiguration;
+	}
+
+	public static class Version {
+
+		private final int width;
+		private final String format;
+		private final Path destination;
+
+		public Version(int width, String format, Path destination) {
+			this.width = width;
+			this.format = format;
+			this.destination = destination;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public String getFormat() {
+			return format;
+		}
+
+		public Path getDestination() {
+			return destination;
+		}
+	}
+
+	/*
+	 * a worker process. its replies are read by a thread of their own, so a reply can be waited for with a timeout
+	 * */
+	private static class Worker {
+
+		/*note: compared by reference - never a line the worker wrote*/
+		private static final String EXITED = new String("exited");
+
+		private final Process process;
+		private final Writer requests;
+		private final BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+
+		private Worker(Process process) {
+			this.process = process;
+			this.requests = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+			READERS.newThread(this::readReplies).start();
+		}
+
+		private void readReplies(){
+			try (BufferedReader lines = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+				String line;
+				while((line = lines.readLine()) != null){
+					replies.add(line.trim());
+				}
+			} catch (IOException e) {
+				//killed, or exited
+			} finally {
+				replies.add(EXITED);
+			}
+		}
+
+		private String call(String request, long timeoutMillis) throws IOException {
+			requests.write(request);
+			requests.write('\n');
+			requests.flush();
+			return reply(timeoutMillis);
+		}
+
+		private String reply(long timeoutMillis) throws IOException {
+			String reply;
+			try {
+				reply = replies.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted waiting for a native resize worker");
+			}
+			if(reply == null){
+				throw new IOException(String.format("no reply from the native resize worker in %dms", timeoutMillis));
+			}
+			if(reply == EXITED){
+				throw new IOException("the native resize worker exited");
+			}
+			return reply;
+		}
+
+		private void close(){
+			try {
+				requests.close();
+			} catch (IOException e) {
+				process.destroy();
+			}
+		}
+
+		private void kill(){
+			process.destroyForcibly();
+		}
+	}
+
+}
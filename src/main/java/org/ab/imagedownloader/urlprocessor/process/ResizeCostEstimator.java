@@ -0,0 +1,88 @@
+package org.ab.imagedownloader.urlprocessor.process;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.ab.imagedownloader.IDConfiguration;
+import org.ab.imagedownloader.obj.ImgRequest;
+import org.ab.imagedownloader.obj.InMemoryImage;
+import org.ab.imagedownloader.obj.ProcessedImg;
+import org.ab.imagedownloader.utils.ImageDecoder;
+import org.ab.imagedownloader.utils.ImageHeaderParser;
+import org.ab.imagedownloader.utils.ImageHeaderParser.ImageHeader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Estimates the heap a downloaded image will take to resize - the decoded image (see ImageDecoder) plus the largest resized
+ * version - from the dimensions in its header. Only the first bytes of the image are read.
+ *
+ * note: an image whose header can not be read is given an even share of 'image.resizers.memory_budget_bytes' between
+ * the resize pool threads - what each had before there was a budget
+ * */
+@ParametersAreNonnullByDefault
+@Component
+public class ResizeCostEstimator {
+
+	private static final int HEADER_BYTES = 64 * 1024;
+	private static final int BYTES_PER_PIXEL = 4;
+
+	@Autowired
+	private IDConfiguration iDConfiguration;
+
+	@Autowired
+	private ImageHeaderParser imageHeaderParser;
+
+	@Autowired
+	private ImageDecoder imageDecoder;
+
+	public long estimate(ImgRequest request) {
+		if(request.getStatus() == null || request.getStatus() == ImgRequest.Status.ERROR || request.getStatus() == ImgRequest.Status.SKIPPED){
+			//nothing to decode
+			return 0;
+		}
+		Optional<ImageHeader> header = readHeader(request);
+		if(!header.isPresent()){
+			return iDConfiguration.getImageResizeMemoryBudget() / Math.max(1, iDConfiguration.getImageResizePool());
+		}
+		int width = header.get().getWidth();
+		int height = header.get().getHeight();
+		List<Integer> widths = iDConfiguration.getImageResizeWidths();
+		int largestWidth = widths == null || widths.isEmpty() ? width : Collections.max(widths);
+
+		long resizedPixels = (long) largestWidth * Math.max(1, (long) height * largestWidth / width);
+		return imageDecoder.estimateBytes(width, height, largestWidth) + resizedPixels * BYTES_PER_PIXEL;
+	}
+
+	private Optional<ImageHeader> readHeader(ImgRequest request) {
+		Optional<InMemoryImage> inMemory = request.getInMemoryImage();
+		if(inMemory.isPresent()){
+			ByteBuffer content = inMemory.get().getContent();
+			content.limit(Math.min(content.limit(), HEADER_BYTES));
+			return imageHeaderParser.parse(content);
+		}
+		return request.getProcessedImg().flatMap(ProcessedImg::getImgFile).flatMap(imageHeaderParser::read);
+	}
+
+	@VisibleForTesting
+	void setiDConfiguration(IDConfiguration iDConfiguration) {
+		this.iDConfiguration = iDConfiguration;
+	}
+
+	@VisibleForTesting
+	void setImageHeaderParser(ImageHeaderParser imageHeaderParser) {
+		this.imageHeaderParser = imageHeaderParser;
+	}
+
+	@VisibleForTesting
+	void setImageDecoder(ImageDecoder imageDecoder) {
+		this.imageDecoder = imageDecoder;
+	}
+
+}
@@ -1,9 +1,18 @@
 package org.ab.imagedownloader.urlprocessor.process;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.ab.imagedownloader.obj.ImgRequest;
 
 public interface Resizer {
 
 	ImgRequest process(ImgRequest request);
 	
+	/**
+	 * resize on the calling thread, leaving any remaining work (e.g. encoding) to complete the returned future
+	 * */
+	default CompletableFuture<ImgRequest> processAsync(ImgRequest request){
+		return CompletableFuture.completedFuture(process(request));
+	}
+	
 }
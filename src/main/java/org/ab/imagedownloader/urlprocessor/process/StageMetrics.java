@@ -0,0 +1,143 @@
+package org.ab.imagedownloader.urlprocessor.process;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Time spent in each stage of the image pipeline - waiting for a pool thread, and running - so pools can be sized where the 
+ * time actually goes. Served by GET /stats, and logged after each page
+ * */
+@ParametersAreNonnullByDefault
+@Component
+public class StageMetrics {
+
+	public static final String DOWNLOAD = "download";
+	public static final String RESIZE = "resize";
+	public static final String ENCODE = "encode";
+	
+	private final Map<String, Stage> stages = new ConcurrentHashMap<>();
+	
+	/**
+	 * wraps a task about to be submitted to a stage's pool. the time until it starts running is its wait
+	 * */
+	public <T> Supplier<T> timed(String stage, Supplier<T> task){
+		long submitted = System.nanoTime();
+		return () -> {
+			Stage metrics = stage(stage);
+			long started = System.nanoTime();
+			metrics.active.incrementAndGet();
+			try{
+				return task.get();
+			}finally{
+				metrics.active.decrementAndGet();
+				metrics.record(started - submitted, System.nanoTime() - started);
+			}
+		};
+	}
+	
+	/**
+	 * for stages that do not run on a pool (e.g. non blocking downloads)
+	 * */
+	public void record(String stage, long waitNanos, long runNanos){
+		stage(stage).record(waitNanos, runNanos);
+	}
+	
+	public Map<String, StageStats> snapshot(){
+		Map<String, StageStats> snapshot = new TreeMap<>();
+		stages.forEach((name, stage) -> snapshot.put(name, stage.snapshot()));
+		return snapshot;
+	}
+	
+	private Stage stage(String name){
+		return stages.computeIfAbsent(name, key -> new Stage());
+	}
+	
+	private static class Stage {
+		private final LongAdder count = new LongAdder();
+		private final LongAdder waitNanos = new LongAdder();
+		private final LongAdder runNanos = new LongAdder();
+		private final LongAccumulator maxRunNanos = new LongAccumulator(Math::max, 0);
+		private final AtomicInteger active = new AtomicInteger();
+		
+		private void record(long wait, long run){
+			count.increment();
+			waitNanos.add(wait);
+			runNanos.add(run);
+			maxRunNanos.accumulate(run);
+		}
+		
+		private StageStats snapshot(){
+			long tasks = count.sum();
+			return new StageStats(tasks, active.get(), toMillis(waitNanos.sum()), toMillis(runNanos.sum()), toMillis(maxRunNanos.get()));
+		}
+		
+		private static long toMillis(long nanos){
+			return TimeUnit.NANOSECONDS.toMillis(nanos);
+		}
+	}
+	
+	public static class StageStats {
+		
+		private final long count;
+		private final int active;
+		private final long totalWaitMillis;
+		private final long totalRunMillis;
+		private final long maxRunMillis;
+		
+		public StageStats(long count, int active, long totalWaitMillis, long totalRunMillis, long maxRunMillis) {
+			this.count = count;
+			this.active = active;
+			this.totalWaitMillis = totalWaitMillis;
+			this.totalRunMillis = totalRunMillis;
+			this.maxRunMillis = maxRunMillis;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * tasks running now
+		 * */
+		public int getActive() {
+			return active;
+		}
+
+		public long getTotalWaitMillis() {
+			return totalWaitMillis;
+		}
+
+		public long getTotalRunMillis() {
+			return totalRunMillis;
+		}
+
+		public long getMaxRunMillis() {
+			return maxRunMillis;
+		}
+
+		public long getAverageWaitMillis() {
+			return count == 0 ? 0 : totalWaitMillis / count;
+		}
+
+		public long getAverageRunMillis() {
+			return count == 0 ? 0 : totalRunMillis / count;
+		}
+
+		@Override
+		public String toString() {
+			return "[count=" + count + ", active=" + active + ", avgWaitMillis=" + getAverageWaitMillis() 
+					+ ", avgRunMillis=" + getAverageRunMillis() + ", maxRunMillis=" + maxRunMillis + "]";
+		}
+	}
+	
+}
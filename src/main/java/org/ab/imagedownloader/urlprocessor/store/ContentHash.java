@@ -0,0 +1,37 @@
+package org.ab.imagedownloader.urlprocessor.store;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Content addressing for downloaded images. The digest is updated as the image streams in, so the bytes are never read twice
+ * */
+@ParametersAreNonnullByDefault
+public final class ContentHash {
+
+	private static final String ALGORITHM = "SHA-256";
+	
+	private ContentHash(){
+	}
+	
+	public static MessageDigest newDigest(){
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			//note: every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * completes the digest, as lower case hex
+	 * */
+	public static String toHex(MessageDigest digest){
+		return BaseEncoding.base16().lowerCase().encode(digest.digest());
+	}
+	
+}
@@ -0,0 +1,223 @@
+package org.ab.imagedownloader.urlprocessor.store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.PreDestroy;
+
+import org.ab.imagedownloader.obj.ProcessedImg;
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Component;
+
+/**
+ * Images are stored in a folder per image URL (see ProcessedImg), with a timestamped file name.
+ * Metadata is stored next to the image, in a properties file with the same name plus '.meta'
+ * 
+ * Resized variants are also stored by content, under '<root>/.shared/<content hash>/<settings digest>/'. The per URL 'resized' 
+ * folders hold hard links to them (or copies, where the file system does not support links)
+ * 
+ * Stored files are looked up in an index (see StoreIndex) kept in each output folder, rather than by listing directories
+ * */
+@ParametersAreNonnullByDefault
+@Component
+public class DefaultImageStore implements ImageStore {
+
+	private static final Logger LOGGER = Logger.getLogger(DefaultImageStore.class);
+	
+	private static final String METADATA_SUFFIX = ".meta";
+	private static final String SHARED_FOLDER = ".shared";
+	private static final String TMP_SUFFIX = ".tmp";
+	
+	private final Map<Path, StoreIndex> indexes = new ConcurrentHashMap<>();
+
+	@Override
+	public Optional<Path> getLocalFile(String root, ProcessedImg processedImage) throws IOException {
+		
+		String filename = processedImage.generateLocalFileName();
+		
+		Path dir = Paths.get(root + java.io.File.separator + processedImage.generateLocalFilePath());
+		StoreIndex index = getIndex(root);
+		for(String name:index.list(dir)){
+			Path path = dir.resolve(name);
+			if(name.startsWith(filename) && processedImage.matchFilename(path)){
+				if(Files.isRegularFile(path)){
+					return Optional.of(path);
+				}
+				//removed from disk behind our back
+				LOGGER.warn(String.format("indexed image is missing from disk, removing from index [%s]", path));
+				index.remove(path);
+			}
+		}
+		
+		return Optional.empty();					
+	}
+	
+	@Override
+	public Path createLocalFile(String root, ProcessedImg processedImage) throws IOException {
+		buildLocalPath(root, processedImage.generateLocalFilePath());
+		return Paths.get(processedImage.generateLocalFileCanonicalPath(root));
+	}
+	
+	@Override
+	public Optional<ImageMetadata> getMetadata(Path localFile) {
+		Path metadataFile = getMetadataFile(localFile);
+		
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(metadataFile)) {
+			properties.load(in);
+			return Optional.of(ImageMetadata.fromProperties(properties));
+		} catch (NoSuchFileException e) {
+			return Optional.empty();
+		} catch (IOException e) {
+			//note: unreadable metadata just means an unconditional download next time
+			LOGGER.error(String.format("error reading image metadata [%s], error: %s", metadataFile, e.getMessage()));
+			return Optional.empty();
+		}
+	}
+	
+	@Override
+	public void saveMetadata(Path localFile, ImageMetadata metadata) throws IOException {
+		//write then move, so a crash never leaves a half written metadata file behind
+		Path metadataFile = getMetadataFile(localFile);
+		Path tmp = metadataFile.resolveSibling(metadataFile.getFileName() + TMP_SUFFIX);
+		try (OutputStream out = Files.newOutputStream(tmp)) {
+			metadata.toProperties().store(out, null);
+		}
+		Files.move(tmp, metadataFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	@Override
+	public void register(String root, Path file) throws IOException {
+		getIndex(root).add(file);
+	}
+	
+	@Override
+	public Set<String> listFiles(String root, Path folder) throws IOException {
+		return getIndex(root).list(folder);
+	}
+	
+	@Override
+	public void delete(String root, Path localFile) throws IOException {
+		Files.deleteIfExists(getMetadataFile(localFile));
+		Files.deleteIfExists(localFile);
+		getIndex(root).remove(localFile);
+	}
+	
+	@Override
+	public boolean linkSharedVariant(String root, String contentHash, String settings, String variantName, Path target) throws IOException {
+		Path shared = getSharedFolder(root, contentHash, settings).resolve(variantName);
+		StoreIndex index = getIndex(root);
+		if(!index.contains(shared)){
+			return false;
+		}
+		Files.deleteIfExists(target);
+		link(shared, target);
+		index.add(target);
+		return true;
+	}
+	
+	@Override
+	public void shareVariant(String root, String contentHash, String settings, Path variant) throws IOException {
+		Path folder = getSharedFolder(root, contentHash, settings);
+		Path shared = folder.resolve(variant.getFileName().toString());
+		StoreIndex index = getIndex(root);
+		if(index.contains(shared)){
+			//another URL with the same content got there first
+			return;
+		}
+		Files.createDirectories(folder);
+		//link under a temporary name then move, so a partly copied variant is never shared
+		Path tmp = folder.resolve(variant.getFileName() + TMP_SUFFIX + Thread.currentThread().getId());
+		Files.deleteIfExists(tmp);
+		link(variant, tmp);
+		Files.move(tmp, shared, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		index.add(shared);
+	}
+	
+	@PreDestroy
+	void close() {
+		for(StoreIndex index:indexes.values()){
+			try {
+				index.close();
+			} catch (IOException e) {
+				LOGGER.error(String.format("error closing store index, error: %s", e.getMessage()));
+			}
+		}
+		indexes.clear();
+	}
+	
+	/*
+	 * one index per output folder, opened (or rebuilt) on first use
+	 * */
+	private StoreIndex getIndex(String root) throws IOException {
+		Path rootPath = Paths.get(root).toAbsolutePath().normalize();
+		try{
+			return indexes.computeIfAbsent(rootPath, path -> {
+				try {
+					return StoreIndex.open(path, DefaultImageStore::isStoredFile);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}catch(UncheckedIOException e){
+			throw e.getCause();
+		}
+	}
+	
+	/*
+	 * images and resized versions - not metadata, temporary files or the index itself
+	 * */
+	private static boolean isStoredFile(Path path){
+		String name = path.getFileName().toString();
+		return !name.endsWith(METADATA_SUFFIX) && !name.contains(TMP_SUFFIX) && !name.startsWith(StoreIndex.INDEX_FILE);
+	}
+	
+	private void link(Path existing, Path link) throws IOException {
+		try{
+			Files.createLink(link, existing);
+		}catch(UnsupportedOperationException | FileSystemException e){
+			LOGGER.debug(String.format("could not link [%s] to [%s], copying instead. error: %s", link, existing, e.getMessage()));
+			Files.copy(existing, link, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	private Path getSharedFolder(String root, String contentHash, String settings){
+		return Paths.get(root, SHARED_FOLDER, contentHash, settings);
+	}
+	
+	private Path getMetadataFile(Path localFile){
+		return localFile.resolveSibling(localFile.getFileName() + METADATA_SUFFIX);
+	}
+	
+	private void buildLocalPath(String root, String localFilePath) throws IOException {
+		
+		Path fullPath = Paths.get(root + java.io.File.separator + localFilePath);
+		if(Files.exists(fullPath)){
+			if(!Files.isDirectory(fullPath)){
+				throw new IOException(
+						String.format("error creating local directories for to image [%s, %s]. there is an existing file of that name !", 
+								root, localFilePath));	
+			}
+			return;
+		}
+		Path result = Files.createDirectories(fullPath);
+		if (result == null){
+			throw new IOException(String.format("error creating local directories for to image [%s, %s]", root, localFilePath));	
+		}
+	}
+	
+}
@@ -0,0 +1,84 @@
+package org.ab.imagedownloader.urlprocessor.store;
+
+import java.util.Optional;
+import java.util.Properties;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+
+/**
+ * What is known about a stored image, beyond its content. Persisted alongside the image.
+ * 
+ * The HTTP validators (ETag, Last-Modified) returned with the image are sent back on the next run as a conditional GET,
+ * so an unchanged image costs a single request with no body.
+ * The content hash (see ContentHash) identifies the image bytes, whatever URL they were downloaded from
+ * */
+@ParametersAreNonnullByDefault
+public class ImageMetadata {
+
+	private static final String ETAG = "etag";
+	private static final String LAST_MODIFIED = "last-modified";
+	private static final String CONTENT_HASH = "content-hash";
+	
+	private final Optional<String> etag;
+	private final Optional<String> lastModified;
+	private final Optional<String> contentHash;
+	
+	public ImageMetadata(@Nullable String etag, @Nullable String lastModified) {
+		this(etag, lastModified, null);
+	}
+	
+	public ImageMetadata(@Nullable String etag, @Nullable String lastModified, @Nullable String contentHash) {
+		this.etag = StringUtils.isBlank(etag) ? Optional.empty() : Optional.of(etag);
+		this.lastModified = StringUtils.isBlank(lastModified) ? Optional.empty() : Optional.of(lastModified);
+		this.contentHash = StringUtils.isBlank(contentHash) ? Optional.empty() : Optional.of(contentHash);
+	}
+	
+	public static ImageMetadata fromResponse(HttpResponse response){
+		return new ImageMetadata(headerValue(response, "ETag"), headerValue(response, "Last-Modified"));
+	}
+	
+	public static ImageMetadata fromProperties(Properties properties){
+		return new ImageMetadata(properties.getProperty(ETAG), properties.getProperty(LAST_MODIFIED), properties.getProperty(CONTENT_HASH));
+	}
+	
+	public ImageMetadata withContentHash(String contentHash){
+		return new ImageMetadata(etag.orElse(null), lastModified.orElse(null), contentHash);
+	}
+	
+	public Properties toProperties(){
+		Properties properties = new Properties();
+		etag.ifPresent(value -> properties.setProperty(ETAG, value));
+		lastModified.ifPresent(value -> properties.setProperty(LAST_MODIFIED, value));
+		contentHash.ifPresent(value -> properties.setProperty(CONTENT_HASH, value));
+		return properties;
+	}
+	
+	@Nullable
+	private static String headerValue(HttpResponse response, String name){
+		Header header = response.getFirstHeader(name);
+		return header == null ? null : header.getValue();
+	}
+
+	public Optional<String> getEtag() {
+		return etag;
+	}
+
+	public Optional<String> getLastModified() {
+		return lastModified;
+	}
+
+	public Optional<String> getContentHash() {
+		return contentHash;
+	}
+
+	@Override
+	public String toString() {
+		return "ImageMetadata [etag=" + etag + ", lastModified=" + lastModified + ", contentHash=" + contentHash + "]";
+	}
+	
+}
@@ -0,0 +1,60 @@
+package org.ab.imagedownloader.urlprocessor.store;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Set;
+
+import org.ab.imagedownloader.obj.ProcessedImg;
+
+/**
+ * Local storage of downloaded images, shared by the downloader implementations
+ * */
+public interface ImageStore {
+
+	/**
+	 * previously downloaded copy of the image under the output folder, if any
+	 * */
+	Optional<Path> getLocalFile(String root, ProcessedImg processedImage) throws IOException;
+	
+	/**
+	 * create (if needed) the folder for the image, and return the path a new download of it should be written to 
+	 * */
+	Path createLocalFile(String root, ProcessedImg processedImage) throws IOException;
+	
+	/**
+	 * metadata saved with a stored image, if any
+	 * */
+	Optional<ImageMetadata> getMetadata(Path localFile);
+	
+	void saveMetadata(Path localFile, ImageMetadata metadata) throws IOException;
+	
+	/**
+	 * record a file written under the output folder (a new download, or a resized version)
+	 * */
+	void register(String root, Path file) throws IOException;
+	
+	/**
+	 * names of the stored files in a folder under the output folder
+	 * */
+	Set<String> listFiles(String root, Path folder) throws IOException;
+	
+	/**
+	 * remove a stored file, and its metadata
+	 * */
+	void delete(String root, Path localFile) throws IOException;
+	
+	/**
+	 * if a resized variant of the same content (see ContentHash), made with the same settings, is already stored, link it in as 
+	 * 'target' and return true.
+	 * note: variants are shared between every image URL under the output folder with identical bytes. 'settings' is a digest of 
+	 * whatever else changes the variant's bytes (resizer, quality, encoder settings)
+	 * */
+	boolean linkSharedVariant(String root, String contentHash, String settings, String variantName, Path target) throws IOException;
+	
+	/**
+	 * make a newly written resized variant available to other images with the same content, resized with the same settings
+	 * */
+	void shareVariant(String root, String contentHash, String settings, Path variant) throws IOException;
+	
+}
@@ -0,0 +1,274 @@
+package org.ab.imagedownloader.urlprocessor.store;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Index of the files stored under an output folder, so finding a stored image (or its resized versions) is a hash lookup
+ * rather than a directory listing.
+ *
+ * Persisted as an append-only log of add/remove records ('<root>/.index'), each framed by its length and a CRC. The log is
+ * replayed into memory on open. A torn record at the end (a crash mid write) is dropped. If there is no log, it is rebuilt
+ * from the directory tree.
+ *
+ * note: files are recorded after they are written, so a crash can at worst leave a file on disk that the index does not
+ * know about - it is downloaded or resized again on the next run
+ * */
+@ParametersAreNonnullByDefault
+class StoreIndex implements Closeable {
+
+	private static final Logger LOGGER = Logger.getLogger(StoreIndex.class);
+
+	static final String INDEX_FILE = ".index";
+
+	private static final byte ADD = 'A';
+	private static final byte REMOVE = 'R';
+	private static final int MAX_RECORD_SIZE = 64 * 1024;
+	/*compact the log on open once it holds this many times more records than live entries*/
+	private static final int COMPACT_RATIO = 4;
+	private static final int COMPACT_MIN_RECORDS = 10000;
+
+	private final Path root;
+	private final Path logFile;
+	/*folder (relative to the root) -> file names*/
+	private final Map<String, Set<String>> folders = new HashMap<>();
+	private int entries;
+	private int records;
+	private FileChannel log;
+
+	private StoreIndex(Path root) {
+		this.root = root;
+		this.logFile = root.resolve(INDEX_FILE);
+	}
+
+	/**
+	 * open the index for an output folder. 'storedFile' selects the files to index if it has to be rebuilt
+	 * */
+	static StoreIndex open(Path root, Predicate<Path> storedFile) throws IOException {
+		StoreIndex index = new StoreIndex(root.toAbsolutePath().normalize());
+		Files.createDirectories(index.root);
+
+		if(Files.isRegularFile(index.logFile)){
+			long validLength = index.replay();
+			if(index.records > COMPACT_MIN_RECORDS && index.records > index.entries * COMPACT_RATIO){
+				index.rewrite();
+			}else{
+				index.openLog(validLength);
+			}
+		}else{
+			index.rebuild(storedFile);
+		}
+		return index;
+	}
+
+	synchronized boolean contains(Path file) {
+		Set<String> files = folders.get(folderKey(file.getParent()));
+		return files != null && files.contains(file.getFileName().toString());
+	}
+
+	/**
+	 * names of the indexed files in a folder
+	 * */
+	synchronized Set<String> list(Path folder) {
+		Set<String> files = folders.get(folderKey(folder));
+		return files == null ? Collections.emptySet() : new HashSet<>(files);
+	}
+
+	synchronized void add(Path file) throws IOException {
+		String folder = folderKey(file.getParent());
+		String name = file.getFileName().toString();
+		if(apply(ADD, folder, name)){
+			append(ADD, folder, name);
+		}
+	}
+
+	synchronized void remove(Path file) throws IOException {
+		String folder = folderKey(file.getParent());
+		String name = file.getFileName().toString();
+		if(apply(REMOVE, folder, name)){
+			append(REMOVE, folder, name);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if(log != null){
+			log.close();
+			log = null;
+		}
+	}
+
+	private String folderKey(Path folder) {
+		//note: '/' separated, so an index is portable between platforms
+		return root.relativize(folder.toAbsolutePath().normalize()).toString().replace(java.io.File.separatorChar, '/');
+	}
+
+	/*
+	 * returns true if the index changed
+	 * */
+	private boolean apply(byte op, String folder, String name) {
+		if(op == ADD){
+			if(folders.computeIfAbsent(folder, key -> new HashSet<>()).add(name)){
+				entries++;
+				return true;
+			}
+			return false;
+		}
+		Set<String> files = folders.get(folder);
+		if(files == null || !files.remove(name)){
+			return false;
+		}
+		if(files.isEmpty()){
+			folders.remove(folder);
+		}
+		entries--;
+		return true;
+	}
+
+	private void append(byte op, String folder, String name) throws IOException {
+		ByteBuffer record = ByteBuffer.wrap(encode(op, folder, name));
+		while(record.hasRemaining()){
+			log.write(record);
+		}
+		records++;
+	}
+
+	/*
+	 * record: [payload length][payload: op, folder, name][CRC32 of payload]
+	 * */
+	private static byte[] encode(byte op, String folder, String name) throws IOException {
+		ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(64);
+		try (DataOutputStream payload = new DataOutputStream(payloadBytes)) {
+			payload.writeByte(op);
+			payload.writeUTF(folder);
+			payload.writeUTF(name);
+		}
+		byte[] body = payloadBytes.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(body);
+
+		ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(body.length + 8);
+		try (DataOutputStream record = new DataOutputStream(recordBytes)) {
+			record.writeInt(body.length);
+			record.write(body);
+			record.writeInt((int) crc.getValue());
+		}
+		return recordBytes.toByteArray();
+	}
+
+	/*
+	 * load the log into memory. returns the length of the valid part of the log
+	 * */
+	private long replay() throws IOException {
+		long validLength = 0;
+		try (InputStream file = Files.newInputStream(logFile);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+			while(true){
+				int length;
+				try{
+					length = in.readInt();
+				}catch(EOFException e){
+					break;
+				}
+				if(length <= 0 || length > MAX_RECORD_SIZE){
+					LOGGER.warn(String.format("corrupt record in store index [%s] at %d, ignoring the rest of the log", logFile, validLength));
+					break;
+				}
+				byte[] body = new byte[length];
+				int checksum;
+				try{
+					in.readFully(body);
+					checksum = in.readInt();
+				}catch(EOFException e){
+					LOGGER.warn(String.format("incomplete record at the end of store index [%s], dropping it", logFile));
+					break;
+				}
+				CRC32 crc = new CRC32();
+				crc.update(body);
+				if((int) crc.getValue() != checksum){
+					LOGGER.warn(String.format("corrupt record in store index [%s] at %d, ignoring the rest of the log", logFile, validLength));
+					break;
+				}
+
+				try (DataInputStream payload = new DataInputStream(new ByteArrayInputStream(body))) {
+					apply(payload.readByte(), payload.readUTF(), payload.readUTF());
+				}
+				records++;
+				validLength += 8 + length;
+			}
+		}
+		return validLength;
+	}
+
+	private void openLog(long validLength) throws IOException {
+		log = FileChannel.open(logFile, StandardOpenOption.WRITE);
+		if(log.size() > validLength){
+			//drop the damaged tail, so new records follow the last good one
+			log.truncate(validLength);
+		}
+		log.position(validLength);
+	}
+
+	private void rebuild(Predicate<Path> storedFile) throws IOException {
+		LOGGER.info(String.format("no store index found, rebuilding from [%s]", root));
+		List<Path> files;
+		try (Stream<Path> tree = Files.walk(root)) {
+			files = tree.filter(path -> Files.isRegularFile(path) && storedFile.test(path)).collect(Collectors.toList());
+		}
+		for(Path file:files){
+			apply(ADD, folderKey(file.getParent()), file.getFileName().toString());
+		}
+		rewrite();
+		LOGGER.info(String.format("store index rebuilt, %d files [%s]", entries, root));
+	}
+
+	/*
+	 * write the live entries to a new log, then swap it in
+	 * */
+	private void rewrite() throws IOException {
+		close();
+		Path tmp = logFile.resolveSibling(INDEX_FILE + ".tmp");
+		try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			for(Map.Entry<String, Set<String>> folder:folders.entrySet()){
+				for(String name:folder.getValue()){
+					ByteBuffer record = ByteBuffer.wrap(encode(ADD, folder.getKey(), name));
+					while(record.hasRemaining()){
+						out.write(record);
+					}
+				}
+			}
+			out.force(true);
+		}
+		Files.move(tmp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		records = entries;
+		openLog(Files.size(logFile));
+	}
+
+}
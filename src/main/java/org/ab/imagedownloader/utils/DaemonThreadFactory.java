@@ -0,0 +1,31 @@
+package org.ab.imagedownloader.utils;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Names pool threads after the stage they serve, and marks them as daemons.
+ * 
+ * note: pools are now long lived (shared across pages), so they must not keep the JVM alive once the
+ * calling code has finished with them
+ * */
+@ParametersAreNonnullByDefault
+public class DaemonThreadFactory implements ThreadFactory {
+
+	private final String prefix;
+	private final AtomicInteger count = new AtomicInteger();
+	
+	public DaemonThreadFactory(String prefix) {
+		this.prefix = prefix;
+	}
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+	
+}
@@ -0,0 +1,241 @@
+package org.ab.imagedownloader.utils;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.PostConstruct;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.spi.IIORegistry;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+
+import org.ab.imagedownloader.IDConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.annotations.VisibleForTesting;
+/**
+ * Reads the image dimensions from its header first. If the image is much wider than the largest resize, it is decoded with 
+ * source subsampling - only every n-th pixel (in each direction) is decoded, so a large original never has its full raster in memory.
+ * 
+ * note: the reduced image is kept at least OVERSAMPLING times the largest resize width, so the resize still has pixels to 
+ * filter from - subsampling alone is a crude (nearest neighbour) downscale
+ * 
+ * An image with more pixels than 'image.resizers.max.pixels' is not decoded at all - a small file can declare a huge raster
+ * 
+ * An image that would still decode to more than 'image.resizers.strip.threshold_pixels' (a very tall image, say - subsampling 
+ * is set by width) is read in horizontal strips of about 'image.resizers.strip.pixels' each. Every strip is scaled into the 
+ * reduced image and dropped before the next is read, so the heap needed is set by the reduced image, not the original
+ * 
+ * Decoded images are always TYPE_INT_RGB or TYPE_INT_ARGB (see PixelFormats), converted once here rather than on every resize step
+ * 
+ * Each thread keeps the ImageReader of every format it has decoded, reset and reused for the next image of that format 
+ * (ImageIO.getImageReaders creates a new reader for every call)
+ * */
+@ParametersAreNonnullByDefault
+@Component
+public class DefaultImageDecoder implements ImageDecoder {
+
+	private static final int OVERSAMPLING = 2;
+	/*decoded images are at most 4 bytes a pixel (e.g. TYPE_INT_ARGB, TYPE_4BYTE_ABGR), as are normalised ones*/
+	private static final int BYTES_PER_PIXEL = 4;
+	
+	@Autowired
+	private IDConfiguration iDConfiguration;
+	
+	/*reader provider -> reader, for the decoding thread*/
+	private final ThreadLocal<Map<ImageReaderSpi, ImageReader>> readers = ThreadLocal.withInitial(HashMap::new);
+	
+	private long maxPixels;
+	private long stripThreshold;
+	private long stripPixels;
+	
+	@PostConstruct
+	void init(){
+		maxPixels = iDConfiguration.getImageResizeMaxPixels();
+		stripThreshold = iDConfiguration.getImageResizeStripThreshold();
+		stripPixels = Math.max(1, iDConfiguration.getImageResizeStripPixels());
+	}
+	
+	@Override
+	public Optional<DecodedImage> decode(ImageInputStream input, int largestWidth) throws IOException {
+		
+		Optional<ImageReaderSpi> provider = provider(input);
+		if(!provider.isPresent()){
+			return Optional.empty();
+		}
+		
+		ImageReader reader = reader(provider.get());
+		boolean decoded = false;
+		try{
+			reader.setInput(input, true, true);
+			int width = reader.getWidth(0);
+			int height = reader.getHeight(0);
+			if(maxPixels > 0 && (long) width * height > maxPixels){
+				throw new ImageTooLargeException(String.format("image is %dx%d, more than %d pixels. not decoding", width, height, maxPixels));
+			}
+			
+			int subsampling = subsampling(width, largestWidth);
+			long decodedPixels = (long) (width / subsampling) * (height / subsampling);
+			if(stripThreshold > 0 && decodedPixels > stripThreshold){
+				BufferedImage image = decodeInStrips(reader, width, height, largestWidth, subsampling);
+				decoded = true;
+				return Optional.of(new DecodedImage(image, width, height, subsampling));
+			}
+			
+			ImageReadParam param = reader.getDefaultReadParam();
+			if(subsampling > 1){
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+			}
+			BufferedImage image = reader.read(0, param);
+			decoded = true;
+			BufferedImage normalised = PixelFormats.normalise(image);
+			if(normalised != image){
+				image.flush();
+			}
+			return Optional.of(new DecodedImage(normalised, width, height, subsampling));
+		}finally{
+			release(provider.get(), reader, decoded);
+		}
+	}
+	
+	/*
+	 * the first registered provider that recognises the input - the order ImageIO.getImageReaders uses
+	 * */
+	private static Optional<ImageReaderSpi> provider(ImageInputStream input) {
+		Iterator<ImageReaderSpi> providers = IIORegistry.getDefaultInstance().getServiceProviders(ImageReaderSpi.class, true);
+		while(providers.hasNext()){
+			ImageReaderSpi provider = providers.next();
+			if(canDecode(provider, input)){
+				return Optional.of(provider);
+			}
+		}
+		return Optional.empty();
+	}
+	
+	/*
+	 * note: a provider that fails on a short input has not always reset the stream - so it is reset here (as ImageIO does)
+	 * */
+	private static boolean canDecode(ImageReaderSpi provider, ImageInputStream input) {
+		input.mark();
+		try{
+			return provider.canDecodeInput(input);
+		}catch(IOException e){
+			return false;
+		}finally{
+			try{
+				input.reset();
+			}catch(IOException e){
+				//nothing marked
+			}
+		}
+	}
+	
+	private ImageReader reader(ImageReaderSpi provider) throws IOException {
+		ImageReader reader = readers.get().get(provider);
+		if(reader == null){
+			reader = provider.createReaderInstance();
+			readers.get().put(provider, reader);
+		}
+		return reader;
+	}
+	
+	private void release(ImageReaderSpi provider, ImageReader reader, boolean decoded){
+		if(decoded){
+			//note: drops the input, so the reader does not hold the last image's stream
+			reader.reset();
+		}else{
+			//a reader that failed part way (or was given a bad image) is not trusted again
+			readers.get().remove(provider);
+			reader.dispose();
+		}
+	}
+	
+	/*
+	 * note: most readers decode from the start of the image data again for every strip (skipping the rows above it), so strips 
+	 * are kept large - this trades decode time for a bounded heap, and is only used above the threshold
+	 * */
+	private BufferedImage decodeInStrips(ImageReader reader, int width, int height, int largestWidth, int subsampling) throws IOException {
+		
+		int targetWidth = stripTargetWidth(width, largestWidth);
+		int targetHeight = stripTargetHeight(width, height, targetWidth);
+		ImageTypeSpecifier rawType = reader.getRawImageType(0);
+		boolean alpha = rawType != null && rawType.getColorModel().hasAlpha();
+		BufferedImage target = new BufferedImage(targetWidth, targetHeight, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		
+		//note: strips start on a multiple of the subsampling, so every strip samples the same grid of source pixels
+		int stripRows = stripRows(width, height, subsampling);
+		ImageReadParam param = reader.getDefaultReadParam();
+		param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+		
+		Graphics2D graphics = target.createGraphics();
+		try{
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			for(int y = 0; y < height; y += stripRows){
+				int rows = Math.min(stripRows, height - y);
+				param.setSourceRegion(new Rectangle(0, y, width, rows));
+				BufferedImage strip = reader.read(0, param);
+				
+				int top = (int) ((long) y * targetHeight / height);
+				int bottom = (int) ((long) (y + rows) * targetHeight / height);
+				if(bottom > top){
+					graphics.drawImage(strip, 0, top, targetWidth, bottom, 0, 0, strip.getWidth(), strip.getHeight(), null);
+				}
+				strip.flush();
+			}
+		}finally{
+			graphics.dispose();
+		}
+		return target;
+	}
+	
+	@Override
+	public long estimateBytes(int width, int height, int largestWidth) {
+		int subsampling = subsampling(width, largestWidth);
+		long decodedPixels = (long) (width / subsampling) * (height / subsampling);
+		if(stripThreshold > 0 && decodedPixels > stripThreshold){
+			int targetWidth = stripTargetWidth(width, largestWidth);
+			long stripDecodedPixels = (long) (width / subsampling) * (stripRows(width, height, subsampling) / subsampling);
+			decodedPixels = (long) targetWidth * stripTargetHeight(width, height, targetWidth) + stripDecodedPixels;
+			return decodedPixels * BYTES_PER_PIXEL;
+		}
+		//the decoded image and its normalised copy, both held while converting
+		return decodedPixels * BYTES_PER_PIXEL * 2;
+	}
+	
+	private static int stripTargetWidth(int width, int largestWidth){
+		return largestWidth > 0 ? Math.min(width, largestWidth * OVERSAMPLING) : width;
+	}
+	
+	private static int stripTargetHeight(int width, int height, int targetWidth){
+		return Math.max(1, (int) Math.round((double) height * targetWidth / width));
+	}
+	
+	private int stripRows(int width, int height, int subsampling){
+		return Math.max(subsampling, (int) Math.min(height, stripPixels / width) / subsampling * subsampling);
+	}
+	
+	@VisibleForTesting
+	static int subsampling(int sourceWidth, int largestWidth){
+		if(largestWidth <= 0){
+			return 1;
+		}
+		return Math.max(1, sourceWidth / (largestWidth * OVERSAMPLING));
+	}
+	
+	@VisibleForTesting
+	void setiDConfiguration(IDConfiguration iDConfiguration) {
+		this.iDConfiguration = iDConfiguration;
+	}
+	
+}
@@ -0,0 +1,174 @@
+package org.ab.imagedownloader.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Component;
+/**
+ * Reads the dimensions of PNG, GIF, JPEG, BMP and WebP images from their headers, without decoding anything.
+ *
+ * note: a JPEG's dimensions are in its SOF segment, which follows any metadata segments (EXIF, ICC profiles...). A prefix that
+ * ends before the SOF segment gives no header
+ * */
+@ParametersAreNonnullByDefault
+@Component
+public class DefaultImageHeaderParser implements ImageHeaderParser {
+
+	private static final Logger LOGGER = Logger.getLogger(DefaultImageHeaderParser.class);
+	
+	private static final int HEADER_BYTES = 64 * 1024;
+	
+	private static final byte[] PNG_SIGNATURE = {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+	@Override
+	public Optional<ImageHeader> parse(ByteBuffer prefix) {
+		ByteBuffer bytes = prefix.slice();
+		try{
+			if(startsWith(bytes, 0, PNG_SIGNATURE)){
+				return png(bytes);
+			}
+			if(startsWith(bytes, 0, "GIF8".getBytes())){
+				return gif(bytes);
+			}
+			if(bytes.remaining() >= 2 && (bytes.get(0) & 0xff) == 0xff && (bytes.get(1) & 0xff) == 0xd8){
+				return jpeg(bytes);
+			}
+			if(startsWith(bytes, 0, "BM".getBytes())){
+				return bmp(bytes);
+			}
+			if(startsWith(bytes, 0, "RIFF".getBytes()) && startsWith(bytes, 8, "WEBP".getBytes())){
+				return webp(bytes);
+			}
+		}catch(IndexOutOfBoundsException e){
+			//header truncated
+		}
+		return Optional.empty();
+	}
+	
+	@Override
+	public Optional<ImageHeader> read(Path file) {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while(buffer.hasRemaining() && channel.read(buffer) >= 0){
+				//read the first bytes
+			}
+		} catch (IOException e) {
+			LOGGER.debug(String.format("could not read the header of [%s], error: %s", file, e.getMessage()));
+			return Optional.empty();
+		}
+		buffer.flip();
+		return parse(buffer);
+	}
+
+	private Optional<ImageHeader> png(ByteBuffer bytes) {
+		//IHDR is always the first chunk
+		if(!startsWith(bytes, 12, "IHDR".getBytes())){
+			return Optional.empty();
+		}
+		bytes.order(ByteOrder.BIG_ENDIAN);
+		return header("png", bytes.getInt(16), bytes.getInt(20));
+	}
+
+	private Optional<ImageHeader> gif(ByteBuffer bytes) {
+		bytes.order(ByteOrder.LITTLE_ENDIAN);
+		return header("gif", bytes.getShort(6) & 0xffff, bytes.getShort(8) & 0xffff);
+	}
+
+	/*
+	 * walk the segments to the first start of frame
+	 * */
+	private Optional<ImageHeader> jpeg(ByteBuffer bytes) {
+		bytes.order(ByteOrder.BIG_ENDIAN);
+		int position = 2;
+		while(position + 4 <= bytes.limit()){
+			if((bytes.get(position) & 0xff) != 0xff){
+				return Optional.empty();
+			}
+			int marker = bytes.get(position + 1) & 0xff;
+			if(marker == 0xff){
+				//fill byte
+				position++;
+				continue;
+			}
+			if(marker == 0x01 || (marker >= 0xd0 && marker <= 0xd8)){
+				//no length
+				position += 2;
+				continue;
+			}
+			if(isStartOfFrame(marker)){
+				return header("jpg", bytes.getShort(position + 7) & 0xffff, bytes.getShort(position + 5) & 0xffff);
+			}
+			if(marker == 0xda || marker == 0xd9){
+				//image data, or the end of the image, before any frame header
+				return Optional.empty();
+			}
+			position += 2 + (bytes.getShort(position + 2) & 0xffff);
+		}
+		return Optional.empty();
+	}
+
+	/*note: 0xc4 (huffman tables), 0xc8 (reserved) and 0xcc (arithmetic coding) share the SOF marker range*/
+	private static boolean isStartOfFrame(int marker) {
+		return marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc;
+	}
+
+	private Optional<ImageHeader> bmp(ByteBuffer bytes) {
+		bytes.order(ByteOrder.LITTLE_ENDIAN);
+		if(bytes.getInt(14) == 12){
+			//OS/2 header, 16 bit dimensions
+			return header("bmp", bytes.getShort(18) & 0xffff, bytes.getShort(20) & 0xffff);
+		}
+		//note: a negative height is a top down bitmap
+		return header("bmp", bytes.getInt(18), Math.abs(bytes.getInt(22)));
+	}
+
+	private Optional<ImageHeader> webp(ByteBuffer bytes) {
+		bytes.order(ByteOrder.LITTLE_ENDIAN);
+		if(startsWith(bytes, 12, "VP8 ".getBytes())){
+			//lossy - 14 bit dimensions after the frame start code
+			return header("webp", bytes.getShort(26) & 0x3fff, bytes.getShort(28) & 0x3fff);
+		}
+		if(startsWith(bytes, 12, "VP8L".getBytes())){
+			//lossless - 14 bit (width - 1), (height - 1), packed after the signature byte
+			int bits = bytes.getInt(21);
+			return header("webp", (bits & 0x3fff) + 1, ((bits >> 14) & 0x3fff) + 1);
+		}
+		if(startsWith(bytes, 12, "VP8X".getBytes())){
+			//extended - 24 bit (width - 1), (height - 1)
+			return header("webp", uint24(bytes, 24) + 1, uint24(bytes, 27) + 1);
+		}
+		return Optional.empty();
+	}
+
+	private static int uint24(ByteBuffer bytes, int index) {
+		return (bytes.get(index) & 0xff) | (bytes.get(index + 1) & 0xff) << 8 | (bytes.get(index + 2) & 0xff) << 16;
+	}
+
+	private static Optional<ImageHeader> header(String format, int width, int height) {
+		if(width <= 0 || height <= 0){
+			return Optional.empty();
+		}
+		return Optional.of(new ImageHeader(format, width, height));
+	}
+
+	private static boolean startsWith(ByteBuffer bytes, int index, byte[] expected) {
+		if(bytes.limit() < index + expected.length){
+			return false;
+		}
+		for(int i = 0; i < expected.length; i++){
+			if(bytes.get(index + i) != expected[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -5,20 +5,29 @@ import java.util.Optional;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
+import org.ab.imagedownloader.utils.ResizeStrategy.Quality;
 import org.imgscalr.Scalr;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 /**
- * Using Scalr library.
+ * Using Scalr library ('image.resizers.impl=scalr', the default). The quality is Scalr's method - AUTOMATIC picks one by the 
+ * target size.
  * */
 @ParametersAreNonnullByDefault
 @Component
+@ConditionalOnProperty(name = "image.resizers.impl", havingValue = "scalr", matchIfMissing = true)
 public class DefaultImageResizer implements ImageResizer {
 
 	@Override
 	public Optional<BufferedImage> resize(BufferedImage srcImg, int destinationWidth) {
+		return resize(srcImg, destinationWidth, Quality.AUTOMATIC);
+	}
+	
+	@Override
+	public Optional<BufferedImage> resize(BufferedImage srcImg, int destinationWidth, Quality quality) {
 				
 		Scalr.Mode scaleMode = Scalr.Mode.FIT_TO_WIDTH;				
-		BufferedImage destImage = Scalr.resize(srcImg, scaleMode, destinationWidth);
+		BufferedImage destImage = Scalr.resize(srcImg, Scalr.Method.valueOf(quality.name()), scaleMode, destinationWidth);
 		
 		return destImage == null ? Optional.empty() : Optional.of(destImage); 
 	}
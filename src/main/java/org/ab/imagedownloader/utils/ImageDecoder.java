@@ -0,0 +1,58 @@
+package org.ab.imagedownloader.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Optional;
+
+import javax.imageio.stream.ImageInputStream;
+
+public interface ImageDecoder {
+
+	/**
+	 * decode an image, decoding no more pixels than resizing it to 'largestWidth' needs. empty if the format is not supported
+	 * */
+	Optional<DecodedImage> decode(ImageInputStream input, int largestWidth) throws IOException;
+	
+	/**
+	 * roughly the heap that decoding an image of this size, for resizing to 'largestWidth', takes
+	 * */
+	long estimateBytes(int width, int height, int largestWidth);
+	
+	/**
+	 * the decoded (possibly reduced) image, and the dimensions of the original
+	 * */
+	public static class DecodedImage {
+		
+		private final BufferedImage image;
+		private final int sourceWidth;
+		private final int sourceHeight;
+		private final int subsampling;
+		
+		public DecodedImage(BufferedImage image, int sourceWidth, int sourceHeight, int subsampling) {
+			this.image = image;
+			this.sourceWidth = sourceWidth;
+			this.sourceHeight = sourceHeight;
+			this.subsampling = subsampling;
+		}
+
+		public BufferedImage getImage() {
+			return image;
+		}
+
+		public int getSourceWidth() {
+			return sourceWidth;
+		}
+
+		public int getSourceHeight() {
+			return sourceHeight;
+		}
+
+		/**
+		 * 1 if every source pixel was decoded, n if one in n (in each direction) was
+		 * */
+		public int getSubsampling() {
+			return subsampling;
+		}
+	}
+	
+}
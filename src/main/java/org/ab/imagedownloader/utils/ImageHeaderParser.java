@@ -0,0 +1,54 @@
+package org.ab.imagedownloader.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Optional;
+
+public interface ImageHeaderParser {
+
+	/**
+	 * format and dimensions from the first bytes of an image. empty if the format is not recognised, or the header is not
+	 * complete in 'prefix'
+	 * */
+	Optional<ImageHeader> parse(ByteBuffer prefix);
+	
+	/**
+	 * format and dimensions from the first bytes of 'file'. empty if the file can not be read, or as for parse
+	 * */
+	Optional<ImageHeader> read(Path file);
+
+	public static class ImageHeader {
+
+		private final String format;
+		private final int width;
+		private final int height;
+
+		public ImageHeader(String format, int width, int height) {
+			this.format = format;
+			this.width = width;
+			this.height = height;
+		}
+
+		public String getFormat() {
+			return format;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		public long getPixels() {
+			return (long) width * height;
+		}
+
+		@Override
+		public String toString() {
+			return "ImageHeader [format=" + format + ", width=" + width + ", height=" + height + "]";
+		}
+	}
+
+}
@@ -1,10 +1,52 @@
 package org.ab.imagedownloader.utils;
 
 import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.BiConsumer;
+
+import org.ab.imagedownloader.utils.ResizeStrategy.Quality;
 
 public interface ImageResizer {
 
 	Optional<BufferedImage> resize(BufferedImage bimg, int destinationWidth);
+	
+	/**
+	 * by default the quality is ignored
+	 * */
+	default Optional<BufferedImage> resize(BufferedImage bimg, int destinationWidth, Quality quality) {
+		return resize(bimg, destinationWidth);
+	}
+	
+	/**
+	 * every width (in descending order) of 'source'. a width that could not be resized is left out
+	 * */
+	default Map<Integer, BufferedImage> resizeAll(BufferedImage source, List<Integer> widths, ResizeStrategy strategy) {
+		Map<Integer, BufferedImage> resized = new HashMap<>();
+		resizeAll(source, widths, strategy, resized::put);
+		return resized;
+	}
+	
+	/**
+	 * every width (in descending order) of 'source', each handed to 'ready' as soon as it is complete - so it can be encoded 
+	 * while the smaller widths are resized. a width that could not be resized is left out
+	 * 
+	 * by default each width is resized at the strategy's quality for it - from the one before it (a cascade of smaller and 
+	 * smaller, cheaper, resizes), or from 'source' if the strategy is not to cascade. a width equal to the source's is the 
+	 * source itself
+	 * */
+	default void resizeAll(BufferedImage source, List<Integer> widths, ResizeStrategy strategy, BiConsumer<Integer, BufferedImage> ready) {
+		BufferedImage previous = source;
+		for(Integer width:widths){
+			BufferedImage from = strategy.isCascade() ? previous : source;
+			Optional<BufferedImage> next = from.getWidth() == width ? Optional.of(from) : resize(from, width, strategy.getQuality(width));
+			if(next.isPresent()){
+				ready.accept(width, next.get());
+				previous = next.get();
+			}
+		}
+	}
 		
 }
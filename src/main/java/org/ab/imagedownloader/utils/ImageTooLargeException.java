@@ -0,0 +1,15 @@
+package org.ab.imagedownloader.utils;
+
+import java.io.IOException;
+
+/**
+ * the image has more pixels than may be decoded ('image.resizers.max.pixels')
+ * */
+public class ImageTooLargeException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ImageTooLargeException(String message){
+		super(message);
+	}
+}
@@ -0,0 +1,107 @@
+package org.ab.imagedownloader.utils;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.WritableRaster;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+/**
+ * Converts decoded images to TYPE_INT_RGB (or TYPE_INT_ARGB, when they have alpha) - the layout Java2D, Scalr and the Lanczos 
+ * resizer all have fast paths for. Paletted, grey, byte interleaved and TYPE_CUSTOM (16 bit, odd channel orders) images 
+ * otherwise go through the colour model a pixel at a time, on every resize step.
+ * 
+ * note: standard types are converted by a Java2D blit (native loops). TYPE_CUSTOM has no blit loop - Java2D falls back to a 
+ * per pixel path anyway. 16 bit sRGB (the usual TYPE_CUSTOM, from 16 bit PNGs) is converted straight from its samples, anything
+ * else a row at a time through its colour model
+ * */
+@ParametersAreNonnullByDefault
+public final class PixelFormats {
+
+	private PixelFormats(){
+	}
+	
+	public static boolean isNormalised(BufferedImage image){
+		return image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB;
+	}
+	
+	/**
+	 * 'image' itself if it is already TYPE_INT_RGB or TYPE_INT_ARGB, otherwise a converted copy
+	 * */
+	public static BufferedImage normalise(BufferedImage image){
+		if(isNormalised(image)){
+			return image;
+		}
+		int width = image.getWidth();
+		int height = image.getHeight();
+		BufferedImage normalised = new BufferedImage(width, height, image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		
+		if(image.getType() == BufferedImage.TYPE_CUSTOM && isSixteenBitRgb(image)){
+			fromSixteenBit(image, normalised);
+			return normalised;
+		}
+		if(image.getType() == BufferedImage.TYPE_CUSTOM){
+			int[] row = new int[width];
+			for(int y = 0; y < height; y++){
+				image.getRGB(0, y, width, 1, row, 0, width);
+				normalised.getRaster().setDataElements(0, y, width, 1, row);
+			}
+			return normalised;
+		}
+		
+		//note: a straight copy - grey values are kept as they are, not gamma converted as getRGB does
+		Graphics2D graphics = normalised.createGraphics();
+		try{
+			graphics.setComposite(AlphaComposite.Src);
+			graphics.drawImage(image, 0, 0, null);
+		}finally{
+			graphics.dispose();
+		}
+		return normalised;
+	}
+	
+	private static boolean isSixteenBitRgb(BufferedImage image){
+		ColorModel model = image.getColorModel();
+		return model instanceof ComponentColorModel 
+				&& image.getRaster().getDataBuffer() instanceof DataBufferUShort
+				&& image.getSampleModel() instanceof PixelInterleavedSampleModel
+				&& model.getColorSpace().isCS_sRGB()
+				&& !model.isAlphaPremultiplied()
+				&& model.getNumComponents() == (model.hasAlpha() ? 4 : 3);
+	}
+	
+	/*
+	 * r, g, b (, a) samples read from the raster's array, scaled to 8 bits with rounding - as the colour model does
+	 * */
+	private static void fromSixteenBit(BufferedImage image, BufferedImage normalised){
+		int width = image.getWidth();
+		boolean alpha = image.getColorModel().hasAlpha();
+		WritableRaster raster = image.getRaster();
+		PixelInterleavedSampleModel layout = (PixelInterleavedSampleModel) raster.getSampleModel();
+		short[] samples = ((DataBufferUShort) raster.getDataBuffer()).getData();
+		int[] bands = layout.getBandOffsets();
+		int pixelStride = layout.getPixelStride();
+		//note: a raster can be a child of a larger one
+		int origin = raster.getDataBuffer().getOffset() 
+				- raster.getSampleModelTranslateY() * layout.getScanlineStride() - raster.getSampleModelTranslateX() * pixelStride;
+		
+		int[] row = new int[width];
+		for(int y = 0; y < image.getHeight(); y++){
+			int i = origin + y * layout.getScanlineStride();
+			for(int x = 0; x < width; x++, i += pixelStride){
+				int a = alpha ? toByte(samples[i + bands[3]]) : 0xFF;
+				row[x] = a << 24 | toByte(samples[i + bands[0]]) << 16 | toByte(samples[i + bands[1]]) << 8 | toByte(samples[i + bands[2]]);
+			}
+			normalised.getRaster().setDataElements(0, y, width, 1, row);
+		}
+	}
+	
+	private static int toByte(short sixteenBit){
+		return ((sixteenBit & 0xFFFF) * 255 + 32767) / 65535;
+	}
+	
+}
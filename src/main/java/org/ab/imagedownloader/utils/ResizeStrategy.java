@@ -0,0 +1,64 @@
+package org.ab.imagedownloader.utils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+/**
+ * How ImageResizer.resizeAll makes each width - the quality (and so speed) of the resize, per width, and whether each width is 
+ * resized from the one before it (cascade) or from the original.
+ * 
+ * note: the qualities are Scalr's methods. AUTOMATIC lets the resizer choose (Scalr by target size)
+ * */
+@ParametersAreNonnullByDefault
+public final class ResizeStrategy {
+
+	public enum Quality { AUTOMATIC, SPEED, BALANCED, QUALITY, ULTRA_QUALITY }
+	
+	/*how widths were always resized - Scalr's choice of method, each width from the previous*/
+	public static final ResizeStrategy DEFAULT = new ResizeStrategy(Quality.AUTOMATIC, Collections.emptyMap(), true);
+	
+	private final Quality quality;
+	private final Map<Integer, Quality> qualityByWidth;
+	private final boolean cascade;
+	
+	public ResizeStrategy(Quality quality, Map<Integer, Quality> qualityByWidth, boolean cascade) {
+		this.quality = quality;
+		this.qualityByWidth = Collections.unmodifiableMap(new HashMap<>(qualityByWidth));
+		this.cascade = cascade;
+	}
+	
+	public Quality getQuality(int width) {
+		return qualityByWidth.getOrDefault(width, quality);
+	}
+	
+	public boolean isCascade() {
+		return cascade;
+	}
+	
+	/**
+	 * 'width:QUALITY' entries (e.g. '100:SPEED'), as in 'image.resizers.quality.widths'. blank entries are ignored
+	 * */
+	public static Map<Integer, Quality> parseWidths(List<String> entries) {
+		Map<Integer, Quality> qualities = new HashMap<>();
+		for(String entry:entries){
+			if(entry.trim().isEmpty()){
+				continue;
+			}
+			String[] parts = entry.trim().split(":");
+			if(parts.length != 2){
+				throw new IllegalArgumentException(String.format("expected width:quality, not [%s]", entry));
+			}
+			qualities.put(Integer.valueOf(parts[0].trim()), Quality.valueOf(parts[1].trim().toUpperCase()));
+		}
+		return qualities;
+	}
+
+	@Override
+	public String toString() {
+		return "ResizeStrategy [quality=" + quality + ", qualityByWidth=" + qualityByWidth + ", cascade=" + cascade + "]";
+	}
+	
+}
@@ -0,0 +1,68 @@
+#!/bin/sh
+#
+# Native resize worker for 'image.resizers.native.command' (see NativeResizeWorkers) - resizes with vipsthumbnail if installed,
+# otherwise ImageMagick (magick, or convert).
+#
+# Prints 'READY <tool>', then for every request line - the source file, then width, format and destination for each resized
+# version, tab separated - writes each version and replies 'OK', or 'ERROR <message>'. Exits when its input is closed.
+#
+# note: the tool is run once per version. this loop is the long lived process - the JVM never starts a process per image
+#
+if command -v vipsthumbnail >/dev/null 2>&1; then
+	TOOL=vipsthumbnail
+elif command -v magick >/dev/null 2>&1; then
+	TOOL=magick
+elif command -v convert >/dev/null 2>&1; then
+	TOOL=convert
+else
+	echo "UNAVAILABLE neither vipsthumbnail nor ImageMagick is installed"
+	exit 1
+fi
+echo "READY $TOOL"
+
+TAB=$(printf '\t')
+
+# resize <source> <width> <format> <destination>
+resize() {
+	case "$TOOL" in
+	vipsthumbnail)
+		# note: alpha is flattened onto white for formats without it, as the Java encoder does
+		if [ "$3" = "png" ]; then
+			vipsthumbnail "$1" --size "$2"x --output "$4"
+		else
+			vipsthumbnail "$1" --size "$2"x --output "$4[Q=85,background=255]"
+		fi
+		;;
+	*)
+		# note: [0] - the first frame of an animated image only
+		if [ "$3" = "png" ]; then
+			"$TOOL" "$1[0]" -auto-orient -resize "$2"x "$4"
+		else
+			"$TOOL" "$1[0]" -auto-orient -resize "$2"x -background white -flatten -quality 85 "$4"
+		fi
+		;;
+	esac
+}
+
+while IFS= read -r line; do
+	set -f
+	IFS=$TAB
+	set -- $line
+	unset IFS
+	set +f
+	source=$1
+	shift
+	error=""
+	while [ $# -ge 3 ]; do
+		if ! output=$(resize "$source" "$1" "$2" "$3" 2>&1); then
+			error="$1 $2: $(echo "$output" | tr '\n\t' '  ')"
+			break
+		fi
+		shift 3
+	done
+	if [ -z "$error" ]; then
+		echo "OK"
+	else
+		echo "ERROR $error"
+	fi
+done
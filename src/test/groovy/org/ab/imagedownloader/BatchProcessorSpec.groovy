@@ -0,0 +1,56 @@
+package org.ab.imagedownloader
+
+import spock.lang.Specification
+
+import org.ab.imagedownloader.urlprocessor.ProcessingContext
+
+class BatchProcessorSpec extends Specification {
+
+	BatchProcessor batchProcessor
+	
+	def config = Mock(IDConfiguration)
+	def imageDownloader = Mock(ImageDownloader)
+	
+	def setup(){
+		config.getBatchPageConcurrency() >> 2
+		
+		batchProcessor = new BatchProcessor()
+		batchProcessor.setiDConfiguration(config)
+		batchProcessor.setImageDownloader(imageDownloader)
+	}
+	
+	def "Batch: every page processed with one shared context"(){
+		given:
+		def batch = new BufferedReader(new StringReader(
+			"# comment\n" +
+			"http://example.com/1.html\n" +
+			"\n" +
+			"http://example.com/2.html   build/other\n" +
+			"build/test/index.html\n"))
+		def contexts = [] as Set
+		
+		when:
+		BatchProcessor.BatchResult result = batchProcessor.process(batch, "build/test")
+		
+		then:
+		1 * imageDownloader.process("http://example.com/1.html", "build/test", _ as ProcessingContext) >> { url, out, ctx -> contexts << ctx; true }
+		1 * imageDownloader.process("http://example.com/2.html", "build/other", _ as ProcessingContext) >> { url, out, ctx -> contexts << ctx; true }
+		1 * imageDownloader.process("build/test/index.html", "build/test", _ as ProcessingContext) >> { url, out, ctx -> contexts << ctx; false }
+		contexts.size() == 1
+		result.getProcessed() == 2
+		result.getFailed() == 1
+	}
+	
+	def "Batch: parse lines"(){
+		expect:
+		batchProcessor.parseLine(line, "default") as List == expected
+		
+		where:
+		line 								| expected
+		"" 									| []
+		"   " 								| []
+		"#http://example.com" 				| []
+		"http://example.com" 				| ["http://example.com", "default"]
+		"  http://example.com\tout/dir  "	| ["http://example.com", "out/dir"]
+	}
+}
@@ -0,0 +1,192 @@
+package org.ab.imagedownloader.api
+
+import java.nio.file.Paths
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import org.ab.imagedownloader.IDConfiguration
+import org.ab.imagedownloader.ImageDownloader
+import org.ab.imagedownloader.obj.ImgRequest
+import org.ab.imagedownloader.obj.URLRequest
+import org.ab.imagedownloader.urlprocessor.ProcessingContext
+
+class JobServiceSpec extends Specification {
+
+	JobService jobService
+	
+	def config = Mock(IDConfiguration)
+	def imageDownloader = Mock(ImageDownloader)
+	def conditions = new PollingConditions(timeout: 5)
+	
+	def setup(){
+		config.getJobConcurrency() >> 1
+		config.getJobQueueSize() >> 1
+		config.getJobRetained() >> 1
+		config.getJobOutputFolder() >> "build/test"
+		
+		jobService = new JobService()
+		jobService.setiDConfiguration(config)
+		jobService.setImageDownloader(imageDownloader)
+		jobService.init()
+	}
+	def cleanup(){
+		jobService.shutdown()
+	}
+	
+	def "Job: submitted, progress reported per image, completed"(){
+		given:
+		CountDownLatch release = new CountDownLatch(1)
+		URLRequest page = new URLRequest("http://example.com", URLRequest.URLType.HOSTED_FILE, "build/test")
+		imageDownloader.process("http://example.com", "build/test", _ as ProcessingContext) >> { url, out, ProcessingContext ctx ->
+			ctx.getListener().imageQueued(page, "http://example.com/1.jpg")
+			ctx.getListener().imageQueued(page, "http://example.com/2.jpg")
+			ctx.getListener().imageCompleted(page, new ImgRequest("http://example.com/1.jpg", out, ImgRequest.Status.OK))
+			release.await(5, TimeUnit.SECONDS)
+			true
+		}
+		
+		when:
+		Optional<Job> job = jobService.submit("http://example.com", null)
+		
+		then:
+		job.isPresent()
+		conditions.eventually {
+			Job running = jobService.getJob(job.get().getId()).get()
+			assert running.getState() == Job.State.RUNNING
+			assert running.getImageCount() == 2
+			assert running.getCompletedCount() == 1
+		}
+		
+		when:
+		release.countDown()
+		
+		then:
+		conditions.eventually {
+			assert jobService.getJob(job.get().getId()).get().getState() == Job.State.COMPLETE
+		}
+	}
+	
+	def "Job: failed page"(){
+		given:
+		imageDownloader.process(_, _, _) >> false
+		
+		when:
+		Optional<Job> job = jobService.submit("http://example.com/missing", "site")
+		
+		then:
+		conditions.eventually {
+			assert jobService.getJob(job.get().getId()).get().getState() == Job.State.FAILED
+		}
+	}
+	
+	def "Job: output folder resolved under the configured folder"(){
+		when:
+		Optional<Job> job = jobService.submit("http://example.com", "site/./pages")
+		
+		then:
+		job.get().getOutputFolder() == Paths.get("build/test", "site", "pages").toString()
+	}
+	
+	def "Job: rejected inputs"(){
+		when:
+		jobService.submit(url, output)
+		
+		then:
+		thrown(IllegalArgumentException)
+		0 * imageDownloader.process(_, _, _)
+		
+		where:
+		url							| output
+		"somegarbage"				| null
+		"build.gradle"				| null
+		"file:///etc/passwd"		| null
+		"ftp://example.com/page"	| null
+		"http://example.com"		| "/tmp/elsewhere"
+		"http://example.com"		| "../elsewhere"
+		"http://example.com"		| "site/../../elsewhere"
+	}
+	
+	def "Job: running jobs for the same output folder share seen images"(){
+		given:
+		def sharedConfig = Mock(IDConfiguration)
+		sharedConfig.getJobConcurrency() >> 3
+		sharedConfig.getJobQueueSize() >> 1
+		sharedConfig.getJobRetained() >> 10
+		sharedConfig.getJobOutputFolder() >> "build/test"
+		JobService service = new JobService()
+		service.setiDConfiguration(sharedConfig)
+		service.setImageDownloader(imageDownloader)
+		service.init()
+		
+		CountDownLatch running = new CountDownLatch(3)
+		CountDownLatch release = new CountDownLatch(1)
+		Map<String, Boolean> firstSeen = new ConcurrentHashMap<>()
+		imageDownloader.process(_, _, _ as ProcessingContext) >> { url, out, ProcessingContext ctx ->
+			running.countDown()
+			running.await(5, TimeUnit.SECONDS)
+			synchronized(firstSeen){
+				firstSeen.put(url, ctx.markSeen(out, "http://example.com/1.jpg"))
+			}
+			release.await(5, TimeUnit.SECONDS)
+			true
+		}
+		
+		when:
+		service.submit("http://example.com/a", "site")
+		service.submit("http://example.com/b", "site")
+		service.submit("http://example.com/c", "other")
+		running.await(5, TimeUnit.SECONDS)
+		
+		then:
+		conditions.eventually {
+			assert firstSeen.size() == 3
+		}
+		firstSeen["http://example.com/c"]
+		[firstSeen["http://example.com/a"], firstSeen["http://example.com/b"]].count { it } == 1
+		
+		when: "once they finish, a new job gets a fresh context"
+		release.countDown()
+		conditions.eventually {
+			assert service.jobs.values().every { it.isFinished() }
+		}
+		firstSeen.clear()
+		service.submit("http://example.com/d", "site")
+		
+		then:
+		conditions.eventually {
+			assert firstSeen["http://example.com/d"]
+		}
+		
+		cleanup:
+		service.shutdown()
+	}
+	
+	def "Job: unknown job"(){
+		expect:
+		!jobService.getJob("unknown").isPresent()
+	}
+	
+	def "Job: queue full"(){
+		given:
+		CountDownLatch release = new CountDownLatch(1)
+		imageDownloader.process(_, _, _) >> { release.await(5, TimeUnit.SECONDS); true }
+		
+		when:
+		Optional<Job> running = jobService.submit("http://example.com/1", null)
+		conditions.eventually {
+			assert jobService.getJob(running.get().getId()).get().getState() == Job.State.RUNNING
+		}
+		Optional<Job> queued = jobService.submit("http://example.com/2", null)
+		Optional<Job> rejected = jobService.submit("http://example.com/3", null)
+		release.countDown()
+		
+		then:
+		running.isPresent()
+		queued.isPresent()
+		!rejected.isPresent()
+	}
+}
@@ -0,0 +1,64 @@
+package org.ab.imagedownloader.crawl
+
+import spock.lang.Specification
+
+class CrawlFrontierSpec extends Specification {
+
+	def "CrawlFrontier - pages taken in the order found, each only once, spilling beyond memory"(){
+		given:
+		CrawlFrontier frontier = new CrawlFrontier(100, 0.01, 2)
+		List<String> taken = []
+		
+		when:
+		(0..4).each { frontier.offer("http://example.com/" + it, it) }
+		boolean offeredAgain = frontier.offer("http://example.com/3", 9)
+		3.times { taken << frontier.poll().get().getUrl() }
+		//note: found while the spilled pages are being read back
+		frontier.offer("http://example.com/5", 5)
+		Optional<CrawlFrontier.Page> page
+		while((page = frontier.poll()).isPresent()){
+			taken << page.get().getUrl()
+		}
+		
+		then:
+		!offeredAgain
+		taken == (0..5).collect { "http://example.com/" + it }
+		frontier.size() == 0
+		
+		cleanup:
+		frontier.close()
+	}
+	
+	def "CrawlFrontier - spilled pages keep their depth"(){
+		given:
+		CrawlFrontier frontier = new CrawlFrontier(100, 0.01, 1)
+		
+		when:
+		frontier.offer("http://example.com/", 0)
+		frontier.offer("http://example.com/a b", 3)
+		frontier.poll()
+		CrawlFrontier.Page spilled = frontier.poll().get()
+		
+		then:
+		spilled.getUrl() == "http://example.com/a b"
+		spilled.getDepth() == 3
+		
+		cleanup:
+		frontier.close()
+	}
+	
+	def "BloomFilter - no false negatives, false positives near the expected rate"(){
+		given:
+		BloomFilter filter = new BloomFilter(10000, 0.01)
+		
+		when:
+		(0..<10000).each { filter.add("http://example.com/page/" + it) }
+		int falsePositives = (0..<10000).count { filter.mightContain("http://example.com/other/" + it) }
+		
+		then:
+		(0..<10000).every { filter.mightContain("http://example.com/page/" + it) }
+		!filter.add("http://example.com/page/1")
+		falsePositives < 200
+	}
+	
+}
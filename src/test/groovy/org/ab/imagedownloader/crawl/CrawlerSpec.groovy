@@ -0,0 +1,112 @@
+package org.ab.imagedownloader.crawl
+
+import org.ab.imagedownloader.BatchProcessor
+import org.ab.imagedownloader.IDConfiguration
+import org.ab.imagedownloader.ImageDownloader
+import org.ab.imagedownloader.obj.URLRequest
+import org.ab.imagedownloader.urlprocessor.ProcessingContext
+
+import spock.lang.Specification
+
+class CrawlerSpec extends Specification {
+
+	Crawler crawler
+	
+	def config = Mock(IDConfiguration)
+	def imageDownloader = Mock(ImageDownloader)
+	
+	/*the links on each page of the site*/
+	Map<String, List<String>> site = [
+		"http://example.com/": ["http://example.com/a#top", "http://www.example.com/b", "http://other.com/c", "http://example.com/logo.png", 
+			"mailto:info@example.com", "http://example.com/a"],
+		"http://example.com/a": ["http://example.com/a/1", "http://example.com/"],
+		"http://www.example.com/b": ["http://example.com/b/1"],
+		"http://example.com/a/1": ["http://example.com/a/1/deep"]
+	]
+	
+	def setup(){
+		config.getSupportedSchemes() >> ["http", "https"]
+		config.getCrawlPageConcurrency() >> 2
+		config.getCrawlExpectedUrls() >> 1000
+		config.getCrawlFalsePositiveRate() >> 0.001d
+		config.getCrawlMemoryUrls() >> 1
+		config.getCrawlExpectedImages() >> 1000
+		config.getCrawlImagesFalsePositiveRate() >> 0.001d
+		
+		crawler = new Crawler()
+		crawler.setiDConfiguration(config)
+		crawler.setImageDownloader(imageDownloader)
+	}
+	
+	def "Crawl: same site pages followed once each, up to the depth and page limits"(){
+		given:
+		config.getCrawlMaxDepth() >> maxDepth
+		config.getCrawlMaxPages() >> maxPages
+		def contexts = [] as Set
+		def crawled = [] as Set
+		
+		when:
+		BatchProcessor.BatchResult result = crawler.crawl("http://Example.com#intro", "build/test")
+		
+		then:
+		_ * imageDownloader.process(_ as String, "build/test", _ as ProcessingContext) >> { String url, String out, ProcessingContext ctx ->
+			contexts << ctx
+			crawled << url
+			site.getOrDefault(url, []).each { ctx.getListener().linkFound(new URLRequest(url, URLRequest.URLType.HOSTED_FILE, out), it) }
+			return true
+		}
+		contexts.size() == 1
+		crawled == pages as Set
+		result.getProcessed() == pages.size()
+		
+		where:
+		maxDepth | maxPages | pages
+		0        | 0        | ["http://example.com/", "http://example.com/a", "http://www.example.com/b", "http://example.com/a/1", "http://example.com/b/1", "http://example.com/a/1/deep"]
+		1        | 0        | ["http://example.com/", "http://example.com/a", "http://www.example.com/b"]
+		0        | 2        | ["http://example.com/", "http://example.com/a"]
+	}
+	
+	def "Crawl: images seen on one page are not submitted again from another"(){
+		given:
+		config.getCrawlMaxDepth() >> 0
+		config.getCrawlMaxPages() >> 0
+		def firstSeen = [].asSynchronized()
+		
+		when:
+		BatchProcessor.BatchResult result = crawler.crawl("http://example.com/", "build/test")
+		
+		then:
+		_ * imageDownloader.process(_ as String, "build/test", _ as ProcessingContext) >> { String url, String out, ProcessingContext ctx ->
+			firstSeen << ctx.markSeen(out, "http://example.com/logo.png")
+			site.getOrDefault(url, []).each { ctx.getListener().linkFound(new URLRequest(url, URLRequest.URLType.HOSTED_FILE, out), it) }
+			return true
+		}
+		firstSeen.size() == 6
+		firstSeen.count { it } == 1
+		result.getImages() == 1
+	}
+	
+	def "Crawl: local start page rejected"(){
+		when:
+		BatchProcessor.BatchResult result = crawler.crawl("build/test/index.html", "build/test")
+		
+		then:
+		0 * imageDownloader._
+		result.getProcessed() == 0
+	}
+	
+	def "Crawl: pages of a link"(){
+		expect:
+		crawler.toPage(new URL("http://www.example.com/"), link) == Optional.ofNullable(page)
+		
+		where:
+		link 									| page
+		"http://example.com/a?b=1#c"			| "http://example.com/a?b=1"
+		"HTTPS://WWW.Example.com"				| "https://www.example.com/"
+		"http://example.com/a\n.html"			| "http://example.com/a.html"
+		"http://cdn.example.com/a" 				| null
+		"http://example.com/img/A.JPG"			| null
+		"ftp://example.com/a"					| null
+		"mailto:info@example.com" 				| null
+	}
+}
@@ -7,6 +7,14 @@ import org.ab.imagedownloader.IDConfiguration
 import org.ab.imagedownloader.urlprocessor.parse.DefaultImgExtractor
 import org.ab.imagedownloader.urlprocessor.process.DefaultDownloader
 import org.ab.imagedownloader.urlprocessor.process.DefaultResizer
+import org.ab.imagedownloader.urlprocessor.process.ResizeCostEstimator
+import org.ab.imagedownloader.urlprocessor.process.StageMetrics
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.function.Consumer
+import java.util.concurrent.atomic.AtomicInteger
 import org.ab.imagedownloader.obj.ImgRequest
 
 class DefaultURLProcessorSpec extends Specification {
@@ -23,7 +31,9 @@ class DefaultURLProcessorSpec extends Specification {
 	def setup(){		
 		config.getImageDownloadPool() >> 1
 		config.getImageResizePool() >> 1
+		config.getImageMaxInFlight() >> 2
 		config.getSupportedSchemes() >> ["http"]
+		imageDownloader.getConnectionPoolStats() >> Optional.empty()
 		
 		processor = new DefaultURLProcessor()
 				
@@ -31,6 +41,7 @@ class DefaultURLProcessorSpec extends Specification {
 		processor.setImgExtractor(imgExtractor)
 		processor.setImageDownloader(imageDownloader)
 		processor.setResizer(resizer)
+		processor.setStageMetrics(new StageMetrics())
 		
 		processor.init()
 		
@@ -43,7 +54,7 @@ class DefaultURLProcessorSpec extends Specification {
 		processor.process(request)
 		
 		then:
-		1 * imgExtractor.getImgSrcFromDoc(request) >> []
+		1 * imgExtractor.extractImgSrc(request, _) >> 0
 		0 * _
 		
 	}
@@ -54,11 +65,223 @@ class DefaultURLProcessorSpec extends Specification {
 		processor.process(request)
 		
 		then:
-		1 * imgExtractor.getImgSrcFromDoc(request) >> ["http://example.com/1", "http://example.com/2", "http://example.com/3"]		
+		1 * imgExtractor.extractImgSrc(request, _) >> emits(["http://example.com/1", "http://example.com/2", "http://example.com/3"])		
 		1 * imageDownloader.process("http://example.com/1", request) >> Mock(ImgRequest)
 		1 * imageDownloader.process("http://example.com/2", request) >> Mock(ImgRequest)
 		1 * imageDownloader.process("http://example.com/3", request) >> Mock(ImgRequest)
-		3 * resizer.process(_ as ImgRequest)
+		3 * resizer.processAsync(_ as ImgRequest) >> { ImgRequest img -> CompletableFuture.completedFuture(img) }
+		
+	}
+	
+	def "URL processor: images are downloaded while the page is still being read"(){
+		given:
+		CountDownLatch firstDownloaded = new CountDownLatch(1)
+		boolean downloadedBeforeSecond = false
+		
+		when:
+		processor.process(request)
+		
+		then:
+		1 * imgExtractor.extractImgSrc(request, _) >> { URLRequest page, Consumer<String> imgSrc ->
+			imgSrc.accept("http://example.com/1")
+			downloadedBeforeSecond = firstDownloaded.await(5, TimeUnit.SECONDS)
+			imgSrc.accept("http://example.com/2")
+			return 2
+		}
+		1 * imageDownloader.process("http://example.com/1", request) >> { firstDownloaded.countDown(); Mock(ImgRequest) }
+		1 * imageDownloader.process("http://example.com/2", request) >> Mock(ImgRequest)
+		2 * resizer.processAsync(_ as ImgRequest) >> { ImgRequest img -> CompletableFuture.completedFuture(img) }
+		downloadedBeforeSecond
+	}
+	
+	def "URL processor: more images than the in flight window"(){
+		given:
+		IDConfiguration windowConfig = Mock(IDConfiguration)
+		windowConfig.getImageDownloadPool() >> 2
+		windowConfig.getImageResizePool() >> 2
+		windowConfig.getImageMaxInFlight() >> 1
+		windowConfig.getSupportedSchemes() >> ["http"]
+		
+		DefaultURLProcessor windowed = new DefaultURLProcessor()
+		windowed.setiDConfiguration(windowConfig)
+		windowed.setImgExtractor(imgExtractor)
+		windowed.setImageDownloader(imageDownloader)
+		windowed.setResizer(resizer)
+		windowed.setStageMetrics(new StageMetrics())
+		windowed.init()
+		
+		when:
+		windowed.process(request)
+		
+		then:
+		1 * imgExtractor.extractImgSrc(request, _) >> emits((1..10).collect{ "http://example.com/" + it })
+		10 * imageDownloader.process(_ as String, request) >> Mock(ImgRequest)
+		10 * resizer.processAsync(_ as ImgRequest) >> { ImgRequest img -> CompletableFuture.completedFuture(img) }
+	}
+	
+	def "URL processor: images waiting for the in flight window are reported queued"(){
+		given:
+		IDConfiguration windowConfig = Mock(IDConfiguration)
+		windowConfig.getImageDownloadPool() >> 1
+		windowConfig.getImageResizePool() >> 1
+		windowConfig.getImageMaxInFlight() >> 1
+		windowConfig.getSupportedSchemes() >> ["http"]
+		
+		DefaultURLProcessor windowed = new DefaultURLProcessor()
+		windowed.setiDConfiguration(windowConfig)
+		windowed.setImgExtractor(imgExtractor)
+		windowed.setImageDownloader(imageDownloader)
+		windowed.setResizer(resizer)
+		windowed.setStageMetrics(new StageMetrics())
+		windowed.init()
+		
+		CountDownLatch secondQueued = new CountDownLatch(1)
+		boolean queuedWhileWaiting = false
+		ProcessingContext context = new ProcessingContext(new ProcessingListener(){
+			void imageQueued(URLRequest page, String imgUrl){
+				if(imgUrl == "http://example.com/2"){
+					secondQueued.countDown()
+				}
+			}
+		}, false)
+		
+		when:
+		windowed.process(request, context)
+		
+		then:
+		1 * imgExtractor.extractImgSrc(request, _) >> emits(["http://example.com/1", "http://example.com/2"])
+		//note: the second image waits for the window until the first completes
+		1 * imageDownloader.process("http://example.com/1", request) >> { queuedWhileWaiting = secondQueued.await(5, TimeUnit.SECONDS); Mock(ImgRequest) }
+		1 * imageDownloader.process("http://example.com/2", request) >> Mock(ImgRequest)
+		2 * resizer.processAsync(_ as ImgRequest) >> { ImgRequest img -> CompletableFuture.completedFuture(img) }
+		queuedWhileWaiting
+		
+		cleanup:
+		windowed.shutdown()
+	}
+	
+	def "URL processor: images already processed by an earlier page are skipped"(){
+		given:
+		ProcessingContext context = new ProcessingContext()
+		URLRequest secondPage = new URLRequest("http://example.com/2.html", URLRequest.URLType.HOSTED_FILE, "outputFolder")
+		
+		when:
+		processor.process(request, context)
+		processor.process(secondPage, context)
+		
+		then:
+		1 * imgExtractor.extractImgSrc(request, _) >> emits(["http://example.com/1", "http://example.com/2"])
+		1 * imgExtractor.extractImgSrc(secondPage, _) >> emits(["http://example.com/2", "http://example.com/3"])
+		1 * imageDownloader.process("http://example.com/1", request) >> Mock(ImgRequest)
+		1 * imageDownloader.process("http://example.com/2", request) >> Mock(ImgRequest)
+		1 * imageDownloader.process("http://example.com/3", secondPage) >> Mock(ImgRequest)
+		3 * resizer.processAsync(_ as ImgRequest) >> { ImgRequest img -> CompletableFuture.completedFuture(img) }
+	}
+	
+	def "URL processor: a slow host only holds its share of the download pool"(){
+		given:
+		IDConfiguration hostConfig = Mock(IDConfiguration)
+		hostConfig.getImageDownloadPool() >> 2
+		hostConfig.getImageResizePool() >> 2
+		hostConfig.getImageMaxInFlight() >> 10
+		hostConfig.getHostMaxConcurrency() >> 1
+		hostConfig.getSupportedSchemes() >> ["http"]
+		
+		DefaultURLProcessor scheduled = new DefaultURLProcessor()
+		scheduled.setiDConfiguration(hostConfig)
+		scheduled.setImgExtractor(imgExtractor)
+		scheduled.setImageDownloader(imageDownloader)
+		scheduled.setResizer(resizer)
+		scheduled.setStageMetrics(new StageMetrics())
+		scheduled.init()
+		
+		CountDownLatch fastDownloaded = new CountDownLatch(3)
+		List<Boolean> fastWhileSlow = [].asSynchronized()
+		
+		when:
+		scheduled.process(request)
+		
+		then:
+		1 * imgExtractor.extractImgSrc(request, _) >> emits(["http://slow.com/1", "http://slow.com/2", "http://example.com/1", "http://example.com/2", "http://example.com/3"])
+		//note: without host limits both slow downloads would hold the pool, and the fast ones would never start
+		2 * imageDownloader.process({ it.startsWith("http://slow.com/") }, request) >> { fastWhileSlow << fastDownloaded.await(5, TimeUnit.SECONDS); Mock(ImgRequest) }
+		3 * imageDownloader.process({ it.startsWith("http://example.com/") }, request) >> { fastDownloaded.countDown(); Mock(ImgRequest) }
+		5 * resizer.processAsync(_ as ImgRequest) >> { ImgRequest img -> CompletableFuture.completedFuture(img) }
+		fastWhileSlow == [true, true]
+		
+		cleanup:
+		scheduled.shutdown()
+	}
+	
+	def "URL processor: links handed to the listener when the run follows links"(){
+		given:
+		List<String> links = []
+		ProcessingContext context = new ProcessingContext(new ProcessingListener(){
+			void linkFound(URLRequest page, String url){
+				links << url
+			}
+		}, true)
+		
+		when:
+		processor.process(request, context)
+		
+		then:
+		1 * imgExtractor.extractImgSrcAndLinks(request, _, _) >> { URLRequest page, Consumer<String> imgSrc, Consumer<String> link ->
+			link.accept("http://example.com/about.html")
+			imgSrc.accept("http://example.com/1")
+			link.accept("http://example.com/contact.html")
+			return 1
+		}
+		0 * imgExtractor.extractImgSrc(_, _)
+		1 * imageDownloader.process("http://example.com/1", request) >> Mock(ImgRequest)
+		1 * resizer.processAsync(_ as ImgRequest) >> { ImgRequest img -> CompletableFuture.completedFuture(img) }
+		links == ["http://example.com/about.html", "http://example.com/contact.html"]
+	}
+	
+	def "URL processor: large images wait for the resize memory budget"(){
+		given:
+		IDConfiguration budgetConfig = Mock(IDConfiguration)
+		budgetConfig.getImageDownloadPool() >> 4
+		budgetConfig.getImageResizePool() >> 4
+		budgetConfig.getImageMaxInFlight() >> 8
+		budgetConfig.getImageResizeMemoryBudget() >> 100
+		budgetConfig.getSupportedSchemes() >> ["http"]
+		ResizeCostEstimator estimator = Mock(ResizeCostEstimator)
 		
+		DefaultURLProcessor budgeted = new DefaultURLProcessor()
+		budgeted.setiDConfiguration(budgetConfig)
+		budgeted.setImgExtractor(imgExtractor)
+		budgeted.setImageDownloader(imageDownloader)
+		budgeted.setResizer(resizer)
+		budgeted.setStageMetrics(new StageMetrics())
+		budgeted.setResizeCostEstimator(estimator)
+		budgeted.init()
+		
+		AtomicInteger resizing = new AtomicInteger()
+		AtomicInteger maxResizing = new AtomicInteger()
+		
+		when:
+		budgeted.process(request)
+		
+		then:
+		1 * imgExtractor.extractImgSrc(request, _) >> emits((1..6).collect{ "http://example.com/" + it })
+		6 * imageDownloader.process(_ as String, request) >> Mock(ImgRequest)
+		//each needs 60 of the 100 byte budget - only one may resize at a time
+		6 * estimator.estimate(_ as ImgRequest) >> 60
+		6 * resizer.processAsync(_ as ImgRequest) >> { ImgRequest img -> 
+			maxResizing.accumulateAndGet(resizing.incrementAndGet(), { a, b -> Math.max(a, b) })
+			Thread.sleep(20)
+			resizing.decrementAndGet()
+			CompletableFuture.completedFuture(img)
+		}
+		maxResizing.get() == 1
+	}
+	
+	/*hands each src over one at a time, as the extractor does while reading a page*/
+	private Closure emits(List<String> srcs){
+		return { URLRequest page, Consumer<String> imgSrc -> 
+			srcs.each { imgSrc.accept(it) }
+			return srcs.size()
+		}
 	}
 }
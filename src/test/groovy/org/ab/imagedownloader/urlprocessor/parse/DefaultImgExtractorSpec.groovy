@@ -1,91 +1,283 @@
 package org.ab.imagedownloader.urlprocessor.parse
 
-import java.io.File;
+import static com.github.tomakehurst.wiremock.client.WireMock.*
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig
+
 import java.io.IOException;
+import java.io.Reader
+import java.io.StringReader
 import java.util.List;
-import java.util.stream.Stream;
 
 import org.ab.imagedownloader.IDConfiguration
 import org.ab.imagedownloader.obj.URLRequest
 import org.ab.imagedownloader.obj.URLRequest.URLType;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element
-import org.jsoup.select.Elements
 
+import com.github.tomakehurst.wiremock.WireMockServer
+
+import spock.lang.Shared
 import spock.lang.Specification;
 
 class DefaultImgExtractorSpec extends Specification {
 
-	DefaultImgExtractor extractor
+	@Shared
+	WireMockServer server = new WireMockServer(wireMockConfig().dynamicPort())
 	
 	IDConfiguration config = Mock(IDConfiguration)
-	
+
 	URLRequest request
-	
-	Document doc = Mock(Document)
+
+	def setupSpec(){
+		server.start()
+	}
+	def cleanupSpec(){
+		server.stop()
+	}
 	
 	def setup(){
-				
+
 		config.getUrlDownloadTimeout() >> 1000
-				
-		request = new URLRequest("http://example.com/index.html", URLType.HOSTED_FILE, "outputFolder")		
+		config.getImageResizeWidths() >> [100, 220, 320]
+
+		request = new URLRequest("http://example.com/index.html", URLType.HOSTED_FILE, "outputFolder")
 	}
-		
+
 	def "DefaultImgExtractor - good response from parser"(){
 		given:
-		Element element = Mock(Element)
-		element.attr("src") >>> ["http://example.com/1.jpg", "http://example.com/2.jpg"]
+		DefaultImgExtractor extractor = new ImgExtractorResponse('<html><body><img src="http://example.com/1.jpg"><p>text</p><IMG SRC=http://example.com/2.jpg /></body></html>')
+		extractor.setiDConfiguration(config)
+
+		when:
+		List<String> images = extractor.getImgSrcFromDoc(request)
+
+		then:
+		images == ["http://example.com/1.jpg", "http://example.com/2.jpg"]
+	}
+
+	def "DefaultImgExtractor - comments, scripts and other tags skipped, attributes unescaped"(){
+		given:
+		String html = '''<!DOCTYPE html><html><head><title><img src="title.jpg"></title>
+			<script>var tag = '<img src="script.jpg">'; if(a < b && c > d){}</script>
+			<style>img > a { }</style></head>
+			<body><!-- <img src="comment.jpg"> -- still a comment --> <a href="/page"><img alt='a > b' src='http://example.com/1.jpg?a=1&amp;b=2'></a>
+			<img data-src="lazy.jpg"><img src = "http://example.com/2.jpg" src="second.jpg">
+			</body></html>'''
+		DefaultImgExtractor extractor = new ImgExtractorResponse(html)
+		extractor.setiDConfiguration(config)
+
+		when:
+		List<String> images = extractor.getImgSrcFromDoc(request)
+
+		then:
+		//note: a lazy loading img without a src is taken from its data-src
+		images == ["http://example.com/1.jpg?a=1&b=2", "http://example.com/lazy.jpg", "http://example.com/2.jpg"]
+	}
+
+	def "DefaultImgExtractor - each src handed over as soon as its tag is read"(){
+		given:
+		List<String> found = []
+		List<Integer> readWhenFound = []
+		CountingReader html = new CountingReader('<img src="http://example.com/1.jpg">' + (" " * 100000) + '<img src="http://example.com/2.jpg">')
+		DefaultImgExtractor extractor = new ImgExtractorResponse(html)
+		extractor.setiDConfiguration(config)
+
+		when:
+		int count = extractor.extractImgSrc(request, { src -> found << src; readWhenFound << html.read })
 
-		Elements soupElements = Mock(Elements)
-		soupElements.stream() >> [element, element].stream()	
+		then:
+		count == 2
+		found == ["http://example.com/1.jpg", "http://example.com/2.jpg"]
+		//note: the first image before most of the page was read
+		readWhenFound[0] < 10000
+	}
+
+	def "DefaultImgExtractor - tag too long to buffer is skipped"(){
+		given:
+		String html = '<img src="data:image/png;base64,' + ("A" * HtmlTagReader.MAX_TAG_CHARS) + '"><img src="http://example.com/1.jpg">'
+		DefaultImgExtractor extractor = new ImgExtractorResponse(html)
+		extractor.setiDConfiguration(config)
+
+		when:
+		List<String> images = extractor.getImgSrcFromDoc(request)
+
+		then:
+		images == ["http://example.com/1.jpg"]
+	}
+
+	def "DefaultImgExtractor - images before a read error are kept"(){
+		given:
+		DefaultImgExtractor extractor = new ImgExtractorResponse(new FailingReader('<img src="http://example.com/1.jpg"><img src="http://exam'))
+		extractor.setiDConfiguration(config)
+
+		when:
+		List<String> images = extractor.getImgSrcFromDoc(request)
+
+		then:
+		images == ["http://example.com/1.jpg"]
+	}
+
+	def "DefaultImgExtractor - smallest rendition at least as wide as the largest resize width"(){
+		given:
+		String html = '''<img src="http://example.com/hero.jpg" srcset="http://example.com/hero-200.jpg 200w, http://example.com/hero-400.jpg 400w, http://example.com/hero-1600.jpg 1600w">
+			<picture>
+				<source type="image/webp" srcset="http://example.com/pic-330.webp 330w">
+				<source media="(min-width: 800px)" srcset="http://example.com/pic-800.jpg 800w, http://example.com/pic-350.jpg 350w">
+				<img src="http://example.com/pic.jpg">
+			</picture>
+			<img src="data:image/gif;base64,R0lGODlhAQABAAAAACw=" data-src="http://example.com/lazy.jpg" data-srcset="http://example.com/lazy-640.jpg 640w">
+			<img src="http://example.com/small.jpg" srcset="http://example.com/small-2x.jpg 2x" width="150">
+			<img src="http://example.com/narrow.jpg" srcset="http://example.com/narrow-300.jpg 300w">
+			<source srcset="http://example.com/video-poster.jpg 330w"><img src="http://example.com/after-video.jpg">'''
+		DefaultImgExtractor extractor = new ImgExtractorResponse(html)
+		extractor.setiDConfiguration(config)
+
+		when:
+		List<String> images = extractor.getImgSrcFromDoc(request)
+
+		then:
+		images == ["http://example.com/hero-400.jpg", "http://example.com/pic-350.jpg", "http://example.com/lazy-640.jpg", 
+			"http://example.com/small.jpg", "http://example.com/narrow.jpg", "http://example.com/after-video.jpg"]
+	}
+
+	def "DefaultImgExtractor - sources of a picture without an img are not used by the next img"(){
+		given:
+		String html = '''<picture><source srcset="video-poster-400.jpg 400w"></PICTURE ><p>text</p><img src="http://example.com/logo.jpg">
+			<picture><source srcset="http://example.com/hero-400.jpg 400w"><img src="http://example.com/hero.jpg"></picture>'''
+		DefaultImgExtractor extractor = new ImgExtractorResponse(html)
+		extractor.setiDConfiguration(config)
 		
-		doc.select("img") >> soupElements
+		expect:
+		extractor.getImgSrcFromDoc(request) == ["http://example.com/logo.jpg", "http://example.com/hero-400.jpg"]
+	}
+	
+	def "DefaultImgExtractor - srcs and links resolved against the page"(){
+		given:
+		String html = '''<img src="a.jpg"><a href="../about.html#team">about</a><a href="javascript:void(0)">menu</a>
+			<a rel="nofollow" href="/login">login</a><a name="top"></a><img src="//cdn.example.com/b.jpg"><a href="https://other.com/">other</a>'''
+		List<String> images = []
+		List<String> links = []
+		DefaultImgExtractor extractor = new ImgExtractorResponse(html)
+		extractor.setiDConfiguration(config)
 		
-		DefaultImgExtractor extractor = new ImgExtractorDocResponse()
+		when:
+		int count = extractor.extractImgSrcAndLinks(new URLRequest("http://example.com/shop/index.html", URLType.HOSTED_FILE, "outputFolder"), 
+			{ images << it }, { links << it })
+		
+		then:
+		count == 2
+		images == ["http://example.com/shop/a.jpg", "http://cdn.example.com/b.jpg"]
+		links == ["http://example.com/about.html#team", "https://other.com/"]
+	}
+	
+	def "DefaultImgExtractor - local file srcs resolved against its base tag only"(){
+		given:
+		URLRequest localFile = new URLRequest("build/index.html", URLType.LOCAL_FILE, "outputFolder")
+		DefaultImgExtractor extractor = new ImgExtractorResponse(html)
+		extractor.setiDConfiguration(config)
+		
+		expect:
+		extractor.getImgSrcFromDoc(localFile) == images
+		
+		where:
+		html 																			| images
+		'<img src="a.jpg"><img src="http://example.com/b.jpg">' 						| ["a.jpg", "http://example.com/b.jpg"]
+		'<base href="http://static.example.com/site/"><img src="a.jpg"><img src="/b.jpg">' | ["http://static.example.com/site/a.jpg", "http://static.example.com/b.jpg"]
+	}
+	
+	def "DefaultImgExtractor - redirected page, srcs resolved against where it ended up"(){
+		given:
+		server.stubFor(get(urlEqualTo("/shop")).willReturn(aResponse().withStatus(301).withHeader("Location", "/shop/")))
+		server.stubFor(get(urlEqualTo("/shop/")).willReturn(aResponse().withStatus(302).withHeader("Location", "index.html")))
+		server.stubFor(get(urlEqualTo("/shop/index.html")).willReturn(aResponse().withStatus(200).withHeader("Content-Type", "text/html")
+			.withBody('<img src="a.jpg"><img src="/b.jpg">')))
+		DefaultImgExtractor extractor = new DefaultImgExtractor()
 		extractor.setiDConfiguration(config)
+		String host = "http://localhost:" + server.port()
 		
 		when:
-		List<String> images = extractor.getImgSrcFromDoc(request)
+		List<String> images = extractor.getImgSrcFromDoc(new URLRequest(host + "/shop", URLType.HOSTED_FILE, "outputFolder"))
 		
 		then:
-		images.size() == 2
-		images.contains("http://example.com/1.jpg")
-		images.contains("http://example.com/2.jpg")
+		images == [host + "/shop/a.jpg", host + "/b.jpg"]
 	}
 	
-	class ImgExtractorDocResponse extends DefaultImgExtractor{
-		@Override
-		Document parseLocalFile(String url) throws IOException {
-			return doc
-		}
-		@Override
-		Document parseRemoteFile(String url) throws IOException {
-			return doc
-		}
+	def "DefaultImgExtractor - redirect loop, no images"(){
+		given:
+		server.stubFor(get(urlEqualTo("/loop")).willReturn(aResponse().withStatus(302).withHeader("Location", "/loop")))
+		DefaultImgExtractor extractor = new DefaultImgExtractor()
+		extractor.setiDConfiguration(config)
+		
+		expect:
+		extractor.getImgSrcFromDoc(new URLRequest("http://localhost:" + server.port() + "/loop", URLType.HOSTED_FILE, "outputFolder")).isEmpty()
 	}
 	
 	def "DefaultImgExtractor - bad response from parser"(){
 		given:
 		ImgExtractorBadResponse extractor = new ImgExtractorBadResponse();
 		extractor.setiDConfiguration(config)
-		
+
 		when:
 		List<String> images = extractor.getImgSrcFromDoc(request)
-		
+
 		then:
-		images.isEmpty()			
+		images.isEmpty()
 	}
-	
+
+	class ImgExtractorResponse extends DefaultImgExtractor{
+		Reader html
+		ImgExtractorResponse(String html){
+			this.html = new StringReader(html)
+		}
+		ImgExtractorResponse(Reader html){
+			this.html = html
+		}
+		@Override
+		Reader openLocalFile(String url) throws IOException {
+			return html
+		}
+		@Override
+		DefaultImgExtractor.Page openRemoteFile(String url) throws IOException {
+			return new DefaultImgExtractor.Page(html, Optional.of(new URL(url)))
+		}
+	}
+
 	class ImgExtractorBadResponse extends DefaultImgExtractor{
 		@Override
-		Document parseLocalFile(String url) throws IOException {
-			return null
+		Reader openLocalFile(String url) throws IOException {
+			throw new IOException("unreadable")
 		}
 		@Override
-		Document parseRemoteFile(String url) throws IOException {
-			return null
+		DefaultImgExtractor.Page openRemoteFile(String url) throws IOException {
+			throw new IOException("unreadable")
 		}
 	}
-	
+
+	/*a page arriving slowly - a few chars per read, counting the chars read*/
+	static class CountingReader extends StringReader {
+		int read
+		CountingReader(String html){
+			super(html)
+		}
+		@Override
+		int read(char[] buffer, int offset, int length) throws IOException {
+			int count = super.read(buffer, offset, Math.min(length, 100))
+			read += Math.max(0, count)
+			return count
+		}
+	}
+
+	/*the connection drops part way through the page*/
+	static class FailingReader extends StringReader {
+		FailingReader(String html){
+			super(html)
+		}
+		@Override
+		int read(char[] buffer, int offset, int length) throws IOException {
+			int count = super.read(buffer, offset, length)
+			if(count < 0){
+				throw new IOException("connection reset")
+			}
+			return count
+		}
+	}
+
 }
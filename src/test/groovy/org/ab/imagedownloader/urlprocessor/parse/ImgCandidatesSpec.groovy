@@ -0,0 +1,50 @@
+package org.ab.imagedownloader.urlprocessor.parse
+
+import spock.lang.Specification
+
+class ImgCandidatesSpec extends Specification {
+
+	def "ImgCandidates - srcset widths from w and x descriptors"(){
+		when:
+		List<ImgCandidates.Candidate> candidates = ImgCandidates.parseSrcset("a.jpg, b.jpg 2x,c.jpg 300w ,d.jpg 1.5x, e.jpg 10.5w", 100)
+
+		then:
+		candidates*.url == ["a.jpg", "b.jpg", "c.jpg", "d.jpg", "e.jpg"]
+		candidates*.width == [100, 200, 300, 150, 0]
+	}
+
+	def "ImgCandidates - x descriptors unknown without the img width"(){
+		when:
+		List<ImgCandidates.Candidate> candidates = ImgCandidates.parseSrcset("a.jpg 1x, b.jpg 2x", 0)
+
+		then:
+		candidates*.width == [0, 0]
+	}
+
+	def "ImgCandidates - src kept when no rendition is wide enough, largest when there is no src"(){
+		expect:
+		ImgCandidates.choose(img, [], 320) == Optional.ofNullable(chosen)
+
+		where:
+		img                                                             | chosen
+		[src: "a.jpg", srcset: "a-100.jpg 100w, a-200.jpg 200w"]        | "a.jpg"
+		[srcset: "a-100.jpg 100w, a-200.jpg 200w"]                      | "a-200.jpg"
+		[src: "data:image/gif;base64,R0lG", "data-src": "lazy.jpg"]     | "lazy.jpg"
+		[src: "/img/blank.gif", "data-src": "real.jpg"]                 | "real.jpg"
+		[src: "/img/blank.gif", "data-src": " "]                        | "/img/blank.gif"
+		[src: " "]                                                      | null
+	}
+
+	def "ImgCandidates - lazy loading data-srcset preferred over a placeholder srcset"(){
+		expect:
+		ImgCandidates.choose([src: "/img/blank.gif", srcset: "/img/blank.gif 1000w", "data-srcset": "real-400.jpg 400w, real-800.jpg 800w"], [], 320) == 
+			Optional.of("real-400.jpg")
+		ImgCandidates.choose([src: "/img/blank.gif", "data-src": "real.jpg"], [], 0) == Optional.of("real.jpg")
+	}
+	
+	def "ImgCandidates - src when no resize width is configured"(){
+		expect:
+		ImgCandidates.choose([src: "a.jpg", srcset: "a-400.jpg 400w"], [], 0) == Optional.of("a.jpg")
+	}
+
+}
@@ -0,0 +1,216 @@
+package org.ab.imagedownloader.urlprocessor.process
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.TimeUnit
+
+import org.ab.imagedownloader.IDConfiguration
+import org.ab.imagedownloader.obj.ImgRequest
+import org.ab.imagedownloader.obj.URLRequest
+import org.ab.imagedownloader.obj.URLRequest.URLType
+import org.ab.imagedownloader.urlprocessor.store.DefaultImageStore
+
+import com.github.tomakehurst.wiremock.WireMockServer
+import com.github.tomakehurst.wiremock.http.Fault
+import com.github.tomakehurst.wiremock.stubbing.Scenario
+
+import spock.lang.Shared
+import spock.lang.Specification
+
+class AsyncDownloaderSpec extends Specification {
+
+	@Shared
+	WireMockServer server = new WireMockServer(wireMockConfig().dynamicPort())
+	
+	AsyncDownloader downloader
+	
+	IDConfiguration config = Mock(IDConfiguration)
+	
+	URLRequest request = new URLRequest("http://localhost/index.html", URLType.HOSTED_FILE, "build/test-async")
+	
+	def setupSpec(){
+		server.start()
+	}
+	def cleanupSpec(){
+		server.stop()
+		new File("build/test-async").deleteDir()
+	}
+	
+	def setup(){
+		config.getImageDownloadTimeout() >> 5000
+		config.getAsyncIoThreads() >> 1
+		config.getHttpMaxConnections() >> 10
+		config.getHttpMaxConnectionsPerRoute() >> 10
+		config.getImageResizeMaxFileSize() >> 1000
+		
+		downloader = new AsyncDownloader()
+		downloader.setiDConfiguration(config)
+		downloader.setImageStore(new DefaultImageStore())
+		downloader.init()
+	}
+	def cleanup(){
+		downloader.shutdown()
+	}
+	
+	def "AsyncDownloader - download file"(){
+		given:
+		byte[] body = new byte[100]
+		new Random().nextBytes(body)
+		server.stubFor(get(urlEqualTo("/images/ok.jpg")).willReturn(aResponse().withStatus(200).withBody(body)))
+		
+		when:
+		ImgRequest chain = downloader.processAsync(url("/images/ok.jpg"), request).join()
+		
+		then:
+		downloader.isNonBlocking()
+		chain.getStatus() == ImgRequest.Status.OK
+		chain.getProcessedImg().get().getImgFile().isPresent()
+		Files.readAllBytes(chain.getProcessedImg().get().getImgFile().get()) == body
+	}
+	
+	def "AsyncDownloader - conditional download, not modified"(){
+		given:
+		server.stubFor(get(urlEqualTo("/images/etag.jpg"))
+			.willReturn(aResponse().withStatus(200).withHeader("ETag", "\"v1\"").withBody(new byte[10])))
+		server.stubFor(get(urlEqualTo("/images/etag.jpg")).withHeader("If-None-Match", equalTo("\"v1\""))
+			.willReturn(aResponse().withStatus(304)))
+		ImgRequest first = downloader.processAsync(url("/images/etag.jpg"), request).join()
+		
+		when:
+		ImgRequest second = downloader.processAsync(url("/images/etag.jpg"), request).join()
+		
+		then:
+		first.getStatus() == ImgRequest.Status.OK
+		second.getStatus() == ImgRequest.Status.OK_FILE_NOT_CHANGED
+		second.getProcessedImg().get().getImgFile().get() == first.getProcessedImg().get().getImgFile().get()
+		imageFiles("etag.jpg").size() == 1
+	}
+	
+	def "AsyncDownloader - missing file"(){
+		given:
+		server.stubFor(get(urlEqualTo("/images/missing.jpg")).willReturn(aResponse().withStatus(404).withBody("not found")))
+		
+		when:
+		ImgRequest chain = downloader.processAsync(url("/images/missing.jpg"), request).join()
+		
+		then:
+		chain.getStatus() == ImgRequest.Status.ERROR
+		imageFiles("missing.jpg").isEmpty()
+	}
+	
+	def "AsyncDownloader - download file too big"(){
+		given:
+		server.stubFor(get(urlEqualTo("/images/tooBig.jpg")).willReturn(aResponse().withStatus(200).withBody(new byte[2000])))
+		
+		when:
+		ImgRequest chain = downloader.processAsync(url("/images/tooBig.jpg"), request).join()
+		
+		then:
+		chain.getStatus() == ImgRequest.Status.ERROR
+		imageFiles("tooBig.jpg").isEmpty()
+	}
+	
+	def "AsyncDownloader - download file too big, no declared length"(){
+		given:
+		server.stubFor(get(urlEqualTo("/images/chunkedTooBig.jpg"))
+			.willReturn(aResponse().withStatus(200).withHeader("Transfer-Encoding", "chunked").withBody(new byte[2000])))
+		
+		when:
+		ImgRequest chain = downloader.processAsync(url("/images/chunkedTooBig.jpg"), request).join()
+		
+		then:
+		chain.getStatus() == ImgRequest.Status.ERROR
+		imageFiles("chunkedTooBig.jpg").isEmpty()
+	}
+	
+	def "AsyncDownloader - bad inputs"(){
+		when:
+		ImgRequest chain = downloader.process("garbageURL", request)
+		
+		then:
+		chain.getStatus() == ImgRequest.Status.ERROR
+	}
+	
+	def "AsyncDownloader - pipelined batch"(){
+		given:
+		AsyncDownloader pipelining = pipelined(3)
+		byte[][] bodies = (1..3).collect{ byte[] body = new byte[100]; new Random().nextBytes(body); body }
+		(1..3).each{ server.stubFor(get(urlEqualTo("/images/pipelined${it}.jpg")).willReturn(aResponse().withStatus(200).withBody(bodies[it - 1]))) }
+		
+		when:
+		//note: a full batch is sent at once - well within the linger time
+		List<ImgRequest> chains = (1..3).collect{ pipelining.processAsync(url("/images/pipelined${it}.jpg"), request) }*.get(500, TimeUnit.MILLISECONDS)
+		
+		then:
+		chains*.getStatus() == [ImgRequest.Status.OK] * 3
+		(0..2).every{ Files.readAllBytes(chains[it].getProcessedImg().get().getImgFile().get()) == bodies[it] }
+		pipelining.isPipelined("http://localhost:" + server.port())
+		
+		cleanup:
+		pipelining.shutdown()
+	}
+	
+	def "AsyncDownloader - pipelined batch fails, falls back to one at a time"(){
+		given:
+		AsyncDownloader pipelining = pipelined(3)
+		String host = "http://localhost:" + server.port()
+		
+		when:
+		List<ImgRequest> chains = brokenBatch(pipelining, "unpipelined")
+		
+		then:
+		chains*.getStatus() == [ImgRequest.Status.OK] * 3
+		(1..3).every{ imageFiles("unpipelined${it}.jpg").size() == 1 }
+		//note: once may just be a stale connection
+		pipelining.isPipelined(host)
+		
+		when:
+		brokenBatch(pipelining, "unpipelinedAgain")
+		brokenBatch(pipelining, "unpipelinedThird")
+		
+		then:
+		!pipelining.isPipelined(host)
+		
+		cleanup:
+		pipelining.shutdown()
+	}
+	
+	/*a batch whose first image breaks the pipeline, then downloads fine on its own*/
+	private List<ImgRequest> brokenBatch(AsyncDownloader pipelining, String name){
+		server.stubFor(get(urlEqualTo("/images/${name}1.jpg")).inScenario(name).whenScenarioStateIs(Scenario.STARTED)
+			.willReturn(aResponse().withFault(Fault.EMPTY_RESPONSE)).willSetStateTo("broken"))
+		server.stubFor(get(urlEqualTo("/images/${name}1.jpg")).inScenario(name).whenScenarioStateIs("broken")
+			.willReturn(aResponse().withStatus(200).withBody(new byte[10])))
+		(2..3).each{ server.stubFor(get(urlEqualTo("/images/${name}${it}.jpg")).willReturn(aResponse().withStatus(200).withBody(new byte[10]))) }
+		return (1..3).collect{ pipelining.processAsync(url("/images/${name}${it}.jpg"), request) }*.join()
+	}
+	
+	private AsyncDownloader pipelined(int batchSize){
+		IDConfiguration pipeliningConfig = Stub(IDConfiguration){
+			getImageDownloadTimeout() >> 5000
+			getAsyncIoThreads() >> 1
+			getHttpMaxConnections() >> 10
+			getHttpMaxConnectionsPerRoute() >> 10
+			getImageResizeMaxFileSize() >> 1000
+			getPipeliningBatchSize() >> batchSize
+			getPipeliningLinger() >> 5000
+		}
+		AsyncDownloader pipelining = new AsyncDownloader()
+		pipelining.setiDConfiguration(pipeliningConfig)
+		pipelining.setImageStore(new DefaultImageStore())
+		pipelining.init()
+		return pipelining
+	}
+	
+	private String url(String path){
+		return "http://localhost:" + server.port() + path
+	}
+	
+	private List<Path> imageFiles(String name){
+		File folder = new File("build/test-async/localhost/images/" + name)
+		return folder.exists() ? folder.listFiles().findAll{ it.isFile() && !it.name.endsWith(".meta") }.collect{ it.toPath() } : []
+	}
+}
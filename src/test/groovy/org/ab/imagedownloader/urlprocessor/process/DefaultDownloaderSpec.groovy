@@ -1,20 +1,30 @@
 package org.ab.imagedownloader.urlprocessor.process
 
 import java.util.Optional;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.awt.image.BufferedImage
+
+import javax.imageio.ImageIO
 
 import org.ab.imagedownloader.IDConfiguration
 import org.ab.imagedownloader.obj.ProcessedImg
 import org.ab.imagedownloader.obj.URLRequest
 import org.ab.imagedownloader.obj.ImgRequest.Status;
 import org.ab.imagedownloader.obj.URLRequest.URLType;
+import org.ab.imagedownloader.urlprocessor.store.DefaultImageStore
 import org.ab.imagedownloader.obj.ImgRequest;
+import org.ab.imagedownloader.urlprocessor.store.ImageMetadata
+import org.ab.imagedownloader.utils.DefaultImageHeaderParser
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpVersion
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet
-import org.apache.http.client.methods.HttpHead
 import org.apache.http.impl.client.CloseableHttpClient
+import org.apache.http.message.BasicHeader
+import org.apache.http.message.BasicHttpResponse
+import org.apache.http.message.BasicStatusLine
 
 import spock.lang.Specification;
 
@@ -32,11 +42,15 @@ class DefaultDownloaderSpec extends Specification {
 			
 		System.properties['java.io.tmpdir'] = "build/test"		
 		new File("build/test").mkdirs()
+		//files are created directly on disk below - rebuild the store index from them
+		new File("build/test/.index").delete()
 						
 		httpClient = Mock (CloseableHttpClient)
 		
 		downloader = new DefaultDownloader()
 		downloader.setiDConfiguration(config)		
+		downloader.setImageStore(new DefaultImageStore())
+		downloader.setImageHeaderParser(new DefaultImageHeaderParser())
 		downloader.init();
 		downloader.setClient(httpClient)
 				
@@ -52,8 +66,10 @@ class DefaultDownloaderSpec extends Specification {
 		
 				
 		CloseableHttpResponse getResponse =  Mock(CloseableHttpResponse)
+		getResponse.getStatusLine() >> new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK")
 		HttpEntity entity = Mock(HttpEntity)
 		entity.getContentLength() >> 10
+		entity.getContent() >> new ByteArrayInputStream(new byte[10])
 		getResponse.getEntity() >> entity
 		httpClient.execute(_ as HttpGet) >> getResponse
 		
@@ -73,6 +89,7 @@ class DefaultDownloaderSpec extends Specification {
 		config.getImageResizeMaxFileSize() >> 20
 						
 		CloseableHttpResponse getResponse =  Mock(CloseableHttpResponse)
+		getResponse.getStatusLine() >> new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK")
 		HttpEntity entity = Mock(HttpEntity)
 		entity.getContentLength() >> 30
 		getResponse.getEntity() >> entity
@@ -89,22 +106,43 @@ class DefaultDownloaderSpec extends Specification {
 		chain.getStatus().equals(ImgRequest.Status.ERROR)
 	}	
 		
-	def "DefaultDownloader - existing downloaded src image, local copy is newer"(){
+	def "DefaultDownloader - download file too big, no declared length"(){
+		given:
+		config.getImageResizeMaxFileSize() >> 20
+						
+		CloseableHttpResponse getResponse =  Mock(CloseableHttpResponse)
+		getResponse.getStatusLine() >> new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK")
+		HttpEntity entity = Mock(HttpEntity)
+		//chunked
+		entity.getContentLength() >> -1
+		entity.getContent() >> new ByteArrayInputStream(new byte[30])
+		getResponse.getEntity() >> entity
+		httpClient.execute(_ as HttpGet) >> getResponse
+		
+		request = new URLRequest("http://existingDLSrcImg.com/index.html", URLType.HOSTED_FILE, "build/test")
+
+		when:
+		ImgRequest chain = downloader.process("http://existingDLSrcImg.com/images/chunkedTooBig.jpg", request)
+		
+		then:
+		chain.getStatus().equals(ImgRequest.Status.ERROR)
+		new File("build/test/existingDLSrcImg.com/images/chunkedTooBig.jpg").listFiles().length == 0
+	}
+	
+	def "DefaultDownloader - existing downloaded src image, not modified"(){
 		given:		
 		new File("build/test/existingDLSrcImg.com/images/localNewer.jpg").mkdirs()
 		new File("build/test/existingDLSrcImg.com/images/localNewer.jpg/localNewer.jpg_"+System.currentTimeMillis()).createNewFile()
 					
-		Header lastMod = Mock (Header)
-		lastMod.getValue() >> "Tue, 15 Nov 1990 12:45:26 GMT"
 		CloseableHttpResponse response =  Mock(CloseableHttpResponse)
-		response.getFirstHeader("Last-Modified") >> lastMod			
-		httpClient.execute(_ as HttpHead) >> response		
+		response.getStatusLine() >> new BasicStatusLine(HttpVersion.HTTP_1_1, 304, "Not Modified")
 		request = new URLRequest("http://existingDLSrcImg.com/index.html", URLType.HOSTED_FILE, "build/test")
 		
 		when:
 		ImgRequest chain = downloader.process("http://existingDLSrcImg.com/images/localNewer.jpg", request)
 		
 		then:
+		1 * httpClient.execute({ HttpGet get -> get.getFirstHeader("If-Modified-Since") != null }) >> response
 		chain.getUrl().equals("http://existingDLSrcImg.com/images/localNewer.jpg")
 		chain.getOutputFolder().equals("build/test")
 		chain.getStatus().equals(ImgRequest.Status.OK_FILE_NOT_CHANGED)
@@ -119,34 +157,24 @@ class DefaultDownloaderSpec extends Specification {
 	
 	}
 	
-	def "DefaultDownloader - existing downloaded src image, local copy is same size"(){
+	def "DefaultDownloader - existing downloaded src image, stored etag is sent"(){
 		given:
-		new File("build/test/existingDLSrcImg.com/images/localSameSize.jpg").mkdirs()
-		new File("build/test/existingDLSrcImg.com/images/localSameSize.jpg/localSameSize.jpg_"+System.currentTimeMillis()).createNewFile()
+		new File("build/test/existingDLSrcImg.com/images/localEtag.jpg").mkdirs()
+		File local = new File("build/test/existingDLSrcImg.com/images/localEtag.jpg/localEtag.jpg_"+System.currentTimeMillis())
+		local.createNewFile()
+		new DefaultImageStore().saveMetadata(local.toPath(), new ImageMetadata("\"abc\"", null))
 					
-		Header contentLen = Mock (Header)
-		contentLen.getValue() >> "0"
 		CloseableHttpResponse response =  Mock(CloseableHttpResponse)
-		response.getFirstHeader("Content-Length") >> contentLen
-		httpClient.execute(_ as HttpHead) >> response
+		response.getStatusLine() >> new BasicStatusLine(HttpVersion.HTTP_1_1, 304, "Not Modified")
 		request = new URLRequest("http://existingDLSrcImg.com/index.html", URLType.HOSTED_FILE, "build/test")
 		
 		when:
-		ImgRequest chain = downloader.process("http://existingDLSrcImg.com/images/localSameSize.jpg", request)
+		ImgRequest chain = downloader.process("http://existingDLSrcImg.com/images/localEtag.jpg", request)
 		
 		then:
-		chain.getUrl().equals("http://existingDLSrcImg.com/images/localSameSize.jpg")
-		chain.getOutputFolder().equals("build/test")
+		1 * httpClient.execute({ HttpGet get -> get.getFirstHeader("If-None-Match")?.getValue() == "\"abc\"" }) >> response
 		chain.getStatus().equals(ImgRequest.Status.OK_FILE_NOT_CHANGED)
-		
-		chain.getProcessedImg().isPresent()
-		ProcessedImg image = chain.getProcessedImg().get()
-		image.getUrl().equals("http://existingDLSrcImg.com/images/localSameSize.jpg")
-		image.getFolderPath().equals("/images/localSameSize.jpg")
-		image.getFilename().equals("localSameSize.jpg")
-		
-		image.getImgFile().isPresent()
-	
+		chain.getProcessedImg().get().getImgFile().get().equals(local.toPath())
 	}
 	
 	def "DefaultDownloader - existing downloaded src image, remote copy is newer"(){
@@ -154,18 +182,17 @@ class DefaultDownloaderSpec extends Specification {
 		config.getImageResizeMaxFileSize() >> 20
 		
 		new File("build/test/existingDLSrcImg.com/images/remoteNewer.jpg").mkdirs()
-		new File("build/test/existingDLSrcImg.com/images/remoteNewer.jpg/remoteNewer.jpg_1234567890").createNewFile()
-					
-		Header lastMod = Mock (Header)
-		lastMod.getValue() >> "Tue, 15 Nov 2016 12:45:26 GMT"
-		CloseableHttpResponse headResponse =  Mock(CloseableHttpResponse)
-		headResponse.getFirstHeader("Last-Modified") >> lastMod
-		httpClient.execute(_ as HttpHead) >> headResponse
-		
+		File local = new File("build/test/existingDLSrcImg.com/images/remoteNewer.jpg/remoteNewer.jpg_1234567890")
+		local.createNewFile()
 		
+		Header etag = Mock (Header)
+		etag.getValue() >> "\"v2\""
 		CloseableHttpResponse getResponse =  Mock(CloseableHttpResponse)
+		getResponse.getStatusLine() >> new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK")
+		getResponse.getFirstHeader("ETag") >> etag
 		HttpEntity entity = Mock(HttpEntity)
 		entity.getContentLength() >> 1
+		entity.getContent() >> new ByteArrayInputStream(new byte[1])
 		getResponse.getEntity() >> entity
 		httpClient.execute(_ as HttpGet) >> getResponse		
 		
@@ -177,7 +204,59 @@ class DefaultDownloaderSpec extends Specification {
 		then:
 		chain.getUrl().equals("http://existingDLSrcImg.com/images/remoteNewer.jpg")
 		chain.getOutputFolder().equals("build/test")
-		chain.getStatus().equals(ImgRequest.Status.OK_NEW_FILE_VERSION)			
+		chain.getStatus().equals(ImgRequest.Status.OK_NEW_FILE_VERSION)
+		!local.exists()
+		new DefaultImageStore().getMetadata(chain.getProcessedImg().get().getImgFile().get()).get().getEtag().get() == "\"v2\""
+	}
+	
+	def "DefaultDownloader - existing downloaded src image, same content downloaded again"(){
+		given:
+		config.getImageResizeMaxFileSize() >> 20
+		
+		new File("build/test/existingDLSrcImg.com/images/sameContent.jpg").mkdirs()
+		File local = new File("build/test/existingDLSrcImg.com/images/sameContent.jpg/sameContent.jpg_1234567890")
+		local.createNewFile()
+		//hash of the empty content 'downloaded' below
+		new DefaultImageStore().saveMetadata(local.toPath(), 
+			new ImageMetadata(null, null, "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855"))
+		
+		CloseableHttpResponse getResponse =  Mock(CloseableHttpResponse)
+		getResponse.getStatusLine() >> new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK")
+		HttpEntity entity = Mock(HttpEntity)
+		entity.getContentLength() >> 0
+		entity.getContent() >> new ByteArrayInputStream(new byte[0])
+		getResponse.getEntity() >> entity
+		httpClient.execute(_ as HttpGet) >> getResponse
+		
+		request = new URLRequest("http://existingDLSrcImg.com/index.html", URLType.HOSTED_FILE, "build/test")
+
+		when:
+		ImgRequest chain = downloader.process("http://existingDLSrcImg.com/images/sameContent.jpg", request)
+		
+		then:
+		chain.getStatus().equals(ImgRequest.Status.OK_FILE_NOT_CHANGED)
+		chain.getProcessedImg().get().getImgFile().get().equals(local.toPath())
+		new File("build/test/existingDLSrcImg.com/images/sameContent.jpg").listFiles().findAll{ !it.name.endsWith(".meta") }.size() == 1
+	}
+	
+	def "DefaultDownloader - existing downloaded src image, unexpected status keeps local copy"(){
+		given:
+		new File("build/test/existingDLSrcImg.com/images/serverError.jpg").mkdirs()
+		File local = new File("build/test/existingDLSrcImg.com/images/serverError.jpg/serverError.jpg_1234567890")
+		local.createNewFile()
+		
+		CloseableHttpResponse getResponse =  Mock(CloseableHttpResponse)
+		getResponse.getStatusLine() >> new BasicStatusLine(HttpVersion.HTTP_1_1, 500, "Server Error")
+		httpClient.execute(_ as HttpGet) >> getResponse
+		
+		request = new URLRequest("http://existingDLSrcImg.com/index.html", URLType.HOSTED_FILE, "build/test")
+
+		when:
+		ImgRequest chain = downloader.process("http://existingDLSrcImg.com/images/serverError.jpg", request)
+		
+		then:
+		chain.getStatus().equals(ImgRequest.Status.ERROR)
+		local.exists()
 	}
 	
 	def "DefaultDownloader - target folder is previously existing file"(){
@@ -208,4 +287,235 @@ class DefaultDownloaderSpec extends Specification {
 		chain.getStatus().equals(ImgRequest.Status.ERROR)
 		
 	}
+	
+	def "DefaultDownloader - image handed over in memory, written to disk in the background"(){
+		given:
+		IDConfiguration memoryConfig = Mock(IDConfiguration)
+		memoryConfig.getImageMemoryBudget() >> 1024 * 1024
+		memoryConfig.getImagePersistPool() >> 1
+		memoryConfig.getImageResizeMaxFileSize() >> 1000
+		memoryConfig.getHttpMaxConnections() >> 1
+		memoryConfig.getHttpMaxConnectionsPerRoute() >> 1
+		
+		ImageBufferPool pool = new ImageBufferPool()
+		pool.setiDConfiguration(memoryConfig)
+		pool.init()
+		
+		DefaultDownloader inMemory = new DefaultDownloader()
+		inMemory.setiDConfiguration(memoryConfig)
+		inMemory.setImageStore(new DefaultImageStore())
+		inMemory.setImageBufferPool(pool)
+		inMemory.init()
+		inMemory.setClient(httpClient)
+		
+		byte[] body = new byte[100]
+		new Random().nextBytes(body)
+		CloseableHttpResponse getResponse =  Mock(CloseableHttpResponse)
+		getResponse.getStatusLine() >> new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK")
+		HttpEntity entity = Mock(HttpEntity)
+		entity.getContentLength() >> 100
+		entity.getContent() >> new ByteArrayInputStream(body)
+		getResponse.getEntity() >> entity
+		httpClient.execute(_ as HttpGet) >> getResponse
+		
+		request = new URLRequest("http://existingDLSrcImg.com/index.html", URLType.HOSTED_FILE, "build/test")
+		
+		when:
+		ImgRequest chain = inMemory.process("http://existingDLSrcImg.com/images/inMemory.jpg", request)
+		byte[] handedOver = new byte[100]
+		chain.getInMemoryImage().get().getContent().get(handedOver)
+		chain.releaseInMemoryImage()
+		inMemory.shutdown()
+		
+		then:
+		chain.getStatus().equals(ImgRequest.Status.OK)
+		handedOver == body
+		Files.readAllBytes(chain.getProcessedImg().get().getImgFile().get()) == body
+		new DefaultImageStore().getMetadata(chain.getProcessedImg().get().getImgFile().get()).get().getContentHash().isPresent()
+		//back in the pool
+		pool.tryAcquire(100).isPresent()
+		pool.getAllocatedBytes() == 64 * 1024
+	}
+	
+	def "DefaultDownloader - connection pool sized from configuration"(){
+		given:
+		IDConfiguration poolConfig = Mock(IDConfiguration)
+		poolConfig.getHttpMaxConnections() >> 20
+		poolConfig.getHttpMaxConnectionsPerRoute() >> 10
+		poolConfig.getHttpKeepAlive() >> 1000
+		poolConfig.getHttpIdleEviction() >> 1000
+		poolConfig.getHttpConnectionTtl() >> 1000
+		
+		DefaultDownloader pooled = new DefaultDownloader()
+		pooled.setiDConfiguration(poolConfig)
+		
+		when:
+		pooled.init()
+		
+		then:
+		pooled.getConnectionPoolStats().isPresent()
+		pooled.getConnectionPoolStats().get().getMax() == 20
+		pooled.getConnectionPoolStats().get().getLeased() == 0
+		pooled.getConnectionPoolStats().get().getPending() == 0
+		
+		cleanup:
+		pooled.shutdown()
+	}
+	
+	def "DefaultDownloader - probe finds image too small, not downloaded"(){
+		given:
+		config.getImageProbeBytes() >> 1024
+		config.getImageResizeMinWidth() >> 10
+		config.getImageResizeMinHeight() >> 10
+		
+		CloseableHttpResponse probeResponse =  Mock(CloseableHttpResponse)
+		probeResponse.getStatusLine() >> new BasicStatusLine(HttpVersion.HTTP_1_1, 206, "Partial Content")
+		HttpEntity entity = Mock(HttpEntity)
+		entity.getContent() >> new ByteArrayInputStream(encode(1, 1, "gif"))
+		probeResponse.getEntity() >> entity
+		
+		request = new URLRequest("http://probeSrcImg.com/index.html", URLType.HOSTED_FILE, "build/test")
+		
+		when:
+		ImgRequest chain = downloader.process("http://probeSrcImg.com/images/pixel.gif", request)
+		
+		then:
+		1 * httpClient.execute({ HttpGet get -> get.getFirstHeader("Range").getValue() == "bytes=0-1023" }) >> probeResponse
+		0 * httpClient.execute(_)
+		chain.getStatus().equals(ImgRequest.Status.SKIPPED)
+	}
+	
+	def "DefaultDownloader - probe finds image within limits, downloaded in full"(){
+		given:
+		config.getImageProbeBytes() >> 1024
+		config.getImageResizeMinWidth() >> 10
+		config.getImageResizeMinHeight() >> 10
+		config.getImageResizeMaxPixels() >> 1000000
+		config.getImageResizeMaxFileSize() >> 100000
+		byte[] png = encode(200, 100, "png")
+		
+		CloseableHttpResponse probeResponse =  Mock(CloseableHttpResponse)
+		probeResponse.getStatusLine() >> new BasicStatusLine(HttpVersion.HTTP_1_1, 206, "Partial Content")
+		HttpEntity probeEntity = Mock(HttpEntity)
+		probeEntity.getContent() >> new ByteArrayInputStream(png, 0, 100)
+		probeResponse.getEntity() >> probeEntity
+		
+		CloseableHttpResponse getResponse =  Mock(CloseableHttpResponse)
+		getResponse.getStatusLine() >> new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK")
+		HttpEntity entity = Mock(HttpEntity)
+		entity.getContentLength() >> png.length
+		entity.getContent() >> new ByteArrayInputStream(png)
+		getResponse.getEntity() >> entity
+		
+		request = new URLRequest("http://probeSrcImg.com/index.html", URLType.HOSTED_FILE, "build/test")
+		
+		when:
+		ImgRequest chain = downloader.process("http://probeSrcImg.com/images/ok.png", request)
+		
+		then:
+		1 * httpClient.execute({ HttpGet get -> get.getFirstHeader("Range") != null }) >> probeResponse
+		1 * httpClient.execute({ HttpGet get -> get.getFirstHeader("Range") == null }) >> getResponse
+		chain.getStatus().equals(ImgRequest.Status.OK)
+		Files.readAllBytes(chain.getProcessedImg().get().getImgFile().get()) == png
+	}
+	
+	def "DefaultDownloader - probe range covers the whole image, saved without downloading again"(){
+		given:
+		config.getImageProbeBytes() >> 1024
+		config.getImageResizeMinWidth() >> 10
+		config.getImageResizeMinHeight() >> 10
+		config.getImageResizeMaxPixels() >> 1000000
+		config.getImageResizeMaxFileSize() >> 100000
+		byte[] png = encode(20, 20, "png")
+		
+		CloseableHttpResponse probeResponse =  Mock(CloseableHttpResponse)
+		probeResponse.getStatusLine() >> new BasicStatusLine(HttpVersion.HTTP_1_1, 206, "Partial Content")
+		probeResponse.getFirstHeader("Content-Range") >> new BasicHeader("Content-Range", "bytes 0-" + (png.length - 1) + "/" + png.length)
+		HttpEntity probeEntity = Mock(HttpEntity)
+		probeEntity.getContentLength() >> png.length
+		probeEntity.getContent() >> new ByteArrayInputStream(png)
+		probeResponse.getEntity() >> probeEntity
+		
+		request = new URLRequest("http://probeSrcImg.com/index.html", URLType.HOSTED_FILE, "build/test")
+		
+		when:
+		ImgRequest chain = downloader.process("http://probeSrcImg.com/images/icon.png", request)
+		
+		then:
+		1 * httpClient.execute({ HttpGet get -> get.getFirstHeader("Range") != null }) >> probeResponse
+		0 * httpClient.execute(_)
+		chain.getStatus().equals(ImgRequest.Status.OK)
+		Files.readAllBytes(chain.getProcessedImg().get().getImgFile().get()) == png
+	}
+	
+	def "DefaultDownloader - whole image in a probe response, from its Content-Range"(){
+		given:
+		BasicHttpResponse response = new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, 206, "Partial Content"))
+		if(contentRange != null){
+			response.setHeader("Content-Range", contentRange)
+		}
+		
+		expect:
+		DefaultDownloader.isWholeImage(response, 1024) == whole
+		
+		where:
+		contentRange			| whole
+		"bytes 0-499/500"		| true
+		"BYTES 0-1023/1024"		| true
+		"bytes 0-1023/5000"		| false
+		"bytes 0-499/*"			| false
+		"bytes 10-499/500"		| false
+		"bytes 0-2047/2048"		| false
+		null					| false
+	}
+	
+	def "DefaultDownloader - probe finds image with too many pixels, not downloaded"(){
+		given:
+		config.getImageProbeBytes() >> 1024
+		config.getImageResizeMaxPixels() >> 10000
+		
+		CloseableHttpResponse probeResponse =  Mock(CloseableHttpResponse)
+		probeResponse.getStatusLine() >> new BasicStatusLine(HttpVersion.HTTP_1_1, 206, "Partial Content")
+		HttpEntity entity = Mock(HttpEntity)
+		entity.getContent() >> new ByteArrayInputStream(encode(200, 100, "png"))
+		probeResponse.getEntity() >> entity
+		
+		request = new URLRequest("http://probeSrcImg.com/index.html", URLType.HOSTED_FILE, "build/test")
+		
+		when:
+		ImgRequest chain = downloader.process("http://probeSrcImg.com/images/bomb.png", request)
+		
+		then:
+		1 * httpClient.execute(_ as HttpGet) >> probeResponse
+		chain.getStatus().equals(ImgRequest.Status.SKIPPED)
+	}
+	
+	def "DefaultDownloader - server ignores the probe range, full response is the download"(){
+		given:
+		config.getImageProbeBytes() >> 1024
+		config.getImageResizeMaxFileSize() >> 20
+		
+		CloseableHttpResponse getResponse =  Mock(CloseableHttpResponse)
+		getResponse.getStatusLine() >> new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK")
+		HttpEntity entity = Mock(HttpEntity)
+		entity.getContentLength() >> 10
+		entity.getContent() >> new ByteArrayInputStream(new byte[10])
+		getResponse.getEntity() >> entity
+		
+		request = new URLRequest("http://probeSrcImg.com/index.html", URLType.HOSTED_FILE, "build/test")
+		
+		when:
+		ImgRequest chain = downloader.process("http://probeSrcImg.com/images/noRanges.jpg", request)
+		
+		then:
+		1 * httpClient.execute({ HttpGet get -> get.getFirstHeader("Range") != null }) >> getResponse
+		0 * httpClient.execute(_)
+		chain.getStatus().equals(ImgRequest.Status.OK)
+	}
+	
+	private static byte[] encode(int width, int height, String format){
+		ByteArrayOutputStream out = new ByteArrayOutputStream()
+		ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), format, out)
+		return out.toByteArray()
+	}
 }
@@ -0,0 +1,131 @@
+package org.ab.imagedownloader.urlprocessor.process
+
+import java.awt.Color
+import java.awt.image.BufferedImage
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.CompletionException
+
+import javax.imageio.ImageIO
+
+import org.ab.imagedownloader.IDConfiguration
+
+import spock.lang.Specification
+
+class DefaultImageEncoderSpec extends Specification {
+
+	Path directory
+	List<DefaultImageEncoder> encoders = []
+	
+	def setup(){
+		directory = Files.createTempDirectory("encoder")
+	}
+	def cleanup(){
+		encoders.each { it.shutdown() }
+		directory.toFile().deleteDir()
+	}
+	
+	def "DefaultImageEncoder - JPEG quality from config"(){
+		given:
+		BufferedImage image = noise(200, 150, BufferedImage.TYPE_INT_RGB)
+		
+		when:
+		Path low = encoder(0.3f, false).encode(image, "jpg", directory.resolve("low.jpg")).join()
+		Path high = encoder(0.95f, false).encode(image, "jpg", directory.resolve("high.jpg")).join()
+		
+		then:
+		Files.size(low) < Files.size(high)
+		ImageIO.read(low.toFile()).getWidth() == 200
+		ImageIO.read(high.toFile()).getWidth() == 200
+	}
+	
+	def "DefaultImageEncoder - progressive JPEG"(){
+		given:
+		BufferedImage image = noise(200, 150, BufferedImage.TYPE_INT_RGB)
+		
+		when:
+		Path baseline = encoder(0.85f, false).encode(image, "jpg", directory.resolve("baseline.jpg")).join()
+		Path progressive = encoder(0.85f, true).encode(image, "jpg", directory.resolve("progressive.jpg")).join()
+		
+		then:
+		//SOF0 is a baseline frame, SOF2 progressive
+		hasMarker(Files.readAllBytes(baseline), 0xC0)
+		!hasMarker(Files.readAllBytes(baseline), 0xC2)
+		hasMarker(Files.readAllBytes(progressive), 0xC2)
+		ImageIO.read(progressive.toFile()).getHeight() == 150
+	}
+	
+	def "DefaultImageEncoder - writer reused for every image, existing file replaced"(){
+		given:
+		DefaultImageEncoder encoder = encoder(0.85f, false)
+		Path destination = directory.resolve("image.png")
+		
+		when:
+		(1..5).each { width -> encoder.encode(noise(width * 10, 20, BufferedImage.TYPE_INT_ARGB), "png", destination).join() }
+		
+		then:
+		ImageIO.read(destination.toFile()).getWidth() == 50
+	}
+	
+	def "DefaultImageEncoder - alpha flattened onto white for JPEG"(){
+		given:
+		BufferedImage image = new BufferedImage(20, 20, BufferedImage.TYPE_INT_ARGB)
+		image.setRGB(0, 0, 0xFF000000)
+		
+		when:
+		Path written = encoder(0.95f, false).encode(image, "jpg", directory.resolve("alpha.jpg")).join()
+		BufferedImage read = ImageIO.read(written.toFile())
+		
+		then:
+		read != null
+		new Color(read.getRGB(15, 15)).getRed() > 240
+		new Color(read.getRGB(15, 15)).getBlue() > 240
+	}
+	
+	def "DefaultImageEncoder - unknown format fails the encode"(){
+		given:
+		DefaultImageEncoder encoder = encoder(0.85f, false)
+		
+		when:
+		encoder.encode(noise(10, 10, BufferedImage.TYPE_INT_RGB), "nosuchformat", directory.resolve("image.nosuchformat")).join()
+		
+		then:
+		CompletionException e = thrown()
+		e.getCause() instanceof IOException
+		encoder.encode(noise(10, 10, BufferedImage.TYPE_INT_RGB), "png", directory.resolve("image.png")).join() != null
+	}
+	
+	private DefaultImageEncoder encoder(float quality, boolean progressive){
+		IDConfiguration config = Stub(IDConfiguration)
+		config.getImageEncodePool() >> 1
+		config.getImageEncodeJpegQuality() >> quality
+		config.isImageEncodeJpegProgressive() >> progressive
+		config.getImageEncodePngCompressionLevel() >> -1
+		DefaultImageEncoder encoder = new DefaultImageEncoder()
+		encoder.setiDConfiguration(config)
+		encoder.setStageMetrics(new StageMetrics())
+		encoder.init()
+		encoders << encoder
+		return encoder
+	}
+	
+	private static BufferedImage noise(int width, int height, int type){
+		BufferedImage image = new BufferedImage(width, height, type)
+		Random random = new Random(42)
+		for(int y = 0; y < height; y++){
+			for(int x = 0; x < width; x++){
+				image.setRGB(x, y, random.nextInt() | 0xFF000000)
+			}
+		}
+		return image
+	}
+	
+	private static boolean hasMarker(byte[] jpeg, int marker){
+		for(int i = 0; i < jpeg.length - 1; i++){
+			if((jpeg[i] & 0xFF) == 0xFF && (jpeg[i + 1] & 0xFF) == marker){
+				return true
+			}
+		}
+		return false
+	}
+}
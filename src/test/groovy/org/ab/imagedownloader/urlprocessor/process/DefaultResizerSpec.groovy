@@ -3,19 +3,28 @@ package org.ab.imagedownloader.urlprocessor.process
 import java.awt.Image
 import java.awt.image.BufferedImage
 import java.io.FileOutputStream;
+import java.nio.ByteBuffer
 import java.nio.file.Path
 import java.nio.file.Paths
 import java.nio.file.Files
 import java.util.Optional
+import java.util.concurrent.CompletableFuture
+import java.util.function.BiConsumer
 
 import javax.imageio.ImageIO;
 
 import org.ab.imagedownloader.IDConfiguration
 import org.ab.imagedownloader.obj.ImgRequest
+import org.ab.imagedownloader.obj.InMemoryImage
 import org.ab.imagedownloader.obj.ProcessedImg
 import org.ab.imagedownloader.obj.URLRequest
 import org.ab.imagedownloader.obj.ImgRequest.Status
+import org.ab.imagedownloader.urlprocessor.store.DefaultImageStore
+import org.ab.imagedownloader.urlprocessor.store.ImageMetadata
+import org.ab.imagedownloader.utils.DefaultImageDecoder
+import org.ab.imagedownloader.utils.DefaultImageHeaderParser
 import org.ab.imagedownloader.utils.ImageResizer
+import org.ab.imagedownloader.utils.ResizeStrategy
 
 import spock.lang.Specification;
 
@@ -25,6 +34,8 @@ class DefaultResizerSpec extends Specification {
 	
 	IDConfiguration config = Mock(IDConfiguration)
 	ImageResizer library = Mock(ImageResizer)
+	IDConfiguration encoderConfig = Stub(IDConfiguration)
+	DefaultImageEncoder encoder = new DefaultImageEncoder()
 	
 	//Path imgFile 
 	//ProcessedImg processing = new ProcessedImg("http://example.com/images/1.jpg")
@@ -34,19 +45,50 @@ class DefaultResizerSpec extends Specification {
 		
 		System.properties['java.io.tmpdir'] = "build/test"
 				
+		//files are created directly on disk below - rebuild the store index from them
+		new File("build/test/.index").delete()
 		resizer = new DefaultResizer()
 		resizer.setiDConfiguration(config)
 		resizer.setImageResizer(library)
+		//as the ImageResizer default - each width resized from the one before it
+		library.resizeAll(_, _, _, _) >> { BufferedImage source, List<Integer> widths, ResizeStrategy strategy, BiConsumer<Integer, BufferedImage> ready -> 
+			cascade(source, widths).each{ width, resized -> ready.accept(width, resized) } 
+		}
+		resizer.setImageStore(new DefaultImageStore())
+		resizer.setImageDecoder(new DefaultImageDecoder())
+		encoderConfig.getImageEncodePool() >> 2
+		encoder.setiDConfiguration(encoderConfig)
+		encoder.setStageMetrics(new StageMetrics())
+		encoder.init()
+		resizer.setImageEncoder(encoder)
+		//note: not started - no native workers, resizing in Java
+		resizer.setNativeResizeWorkers(new NativeResizeWorkers())
 		/*		
 		imgFile = Paths.get("build/test/example.com/image.jpg/image.jpg_1234567890")
 		processing.setImgFile(Optional.of(imgFile))
 		request = new ImgRequest(processing.getUrl(), "build/test", Optional.of(processing), ImgRequest.Status.OK)
 		*/
 	}
+	def cleanup() {
+		encoder.shutdown()
+	}
 	def cleanupSpec() {
 		new File("build/test").deleteDir()
 	}
 	
+	private Map<Integer, BufferedImage> cascade(BufferedImage source, List<Integer> widths){
+		Map<Integer, BufferedImage> resized = [:]
+		BufferedImage previous = source
+		widths.each { width ->
+			Optional<BufferedImage> next = previous.getWidth() == width ? Optional.of(previous) : library.resize(previous, width)
+			if(next.isPresent()){
+				resized[width] = next.get()
+				previous = next.get()
+			}
+		}
+		return resized
+	}
+	
 	def "DefaultResizer - new version of image, remove old resized, create new ones"(){
 		given:
 		new File("build/test/example.com/imageChangedSmall.jpg/resized/").mkdirs()
@@ -86,6 +128,68 @@ class DefaultResizerSpec extends Specification {
 		new File("build/test/example.com/imageChangedSmall.jpg/resized/200.png").exists()
 	}
 	
+	def "DefaultResizer - native workers write every version, nothing resized in Java"(){
+		given:
+		NativeResizeWorkers workers = Mock(NativeResizeWorkers)
+		resizer.setNativeResizeWorkers(workers)
+		resizer.setImageHeaderParser(new DefaultImageHeaderParser())
+		new File("build/test/example.com/imageNative.jpg/resized/").mkdirs()
+		ImageIO.write(new BufferedImage ( 500, 400, BufferedImage.TYPE_INT_RGB ), "jpg", new FileOutputStream("build/test/example.com/imageNative.jpg/imageNative.jpg_1234567890"));
+		
+		Path imgFile = Paths.get("build/test/example.com/imageNative.jpg/imageNative.jpg_1234567890")
+		ProcessedImg processing = new ProcessedImg("http://example.com/imageNative.jpg")
+		processing.setImgFile(Optional.of(imgFile))
+		
+		when:
+		ImgRequest result = resizer.process(new ImgRequest("http://example.com/imageNative.jpg", "build/test", Optional.of(processing), ImgRequest.Status.OK))
+		
+		then:
+		1 * config.getImageResizeWidths() >> [100, 200]
+		2 * config.getImageResizeFormats() >> ['jpg', 'png']
+		1 * config.getImageResizeMaxPixels() >> 0
+		1 * config.getImageResizeMinHeight() >> 10
+		1 * config.getImageResizeMinWidth() >> 10
+		_ * workers.isAvailable() >> true
+		1 * workers.resize(imgFile, { it*.destination*.fileName*.toString() as Set == ['100.jpg', '100.png', '200.jpg', '200.png'] as Set }) >> { 
+			Path source, List<NativeResizeWorkers.Version> versions -> versions.each { Files.write(it.destination, [1] as byte[]) } 
+		}
+		0 * _
+		
+		result.getStatus() == Status.OK
+		new File("build/test/example.com/imageNative.jpg/resized/100.jpg").exists()
+		new File("build/test/example.com/imageNative.jpg/resized/200.png").exists()
+	}
+	
+	def "DefaultResizer - native worker failure, image in error"(){
+		given:
+		NativeResizeWorkers workers = Mock(NativeResizeWorkers)
+		resizer.setNativeResizeWorkers(workers)
+		resizer.setImageHeaderParser(new DefaultImageHeaderParser())
+		new File("build/test/example.com/imageNativeCrash.jpg/resized/").mkdirs()
+		Files.write(Paths.get("build/test/example.com/imageNativeCrash.jpg/imageNativeCrash.jpg_1234567890"), "not an image".getBytes())
+		
+		Path imgFile = Paths.get("build/test/example.com/imageNativeCrash.jpg/imageNativeCrash.jpg_1234567890")
+		ProcessedImg processing = new ProcessedImg("http://example.com/imageNativeCrash.jpg")
+		processing.setImgFile(Optional.of(imgFile))
+		
+		when:
+		ImgRequest result = resizer.process(new ImgRequest("http://example.com/imageNativeCrash.jpg", "build/test", Optional.of(processing), ImgRequest.Status.OK))
+		
+		then:
+		1 * config.getImageResizeWidths() >> [100, 200]
+		2 * config.getImageResizeFormats() >> ['jpg']
+		_ * workers.isAvailable() >> true
+		1 * workers.resize(imgFile, _) >> { Path source, List<NativeResizeWorkers.Version> versions ->
+			//one version written before the worker died
+			Files.write(versions[0].getDestination(), "partial".getBytes())
+			throw new IOException("the native resize worker exited") 
+		}
+		0 * _
+		
+		result.getStatus() == Status.ERROR
+		new File("build/test/example.com/imageNativeCrash.jpg/resized/").list().length == 0
+	}
+	
 	def "DefaultResizer - new version of image, too small to resize"(){
 		given:			
 		new File("build/test/example.com/imageChangedSmall.jpg/resized/").mkdirs()
@@ -146,6 +250,213 @@ class DefaultResizerSpec extends Specification {
 		new File("build/test/example.com/imageNotChanged.jpg/resized/200.png").exists()
 	}
 	
+	def "DefaultResizer - identical content at another URL, resized versions are shared"(){
+		given:
+		DefaultImageStore store = new DefaultImageStore()
+		Image img = new BufferedImage ( 500, 500, BufferedImage.TYPE_INT_ARGB )
+		
+		new File("build/test/example.com/first.jpg").mkdirs()
+		Path firstFile = Paths.get("build/test/example.com/first.jpg/first.jpg_1234567890")
+		ImageIO.write(img, "jpg", new FileOutputStream(firstFile.toFile()));
+		store.saveMetadata(firstFile, new ImageMetadata(null, null, "abc123"))
+		ProcessedImg first = new ProcessedImg("http://example.com/first.jpg")
+		first.setImgFile(Optional.of(firstFile))
+		
+		new File("build/test/mirror.example.com/second.jpg").mkdirs()
+		Path secondFile = Paths.get("build/test/mirror.example.com/second.jpg/second.jpg_1234567890")
+		Files.copy(firstFile, secondFile)
+		store.saveMetadata(secondFile, new ImageMetadata(null, null, "abc123"))
+		ProcessedImg second = new ProcessedImg("http://mirror.example.com/second.jpg")
+		second.setImgFile(Optional.of(secondFile))
+		
+		config.getImageResizeWidths() >> [100, 200]
+		config.getImageResizeFormats() >> ['jpg', 'png']
+		config.getImageResizeMinHeight() >> 10
+		config.getImageResizeMinWidth() >> 10
+		
+		when:
+		resizer.process(new ImgRequest("http://example.com/first.jpg", "build/test", Optional.of(first), ImgRequest.Status.OK))
+		
+		then:
+		1 * library.resize(_ as BufferedImage, 200)  >> Optional.of(new BufferedImage ( 200, 200, BufferedImage.TYPE_INT_ARGB ))
+		1 * library.resize(_ as BufferedImage, 100)  >> Optional.of(new BufferedImage ( 100, 100, BufferedImage.TYPE_INT_ARGB ))
+		new File("build/test/.shared/abc123/default/100.jpg").exists()
+		new File("build/test/.shared/abc123/default/200.png").exists()
+		
+		when:
+		resizer.process(new ImgRequest("http://mirror.example.com/second.jpg", "build/test", Optional.of(second), ImgRequest.Status.OK))
+		
+		then:
+		0 * library._
+		new File("build/test/mirror.example.com/second.jpg/resized/100.jpg").exists()
+		new File("build/test/mirror.example.com/second.jpg/resized/200.jpg").exists()
+		new File("build/test/mirror.example.com/second.jpg/resized/100.png").exists()
+		new File("build/test/mirror.example.com/second.jpg/resized/200.png").exists()
+		Files.readAllBytes(Paths.get("build/test/mirror.example.com/second.jpg/resized/100.jpg")) == 
+			Files.readAllBytes(Paths.get("build/test/example.com/first.jpg/resized/100.jpg"))
+	}
+	
+	def "DefaultResizer - identical content resized under other settings, not shared"(){
+		given:
+		Image img = new BufferedImage ( 500, 500, BufferedImage.TYPE_INT_ARGB )
+		DefaultImageStore store = new DefaultImageStore()
+		
+		new File("build/test/example.com/before.jpg").mkdirs()
+		Path beforeFile = Paths.get("build/test/example.com/before.jpg/before.jpg_1234567890")
+		ImageIO.write(img, "jpg", new FileOutputStream(beforeFile.toFile()));
+		store.saveMetadata(beforeFile, new ImageMetadata(null, null, "def456"))
+		ProcessedImg before = new ProcessedImg("http://example.com/before.jpg")
+		before.setImgFile(Optional.of(beforeFile))
+		
+		new File("build/test/example.com/after.jpg").mkdirs()
+		Path afterFile = Paths.get("build/test/example.com/after.jpg/after.jpg_1234567890")
+		Files.copy(beforeFile, afterFile)
+		store.saveMetadata(afterFile, new ImageMetadata(null, null, "def456"))
+		ProcessedImg after = new ProcessedImg("http://example.com/after.jpg")
+		after.setImgFile(Optional.of(afterFile))
+		
+		config.getImageResizeWidths() >> [100]
+		config.getImageResizeFormats() >> ['jpg']
+		config.getImageResizeMinHeight() >> 10
+		config.getImageResizeMinWidth() >> 10
+		config.getImageResizeQuality() >> "AUTOMATIC"
+		config.getImageResizeQualityWidths() >> [""]
+		config.isImageResizeCascade() >> true
+		config.getImageEncodeJpegQuality() >>> [0.85f, 0.5f]
+		
+		when:
+		resizer.init()
+		String beforeDigest = resizer.getSettingsDigest()
+		resizer.process(new ImgRequest("http://example.com/before.jpg", "build/test", Optional.of(before), ImgRequest.Status.OK))
+		resizer.init()
+		resizer.process(new ImgRequest("http://example.com/after.jpg", "build/test", Optional.of(after), ImgRequest.Status.OK))
+		
+		then:
+		2 * library.resize(_ as BufferedImage, 100)  >> Optional.of(new BufferedImage ( 100, 100, BufferedImage.TYPE_INT_ARGB ))
+		beforeDigest != resizer.getSettingsDigest()
+		new File("build/test/.shared/def456/" + beforeDigest + "/100.jpg").exists()
+		new File("build/test/.shared/def456/" + resizer.getSettingsDigest() + "/100.jpg").exists()
+	}
+	
+	def "DefaultResizer - image handed over in memory, not yet on disk"(){
+		given:
+		new File("build/test/example.com/inMemory.jpg").mkdirs()
+		ByteArrayOutputStream jpg = new ByteArrayOutputStream()
+		ImageIO.write(new BufferedImage ( 500, 500, BufferedImage.TYPE_INT_RGB ), "jpg", jpg)
+		
+		boolean released = false
+		InMemoryImage inMemory = new InMemoryImage(ByteBuffer.wrap(jpg.toByteArray()), "inMemoryHash", { released = true })
+		//already written to disk
+		inMemory.releaseWrite()
+		
+		Path imgFile = Paths.get("build/test/example.com/inMemory.jpg/inMemory.jpg_1234567890")
+		ProcessedImg processing = new ProcessedImg("http://example.com/inMemory.jpg")
+		processing.setImgFile(Optional.of(imgFile))
+		ImgRequest request = new ImgRequest("http://example.com/inMemory.jpg", "build/test", Optional.of(processing), ImgRequest.Status.OK)
+		request.setInMemoryImage(Optional.of(inMemory))
+		
+		config.getImageResizeWidths() >> [100]
+		config.getImageResizeFormats() >> ['png']
+		config.getImageResizeMinHeight() >> 10
+		config.getImageResizeMinWidth() >> 10
+		
+		when:
+		ImgRequest result = resizer.process(request)
+		
+		then:
+		1 * library.resize(_ as BufferedImage, 100)  >> Optional.of(new BufferedImage ( 100, 100, BufferedImage.TYPE_INT_ARGB ))
+		result.getStatus() == ImgRequest.Status.OK
+		!Files.exists(imgFile)
+		new File("build/test/example.com/inMemory.jpg/resized/100.png").exists()
+		new File("build/test/.shared/inMemoryHash/default/100.png").exists()
+		released
+	}
+	
+	def "DefaultResizer - large original is subsampled while decoding"(){
+		given:
+		new File("build/test/example.com/large.png").mkdirs()
+		Path imgFile = Paths.get("build/test/example.com/large.png/large.png_1234567890")
+		ImageIO.write(new BufferedImage ( 2000, 1000, BufferedImage.TYPE_INT_RGB ), "png", imgFile.toFile())
+		
+		ProcessedImg processing = new ProcessedImg("http://example.com/large.png")
+		processing.setImgFile(Optional.of(imgFile))
+		
+		config.getImageResizeWidths() >> [100]
+		config.getImageResizeFormats() >> ['png']
+		config.getImageResizeMinHeight() >> 10
+		config.getImageResizeMinWidth() >> 10
+		
+		when:
+		resizer.process(new ImgRequest("http://example.com/large.png", "build/test", Optional.of(processing), ImgRequest.Status.OK))
+		
+		then:
+		//only every 10th pixel decoded - twice the resize width
+		1 * library.resize({ it.getWidth() == 200 && it.getHeight() == 100 }, 100)  >> Optional.of(new BufferedImage ( 100, 50, BufferedImage.TYPE_INT_RGB ))
+		new File("build/test/example.com/large.png/resized/100.png").exists()
+	}
+	
+	def "DefaultResizer - resize returns before encoding, versions stored once encoded"(){
+		given:
+		new File("build/test/example.com/encodeStage.jpg").mkdirs()
+		ImageIO.write(new BufferedImage ( 500, 500, BufferedImage.TYPE_INT_RGB ), "jpg", new FileOutputStream("build/test/example.com/encodeStage.jpg/encodeStage.jpg_1234567890"))
+		Path imgFile = Paths.get("build/test/example.com/encodeStage.jpg/encodeStage.jpg_1234567890")
+		ProcessedImg processing = new ProcessedImg("http://example.com/encodeStage.jpg")
+		processing.setImgFile(Optional.of(imgFile))
+		
+		config.getImageResizeWidths() >> [100]
+		config.getImageResizeFormats() >> ['jpg', 'png']
+		config.getImageResizeMinHeight() >> 10
+		config.getImageResizeMinWidth() >> 10
+		library.resize(_ as BufferedImage, 100) >> Optional.of(new BufferedImage ( 100, 100, BufferedImage.TYPE_INT_RGB ))
+		
+		ImageEncoder slowEncoder = Mock(ImageEncoder)
+		CompletableFuture<Path> jpgEncoded = new CompletableFuture<>()
+		CompletableFuture<Path> pngEncoded = new CompletableFuture<>()
+		slowEncoder.encode(_ as BufferedImage, 'jpg', _ as Path) >> { BufferedImage image, String format, Path destination -> jpgEncoded.thenApply { destination } }
+		slowEncoder.encode(_ as BufferedImage, 'png', _ as Path) >> { BufferedImage image, String format, Path destination -> pngEncoded.thenApply { destination } }
+		resizer.setImageEncoder(slowEncoder)
+		
+		when:
+		CompletableFuture<ImgRequest> result = resizer.processAsync(new ImgRequest(processing.getUrl(), "build/test", Optional.of(processing), ImgRequest.Status.OK))
+		
+		then:
+		!result.isDone()
+		
+		when:
+		jpgEncoded.complete(null)
+		pngEncoded.complete(null)
+		
+		then:
+		result.join().getStatus() == ImgRequest.Status.OK
+		new File("build/test/example.com/encodeStage.jpg/resized/").list() as Set == ["100.jpg", "100.png"] as Set
+	}
+	
+	def "DefaultResizer - failed encode fails the image"(){
+		given:
+		new File("build/test/example.com/encodeFails.jpg").mkdirs()
+		ImageIO.write(new BufferedImage ( 500, 500, BufferedImage.TYPE_INT_RGB ), "jpg", new FileOutputStream("build/test/example.com/encodeFails.jpg/encodeFails.jpg_1234567890"))
+		ProcessedImg processing = new ProcessedImg("http://example.com/encodeFails.jpg")
+		processing.setImgFile(Optional.of(Paths.get("build/test/example.com/encodeFails.jpg/encodeFails.jpg_1234567890")))
+		
+		config.getImageResizeWidths() >> [100]
+		config.getImageResizeFormats() >> ['png']
+		config.getImageResizeMinHeight() >> 10
+		config.getImageResizeMinWidth() >> 10
+		library.resize(_ as BufferedImage, 100) >> Optional.of(new BufferedImage ( 100, 100, BufferedImage.TYPE_INT_RGB ))
+		
+		ImageEncoder failingEncoder = Mock(ImageEncoder)
+		CompletableFuture<Path> failed = new CompletableFuture<>()
+		failed.completeExceptionally(new IOException("disk full"))
+		failingEncoder.encode(_, _, _) >> failed
+		resizer.setImageEncoder(failingEncoder)
+		
+		when:
+		ImgRequest result = resizer.process(new ImgRequest(processing.getUrl(), "build/test", Optional.of(processing), ImgRequest.Status.OK))
+		
+		then:
+		result.getStatus() == ImgRequest.Status.ERROR
+	}
+	
 	def "DefaultResizer - bad inputs (image state object)"(){
 			
 		given:
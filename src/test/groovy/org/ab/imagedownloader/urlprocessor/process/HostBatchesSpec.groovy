@@ -0,0 +1,66 @@
+package org.ab.imagedownloader.urlprocessor.process
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+
+import spock.lang.Specification
+
+class HostBatchesSpec extends Specification {
+
+	ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor()
+	
+	List<String> sent = new CopyOnWriteArrayList<>()
+	
+	def cleanup(){
+		timer.shutdownNow()
+	}
+	
+	def "HostBatches - a full batch is sent at once, by host"(){
+		given:
+		HostBatches<Integer> batches = new HostBatches<>(3, 60000, timer, { host, batch -> sent.add(host + batch) })
+		
+		when:
+		batches.add("a", 1)
+		batches.add("b", 2)
+		batches.add("a", 3)
+		batches.add("a", 4)
+		
+		then:
+		sent == ["a[1, 3, 4]"]
+		batches.getOpen() == 1
+	}
+	
+	def "HostBatches - a batch that is not full is sent after the linger time"(){
+		given:
+		HostBatches<Integer> batches = new HostBatches<>(3, 100, timer, { host, batch -> sent.add(host + batch) })
+		
+		when:
+		batches.add("a", 1)
+		batches.add("a", 2)
+		
+		then:
+		sent.isEmpty()
+		
+		when:
+		Thread.sleep(500)
+		
+		then:
+		sent == ["a[1, 2]"]
+		batches.getOpen() == 0
+	}
+	
+	def "HostBatches - a batch sent full is not sent again when its linger time passes"(){
+		given:
+		HostBatches<Integer> batches = new HostBatches<>(2, 100, timer, { host, batch -> sent.add(host + batch) })
+		
+		when:
+		batches.add("a", 1)
+		batches.add("a", 2)
+		batches.add("a", 3)
+		Thread.sleep(500)
+		
+		then:
+		sent == ["a[1, 2]", "a[3]"]
+	}
+}
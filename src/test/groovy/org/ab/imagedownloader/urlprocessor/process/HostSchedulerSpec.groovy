@@ -0,0 +1,93 @@
+package org.ab.imagedownloader.urlprocessor.process
+
+import java.util.concurrent.CompletableFuture
+
+import spock.lang.Specification
+
+class HostSchedulerSpec extends Specification {
+
+	HostScheduler scheduler = new HostScheduler(3, new HostScheduler.Limits(2, 0), 
+		HostScheduler.parseLimits(["Polite.example.com:1:200", " "]))
+	
+	def cleanup(){
+		scheduler.shutdown()
+	}
+	
+	def "HostScheduler - a host is limited to its own share of the capacity"(){
+		when:
+		List<CompletableFuture<Void>> slow = (1..4).collect { scheduler.acquire("slow.example.com") }
+		CompletableFuture<Void> fast = scheduler.acquire("fast.example.com")
+		
+		then:
+		slow*.isDone() == [true, true, false, false]
+		fast.isDone()
+		scheduler.getWaiting() == 2
+		
+		when:
+		scheduler.release("slow.example.com")
+		
+		then:
+		slow*.isDone() == [true, true, true, false]
+	}
+	
+	def "HostScheduler - free capacity goes to each waiting host in turn"(){
+		given:
+		HostScheduler single = new HostScheduler(1, new HostScheduler.Limits(0, 0), [:])
+		List<String> started = []
+		
+		when:
+		["a", "a", "a", "b", "c"].each { host -> single.acquire(host).thenRun { started << host } }
+		4.times { single.release(started.last()) }
+		
+		then:
+		started == ["a", "a", "b", "c", "a"]
+		
+		cleanup:
+		single.shutdown()
+	}
+	
+	def "HostScheduler - downloads from a host start at least its delay apart"(){
+		when:
+		long start = System.nanoTime()
+		CompletableFuture<Void> first = scheduler.acquire("polite.example.com")
+		scheduler.release("polite.example.com")
+		CompletableFuture<Void> second = scheduler.acquire("polite.example.com")
+		
+		then:
+		first.isDone()
+		!second.isDone()
+		
+		when:
+		second.join()
+		
+		then:
+		(System.nanoTime() - start) / 1000000 >= 200
+	}
+	
+	def "HostScheduler - a host kept for its delay is dropped once the delay has passed"(){
+		when:
+		scheduler.acquire("polite.example.com")
+		scheduler.release("polite.example.com")
+		
+		then:
+		scheduler.getHosts() == 1
+		
+		when:
+		Thread.sleep(500)
+		
+		then:
+		scheduler.getHosts() == 0
+		scheduler.getWaiting() == 0
+	}
+	
+	def "HostScheduler - bad host limits"(){
+		when:
+		HostScheduler.parseLimits([entry])
+		
+		then:
+		thrown(IllegalArgumentException)
+		
+		where:
+		entry << ["example.com", "example.com:1", "example.com:one:0", "example.com:1:0:2"]
+	}
+}
@@ -0,0 +1,70 @@
+package org.ab.imagedownloader.urlprocessor.process
+
+import java.nio.ByteBuffer
+
+import org.ab.imagedownloader.IDConfiguration
+
+import spock.lang.Specification
+
+class ImageBufferPoolSpec extends Specification {
+
+	IDConfiguration config = Mock(IDConfiguration)
+	
+	ImageBufferPool pool
+	
+	def setup(){
+		config.getImageMemoryBudget() >> 256 * 1024
+		pool = new ImageBufferPool()
+		pool.setiDConfiguration(config)
+		pool.init()
+	}
+	
+	def "ImageBufferPool - buffers are sized in powers of two, and reused"(){
+		when:
+		ByteBuffer first = pool.tryAcquire(100 * 1024).get()
+		pool.release(first)
+		ByteBuffer second = pool.tryAcquire(120 * 1024).get()
+		
+		then:
+		first.capacity() == 128 * 1024
+		second.is(first)
+		pool.getAllocatedBytes() == 128 * 1024
+	}
+	
+	def "ImageBufferPool - no buffer once the budget is used"(){
+		when:
+		Optional<ByteBuffer> first = pool.tryAcquire(200 * 1024)
+		Optional<ByteBuffer> second = pool.tryAcquire(10)
+		
+		then:
+		first.isPresent()
+		!second.isPresent()
+		pool.getFallbacks() == 1
+	}
+	
+	def "ImageBufferPool - idle buffers are dropped to make room"(){
+		given:
+		pool.release(pool.tryAcquire(200 * 1024).get())
+		
+		when:
+		Optional<ByteBuffer> small = pool.tryAcquire(10)
+		
+		then:
+		small.isPresent()
+		small.get().capacity() == 64 * 1024
+		pool.getAllocatedBytes() == 64 * 1024
+	}
+	
+	def "ImageBufferPool - disabled, or unknown length"(){
+		given:
+		IDConfiguration disabledConfig = Mock(IDConfiguration)
+		ImageBufferPool disabled = new ImageBufferPool()
+		disabled.setiDConfiguration(disabledConfig)
+		disabled.init()
+		
+		expect:
+		!disabled.isEnabled()
+		!disabled.tryAcquire(10).isPresent()
+		!pool.tryAcquire(-1).isPresent()
+	}
+}
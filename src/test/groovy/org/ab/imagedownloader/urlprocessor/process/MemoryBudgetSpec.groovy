@@ -0,0 +1,63 @@
+package org.ab.imagedownloader.urlprocessor.process
+
+import java.util.concurrent.CompletableFuture
+
+import spock.lang.Specification
+
+class MemoryBudgetSpec extends Specification {
+
+	MemoryBudget budget = new MemoryBudget(100)
+	
+	def "MemoryBudget - reservations that fit are admitted at once"(){
+		when:
+		CompletableFuture<Long> first = budget.reserve(40)
+		CompletableFuture<Long> second = budget.reserve(60)
+		
+		then:
+		first.isDone()
+		second.isDone()
+		budget.getReservedBytes() == 100
+	}
+	
+	def "MemoryBudget - waiting reservations are admitted in order as memory is released"(){
+		given:
+		CompletableFuture<Long> running = budget.reserve(90)
+		
+		when:
+		CompletableFuture<Long> large = budget.reserve(80)
+		//would fit, but waits behind the large reservation
+		CompletableFuture<Long> small = budget.reserve(10)
+		
+		then:
+		!large.isDone()
+		!small.isDone()
+		budget.getWaiting() == 2
+		
+		when:
+		budget.release(running.join())
+		
+		then:
+		large.join() == 80
+		small.join() == 10
+		budget.getReservedBytes() == 90
+		budget.getWaiting() == 0
+	}
+	
+	def "MemoryBudget - a reservation larger than the budget runs alone"(){
+		given:
+		CompletableFuture<Long> running = budget.reserve(10)
+		
+		when:
+		CompletableFuture<Long> huge = budget.reserve(1000)
+		
+		then:
+		!huge.isDone()
+		
+		when:
+		budget.release(running.join())
+		
+		then:
+		huge.join() == 100
+		budget.getReservedBytes() == 100
+	}
+}
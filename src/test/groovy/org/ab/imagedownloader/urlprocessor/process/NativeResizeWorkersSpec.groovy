@@ -0,0 +1,136 @@
+package org.ab.imagedownloader.urlprocessor.process
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+import org.ab.imagedownloader.IDConfiguration
+import org.ab.imagedownloader.urlprocessor.process.NativeResizeWorkers.Version
+
+import spock.lang.Specification
+
+class NativeResizeWorkersSpec extends Specification {
+
+	/*stands in for a native tool - writes its pid, width and format to each destination*/
+	static final String STUB_WORKER = '''#!/bin/sh
+echo "READY stub"
+TAB=$(printf '\\t')
+while IFS= read -r line; do
+	set -f; IFS=$TAB; set -- $line; unset IFS; set +f
+	case "$1" in
+		*crash*) exit 1 ;;
+		*slow*) sleep 5 ;;
+		*bad*) echo "ERROR not an image"; continue ;;
+	esac
+	shift
+	while [ $# -ge 3 ]; do echo "$$ $1 $2" > "$3"; shift 3; done
+	echo "OK"
+done
+'''
+
+	Path directory
+	List<NativeResizeWorkers> pools = []
+
+	def setup(){
+		directory = Files.createTempDirectory("native-resize")
+		Files.write(directory.resolve("worker.sh"), STUB_WORKER.getBytes("UTF-8"))
+		Files.write(directory.resolve("unavailable.sh"), 'echo "UNAVAILABLE no tool"'.getBytes("UTF-8"))
+	}
+	def cleanup(){
+		pools.each { it.shutdown() }
+		directory.toFile().deleteDir()
+	}
+
+	def "NativeResizeWorkers - every version written by a long lived worker"(){
+		given:
+		NativeResizeWorkers workers = workers("sh " + directory.resolve("worker.sh"), 1)
+
+		when:
+		workers.resize(directory.resolve("first.jpg"), [version(200, "png"), version(100, "jpg")])
+		workers.resize(directory.resolve("second.jpg"), [version(50, "png")])
+
+		then:
+		workers.isAvailable()
+		written(200, "png").endsWith(" 200 png")
+		written(100, "jpg").endsWith(" 100 jpg")
+		pid(200, "png") == pid(50, "png")
+	}
+
+	def "NativeResizeWorkers - an ERROR reply fails the image, the worker is kept"(){
+		given:
+		NativeResizeWorkers workers = workers("sh " + directory.resolve("worker.sh"), 1)
+		workers.resize(directory.resolve("first.jpg"), [version(200, "png")])
+
+		when:
+		workers.resize(directory.resolve("bad.jpg"), [version(100, "png")])
+
+		then:
+		IOException e = thrown()
+		e.getMessage().contains("not an image")
+
+		when:
+		workers.resize(directory.resolve("second.jpg"), [version(100, "png")])
+
+		then:
+		pid(200, "png") == pid(100, "png")
+	}
+
+	def "NativeResizeWorkers - a worker that exits or does not reply in time is replaced"(){
+		given:
+		NativeResizeWorkers workers = workers("sh " + directory.resolve("worker.sh"), 1)
+		workers.resize(directory.resolve("first.jpg"), [version(200, "png")])
+
+		when:
+		long started = System.currentTimeMillis()
+		workers.resize(directory.resolve(image), [version(100, "png")])
+
+		then:
+		thrown(IOException)
+		System.currentTimeMillis() - started < 4000
+
+		when:
+		workers.resize(directory.resolve("second.jpg"), [version(100, "png")])
+
+		then:
+		pid(200, "png") != pid(100, "png")
+
+		where:
+		image << ["crash.jpg", "slow.jpg"]
+	}
+
+	def "NativeResizeWorkers - not available without a command, or a worker that does not start"(){
+		expect:
+		!workers(command, 1).isAvailable()
+
+		where:
+		command << ["", "no-such-native-resize-tool", "sh " + Files.createTempDirectory("native-resize").resolve("missing.sh")]
+	}
+
+	def "NativeResizeWorkers - not available when the tool is not installed"(){
+		expect:
+		!workers("sh " + directory.resolve("unavailable.sh"), 1).isAvailable()
+	}
+
+	private NativeResizeWorkers workers(String command, int count){
+		IDConfiguration config = Stub(IDConfiguration)
+		config.getImageResizeNativeCommand() >> command
+		config.getImageResizeNativeWorkers() >> count
+		config.getImageResizeNativeTimeout() >> 1000
+		NativeResizeWorkers workers = new NativeResizeWorkers()
+		workers.setiDConfiguration(config)
+		workers.init()
+		pools << workers
+		return workers
+	}
+
+	private Version version(int width, String format){
+		return new Version(width, format, directory.resolve(width + "." + format))
+	}
+
+	private String written(int width, String format){
+		return new String(Files.readAllBytes(directory.resolve(width + "." + format)), "UTF-8").trim()
+	}
+
+	private String pid(int width, String format){
+		return written(width, format).split(" ")[0]
+	}
+}
@@ -0,0 +1,74 @@
+package org.ab.imagedownloader.urlprocessor.process
+
+import java.awt.image.BufferedImage
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+
+import javax.imageio.ImageIO
+
+import org.ab.imagedownloader.IDConfiguration
+import org.ab.imagedownloader.obj.ImgRequest
+import org.ab.imagedownloader.obj.ProcessedImg
+import org.ab.imagedownloader.utils.DefaultImageHeaderParser
+import org.ab.imagedownloader.utils.ImageDecoder
+
+import spock.lang.Specification
+
+class ResizeCostEstimatorSpec extends Specification {
+
+	IDConfiguration config = Mock(IDConfiguration)
+	ImageDecoder decoder = Mock(ImageDecoder)
+	
+	ResizeCostEstimator estimator
+	
+	def setup(){
+		new File("build/test-estimate").mkdirs()
+		estimator = new ResizeCostEstimator()
+		estimator.setiDConfiguration(config)
+		estimator.setImageHeaderParser(new DefaultImageHeaderParser())
+		estimator.setImageDecoder(decoder)
+	}
+	def cleanupSpec() {
+		new File("build/test-estimate").deleteDir()
+	}
+	
+	def "ResizeCostEstimator - decoded image plus largest resize, from the image header"(){
+		given:
+		Path file = Paths.get("build/test-estimate/large.png")
+		ImageIO.write(new BufferedImage(4000, 2000, BufferedImage.TYPE_BYTE_BINARY), "png", file.toFile())
+		config.getImageResizeWidths() >> [100, 200]
+		
+		when:
+		long estimate = estimator.estimate(request(file, ImgRequest.Status.OK))
+		
+		then:
+		1 * decoder.estimateBytes(4000, 2000, 200) >> 1000
+		estimate == 1000 + 200 * 100 * 4
+	}
+	
+	def "ResizeCostEstimator - unreadable header gets a share of the budget"(){
+		given:
+		Path file = Paths.get("build/test-estimate/notAnImage.png")
+		Files.write(file, "not an image".getBytes())
+		config.getImageResizeMemoryBudget() >> 1000
+		config.getImageResizePool() >> 4
+		
+		expect:
+		estimator.estimate(request(file, ImgRequest.Status.OK)) == 250
+	}
+	
+	def "ResizeCostEstimator - nothing to decode"(){
+		expect:
+		estimator.estimate(new ImgRequest("http://example.com/1.png", "build/test-estimate", status)) == 0
+		
+		where:
+		status << [ImgRequest.Status.ERROR, ImgRequest.Status.SKIPPED]
+	}
+	
+	private static ImgRequest request(Path file, ImgRequest.Status status){
+		ProcessedImg processed = new ProcessedImg("http://example.com/" + file.getFileName())
+		processed.setImgFile(Optional.of(file))
+		return new ImgRequest(processed.getUrl(), "build/test-estimate", Optional.of(processed), status)
+	}
+}
@@ -0,0 +1,39 @@
+package org.ab.imagedownloader.urlprocessor.process
+
+import java.util.concurrent.TimeUnit
+
+import spock.lang.Specification
+
+class StageMetricsSpec extends Specification {
+
+	StageMetrics metrics = new StageMetrics()
+	
+	def "StageMetrics - wait and run time recorded per stage"(){
+		given:
+		def task = metrics.timed(StageMetrics.ENCODE, { Thread.sleep(20); "done" })
+		Thread.sleep(20)
+		
+		when:
+		String result = task.get()
+		metrics.record(StageMetrics.DOWNLOAD, 0, TimeUnit.MILLISECONDS.toNanos(5))
+		
+		then:
+		result == "done"
+		metrics.snapshot().keySet() == [StageMetrics.DOWNLOAD, StageMetrics.ENCODE] as Set
+		metrics.snapshot()[StageMetrics.ENCODE].getCount() == 1
+		metrics.snapshot()[StageMetrics.ENCODE].getTotalWaitMillis() >= 20
+		metrics.snapshot()[StageMetrics.ENCODE].getMaxRunMillis() >= 20
+		metrics.snapshot()[StageMetrics.ENCODE].getActive() == 0
+		metrics.snapshot()[StageMetrics.DOWNLOAD].getAverageRunMillis() == 5
+	}
+	
+	def "StageMetrics - failed task still recorded"(){
+		when:
+		metrics.timed(StageMetrics.RESIZE, { throw new IllegalStateException() }).get()
+		
+		then:
+		thrown(IllegalStateException)
+		metrics.snapshot()[StageMetrics.RESIZE].getCount() == 1
+		metrics.snapshot()[StageMetrics.RESIZE].getActive() == 0
+	}
+}
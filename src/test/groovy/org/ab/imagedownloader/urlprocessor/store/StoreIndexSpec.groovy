@@ -0,0 +1,84 @@
+package org.ab.imagedownloader.urlprocessor.store
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardOpenOption
+
+import spock.lang.Specification
+
+class StoreIndexSpec extends Specification {
+
+	Path root = Paths.get("build/test-index")
+
+	def setup(){
+		root.toFile().deleteDir()
+		Files.createDirectories(root)
+	}
+	def cleanupSpec() {
+		new File("build/test-index").deleteDir()
+	}
+
+	def "StoreIndex - added and removed files survive a reopen"(){
+		given:
+		StoreIndex index = StoreIndex.open(root, { true })
+
+		when:
+		index.add(root.resolve("example.com/a.jpg/a.jpg_1"))
+		index.add(root.resolve("example.com/a.jpg/resized/100.png"))
+		index.add(root.resolve("example.com/b.jpg/b.jpg_1"))
+		index.remove(root.resolve("example.com/b.jpg/b.jpg_1"))
+		index.close()
+		StoreIndex reopened = StoreIndex.open(root, { throw new IllegalStateException("should not rebuild") })
+
+		then:
+		reopened.list(root.resolve("example.com/a.jpg")) == ["a.jpg_1"] as Set
+		reopened.list(root.resolve("example.com/a.jpg/resized")) == ["100.png"] as Set
+		reopened.contains(root.resolve("example.com/a.jpg/resized/100.png"))
+		reopened.list(root.resolve("example.com/b.jpg")).isEmpty()
+
+		cleanup:
+		reopened.close()
+	}
+
+	def "StoreIndex - torn record at the end of the log is dropped"(){
+		given:
+		StoreIndex index = StoreIndex.open(root, { true })
+		index.add(root.resolve("example.com/a.jpg/a.jpg_1"))
+		index.close()
+		//a crash part way through appending a record
+		Files.write(root.resolve(StoreIndex.INDEX_FILE), [0, 0, 0, 20, 65, 0] as byte[], StandardOpenOption.APPEND)
+
+		when:
+		StoreIndex reopened = StoreIndex.open(root, { true })
+		reopened.add(root.resolve("example.com/c.jpg/c.jpg_1"))
+		reopened.close()
+		reopened = StoreIndex.open(root, { true })
+
+		then:
+		reopened.list(root.resolve("example.com/a.jpg")) == ["a.jpg_1"] as Set
+		reopened.list(root.resolve("example.com/c.jpg")) == ["c.jpg_1"] as Set
+
+		cleanup:
+		reopened.close()
+	}
+
+	def "StoreIndex - rebuilt from the directory tree when missing"(){
+		given:
+		Files.createDirectories(root.resolve("example.com/a.jpg/resized"))
+		Files.createFile(root.resolve("example.com/a.jpg/a.jpg_1"))
+		Files.createFile(root.resolve("example.com/a.jpg/a.jpg_1.meta"))
+		Files.createFile(root.resolve("example.com/a.jpg/resized/100.png"))
+
+		when:
+		StoreIndex index = StoreIndex.open(root, { Path path -> !path.getFileName().toString().endsWith(".meta") })
+
+		then:
+		index.list(root.resolve("example.com/a.jpg")) == ["a.jpg_1"] as Set
+		index.list(root.resolve("example.com/a.jpg/resized")) == ["100.png"] as Set
+		Files.isRegularFile(root.resolve(StoreIndex.INDEX_FILE))
+
+		cleanup:
+		index.close()
+	}
+}
@@ -0,0 +1,111 @@
+package org.ab.imagedownloader.utils
+
+import java.awt.image.BufferedImage
+
+import javax.imageio.ImageIO
+import javax.imageio.stream.MemoryCacheImageInputStream
+
+import org.ab.imagedownloader.IDConfiguration
+import org.ab.imagedownloader.utils.ImageDecoder.DecodedImage
+
+import spock.lang.Specification
+
+class DefaultImageDecoderSpec extends Specification {
+
+	DefaultImageDecoder decoder = new DefaultImageDecoder()
+	
+	def "DefaultImageDecoder - subsampling factor keeps at least twice the largest width"(){
+		expect:
+		DefaultImageDecoder.subsampling(sourceWidth, largestWidth) == factor
+		
+		where:
+		sourceWidth | largestWidth | factor
+		6000        | 320          | 9
+		640         | 320          | 1
+		1000        | 320          | 1
+		100         | 320          | 1
+		6000        | 0            | 1
+	}
+	
+	def "DefaultImageDecoder - decodes reduced raster, reports original size"(){
+		given:
+		ByteArrayOutputStream jpg = new ByteArrayOutputStream()
+		ImageIO.write(new BufferedImage ( 3000, 1500, BufferedImage.TYPE_INT_RGB ), "jpg", jpg)
+		
+		when:
+		DecodedImage decoded = decoder.decode(new MemoryCacheImageInputStream(new ByteArrayInputStream(jpg.toByteArray())), 300).get()
+		
+		then:
+		decoded.getSubsampling() == 5
+		decoded.getImage().getWidth() == 600
+		decoded.getImage().getHeight() == 300
+		decoded.getSourceWidth() == 3000
+		decoded.getSourceHeight() == 1500
+	}
+	
+	def "DefaultImageDecoder - decoded image normalised to an int raster"(){
+		given:
+		ByteArrayOutputStream gif = new ByteArrayOutputStream()
+		BufferedImage paletted = new BufferedImage ( 200, 100, BufferedImage.TYPE_BYTE_INDEXED )
+		paletted.setRGB(10, 10, 0xFFFFFFFF)
+		ImageIO.write(paletted, "gif", gif)
+		
+		when:
+		DecodedImage decoded = decoder.decode(new MemoryCacheImageInputStream(new ByteArrayInputStream(gif.toByteArray())), 300).get()
+		
+		then:
+		decoded.getImage().getType() == BufferedImage.TYPE_INT_RGB
+		decoded.getImage().getRGB(10, 10) == 0xFFFFFFFF
+		decoded.getImage().getRGB(0, 0) == 0xFF000000
+	}
+	
+	def "DefaultImageDecoder - more pixels than the budget, not decoded"(){
+		given:
+		IDConfiguration config = Mock(IDConfiguration)
+		config.getImageResizeMaxPixels() >> 1000 * 1000
+		decoder.setiDConfiguration(config)
+		decoder.init()
+		ByteArrayOutputStream png = new ByteArrayOutputStream()
+		ImageIO.write(new BufferedImage ( 2000, 1000, BufferedImage.TYPE_BYTE_BINARY ), "png", png)
+		
+		when:
+		decoder.decode(new MemoryCacheImageInputStream(new ByteArrayInputStream(png.toByteArray())), 300)
+		
+		then:
+		thrown(ImageTooLargeException)
+	}
+	
+	def "DefaultImageDecoder - tall image above the strip threshold, decoded in strips"(){
+		given:
+		IDConfiguration config = Mock(IDConfiguration)
+		config.getImageResizeStripThreshold() >> 100000
+		config.getImageResizeStripPixels() >> 200000
+		decoder.setiDConfiguration(config)
+		decoder.init()
+		//top half black, bottom half white
+		BufferedImage tall = new BufferedImage ( 1000, 6000, BufferedImage.TYPE_INT_RGB )
+		tall.createGraphics().with {
+			setColor(java.awt.Color.WHITE)
+			fillRect(0, 3000, 1000, 3000)
+			dispose()
+		}
+		ByteArrayOutputStream png = new ByteArrayOutputStream()
+		ImageIO.write(tall, "png", png)
+		
+		when:
+		DecodedImage decoded = decoder.decode(new MemoryCacheImageInputStream(new ByteArrayInputStream(png.toByteArray())), 100).get()
+		
+		then:
+		decoded.getImage().getWidth() == 200
+		decoded.getImage().getHeight() == 1200
+		decoded.getSourceWidth() == 1000
+		decoded.getSourceHeight() == 6000
+		(decoded.getImage().getRGB(100, 300) & 0xffffff) == 0x000000
+		(decoded.getImage().getRGB(100, 900) & 0xffffff) == 0xffffff
+	}
+	
+	def "DefaultImageDecoder - unsupported format"(){
+		expect:
+		!decoder.decode(new MemoryCacheImageInputStream(new ByteArrayInputStream("not an image".getBytes())), 300).isPresent()
+	}
+}
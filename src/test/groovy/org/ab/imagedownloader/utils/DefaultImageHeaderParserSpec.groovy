@@ -0,0 +1,80 @@
+package org.ab.imagedownloader.utils
+
+import java.awt.image.BufferedImage
+import java.nio.ByteBuffer
+
+import javax.imageio.ImageIO
+
+import org.ab.imagedownloader.utils.ImageHeaderParser.ImageHeader
+
+import spock.lang.Specification
+
+class DefaultImageHeaderParserSpec extends Specification {
+
+	DefaultImageHeaderParser parser = new DefaultImageHeaderParser()
+	
+	def "DefaultImageHeaderParser - dimensions from the first bytes"(){
+		given:
+		byte[] image = encode(321, 123, format)
+		
+		when:
+		ImageHeader header = parser.parse(ByteBuffer.wrap(image, 0, Math.min(image.length, 1024))).get()
+		
+		then:
+		header.getFormat() == format
+		header.getWidth() == 321
+		header.getHeight() == 123
+		header.getPixels() == 321 * 123
+		
+		where:
+		format << ["png", "gif", "jpg", "bmp"]
+	}
+	
+	def "DefaultImageHeaderParser - extended webp header"(){
+		given:
+		byte[] webp = new byte[30]
+		System.arraycopy("RIFF".getBytes(), 0, webp, 0, 4)
+		System.arraycopy("WEBPVP8X".getBytes(), 0, webp, 8, 8)
+		//(width - 1), (height - 1) - 24 bit little endian
+		webp[24] = 0x3f
+		webp[25] = 0x01
+		webp[27] = (byte)0xc7
+		
+		when:
+		ImageHeader header = parser.parse(ByteBuffer.wrap(webp)).get()
+		
+		then:
+		header.getWidth() == 320
+		header.getHeight() == 200
+	}
+	
+	def "DefaultImageHeaderParser - jpeg header after a large metadata segment is not in the prefix"(){
+		given:
+		byte[] jpg = encode(321, 123, "jpg")
+		//SOI, then a 2000 byte APP1 segment, then the rest of the image
+		ByteArrayOutputStream withMetadata = new ByteArrayOutputStream()
+		withMetadata.write(jpg, 0, 2)
+		withMetadata.write([(byte)0xff, (byte)0xe1, (byte)0x07, (byte)0xd0] as byte[])
+		withMetadata.write(new byte[1998])
+		withMetadata.write(jpg, 2, jpg.length - 2)
+		byte[] bytes = withMetadata.toByteArray()
+		
+		expect:
+		!parser.parse(ByteBuffer.wrap(bytes, 0, 1024)).isPresent()
+		parser.parse(ByteBuffer.wrap(bytes, 0, 4096)).get().getWidth() == 321
+	}
+	
+	def "DefaultImageHeaderParser - unknown or truncated"(){
+		expect:
+		!parser.parse(ByteBuffer.wrap(bytes)).isPresent()
+		
+		where:
+		bytes << ["not an image".getBytes(), Arrays.copyOf(encode(321, 123, "png"), 20), new byte[0]]
+	}
+	
+	private static byte[] encode(int width, int height, String format){
+		ByteArrayOutputStream out = new ByteArrayOutputStream()
+		ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), format, out)
+		return out.toByteArray()
+	}
+}
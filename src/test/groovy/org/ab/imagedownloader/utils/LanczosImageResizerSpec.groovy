@@ -0,0 +1,148 @@
+package org.ab.imagedownloader.utils
+
+import java.awt.Color
+import java.awt.Graphics2D
+import java.awt.image.BufferedImage
+import java.util.function.BiConsumer
+
+import spock.lang.Specification
+
+class LanczosImageResizerSpec extends Specification {
+
+	LanczosImageResizer resizer = new LanczosImageResizer()
+	
+	def "LanczosImageResizer - every width in one call, fit to width, flat colour kept"(){
+		given:
+		BufferedImage source = filled(640, 427, new Color(10, 200, 90), BufferedImage.TYPE_INT_RGB)
+		
+		when:
+		Map<Integer, BufferedImage> resized = resizer.resizeAll(source, [320, 220, 100], ResizeStrategy.DEFAULT)
+		
+		then:
+		resized.keySet() == [320, 220, 100] as Set
+		resized[320].getHeight() == 214
+		resized[220].getHeight() == 147
+		resized[100].getHeight() == 67
+		resized.values().every { image -> 
+			[[0, 0], [image.getWidth() - 1, image.getHeight() - 1], [image.getWidth() / 2 as int, image.getHeight() / 2 as int]].every { 
+				image.getRGB(it[0], it[1]) == new Color(10, 200, 90).getRGB() 
+			}
+		}
+	}
+	
+	def "LanczosImageResizer - each width handed over once all its rows are written"(){
+		given:
+		BufferedImage source = filled(640, 427, Color.RED, BufferedImage.TYPE_INT_RGB)
+		Map<Integer, Integer> lastPixel = [:]
+		
+		when:
+		resizer.resizeAll(source, [640, 320, 100], ResizeStrategy.DEFAULT, { width, image -> 
+			lastPixel[width] = image.getRGB(image.getWidth() - 1, image.getHeight() - 1) 
+		} as BiConsumer)
+		
+		then:
+		lastPixel.keySet() == [640, 320, 100] as Set
+		lastPixel.values().every { it == Color.RED.getRGB() }
+	}
+	
+	def "LanczosImageResizer - width of the source is the source itself"(){
+		given:
+		BufferedImage source = filled(320, 200, Color.BLUE, BufferedImage.TYPE_INT_RGB)
+		
+		when:
+		Map<Integer, BufferedImage> resized = resizer.resizeAll(source, [320, 100], ResizeStrategy.DEFAULT)
+		
+		then:
+		resized[320].is(source)
+		resized[100].getWidth() == 100
+		resized[100].getRGB(50, 30) == Color.BLUE.getRGB()
+	}
+	
+	def "LanczosImageResizer - single resize same as resizeAll, any source type, enlarging"(){
+		given:
+		BufferedImage source = gradient(400, 300, BufferedImage.TYPE_3BYTE_BGR)
+		
+		when:
+		BufferedImage single = resizer.resize(source, 100).get()
+		BufferedImage all = resizer.resizeAll(source, [200, 100], ResizeStrategy.DEFAULT)[100]
+		BufferedImage larger = resizer.resize(source, 800).get()
+		
+		then:
+		single.getWidth() == 100
+		//note: 100 is filtered from the 200 wide version in resizeAll - close to, not the same as, from the source
+		(0..<100).every { x -> Math.abs(red(single.getRGB(x, 40)) - red(all.getRGB(x, 40))) <= 3 }
+		larger.getWidth() == 800
+		larger.getHeight() == 600
+	}
+	
+	def "LanczosImageResizer - every width from the source when not cascading, any quality"(){
+		given:
+		BufferedImage source = gradient(400, 300, BufferedImage.TYPE_INT_RGB)
+		
+		when:
+		BufferedImage single = resizer.resize(source, 100, quality).get()
+		BufferedImage all = resizer.resizeAll(source, [200, 100], new ResizeStrategy(quality, [:], false))[100]
+		
+		then:
+		(0..<100).every { x -> single.getRGB(x, 40) == all.getRGB(x, 40) }
+		
+		where:
+		quality << ResizeStrategy.Quality.values()
+	}
+	
+	def "LanczosImageResizer - gradient kept, no ringing on a smooth image"(){
+		given:
+		BufferedImage source = gradient(1000, 100, BufferedImage.TYPE_INT_RGB)
+		
+		when:
+		BufferedImage resized = resizer.resize(source, 100).get()
+		
+		then:
+		(1..<100).every { x -> red(resized.getRGB(x, 5)) >= red(resized.getRGB(x - 1, 5)) }
+		Math.abs(red(resized.getRGB(50, 5)) - 128) <= 2
+	}
+	
+	def "LanczosImageResizer - transparent pixels do not bleed colour"(){
+		given:
+		BufferedImage source = new BufferedImage(200, 200, BufferedImage.TYPE_INT_ARGB)
+		for(int y = 0; y < 200; y++){
+			for(int x = 0; x < 200; x++){
+				//opaque red left, fully transparent (green) right
+				source.setRGB(x, y, x < 100 ? 0xFFFF0000 : 0x0000FF00)
+			}
+		}
+		
+		when:
+		BufferedImage resized = resizer.resize(source, 50).get()
+		
+		then:
+		resized.getColorModel().hasAlpha()
+		resized.getRGB(10, 25) == 0xFFFF0000
+		resized.getRGB(45, 25) >>> 24 == 0
+		(0..<50).every { x -> (resized.getRGB(x, 25) >>> 24) == 0 || (resized.getRGB(x, 25) & 0x00FFFFFF) == 0xFF0000 }
+	}
+	
+	private static BufferedImage filled(int width, int height, Color colour, int type){
+		BufferedImage image = new BufferedImage(width, height, type)
+		Graphics2D graphics = image.createGraphics()
+		graphics.setColor(colour)
+		graphics.fillRect(0, 0, width, height)
+		graphics.dispose()
+		return image
+	}
+	
+	/*red from 0 (left) to 255 (right)*/
+	private static BufferedImage gradient(int width, int height, int type){
+		BufferedImage image = new BufferedImage(width, height, type)
+		for(int y = 0; y < height; y++){
+			for(int x = 0; x < width; x++){
+				image.setRGB(x, y, ((x * 256 / width) as int) << 16)
+			}
+		}
+		return image
+	}
+	
+	private static int red(int pixel){
+		return (pixel >> 16) & 0xFF
+	}
+}
@@ -0,0 +1,90 @@
+package org.ab.imagedownloader.utils
+
+import java.awt.Transparency
+import java.awt.color.ColorSpace
+import java.awt.image.BufferedImage
+import java.awt.image.ComponentColorModel
+import java.awt.image.DataBuffer
+import java.awt.image.IndexColorModel
+import java.awt.image.WritableRaster
+
+import spock.lang.Specification
+
+class PixelFormatsSpec extends Specification {
+
+	def "PixelFormats - int images returned as they are"(){
+		given:
+		BufferedImage image = new BufferedImage(10, 10, type)
+		
+		expect:
+		PixelFormats.normalise(image).is(image)
+		
+		where:
+		type << [BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB]
+	}
+	
+	def "PixelFormats - standard types converted, pixels kept"(){
+		given:
+		BufferedImage image = new BufferedImage(10, 10, type)
+		image.setRGB(3, 4, 0xFF336699)
+		
+		when:
+		BufferedImage normalised = PixelFormats.normalise(image)
+		
+		then:
+		normalised.getType() == expectedType
+		normalised.getRGB(3, 4) == image.getRGB(3, 4)
+		normalised.getRGB(0, 0) == image.getRGB(0, 0)
+		
+		where:
+		type                             | expectedType
+		BufferedImage.TYPE_3BYTE_BGR     | BufferedImage.TYPE_INT_RGB
+		BufferedImage.TYPE_4BYTE_ABGR    | BufferedImage.TYPE_INT_ARGB
+		BufferedImage.TYPE_INT_ARGB_PRE  | BufferedImage.TYPE_INT_ARGB
+		BufferedImage.TYPE_BYTE_INDEXED  | BufferedImage.TYPE_INT_RGB
+	}
+	
+	def "PixelFormats - paletted image with a transparent entry keeps alpha"(){
+		given:
+		IndexColorModel palette = new IndexColorModel(8, 2, [0xFF, 0x00] as byte[], [0x00, 0x00] as byte[], [0x00, 0xFF] as byte[], 1)
+		BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_BYTE_INDEXED, palette)
+		image.getRaster().setSample(1, 1, 0, 1)
+		
+		when:
+		BufferedImage normalised = PixelFormats.normalise(image)
+		
+		then:
+		normalised.getType() == BufferedImage.TYPE_INT_ARGB
+		normalised.getRGB(0, 0) == 0xFFFF0000
+		normalised.getRGB(1, 1) >>> 24 == 0
+	}
+	
+	def "PixelFormats - grey copied straight, not gamma converted"(){
+		given:
+		BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_BYTE_GRAY)
+		image.getRaster().setSample(2, 2, 0, 100)
+		
+		when:
+		BufferedImage normalised = PixelFormats.normalise(image)
+		
+		then:
+		normalised.getType() == BufferedImage.TYPE_INT_RGB
+		normalised.getRGB(2, 2) == 0xFF646464
+	}
+	
+	def "PixelFormats - 16 bit (TYPE_CUSTOM) converted"(){
+		given:
+		ComponentColorModel model = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false, Transparency.OPAQUE, DataBuffer.TYPE_USHORT)
+		WritableRaster raster = model.createCompatibleWritableRaster(4, 4)
+		raster.setPixel(1, 2, [0xFFFF, 0x8080, 0] as int[])
+		BufferedImage image = new BufferedImage(model, raster, false, null)
+		
+		when:
+		BufferedImage normalised = PixelFormats.normalise(image)
+		
+		then:
+		image.getType() == BufferedImage.TYPE_CUSTOM
+		normalised.getType() == BufferedImage.TYPE_INT_RGB
+		normalised.getRGB(1, 2) == 0xFFFF8000
+	}
+}
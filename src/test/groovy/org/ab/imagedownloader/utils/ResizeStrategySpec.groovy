@@ -0,0 +1,85 @@
+package org.ab.imagedownloader.utils
+
+import java.awt.image.BufferedImage
+import java.util.function.BiConsumer
+
+import org.ab.imagedownloader.utils.ResizeStrategy.Quality
+
+import spock.lang.Specification
+
+class ResizeStrategySpec extends Specification {
+
+	def "ResizeStrategy - quality by width, default for widths not listed"(){
+		when:
+		ResizeStrategy strategy = new ResizeStrategy(Quality.BALANCED, ResizeStrategy.parseWidths([" 100:speed", "", "320 : ULTRA_QUALITY"]), true)
+
+		then:
+		strategy.getQuality(100) == Quality.SPEED
+		strategy.getQuality(320) == Quality.ULTRA_QUALITY
+		strategy.getQuality(220) == Quality.BALANCED
+		strategy.isCascade()
+	}
+
+	def "ResizeStrategy - bad width entries"(){
+		when:
+		ResizeStrategy.parseWidths([entry])
+
+		then:
+		thrown(IllegalArgumentException)
+
+		where:
+		entry << ["100", "100:FAST", "wide:SPEED", "100:SPEED:QUALITY"]
+	}
+
+	def "ImageResizer - resizeAll cascades from the previous width, or resizes each from the source"(){
+		given:
+		ImageResizer resizer = Mock()
+		BufferedImage source = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB)
+		BufferedImage resized200 = new BufferedImage(200, 150, BufferedImage.TYPE_INT_RGB)
+		BufferedImage resized100 = new BufferedImage(100, 75, BufferedImage.TYPE_INT_RGB)
+		ImageResizer recording = new ImageResizer(){
+			Optional<BufferedImage> resize(BufferedImage bimg, int destinationWidth){
+				return resizer.resize(bimg, destinationWidth)
+			}
+			Optional<BufferedImage> resize(BufferedImage bimg, int destinationWidth, Quality quality){
+				return resizer.resize(bimg, destinationWidth, quality)
+			}
+		}
+
+		when:
+		Map<Integer, BufferedImage> cascaded = recording.resizeAll(source, [400, 200, 100], new ResizeStrategy(Quality.QUALITY, [100:Quality.SPEED], true))
+
+		then:
+		1 * resizer.resize(source, 200, Quality.QUALITY) >> Optional.of(resized200)
+		1 * resizer.resize(resized200, 100, Quality.SPEED) >> Optional.of(resized100)
+		0 * _
+		cascaded == [400:source, 200:resized200, 100:resized100]
+
+		when:
+		Map<Integer, BufferedImage> fromSource = recording.resizeAll(source, [200, 100], new ResizeStrategy(Quality.QUALITY, [:], false))
+
+		then:
+		1 * resizer.resize(source, 200, Quality.QUALITY) >> Optional.empty()
+		1 * resizer.resize(source, 100, Quality.QUALITY) >> Optional.of(resized100)
+		0 * _
+		fromSource == [100:resized100]
+	}
+
+	def "ImageResizer - resizeAll hands over each width before resizing the next"(){
+		given:
+		BufferedImage source = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB)
+		List<String> events = []
+		ImageResizer recording = new ImageResizer(){
+			Optional<BufferedImage> resize(BufferedImage bimg, int destinationWidth){
+				events << "resize " + destinationWidth
+				return Optional.of(new BufferedImage(destinationWidth, 10, BufferedImage.TYPE_INT_RGB))
+			}
+		}
+
+		when:
+		recording.resizeAll(source, [320, 220, 100], ResizeStrategy.DEFAULT, { width, resized -> events << "ready " + width } as BiConsumer)
+
+		then:
+		events == ["resize 320", "ready 320", "resize 220", "ready 220", "resize 100", "ready 100"]
+	}
+}